@@ -0,0 +1,132 @@
+package awesome.lang.benchmarks;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import org.antlr.v4.runtime.ANTLRInputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import awesome.lang.Generator;
+import awesome.lang.GrammarParser.ProgramContext;
+import awesome.lang.ImportResolver;
+import awesome.lang.Util;
+import awesome.lang.checking.CompilationUnit;
+import awesome.lang.checking.TypeChecker;
+import awesome.lang.model.Program;
+import awesome.lang.optimizer.RegisterAllocator;
+
+/**
+ * Measures every phase of the compiler on its own, each phase gets the output
+ * of the earlier phases as input. Programs are either one of the examples or
+ * "synthetic-n", a program of n functions made by ProgramGenerator, spread
+ * over a main program and IMPORTS imported files. A generated function is
+ * about 22 lines, so the synthetic programs range from 1k to 1M lines.
+ *
+ * Run from the project root, see README.txt.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class CompilerPhaseBenchmark {
+	private static final String SYNTHETIC = "synthetic-";
+	private static final int IMPORTS = 4;
+
+	@Param({"helloworld.awl", "petersons.awl", "banksystem.awl", "gameoflife.awl", "synthetic-50", "synthetic-500", "synthetic-5000", "synthetic-50000"})
+	public String program;
+
+	private Path path;
+	private Path generated;
+	private String source;
+	private CompilationUnit unit, checkedUnit;
+	private TypeChecker checker;
+	private Program generatedProgram;
+	private Program allocatedProgram;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		if (program.startsWith(SYNTHETIC)) {
+			int functions = Integer.parseInt(program.substring(SYNTHETIC.length()));
+			generated = Files.createTempDirectory("awl-bench");
+			path = new ProgramGenerator(1).setFunctions(functions).setImports(IMPORTS).write(generated);
+		} else {
+			path = Paths.get("src/awesome/lang/examples", program);
+		}
+
+		source = new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+		unit = new ImportResolver(path).getContextDataSet();
+		checkedUnit = new CompilationUnit(unit);
+		checker = new TypeChecker();
+		checker.checkProgram(checkedUnit);
+
+		if (checker.getErrors().size() > 0) {
+			throw new IllegalStateException("Benchmark program does not compile: " + checker.getErrors());
+		}
+
+		generatedProgram = genProgram();
+		allocatedProgram = allocateRegisters();
+	}
+
+	@TearDown(Level.Trial)
+	public void teardown() throws IOException {
+		if (generated != null) {
+			for (String name : generated.toFile().list()) {
+				Files.delete(generated.resolve(name));
+			}
+			Files.delete(generated);
+		}
+	}
+
+	@Benchmark
+	public ProgramContext parseProgram() {
+		return Util.parseProgram(new ANTLRInputStream(source));
+	}
+
+	/**
+	 * Reads and parses the program, its imports and the standard library.
+	 */
+	@Benchmark
+	public CompilationUnit resolveImports() {
+		return new ImportResolver(path).getContextDataSet();
+	}
+
+	@Benchmark
+	public TypeChecker checkProgram() {
+		TypeChecker checker = new TypeChecker();
+		checker.checkProgram(new CompilationUnit(unit));
+		return checker;
+	}
+
+	@Benchmark
+	public Program genProgram() {
+		return new Generator(checker.getSymbolTable(), checker.getFunctionTable(), checker.getExpressionTypes()).genProgram(checkedUnit);
+	}
+
+	@Benchmark
+	public Program allocateRegisters() {
+		return new RegisterAllocator().allocate(generatedProgram);
+	}
+
+	@Benchmark
+	public String generateSprockell() {
+		return allocatedProgram.generateSprockell();
+	}
+}
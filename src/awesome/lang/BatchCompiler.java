@@ -0,0 +1,166 @@
+package awesome.lang;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import awesome.lang.CompileStats.Phase;
+import awesome.lang.Compiler.CompilationException;
+import awesome.lang.GrammarParser.ProgramContext;
+import awesome.lang.checking.TypeChecker;
+import awesome.lang.model.PackedProgram;
+
+/**
+ * Compiles many programs at once on a fixed number of threads. The standard
+ * library is parsed once, and only its parse tree is shared by all compiles.
+ * It is checked once up front to report its errors, but every compile checks
+ * it again together with its program.
+ */
+public class BatchCompiler {
+	private final int threads;
+	private final Compiler compiler;
+	//measurements of all compiles together
+	private final CompileStats stats = new CompileStats();
+
+	/**
+	 * Creates a batch compiler using the given number of threads, the cache may be null.
+	 */
+	public BatchCompiler(int threads, CompilationCache cache) throws CompilationException, IOException {
+		this.threads = threads;
+
+		ProgramContext stdlib = ImportResolver.parseDefault();
+		if (stdlib == null) {
+			throw new IOException("Unable to parse the standard library");
+		}
+
+		//errors in the standard library are reported once, instead of for every program
+		TypeChecker checker = new TypeChecker();
+		checker.checkProgram(new ImportResolver(stdlib).getContextDataSet());
+		if (checker.getErrors().size() > 0) {
+			throw new CompilationException("Error(s) in the standard library", checker.getErrors());
+		}
+
+		compiler = new Compiler(cache, stdlib);
+	}
+
+	/**
+	 * Compiles every source file to a file with the same name and extension .hs in
+	 * the output directory. Returns the errors of every file that failed to compile.
+	 */
+	public LinkedHashMap<Path, List<String>> compileAll(List<Path> sources, final Path outputDir)
+			throws IOException, InterruptedException {
+		Files.createDirectories(outputDir);
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<List<String>>> results = new ArrayList<Future<List<String>>>();
+
+		try {
+			for (final Path source : sources) {
+				results.add(executor.submit(new Callable<List<String>>() {
+					@Override
+					public List<String> call() {
+						return compile(source, Compiler.getOutputPath(source, outputDir));
+					}
+				}));
+			}
+
+			LinkedHashMap<Path, List<String>> errors = new LinkedHashMap<Path, List<String>>();
+			Iterator<Path> source = sources.iterator();
+			for (Future<List<String>> result : results) {
+				Path path = source.next();
+				List<String> fileErrors = result.get();
+
+				if (!fileErrors.isEmpty()) {
+					errors.put(path, fileErrors);
+				}
+			}
+
+			return errors;
+		} catch (ExecutionException e) {
+			//compile catches everything a single program can throw
+			throw new IllegalStateException(e.getCause());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private List<String> compile(Path source, Path output) {
+		CompileStats fileStats = new CompileStats();
+		try {
+			PackedProgram program = compiler.compilePacked(source, fileStats);
+
+			CompileStats.Timer timer = fileStats.start(Phase.EMIT);
+			program.writeSprockell(output);
+			timer.stop();
+			return Collections.emptyList();
+		} catch (CompilationException e) {
+			return e.getErrors();
+		} catch (IOException | RuntimeException e) {
+			return Arrays.asList(e.toString());
+		} finally {
+			stats.add(fileStats);
+		}
+	}
+
+	/**
+	 * Returns the measurements of every compile so far, added together.
+	 */
+	public CompileStats getStats() {
+		return stats;
+	}
+
+	/**
+	 * Finds the .awl files in a directory, or the files matching a glob pattern such as "examples/*.awl".
+	 */
+	public static List<Path> findSources(String pattern) throws IOException {
+		List<Path> sources = new ArrayList<Path>();
+		Path dir = Paths.get(pattern);
+
+		if (Files.isDirectory(dir)) {
+			try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*.awl")) {
+				for (Path path : stream) {
+					sources.add(path);
+				}
+			}
+		} else {
+			//walk the directory in front of the first wildcard
+			int wildcard = 0;
+			while (wildcard < pattern.length() && "*?[{".indexOf(pattern.charAt(wildcard)) < 0) {
+				wildcard++;
+			}
+			int separator = pattern.lastIndexOf('/', wildcard);
+			Path root = Paths.get(separator < 0 ? "." : pattern.substring(0, separator + 1));
+			String glob = separator < 0 ? "./" + pattern : pattern;
+			PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+
+			try (Stream<Path> stream = Files.walk(root)) {
+				Iterator<Path> paths = stream.iterator();
+				while (paths.hasNext()) {
+					Path path = paths.next();
+					if (Files.isRegularFile(path) && matcher.matches(path)) {
+						sources.add(path);
+					}
+				}
+			}
+		}
+
+		Collections.sort(sources);
+		return sources;
+	}
+}
@@ -0,0 +1,388 @@
+package awesome.lang;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.antlr.v4.runtime.ANTLRInputStream;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.tree.TerminalNodeImpl;
+
+import awesome.lang.model.PackedProgram;
+
+/**
+ * Persistent cache of compiled programs. Programs are stored under a hash of
+ * the contents of the main file, the standard library and every file they
+ * transitively import, and of whether they are optimized, so a cached program
+ * is only used if none of its sources changed. Keys also include a hash of the
+ * compiler classes, so a changed compiler does not use programs cached by an
+ * older one.
+ *
+ * The imports of every file are cached as well, under the hash of the file's
+ * contents, so unchanged files do not have to be lexed to compute the key.
+ *
+ * The least recently used entries are removed when the cache grows over its
+ * size limit. Entries are written to a temporary file first and then moved, so
+ * the cache can be shared by concurrent compiles.
+ */
+public class CompilationCache {
+	//directory of the compiler classes
+	private static final String PACKAGE = "awesome/lang";
+
+	/**
+	 * Fingerprint of the compiler, so entries written by a compiler that
+	 * generates different code are never used.
+	 */
+	private static final byte[] VERSION = fingerprint();
+
+	private static final String PROGRAM_SUFFIX = ".prog", IMPORTS_SUFFIX = ".imports";
+
+	private final Path directory;
+	private final long maxSize;
+	private final AtomicLong hits = new AtomicLong(), misses = new AtomicLong();
+
+	/**
+	 * Creates a cache in the given directory, which is created if needed. The
+	 * total size of the cached files is kept below maxSize bytes.
+	 */
+	public CompilationCache(Path directory, long maxSize) throws IOException {
+		this.directory = directory;
+		this.maxSize = maxSize;
+
+		Files.createDirectories(directory);
+	}
+
+	/**
+	 * Computes the key of a program file, based on the contents of all its
+	 * sources and whether it is optimized.
+	 */
+	public String key(Path path, boolean optimize) throws IOException {
+		MessageDigest digest = newDigest();
+		digest.update((byte) (optimize ? 1 : 0));
+
+		//sources are hashed in the order the ImportResolver would visit them
+		HashSet<Path> visited = new HashSet<Path>();
+		addSource(digest, path.getParent(), Paths.get("stdlib", "default.awl"), visited);
+		addSource(digest, path.getParent(), path, visited);
+
+		return toHex(digest.digest());
+	}
+
+	/**
+	 * Computes the key of a program given as a string, imports are resolved relative to the root directory.
+	 */
+	public String key(String program, boolean optimize) throws IOException {
+		MessageDigest digest = newDigest();
+		digest.update((byte) (optimize ? 1 : 0));
+		Path mainDir = Paths.get("/");
+
+		HashSet<Path> visited = new HashSet<Path>();
+		addSource(digest, mainDir, Paths.get("stdlib", "default.awl"), visited);
+
+		byte[] content = program.getBytes(StandardCharsets.UTF_8);
+		update(digest, content);
+		for (String imprt : getImports(content)) {
+			addSource(digest, mainDir, mainDir.resolve(imprt), visited);
+		}
+
+		return toHex(digest.digest());
+	}
+
+	private void addSource(MessageDigest digest, Path mainDir, Path path, HashSet<Path> visited) throws IOException {
+		String name = path.toFile().getName();
+		if (!visited.add(Util.canonicalPath(path))) {
+			return;
+		}
+
+		byte[] content;
+		try {
+			content = Files.readAllBytes(path);
+		} catch (NoSuchFileException e) {
+			//missing imports are part of the key too
+			update(digest, ("missing:" + name).getBytes(StandardCharsets.UTF_8));
+			return;
+		}
+
+		update(digest, content);
+
+		for (String imprt : getImports(content)) {
+			addSource(digest, mainDir, mainDir.resolve(imprt), visited);
+		}
+	}
+
+	/**
+	 * Adds the length before the content, so different splits of the same bytes differ.
+	 */
+	private static void update(MessageDigest digest, byte[] content) {
+		int length = content.length;
+		digest.update(new byte[] {(byte) (length >>> 24), (byte) (length >>> 16), (byte) (length >>> 8), (byte) length});
+		digest.update(content);
+	}
+
+	/**
+	 * Returns the imports of a file, from the cache if possible.
+	 */
+	private List<String> getImports(byte[] content) throws IOException {
+		Path entry = directory.resolve(toHex(newDigest().digest(content)) + IMPORTS_SUFFIX);
+
+		try {
+			return Files.readAllLines(entry, StandardCharsets.UTF_8);
+		} catch (NoSuchFileException e) {
+			List<String> imports = scanImports(new String(content, StandardCharsets.UTF_8));
+
+			StringBuilder builder = new StringBuilder();
+			for (String imprt : imports) {
+				builder.append(imprt).append('\n');
+			}
+			store(entry, builder.toString().getBytes(StandardCharsets.UTF_8));
+
+			return imports;
+		}
+	}
+
+	/**
+	 * Finds the imports at the start of a program, using only the lexer.
+	 */
+	private static List<String> scanImports(String program) {
+		GrammarLexer lexer = new GrammarLexer(new ANTLRInputStream(program));
+		lexer.removeErrorListeners();
+		List<String> imports = new ArrayList<String>();
+
+		Token token = lexer.nextToken();
+		while (token.getType() == GrammarLexer.IMPORT) {
+			token = lexer.nextToken();
+			if (token.getType() != GrammarLexer.STRING) {
+				break;
+			}
+
+			imports.add(Util.extractString(new TerminalNodeImpl(token)));
+			token = lexer.nextToken();
+		}
+
+		return imports;
+	}
+
+	/**
+	 * Returns the cached program with the given key, or null.
+	 */
+	public PackedProgram get(String key) throws IOException {
+		Path entry = directory.resolve(key + PROGRAM_SUFFIX);
+
+		try (InputStream in = Files.newInputStream(entry)) {
+			PackedProgram program = PackedProgram.read(new DataInputStream(new BufferedInputStream(in)));
+
+			//the modification time is used as the time of last use
+			Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+			hits.incrementAndGet();
+
+			return program;
+		} catch (NoSuchFileException e) {
+			misses.incrementAndGet();
+			return null;
+		}
+	}
+
+	/**
+	 * Stores a program under the given key, and removes old entries if the cache is too big.
+	 */
+	public void put(String key, PackedProgram program) throws IOException {
+		Path temp = Files.createTempFile(directory, key, ".tmp");
+
+		try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temp))) {
+			DataOutputStream data = new DataOutputStream(out);
+			program.write(data);
+			data.flush();
+		}
+
+		Files.move(temp, directory.resolve(key + PROGRAM_SUFFIX), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+
+		evict();
+	}
+
+	private void store(Path entry, byte[] content) throws IOException {
+		Path temp = Files.createTempFile(directory, "entry", ".tmp");
+		Files.write(temp, content);
+		Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Removes the least recently used entries until the cache is below its size limit.
+	 */
+	public synchronized void evict() throws IOException {
+		List<Path> entries = new ArrayList<Path>();
+		final HashMap<Path, FileTime> lastUse = new HashMap<Path, FileTime>();
+		long size = 0;
+
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+			for (Path entry : stream) {
+				//entries that are still being written are skipped
+				if (entry.toString().endsWith(".tmp")) {
+					continue;
+				}
+
+				try {
+					size += Files.size(entry);
+					lastUse.put(entry, Files.getLastModifiedTime(entry));
+					entries.add(entry);
+				} catch (NoSuchFileException e) {
+					//removed by another process
+				}
+			}
+		}
+
+		if (size <= maxSize) {
+			return;
+		}
+
+		Collections.sort(entries, new Comparator<Path>() {
+			@Override
+			public int compare(Path a, Path b) {
+				return lastUse.get(a).compareTo(lastUse.get(b));
+			}
+		});
+
+		for (Path entry : entries) {
+			if (size <= maxSize) {
+				break;
+			}
+
+			try {
+				long entrySize = Files.size(entry);
+				Files.delete(entry);
+				size -= entrySize;
+			} catch (NoSuchFileException e) {
+				//removed by another process
+			}
+		}
+	}
+
+	/**
+	 * Number of programs found in the cache.
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Number of programs that were not in the cache.
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	private static MessageDigest newDigest() {
+		MessageDigest digest = sha256();
+		digest.update(VERSION);
+		return digest;
+	}
+
+	private static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			//every java platform supports SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Hashes the class files of the compiler, read from the directory or jar
+	 * this class was loaded from. The tests and benchmarks are left out. If the
+	 * classes cannot be read, a random value is used, so entries are only
+	 * shared within this run.
+	 */
+	private static byte[] fingerprint() {
+		MessageDigest digest = sha256();
+
+		try {
+			Path root = Paths.get(CompilationCache.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+			TreeMap<String, byte[]> classes = new TreeMap<String, byte[]>();
+
+			if (Files.isDirectory(root)) {
+				try (Stream<Path> files = Files.walk(root.resolve(PACKAGE))) {
+					for (Path file : (Iterable<Path>) files::iterator) {
+						String name = root.relativize(file).toString().replace('\\', '/');
+						if (isCompilerClass(name)) {
+							classes.put(name, Files.readAllBytes(file));
+						}
+					}
+				}
+			} else {
+				try (ZipFile jar = new ZipFile(root.toFile())) {
+					for (ZipEntry entry : Collections.list(jar.entries())) {
+						if (isCompilerClass(entry.getName())) {
+							classes.put(entry.getName(), readAll(jar.getInputStream(entry)));
+						}
+					}
+				}
+			}
+
+			for (Entry<String, byte[]> entry : classes.entrySet()) {
+				update(digest, entry.getKey().getBytes(StandardCharsets.UTF_8));
+				update(digest, entry.getValue());
+			}
+		} catch (IOException | URISyntaxException | RuntimeException e) {
+			byte[] random = new byte[32];
+			new SecureRandom().nextBytes(random);
+			digest.update(random);
+		}
+
+		return digest.digest();
+	}
+
+	private static boolean isCompilerClass(String name) {
+		return name.startsWith(PACKAGE + "/") && name.endsWith(".class") && !name.startsWith(PACKAGE + "/tests/")
+				&& !name.startsWith(PACKAGE + "/benchmarks/");
+	}
+
+	private static byte[] readAll(InputStream in) throws IOException {
+		try (InputStream input = in) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = input.read(buffer)) >= 0) {
+				out.write(buffer, 0, read);
+			}
+			return out.toByteArray();
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder builder = new StringBuilder();
+		for (byte b : bytes) {
+			builder.append(Character.forDigit((b >> 4) & 0xF, 16));
+			builder.append(Character.forDigit(b & 0xF, 16));
+		}
+		return builder.toString();
+	}
+}
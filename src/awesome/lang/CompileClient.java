@@ -0,0 +1,77 @@
+package awesome.lang;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+
+/**
+ * Sends compile requests to a running CompileServer. Arguments are
+ * "[-port n] <path>" or "[-port n] -example <name>", the output is written to
+ * the gen folder like Compiler.main does. Caching is configured on the server.
+ */
+public class CompileClient {
+
+	/**
+	 * Compiles source to output on the server, returns the errors.
+	 */
+	public static ArrayList<String> compile(int port, Path source, Path output) throws IOException {
+		String token;
+		try {
+			token = new String(Files.readAllBytes(CompileServer.getTokenPath(port)), StandardCharsets.UTF_8);
+		} catch (NoSuchFileException e) {
+			ArrayList<String> errors = new ArrayList<String>();
+			errors.add("No compile server running on port " + port);
+			return errors;
+		}
+
+		try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+			Writer out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+			//the server may run in another directory
+			out.write("compile\n" + token + "\n" + source.toAbsolutePath() + "\n" + output.toAbsolutePath() + "\n");
+			out.flush();
+
+			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+			String status = in.readLine();
+			ArrayList<String> errors = new ArrayList<String>();
+
+			if (status == null) {
+				errors.add("No response from compile server");
+			} else if (!status.equals("ok")) {
+				String line;
+				while ((line = in.readLine()) != null) {
+					errors.add(line);
+				}
+			}
+
+			return errors;
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		int port = CompileServer.DEFAULT_PORT;
+		int arg = 0;
+
+		if (args[arg].equals("-port")) {
+			port = Integer.parseInt(args[arg + 1]);
+			arg += 2;
+		}
+
+		Path path = Compiler.getSourcePath(args, arg);
+		ArrayList<String> errors = compile(port, path, Compiler.getOutputPath(path));
+
+		for (String error : errors) {
+			System.err.println(error);
+		}
+
+		System.exit(errors.isEmpty() ? 0 : 1);
+	}
+}
@@ -0,0 +1,37 @@
+package awesome.lang;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event for a complete compile, with the counters of CompileStats.
+ */
+@Name("awesome.lang.Compile")
+@Label("Compile")
+@Category("AWL Compiler")
+@Description("Compiling an AWL program, from resolving imports to generating code")
+class CompileEvent extends Event {
+	@Label("Source")
+	String source;
+
+	@Label("Files")
+	long files;
+
+	@Label("Parse Tree Nodes")
+	long nodes;
+
+	@Label("Symbols")
+	long symbols;
+
+	@Label("Functions")
+	long functions;
+
+	@Label("Instructions")
+	long instructions;
+
+	@Label("Errors")
+	long errors;
+}
@@ -0,0 +1,24 @@
+package awesome.lang;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event for one phase of a compile, see CompileStats.
+ */
+@Name("awesome.lang.CompilePhase")
+@Label("Compile Phase")
+@Category("AWL Compiler")
+@Description("A single phase of compiling an AWL program")
+class CompilePhaseEvent extends Event {
+	@Label("Phase")
+	String phase;
+
+	@Label("Allocated")
+	@DataAmount
+	long allocatedBytes;
+}
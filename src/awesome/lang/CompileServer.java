@@ -0,0 +1,235 @@
+package awesome.lang;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import awesome.lang.Compiler.CompilationException;
+
+/**
+ * Long running compiler, which accepts compile requests on a local socket.
+ * Keeping the JVM running avoids paying for startup, class loading and the
+ * initialization of the parser on every compile.
+ *
+ * Every connection carries one request: the line "compile" followed by the
+ * token of the server and the absolute paths of the source file and the output
+ * file, which must be a .hs file. The server answers with "ok", or "error"
+ * followed by one line per error.
+ *
+ * The token is random and written to a file only the user can read, see
+ * getTokenPath, so other users on the machine cannot make the server write
+ * files with the permissions of this user.
+ */
+public class CompileServer implements Closeable {
+	public static final int DEFAULT_PORT = 7433;
+	//time a client gets to send its request, in milliseconds
+	public static final int DEFAULT_TIMEOUT = 10000;
+
+	private final ServerSocket socket;
+	private final ExecutorService executor;
+	private final Compiler compiler;
+	private final String token;
+	private volatile int timeout = DEFAULT_TIMEOUT;
+
+	/**
+	 * Creates a server on the loopback interface, use port 0 to pick a free port.
+	 * The cache may be null.
+	 */
+	public CompileServer(int port, CompilationCache cache) throws IOException {
+		socket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+		executor = newExecutor();
+		compiler = new Compiler(false, cache);
+
+		byte[] bytes = new byte[16];
+		new SecureRandom().nextBytes(bytes);
+		StringBuilder builder = new StringBuilder();
+		for (byte b : bytes) {
+			builder.append(String.format("%02x", b));
+		}
+		token = builder.toString();
+
+		try {
+			writeToken(getTokenPath(getPort()), token);
+		} catch (IOException e) {
+			socket.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * The file holding the token of the server on the given port.
+	 */
+	public static Path getTokenPath(int port) {
+		return Paths.get(System.getProperty("user.home"), ".awl-server-" + port);
+	}
+
+	private static void writeToken(Path path, String token) throws IOException {
+		Files.deleteIfExists(path);
+		try {
+			Files.createFile(path, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+		} catch (UnsupportedOperationException e) {
+			//not a posix file system
+			Files.createFile(path);
+			path.toFile().setReadable(false, false);
+			path.toFile().setReadable(true, true);
+		}
+		Files.write(path, token.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Runs requests on virtual threads when the JVM supports them, and on a
+	 * cached thread pool otherwise.
+	 */
+	private static ExecutorService newExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return Executors.newCachedThreadPool();
+		}
+	}
+
+	/**
+	 * Sets the time a client gets to send its request, in milliseconds. A client
+	 * that sends nothing would otherwise hold a thread forever.
+	 */
+	public void setTimeout(int timeout) {
+		this.timeout = timeout;
+	}
+
+	public int getPort() {
+		return socket.getLocalPort();
+	}
+
+	/**
+	 * Compiles a small program, so the parser and compiler classes are loaded
+	 * before the first request.
+	 */
+	public void warmUp() {
+		try {
+			compiler.compile("print(1);").pack();
+		} catch (CompilationException e) {
+			throw new IllegalStateException("The standard library does not compile", e);
+		}
+	}
+
+	/**
+	 * Accepts requests until the server is closed.
+	 */
+	public void serve() throws IOException {
+		while (!socket.isClosed()) {
+			final Socket client;
+			try {
+				client = socket.accept();
+			} catch (SocketException e) {
+				//the server was closed
+				break;
+			}
+
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					handle(client);
+				}
+			});
+		}
+	}
+
+	private void handle(Socket client) {
+		try (Socket connection = client) {
+			connection.setSoTimeout(timeout);
+			BufferedReader in = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8));
+			PrintWriter out = new PrintWriter(new OutputStreamWriter(connection.getOutputStream(), StandardCharsets.UTF_8));
+
+			String command = in.readLine();
+			String clientToken = in.readLine();
+			String source = in.readLine();
+			String output = in.readLine();
+
+			if (!"compile".equals(command)) {
+				out.print("error\nUnknown command: " + command + "\n");
+			} else if (clientToken == null || !MessageDigest.isEqual(token.getBytes(StandardCharsets.UTF_8),
+					clientToken.getBytes(StandardCharsets.UTF_8))) {
+				out.print("error\nInvalid token\n");
+			} else if (source == null || output == null) {
+				out.print("error\nIncomplete request\n");
+			} else if (!output.endsWith(".hs")) {
+				out.print("error\nOutput is not a .hs file: " + output + "\n");
+			} else {
+				ArrayList<String> errors = compile(Paths.get(source), Paths.get(output));
+				out.print(errors.isEmpty() ? "ok\n" : "error\n");
+				for (String error : errors) {
+					out.print(error.replace('\n', ' ') + "\n");
+				}
+			}
+
+			out.flush();
+		} catch (IOException e) {
+			//the client went away or timed out, nothing to report to
+		}
+	}
+
+	/**
+	 * Compiles source to output, returns the errors.
+	 */
+	private ArrayList<String> compile(Path source, Path output) {
+		try {
+			compiler.compilePacked(source).writeSprockell(output);
+			return new ArrayList<String>();
+		} catch (CompilationException e) {
+			return e.getErrors();
+		} catch (IOException | RuntimeException e) {
+			//a request that crashes the compiler should not stop the server
+			return new ArrayList<String>(Arrays.asList(e.toString()));
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		socket.close();
+		executor.shutdown();
+		Files.deleteIfExists(getTokenPath(getPort()));
+	}
+
+	/**
+	 * Starts a server, arguments are "[-port n] [-cache dir]". Must be started
+	 * in the project root, since the standard library is found relative to it.
+	 */
+	public static void main(String[] args) throws IOException {
+		int port = DEFAULT_PORT;
+		CompilationCache cache = null;
+
+		for (int i = 0; i < args.length; i += 2) {
+			if (args[i].equals("-port")) {
+				port = Integer.parseInt(args[i + 1]);
+			} else if (args[i].equals("-cache")) {
+				cache = new CompilationCache(Paths.get(args[i + 1]), Compiler.DEFAULT_CACHE_SIZE);
+			} else {
+				throw new IllegalArgumentException("Unknown argument " + args[i]);
+			}
+		}
+
+		try (CompileServer server = new CompileServer(port, cache)) {
+			server.warmUp();
+			System.err.println("Listening on port " + server.getPort());
+			server.serve();
+		}
+	}
+}
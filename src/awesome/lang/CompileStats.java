@@ -0,0 +1,148 @@
+package awesome.lang;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+
+/**
+ * Time, allocated memory and counters of every phase of a compile. The same
+ * measurements are also sent to Flight Recorder as CompilePhaseEvents.
+ *
+ * Parsing happens while imports are resolved, so the parse time is part of
+ * the import time. With parallel imports the parse time is summed over all
+ * threads, and can be larger than the import time.
+ */
+public class CompileStats {
+	public enum Phase {
+		PARSE, IMPORTS, CHECK, GENERATE, ALLOCATE, OPTIMIZE, EMIT;
+	}
+
+	//allocation counters of the current thread, only available on HotSpot
+	private static final com.sun.management.ThreadMXBean THREADS = threadBean();
+
+	private final long[] nanos = new long[Phase.values().length];
+	private final long[] allocated = new long[Phase.values().length];
+	private final LinkedHashMap<String, Long> counters = new LinkedHashMap<String, Long>();
+
+	/**
+	 * Starts measuring a phase on the current thread, stop() must be called on the same thread.
+	 */
+	public Timer start(Phase phase) {
+		return new Timer(phase);
+	}
+
+	/**
+	 * Wall time of a phase in nanoseconds.
+	 */
+	public synchronized long getTime(Phase phase) {
+		return nanos[phase.ordinal()];
+	}
+
+	/**
+	 * Bytes allocated during a phase, or 0 if the JVM does not measure allocations.
+	 */
+	public synchronized long getAllocatedBytes(Phase phase) {
+		return allocated[phase.ordinal()];
+	}
+
+	/**
+	 * Returns a counter, such as "nodes" or "instructions", or 0 if it was not set.
+	 */
+	public synchronized long getCounter(String name) {
+		Long value = counters.get(name);
+		return value == null ? 0 : value;
+	}
+
+	public synchronized void setCounter(String name, long value) {
+		counters.put(name, value);
+	}
+
+	/**
+	 * Adds all measurements of another compile to this one.
+	 */
+	public void add(CompileStats other) {
+		long[] otherNanos, otherAllocated;
+		LinkedHashMap<String, Long> otherCounters;
+		synchronized (other) {
+			otherNanos = other.nanos.clone();
+			otherAllocated = other.allocated.clone();
+			otherCounters = new LinkedHashMap<String, Long>(other.counters);
+		}
+
+		synchronized (this) {
+			for (int i = 0; i < nanos.length; i++) {
+				nanos[i] += otherNanos[i];
+				allocated[i] += otherAllocated[i];
+			}
+			for (Entry<String, Long> counter : otherCounters.entrySet()) {
+				counters.put(counter.getKey(), getCounter(counter.getKey()) + counter.getValue());
+			}
+		}
+	}
+
+	private synchronized void add(Phase phase, long time, long bytes) {
+		nanos[phase.ordinal()] += time;
+		allocated[phase.ordinal()] += bytes;
+	}
+
+	/**
+	 * Writes a table of all phases and counters.
+	 */
+	public synchronized void print(PrintStream out) {
+		out.printf("%-10s %10s %14s%n", "phase", "time (ms)", "allocated (KB)");
+		for (Phase phase : Phase.values()) {
+			out.printf("%-10s %10.2f %14d%n", phase.name().toLowerCase(), nanos[phase.ordinal()] / 1e6,
+					allocated[phase.ordinal()] / 1024);
+		}
+		for (Entry<String, Long> counter : counters.entrySet()) {
+			out.printf("%-10s %25d%n", counter.getKey(), counter.getValue());
+		}
+	}
+
+	private static com.sun.management.ThreadMXBean threadBean() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+			if (threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()) {
+				return threads;
+			}
+		}
+
+		return null;
+	}
+
+	private static long allocatedBytes() {
+		return THREADS == null ? 0 : THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	/**
+	 * Measures a single run of a phase.
+	 */
+	public class Timer {
+		private final Phase phase;
+		private final CompilePhaseEvent event = new CompilePhaseEvent();
+		private final long start, startAllocated;
+
+		private Timer(Phase phase) {
+			this.phase = phase;
+			event.begin();
+			startAllocated = allocatedBytes();
+			start = System.nanoTime();
+		}
+
+		public void stop() {
+			long time = System.nanoTime() - start;
+			long bytes = allocatedBytes() - startAllocated;
+			add(phase, time, bytes);
+
+			if (event.shouldCommit()) {
+				event.phase = phase.name().toLowerCase();
+				event.allocatedBytes = bytes;
+				event.commit();
+			}
+		}
+	}
+}
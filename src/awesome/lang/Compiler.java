@@ -4,51 +4,288 @@ import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 
+import org.antlr.v4.runtime.tree.ParseTree;
+
+import awesome.lang.CompileStats.Phase;
+import awesome.lang.GrammarParser.ProgramContext;
 import awesome.lang.checking.CompilationUnit;
 import awesome.lang.checking.TypeChecker;
+import awesome.lang.model.PackedProgram;
 import awesome.lang.model.Program;
-import awesome.lang.model.Type;
+import awesome.lang.optimizer.PeepholeOptimizer;
+import awesome.lang.optimizer.RegisterAllocator;
 
 /**
  * Combines ImportResolver, Typechecker and Generator
  */
 public class Compiler {
+	//size limit of the cache used by main, in bytes
+	static final long DEFAULT_CACHE_SIZE = 64 * 1024 * 1024;
+	
+	//whether imported files are parsed concurrently
+	private final boolean parallelImports;
+	
+	//cache of compiled programs, or null
+	private final CompilationCache cache;
+	
+	//standard library parsed ahead of time, or null
+	private final ProgramContext stdlib;
+	
+	//whether generated programs are optimized
+	private volatile boolean optimize = true;
+	
+	public Compiler() {
+		this(false);
+	}
+	
+	/**
+	 * If parallelImports is true, all imported files are parsed concurrently.
+	 */
+	public Compiler(boolean parallelImports) {
+		this(parallelImports, null);
+	}
+	
+	/**
+	 * Compiled programs are stored in the given cache, which may be null.
+	 */
+	public Compiler(boolean parallelImports, CompilationCache cache) {
+		this.parallelImports = parallelImports;
+		this.cache = cache;
+		this.stdlib = null;
+	}
+	
+	/**
+	 * Programs compiled from files use the given parse tree of the standard
+	 * library, which may be shared with other compilers. The cache may be null.
+	 */
+	public Compiler(CompilationCache cache, ProgramContext stdlib) {
+		this.parallelImports = false;
+		this.cache = cache;
+		this.stdlib = stdlib;
+	}
+	
+	/**
+	 * Sets whether generated programs are optimized, which they are by default.
+	 * Optimizing inlines small functions and runs the peephole optimizer.
+	 */
+	public void setOptimize(boolean optimize) {
+		this.optimize = optimize;
+	}
 	
 	/**
 	 * Compiles a program by String path 
 	 */
 	public Program compile(String program) throws CompilationException {
-		return build(new ImportResolver(program));
+		return compile(program, new CompileStats());
+	}
+	
+	/**
+	 * Compiles a program by String path, the measurements of every phase are added to stats
+	 */
+	public Program compile(String program, CompileStats stats) throws CompilationException {
+		CompileEvent event = new CompileEvent();
+		event.begin();
+		
+		CompileStats.Timer timer = stats.start(Phase.IMPORTS);
+		ImportResolver resolver = new ImportResolver(program, parallelImports);
+		timer.stop();
+		
+		return build(resolver, stats, event, "<string>");
 	}
 	
 	/**
 	 * Compiles a program by Path-object path 
 	 */
 	public Program compile(Path path) throws CompilationException {
-		return build(new ImportResolver(path));
+		return compile(path, new CompileStats());
+	}
+	
+	/**
+	 * Compiles a program by Path-object path, the measurements of every phase are added to stats
+	 */
+	public Program compile(Path path, CompileStats stats) throws CompilationException {
+		CompileEvent event = new CompileEvent();
+		event.begin();
+		
+		CompileStats.Timer timer = stats.start(Phase.IMPORTS);
+		ImportResolver resolver;
+		if (stdlib != null) {
+			resolver = new ImportResolver(path, stdlib);
+		} else {
+			resolver = new ImportResolver(path, parallelImports);
+		}
+		timer.stop();
+		
+		return build(resolver, stats, event, path.toString());
 	}
 
+	/**
+	 * Compiles a program by Path-object path to its packed form, the result is
+	 * taken from the cache if none of the sources changed.
+	 */
+	public PackedProgram compilePacked(Path path) throws CompilationException, IOException {
+		return compilePacked(path, new CompileStats());
+	}
+	
+	/**
+	 * Compiles a program by Path-object path to its packed form, the result is
+	 * taken from the cache if none of the sources changed. Packing is measured
+	 * as part of the emit phase.
+	 */
+	public PackedProgram compilePacked(Path path, CompileStats stats) throws CompilationException, IOException {
+		if (cache == null) {
+			return pack(compile(path, stats), stats);
+		}
+		
+		String key = cache.key(path, optimize);
+		PackedProgram program = cache.get(key);
+		
+		if (program == null) {
+			program = pack(compile(path, stats), stats);
+			cache.put(key, program);
+		} else {
+			stats.setCounter("cache hits", stats.getCounter("cache hits") + 1);
+		}
+		
+		return program;
+	}
+	
+	/**
+	 * Compiles a program given as source text to its packed form, the result is
+	 * taken from the cache if none of the sources changed.
+	 */
+	public PackedProgram compilePacked(String source) throws CompilationException, IOException {
+		return compilePacked(source, new CompileStats());
+	}
+	
+	/**
+	 * Compiles a program given as source text to its packed form, the result is
+	 * taken from the cache if none of the sources changed. Packing is measured
+	 * as part of the emit phase.
+	 */
+	public PackedProgram compilePacked(String source, CompileStats stats) throws CompilationException, IOException {
+		if (cache == null) {
+			return pack(compile(source, stats), stats);
+		}
+		
+		String key = cache.key(source, optimize);
+		PackedProgram program = cache.get(key);
+		
+		if (program == null) {
+			program = pack(compile(source, stats), stats);
+			cache.put(key, program);
+		} else {
+			stats.setCounter("cache hits", stats.getCounter("cache hits") + 1);
+		}
+		
+		return program;
+	}
+	
+	private static PackedProgram pack(Program program, CompileStats stats) {
+		CompileStats.Timer timer = stats.start(Phase.EMIT);
+		PackedProgram packed = program.pack();
+		timer.stop();
+		return packed;
+	}
+	
 	/**
 	 * Compiles a program, based on the given importresolver 
 	 */
-	private Program build(ImportResolver resolver) throws CompilationException {
+	Program build(ImportResolver resolver) throws CompilationException {
+		CompileEvent event = new CompileEvent();
+		event.begin();
+		return build(resolver, new CompileStats(), event, null);
+	}
+	
+	private Program build(ImportResolver resolver, CompileStats stats, CompileEvent event, String source)
+			throws CompilationException {
 		CompilationUnit cUnit = resolver.getContextDataSet();
+		stats.add(resolver.getStats());
+		stats.setCounter("files", resolver.getImportedPaths().size());
+		stats.setCounter("nodes", countNodes(cUnit));
 		
-		Type.clearUserTypes();
+		CompileStats.Timer timer = stats.start(Phase.CHECK);
 		TypeChecker checker = new TypeChecker();
 		checker.checkProgram(cUnit);
+		timer.stop();
 		
-		if (checker.getErrors().size() > 0) {
-			throw new CompilationException("Error(s) during type checking", checker.getErrors());
+		stats.setCounter("symbols", checker.getSymbolTable().size());
+		stats.setCounter("functions", checker.getFunctionTable().size());
+		stats.setCounter("errors", checker.getErrors().size());
+		
+		Program program = null;
+		try {
+			if (checker.getErrors().size() > 0) {
+				throw new CompilationException("Error(s) during type checking", checker.getErrors());
+			}
+			
+			timer = stats.start(Phase.GENERATE);
+			Generator generator = new Generator(checker.getSymbolTable(), checker.getFunctionTable(), checker.getExpressionTypes());
+			generator.setInline(optimize);
+			program = generator.genProgram(cUnit);
+			timer.stop();
+			
+			stats.setCounter("inlined calls", generator.getInlinedCalls());
+			
+			timer = stats.start(Phase.ALLOCATE);
+			RegisterAllocator allocator = new RegisterAllocator();
+			program = allocator.allocate(program);
+			timer.stop();
+			
+			stats.setCounter("spilled registers", allocator.getSpilled());
+			
+			if (optimize) {
+				timer = stats.start(Phase.OPTIMIZE);
+				PeepholeOptimizer optimizer = new PeepholeOptimizer();
+				program = optimizer.optimize(program);
+				timer.stop();
+				
+				stats.setCounter("removed instructions", optimizer.getRemoved());
+			}
+			
+			stats.setCounter("instructions", program.getInstructions().size());
+			return program;
+		} finally {
+			if (event.shouldCommit()) {
+				event.source = source;
+				event.files = stats.getCounter("files");
+				event.nodes = stats.getCounter("nodes");
+				event.symbols = stats.getCounter("symbols");
+				event.functions = stats.getCounter("functions");
+				event.instructions = program == null ? 0 : program.getInstructions().size();
+				event.errors = stats.getCounter("errors");
+				event.commit();
+			}
 		}
+	}
+	
+	/**
+	 * Counts the nodes of all parse trees in the unit, including tokens
+	 */
+	private static long countNodes(CompilationUnit unit) {
+		ArrayList<ParseTree> todo = new ArrayList<ParseTree>();
+		todo.addAll(unit.getEnumlist());
+		todo.addAll(unit.getClasslist());
+		todo.addAll(unit.getFunclist());
+		todo.addAll(unit.getStatlist());
 		
+		long nodes = 0;
+		while (!todo.isEmpty()) {
+			ParseTree tree = todo.remove(todo.size() - 1);
+			nodes++;
+			for (int i = 0; i < tree.getChildCount(); i++) {
+				todo.add(tree.getChild(i));
+			}
+		}
 		
-		Generator generator = new Generator(checker.getSymbolTable(), checker.getFunctionTable(), checker.getExpressionTypes());
-		return generator.genProgram(cUnit);
+		return nodes;
 	}
 	
-	public class CompilationException extends Exception {
+	public static class CompilationException extends Exception {
 		private static final long serialVersionUID = -5100147228313379450L;
 		private ArrayList<String> errors;
 		
@@ -67,17 +304,82 @@ public class Compiler {
 	 * If the first argument is -example, it searches relative to the examples directory.
 	 * Example usage: "-example gameoflife.awl" compiles the game of life example program and writes
 	 * it to gen/gameoflife.awl
+	 * With "-cache <dir>" before the other arguments, compiled programs are cached in the given directory.
+	 * With "-stats" before the other arguments, the time, allocations and counters of every phase are printed,
+	 * for a batch they are added up over all programs.
+	 * With "-batch <dir or glob> [threads]", every matching .awl file is compiled to the gen folder in parallel,
+	 * for example "-batch 'src/awesome/lang/examples/*.awl'".
 	 */
-	public static void main(String[] args) throws CompilationException, IOException {
-		Path path;
+	public static void main(String[] args) throws CompilationException, IOException, InterruptedException {
+		CompilationCache cache = null;
+		boolean printStats = false;
+		int arg = 0;
 		
-		if(args[0].equals("-example")) {
-			path = Paths.get("src/awesome/lang/examples/", args[1]);
-		} else {
-			path = Paths.get(args[0]);
+		while(args[arg].equals("-cache") || args[arg].equals("-stats")) {
+			if(args[arg].equals("-cache")) {
+				cache = new CompilationCache(Paths.get(args[arg + 1]), DEFAULT_CACHE_SIZE);
+				arg += 2;
+			} else {
+				printStats = true;
+				arg++;
+			}
+		}
+		
+		if(args[arg].equals("-batch")) {
+			int threads = args.length > arg + 2 ? Integer.parseInt(args[arg + 2]) : Runtime.getRuntime().availableProcessors();
+			BatchCompiler batch = new BatchCompiler(threads, cache);
+			Map<Path, List<String>> errors = batch.compileAll(BatchCompiler.findSources(args[arg + 1]), Paths.get("gen"));
+			
+			for (Entry<Path, List<String>> entry : errors.entrySet()) {
+				System.err.println(entry.getKey() + ": " + entry.getValue());
+			}
+			
+			if(printStats) {
+				batch.getStats().print(System.err);
+			}
+			
+			if (!errors.isEmpty()) {
+				System.exit(1);
+			}
+			return;
 		}
 		
-		String name = path.getFileName().toString().split("\\.")[0];
-		new Compiler().compile(path).writeSprockell(name + ".hs");
+		Path path = getSourcePath(args, arg);
+		CompileStats stats = new CompileStats();
+		PackedProgram program = new Compiler(false, cache).compilePacked(path, stats);
+		
+		CompileStats.Timer timer = stats.start(Phase.EMIT);
+		program.writeSprockell(getOutputPath(path));
+		timer.stop();
+		
+		if(printStats) {
+			stats.print(System.err);
+		}
+	}
+	
+	/**
+	 * Returns the source file given by the arguments starting at index arg, either a path or "-example name".
+	 */
+	static Path getSourcePath(String[] args, int arg) {
+		if(args[arg].equals("-example")) {
+			return Paths.get("src/awesome/lang/examples/", args[arg + 1]);
+		} else {
+			return Paths.get(args[arg]);
+		}
+	}
+	
+	/**
+	 * Returns the file in the gen folder the haskell code of the given source file is written to.
+	 */
+	static Path getOutputPath(Path source) {
+		return getOutputPath(source, Paths.get("gen"));
+	}
+	
+	/**
+	 * Returns the file in the given folder the haskell code of the given source file is written to.
+	 */
+	static Path getOutputPath(Path source, Path dir) {
+		String name = source.getFileName().toString().split("\\.")[0];
+		return dir.resolve(name + ".hs");
 	}
 }
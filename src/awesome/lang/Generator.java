@@ -4,7 +4,10 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.TreeMap;
 
 import org.antlr.v4.runtime.ParserRuleContext;
 import org.antlr.v4.runtime.tree.ParseTree;
@@ -15,6 +18,7 @@ import awesome.lang.checking.CompilationUnit;
 import awesome.lang.checking.FunctionTable;
 import awesome.lang.checking.FunctionTable.Function;
 import awesome.lang.checking.SymbolTable;
+import awesome.lang.checking.TypeTable;
 import awesome.lang.model.*;
 
 /**
@@ -27,15 +31,35 @@ public class Generator extends GrammarBaseVisitor<Instruction> {
 	private static final int TRUE = 1, FALSE = 0;
 	
 	private static final Reg ARP = Reg.RegE;
-	private static final Reg[] REGISTERS = {Reg.RegA, Reg.RegB, Reg.RegC, Reg.RegD};
 	
-	private ParseTreeProperty<Reg> regs;
-	private ArrayList<Reg> freeRegs;
+	//functions with at most this many tokens are inlined, or with at most LOOP_INLINE_SIZE in a loop
+	private static final int INLINE_SIZE = 16, LOOP_INLINE_SIZE = 64;
+	//number of inlined functions that can be nested
+	private static final int INLINE_DEPTH = 3;
+	
+	private ParseTreeProperty<Register> regs;
+	//virtual registers holding a value, these are saved when calling a function
+	private LinkedHashSet<VirtualReg> usedRegs;
+	private int regCount;
+	//local variables of the current function that are kept in a register, by offset
+	private TreeMap<Integer, VirtualReg> variables;
+	//variables declared before the current statement, only these are saved across calls
+	private HashSet<VirtualReg> declared;
 	private HashMap<Function, Label> functionLabels;
+	private HashMap<Function, FunctionContext> functionContexts;
+	//number of tokens of every function that can be inlined, or -1 if it cannot
+	private HashMap<Function, Integer> inlineSizes;
+	//functions being inlined at the current statement, the innermost last
+	private ArrayList<Inline> inlined;
+	private boolean inline = true;
+	private int inlinedCalls;
+	//number of loops around the current statement
+	private int loops;
 	private HashMap<Function, Integer> threadAddressMap;//assigns an unique address to every thread function
 	private Program prog;//the program that is being filled
 
 	private SymbolTable symboltable;
+	private TypeTable userTypes;
 	private FunctionTable funcTable;
 	private ParseTreeProperty<Type> exprTypes;
 
@@ -52,22 +76,46 @@ public class Generator extends GrammarBaseVisitor<Instruction> {
 	
 	public Generator(SymbolTable symboltable, FunctionTable funcTable, ParseTreeProperty<Type> exprTypes) {
 		this.symboltable = symboltable;
+		this.userTypes = symboltable.getTypeTable();
 		this.funcTable = funcTable;
 		this.exprTypes = exprTypes;
 	}
 	
+	/**
+	 * Sets whether small functions are generated at the call site instead of
+	 * called, which they are by default.
+	 */
+	public void setInline(boolean inline) {
+		this.inline = inline;
+	}
+	
+	/**
+	 * Returns the number of calls that were inlined.
+	 */
+	public int getInlinedCalls() {
+		return inlinedCalls;
+	}
+	
 	public Program genProgram(CompilationUnit unit) {
 		prog = new Program(1);
-		freeRegs = new ArrayList<Reg>(Arrays.asList(REGISTERS));
-		regs = new ParseTreeProperty<Reg>();
+		usedRegs = new LinkedHashSet<VirtualReg>();
+		regCount = 0;
+		variables = new TreeMap<Integer, VirtualReg>();
+		declared = new HashSet<VirtualReg>();
+		regs = new ParseTreeProperty<Register>();
 		functionLabels = new HashMap<Function, Label>();
+		functionContexts = new HashMap<Function, FunctionContext>();
+		inlineSizes = new HashMap<Function, Integer>();
+		inlined = new ArrayList<Inline>();
+		inlinedCalls = 0;
+		loops = 0;
 		threadAddressMap = new HashMap<>();
 		
 		staticBlockStart = 0xFFFFFF - symboltable.getCurrentScope().getOffset();
 		
 		visitProgram(unit);
 		
-		if(freeRegs.size() != REGISTERS.length) {
+		if(!usedRegs.isEmpty()) {
 			//some function did not free a register it used, but no errors were encountered.
 			System.err.println("Non-fatal register leak encountered.");
 		}
@@ -90,6 +138,7 @@ public class Generator extends GrammarBaseVisitor<Instruction> {
 			Label label = new Label("func " + func.getName());
 			
 			functionLabels.put(func, label);
+			functionContexts.put(func, f);
 			
 			if(func.isThreadFunction()){
 				threads.add(func);
@@ -107,7 +156,7 @@ public class Generator extends GrammarBaseVisitor<Instruction> {
 		prog.setNumSprockells(threads.size() + 1);
 		
 		//every thread jumps to the correct location
-		Reg reg = newReg();
+		Register reg = newReg();
 		for(int i = 0; i <= threads.size(); i++){
 			prog.addInstr(OpCode.Const, i, reg);
 			prog.addInstr(OpCode.Compute, Operator.Equal, reg, Reg.SPID, reg);
@@ -128,6 +177,8 @@ public class Generator extends GrammarBaseVisitor<Instruction> {
 		
 		prog.addInstr(start, OpCode.Nop);
 		
+		variables = promote(unit.getStatlist(), false);
+		declared.clear();
 		for(StatContext stat : unit.getStatlist()){
 			visit(stat);
 		}
@@ -160,9 +211,14 @@ public class Generator extends GrammarBaseVisitor<Instruction> {
 	
 	@Override
 	public Instruction visitAssignStat(AssignStatContext ctx) {
+		VirtualReg variable = getVariable(ctx.target());
+		if (variable != null) {
+			return assign(ctx.expr(), variable);
+		}
+		
 		Instruction targetI = visit(ctx.target());
 		
-		Reg reg = regs.get(ctx.target());
+		Register reg = regs.get(ctx.target());
 		assign(ctx.expr(), MemAddr.deref(reg), isGlobal(ctx.target()));
 		freeReg(reg);
 		
@@ -171,7 +227,15 @@ public class Generator extends GrammarBaseVisitor<Instruction> {
 	
 	@Override
 	public Instruction visitDeclAssignStat(DeclAssignStatContext ctx) {
-		Reg reg = newReg();
+		if (!symboltable.isGlobal(ctx) && variables.containsKey(symboltable.getOffset(ctx))) {
+			VirtualReg variable = variables.get(symboltable.getOffset(ctx));
+			Instruction instr = assign(ctx.expr(), variable);
+			instr.setComment("var " + ctx.ID().getText());
+			declared.add(variable);
+			return instr;
+		}
+		
+		Register reg = newReg();
 		Instruction instr = genAddr(symboltable.isGlobal(ctx), symboltable.getOffset(ctx), reg);
 		instr.setComment("var " + ctx.ID().getText());
 		
@@ -183,12 +247,16 @@ public class Generator extends GrammarBaseVisitor<Instruction> {
 	
 	@Override
 	public Instruction visitDeclStat(DeclStatContext ctx) {
+		if (!symboltable.isGlobal(ctx) && variables.containsKey(symboltable.getOffset(ctx))) {
+			declared.add(variables.get(symboltable.getOffset(ctx)));
+		}
+		
 		return prog.addInstr(OpCode.Nop);
 	}
 	
 	private Instruction assign(ExprContext exprContext, MemAddr addr, boolean global) {
 		Instruction i = visit(exprContext);
-		Reg reg = regs.get(exprContext);
+		Register reg = regs.get(exprContext);
 		
 		if(global) {
 			prog.addInstr(OpCode.Write, reg, addr);
@@ -200,6 +268,19 @@ public class Generator extends GrammarBaseVisitor<Instruction> {
 		return i;
 	}
 	
+	/**
+	 * Generates code to copy the value of an expression into the register of a variable.
+	 */
+	private Instruction assign(ExprContext exprContext, VirtualReg variable) {
+		Instruction i = visit(exprContext);
+		Register reg = regs.get(exprContext);
+		
+		prog.addInstr(OpCode.Compute, Operator.Add, Reg.Zero, reg, variable);
+		freeReg(reg);
+		
+		return i;
+	}
+	
 	@Override
 	public Instruction visitIfStat(IfStatContext ctx) {
 		Instruction i = visit(ctx.expr());
@@ -217,7 +298,7 @@ public class Generator extends GrammarBaseVisitor<Instruction> {
 			prog.addInstr(endLabel, OpCode.Nop);
 		} else {
 			Label endLabel = new Label("endif");
-			Reg reg = regs.get(ctx.expr());
+			Register reg = regs.get(ctx.expr());
 			prog.addInstr(OpCode.Compute, Operator.Equal, Reg.Zero, reg, reg);//inverse
 			prog.addInstr(OpCode.Branch, reg, Target.abs(endLabel));
 			freeReg(ctx.expr());
@@ -239,14 +320,16 @@ public class Generator extends GrammarBaseVisitor<Instruction> {
 		
 		// check
 		check.setLabel(checkLabel);
-		Reg reg = regs.get(ctx.expr());
+		Register reg = regs.get(ctx.expr());
 		prog.addInstr(OpCode.Compute,Operator.Equal, Reg.Zero, reg, reg);
 		prog.addInstr(OpCode.Branch, reg, Target.abs(endLabel));
 		this.freeReg(reg);
 		
 		// body
+		loops++;
 		visit(ctx.stat());
 		visit(ctx.varSubStat(1));
+		loops--;
 		
 		// check again & endlabel
 		prog.addInstr(OpCode.Jump, Target.abs(checkLabel));
@@ -258,13 +341,15 @@ public class Generator extends GrammarBaseVisitor<Instruction> {
 	@Override
 	public Instruction visitDoStat(DoStatContext ctx) {
 		// body
+		loops++;
 		Instruction i = visit(ctx.stat());
+		loops--;
 		Label start   = new Label("do_start");
 		i.setLabel(start);
 		visit(ctx.expr());
 		
 		// jump back?
-		Reg reg = regs.get(ctx.expr());
+		Register reg = regs.get(ctx.expr());
 		prog.addInstr(OpCode.Branch, reg, Target.abs(start));
 		this.freeReg(reg);
 		
@@ -275,7 +360,7 @@ public class Generator extends GrammarBaseVisitor<Instruction> {
 	@Override
 	public Instruction visitSwitchStat(SwitchStatContext ctx) {
 		Instruction res = visit(ctx.expr(0));
-		Reg regCheck = regs.get(ctx.expr(0));
+		Register regCheck = regs.get(ctx.expr(0));
 
 		Label[] checkLabels = new Label[ctx.expr().size()+(ctx.DEFAULT() != null ? 1 : 0)]; // check if expression is valid (Not equal comparison) (including default and endlabel)
 		Label[] blockLabels = new Label[ctx.block().size()];  // execute next block (next) 
@@ -288,7 +373,7 @@ public class Generator extends GrammarBaseVisitor<Instruction> {
 		for (int i = 1; i < ctx.expr().size(); i++) {
 			// fix label, execute expression, compute branching
 			visit(ctx.expr(i)).setLabel(checkLabels[i-1]);
-			Reg regCompare = regs.get(ctx.expr(i));
+			Register regCompare = regs.get(ctx.expr(i));
 			prog.addInstr(OpCode.Compute, Operator.NEq, regCheck, regCompare, regCompare);
 			prog.addInstr(OpCode.Branch, regCompare, Target.abs(checkLabels[i]));
 			// free reg, set next label and visit children
@@ -326,12 +411,14 @@ public class Generator extends GrammarBaseVisitor<Instruction> {
 		i.setLabel(compLabel);
 		
 		Label endLabel = new Label("endwhile");
-		Reg reg = regs.get(ctx.expr());
+		Register reg = regs.get(ctx.expr());
 		prog.addInstr(OpCode.Compute, Operator.Equal, Reg.Zero, reg, reg);//inverse
 		prog.addInstr(OpCode.Branch, reg, Target.abs(endLabel));
 		freeReg(ctx.expr());
 		
+		loops++;
 		visit(ctx.stat());
+		loops--;
 		prog.addInstr(OpCode.Jump, Target.abs(compLabel));
 		prog.addInstr(endLabel, OpCode.Nop);
 		
@@ -350,17 +437,27 @@ public class Generator extends GrammarBaseVisitor<Instruction> {
 	public Instruction visitReturnStat(ReturnStatContext ctx) {
 		Instruction instruction = visit(ctx.expr());
 		instruction.setComment("return-expr");
-		Reg exprReg = regs.get(ctx.expr());
-		
-		makeReturn(exprReg);
+		Register exprReg = regs.get(ctx.expr());
+		
+		if(!inlined.isEmpty()) {
+			//an inlined function continues after its body instead
+			Inline function = inlined.get(inlined.size() - 1);
+			prog.addInstr(OpCode.Compute, Operator.Add, Reg.Zero, exprReg, function.result);
+			if(ctx != function.last) {
+				prog.addInstr(OpCode.Jump, Target.abs(function.end));
+				function.jumped = true;
+			}
+		} else {
+			makeReturn(exprReg);
+		}
 		
 		freeReg(exprReg);
 		
 		return instruction;
 	}
 	
-	private void makeReturn(Reg retValue) {
-		Reg temp = newReg();
+	private void makeReturn(Register retValue) {
+		Register temp = newReg();
 		
 		//set return value
 		prog.addInstr(OpCode.Const, -2, temp);
@@ -393,7 +490,7 @@ public class Generator extends GrammarBaseVisitor<Instruction> {
 		Instruction instruction = visit(ctx.target());
 		Label label = new Label("lock-acquire");
 		instruction.setLabel(label );
-		Reg reg = regs.get(ctx.target());
+		Register reg = regs.get(ctx.target());
 		prog.addInstr(OpCode.TestAndSet, MemAddr.deref(reg));
 		prog.addInstr(OpCode.Receive, reg);
 		prog.addInstr(OpCode.Branch, reg, Target.rel(2));
@@ -415,7 +512,7 @@ public class Generator extends GrammarBaseVisitor<Instruction> {
 	/**
 	 * Generates code to put the address of a variable with given offset in the register
 	 */
-	private Instruction genAddr(boolean global, int offset, Reg reg){
+	private Instruction genAddr(boolean global, int offset, Register reg){
 		if(!global){
 			Instruction instr = prog.addInstr(OpCode.Const, offset + 1, reg);
 			prog.addInstr(OpCode.Compute, Operator.Add, ARP, reg, reg);
@@ -430,7 +527,7 @@ public class Generator extends GrammarBaseVisitor<Instruction> {
 	
 	@Override
 	public Instruction visitIdTarget(IdTargetContext ctx) {
-		Reg reg = newReg(ctx);
+		Register reg = newReg(ctx);
 		
 		if(symboltable.getScope(ctx).isClass()){
 //			System.out.println(ctx.getText());
@@ -440,7 +537,7 @@ public class Generator extends GrammarBaseVisitor<Instruction> {
 			Instruction i = genAddr(false, 0, reg);
 			prog.addInstr(OpCode.Load, MemAddr.deref(reg), reg);
 			
-			Reg temp = newReg();
+			Register temp = newReg();
 			prog.addInstr(OpCode.Const, symboltable.getOffset(ctx), temp);
 			prog.addInstr(OpCode.Compute, Operator.Add, temp, reg, reg);
 			freeReg(temp);
@@ -457,16 +554,8 @@ public class Generator extends GrammarBaseVisitor<Instruction> {
 	
 	@Override
 	public Instruction visitArrayTarget(ArrayTargetContext ctx) {
-		Instruction instr = visit(ctx.target());
-		Reg reg = regs.get(ctx.target());
-		regs.put(ctx, reg);
-		
-		if(isGlobal(ctx.target())) {
-			prog.addInstr(OpCode.Read, MemAddr.deref(reg));
-			prog.addInstr(OpCode.Receive, reg);
-		} else {
-			prog.addInstr(OpCode.Load, MemAddr.deref(reg), reg);
-		}
+		Instruction instr = loadTarget(ctx.target(), ctx);
+		Register reg = regs.get(ctx);
 		
 		visit(ctx.expr());
 		prog.addInstr(OpCode.Compute, Operator.Add, reg, regs.get(ctx.expr()), reg);
@@ -478,19 +567,11 @@ public class Generator extends GrammarBaseVisitor<Instruction> {
 	@Override
 	public Instruction visitClassTarget(ClassTargetContext ctx) {
 		//first find base address of object
-		Instruction instr = visit(ctx.target());
-		Reg reg = regs.get(ctx.target());
-		regs.put(ctx, reg);
-		
-		if(isGlobal(ctx.target())) {
-			prog.addInstr(OpCode.Read, MemAddr.deref(reg));
-			prog.addInstr(OpCode.Receive, reg);
-		} else {
-			prog.addInstr(OpCode.Load, MemAddr.deref(reg), reg);
-		}
+		Instruction instr = loadTarget(ctx.target(), ctx);
+		Register reg = regs.get(ctx);
 		
 		//then add the offset of the specified field
-		Reg temp = newReg();
+		Register temp = newReg();
 		int offset = this.symboltable.getClassScope(ctx).getOffset(ctx.ID().getText());
 		prog.addInstr(OpCode.Const, offset, temp);
 		prog.addInstr(OpCode.Compute, Operator.Add, reg, temp, reg);
@@ -499,6 +580,31 @@ public class Generator extends GrammarBaseVisitor<Instruction> {
 		return instr;
 	}
 	
+	/**
+	 * Generates code to get the value of a target into a new register, which is put for ctx.
+	 */
+	private Instruction loadTarget(TargetContext target, ParserRuleContext ctx) {
+		VirtualReg variable = getVariable(target);
+		if(variable != null) {
+			Instruction instr = prog.addInstr(OpCode.Compute, Operator.Add, Reg.Zero, variable, newReg(ctx));
+			instr.setComment("var: " + target.getText());
+			return instr;
+		}
+		
+		Instruction first = visit(target);
+		Register reg = regs.get(target);
+		regs.put(ctx, reg);
+		
+		if(isGlobal(target)) {
+			prog.addInstr(OpCode.Read, MemAddr.deref(reg));
+			prog.addInstr(OpCode.Receive, reg);
+		} else {
+			prog.addInstr(OpCode.Load, MemAddr.deref(reg), reg);
+		}
+		
+		return first;
+	}
+	
 	/**
 	 * @return - Whether the variabel referenced by ctx is stored in shared memory or the stack.
 	 */
@@ -526,7 +632,7 @@ public class Generator extends GrammarBaseVisitor<Instruction> {
 		if(function.isThreadFunction()) {
 			Label tLabel = new Label("thread-wait");
 			first = prog.addInstr(tLabel, OpCode.Read, MemAddr.direct(threadAddressMap.get(function)));
-			Reg reg = newReg();
+			Register reg = newReg();
 			prog.addInstr(OpCode.Receive, reg);
 			prog.addInstr(OpCode.Compute, Operator.Equal, Reg.Zero, reg, reg);
 			prog.addInstr(OpCode.Branch, reg, Target.abs(tLabel));
@@ -534,6 +640,23 @@ public class Generator extends GrammarBaseVisitor<Instruction> {
 			freeReg(reg);
 		}
 		
+		//arguments kept in a register are loaded from the stack once
+		variables = promote(Arrays.asList(ctx), function.isMethod());
+		declared.clear();
+		int firstArg = function.isMethod() ? 1 : 0;
+		for(int i = 0; i < ctx.argument().size(); i++) {
+			VirtualReg variable = variables.get(firstArg + i);
+			if(variable != null) {
+				Register reg = newReg();
+				Instruction instr = genAddr(false, firstArg + i, reg);
+				instr.setComment("arg " + ctx.argument(i).ID().getText());
+				prog.addInstr(OpCode.Load, MemAddr.deref(reg), variable);
+				freeReg(reg);
+				declared.add(variable);
+				if(first == null) first = instr;
+			}
+		}
+		
 		if (ctx.stat() != null) {
 			Instruction i = visit(ctx.stat());
 			if(first == null) first = i;
@@ -543,7 +666,7 @@ public class Generator extends GrammarBaseVisitor<Instruction> {
 		} else {
 			Instruction i = visit(ctx.expr());
 			if(first == null) first = i;
-			Reg retReg = this.regs.get(ctx.expr());
+			Register retReg = this.regs.get(ctx.expr());
 			makeReturn(retReg);
 			freeReg(retReg);
 		}
@@ -561,7 +684,7 @@ public class Generator extends GrammarBaseVisitor<Instruction> {
 		Function func = funcTable.getFunction(ctx);
 		
 		if(func.isThreadFunction()) {
-			Reg reg = newReg(ctx);
+			Register reg = newReg(ctx);
 			Instruction instr = prog.addInstr(OpCode.Const, 1, reg);
 			prog.addInstr(OpCode.Write, reg, MemAddr.direct(threadAddressMap.get(func)));
 			return instr;
@@ -581,12 +704,21 @@ public class Generator extends GrammarBaseVisitor<Instruction> {
 				}
 			}
 			
-			return callFunction(func, newReg(ctx), args);
+			return callFunction(func, ctx, args);
 		}
 	}
 
-	private Instruction callFunction(Function func, Reg reg, List<ExprContext> args) {
+	/**
+	 * Calls a function and puts the register with the result for ctx. That
+	 * register is reserved after the arguments, so calls in the arguments do not
+	 * save it.
+	 */
+	private Instruction callFunction(Function func, ParserRuleContext ctx, List<ExprContext> args) {
+		if(canInline(func))
+			return inlineFunction(func, ctx, args);
+		
 		//AR:
+		//saved registers
 		//local var n
 		//local var 0
 		//param n
@@ -594,12 +726,13 @@ public class Generator extends GrammarBaseVisitor<Instruction> {
 		//caller's ARP
 		//return address
 		//return value
-		//RegA .. RegB
+		int start = prog.getInstructions().size();
+		List<Register> saved = saveRegs(null);
 
 		//reserve space for local variables
 		int localSize = func.getScope().getOffset() - args.size();
-		Reg stackReg = newReg();
-		Instruction first = prog.addInstr(OpCode.Const, localSize, stackReg);
+		Register stackReg = newReg();
+		prog.addInstr(OpCode.Const, localSize, stackReg);
 		prog.addInstr(OpCode.Compute, Operator.Sub, Reg.SP, stackReg, Reg.SP);
 		freeReg(stackReg);
 		
@@ -608,18 +741,158 @@ public class Generator extends GrammarBaseVisitor<Instruction> {
 			ExprContext arg = args.get(i);
 			visit(arg);
 			
-			Reg tempReg = regs.get(arg);
+			Register tempReg = regs.get(arg);
 			prog.addInstr(OpCode.Push, tempReg);
 			freeReg(tempReg);
 		}
 		
-		callFunctionRest(func, reg);
+		callFunctionRest(func, newReg(ctx), saved);
+		
+		return prog.getInstructions().get(start);
+	}
+	
+	/**
+	 * Whether a call to the function is generated as its body. A function is
+	 * inlined if it is small, neither a method nor a thread, all its variables
+	 * can be kept in registers and it is not being inlined already, so a
+	 * recursive function is inlined once.
+	 */
+	private boolean canInline(Function func) {
+		if(!inline || func.isMethod() || func.isThreadFunction() || inlined.size() >= INLINE_DEPTH)
+			return false;
+		for(Inline function : inlined) {
+			if(function.function == func)
+				return false;
+		}
+		
+		FunctionContext ctx = functionContexts.get(func);
+		if(ctx == null)
+			return false;
+		if(!inlineSizes.containsKey(func)) {
+			boolean registers = promotable(Arrays.asList(ctx), false).size() == func.getScope().getOffset();
+			inlineSizes.put(func, registers ? countTokens(ctx.stat() != null ? ctx.stat() : ctx.expr()) : -1);
+		}
+		
+		int size = inlineSizes.get(func);
+		return size >= 0 && size <= (loops > 0 ? LOOP_INLINE_SIZE : INLINE_SIZE);
+	}
+	
+	/**
+	 * Generates the body of a function at the call site. The arguments are
+	 * evaluated in the same order as for a call and copied to the registers of
+	 * the parameters, a return copies its value to the register with the
+	 * result and jumps past the body.
+	 */
+	private Instruction inlineFunction(Function func, ParserRuleContext ctx, List<ExprContext> args) {
+		FunctionContext function = functionContexts.get(func);
+		Instruction first = null;
+		
+		Register[] values = new Register[args.size()];
+		for(int i = args.size() - 1; i >= 0; i--) {
+			Instruction instr = visit(args.get(i));
+			values[i] = regs.get(args.get(i));
+			if(first == null) first = instr;
+		}
+		
+		Inline frame = new Inline(func, variables, declared);
+		variables = promote(Arrays.asList(function), false);
+		declared = new HashSet<VirtualReg>();
+		for(int i = 0; i < args.size(); i++) {
+			Instruction instr = prog.addInstr(OpCode.Compute, Operator.Add, Reg.Zero, values[i], variables.get(i));
+			instr.setComment("arg " + function.argument(i).ID().getText());
+			freeReg(values[i]);
+			declared.add(variables.get(i));
+			if(first == null) first = instr;
+		}
+		
+		Label switchLabel = nextSwitchLabel;
+		if(function.stat() != null) {
+			frame.result = newReg(ctx);
+			frame.last = lastReturn(function.stat());
+			if(frame.last == null && func.getFunctionType().getReturnType() != Type.VOID) {
+				//a function without return gives 0
+				Instruction instr = prog.addInstr(OpCode.Compute, Operator.Add, Reg.Zero, Reg.Zero, frame.result);
+				if(first == null) first = instr;
+			}
+			
+			inlined.add(frame);
+			Instruction instr = visit(function.stat());
+			inlined.remove(inlined.size() - 1);
+			if(first == null) first = instr;
+			
+			if(frame.jumped)
+				prog.addInstr(frame.end, OpCode.Nop);
+		} else {
+			inlined.add(frame);
+			Instruction instr = visit(function.expr());
+			inlined.remove(inlined.size() - 1);
+			regs.put(ctx, regs.get(function.expr()));
+			if(first == null) first = instr;
+		}
+		nextSwitchLabel = switchLabel;
+		
+		variables = frame.variables;
+		declared = frame.declared;
+		inlinedCalls++;
 		
 		return first;
 	}
+	
+	/**
+	 * Returns the return statement the statement ends with, or null if it can end without one.
+	 */
+	private static ReturnStatContext lastReturn(StatContext stat) {
+		if(stat instanceof BlockStatContext) {
+			List<StatContext> stats = ((BlockStatContext) stat).block().stat();
+			return stats.isEmpty() ? null : lastReturn(stats.get(stats.size() - 1));
+		}
+		
+		return stat instanceof ReturnStatContext ? (ReturnStatContext) stat : null;
+	}
+	
+	private static int countTokens(ParseTree tree) {
+		if(tree.getChildCount() == 0)
+			return 1;
+		
+		int count = 0;
+		for(int i = 0; i < tree.getChildCount(); i++) {
+			count += countTokens(tree.getChild(i));
+		}
+		return count;
+	}
+	
+	/**
+	 * Pushes every register holding a value, except result which may be null,
+	 * and returns them. They are pushed before the activation record, so the
+	 * return address and return value are always right below the ARP of the
+	 * called function.
+	 */
+	private List<Register> saveRegs(Register result) {
+		ArrayList<Register> saved = new ArrayList<Register>();
+		for (VirtualReg reg : usedRegs) {
+			if (reg != result)
+				saved.add(reg);
+		}
+		for (VirtualReg reg : variables.values()) {
+			if (declared.contains(reg))
+				saved.add(reg);
+		}
+		for (Inline function : inlined) {
+			for (VirtualReg reg : function.variables.values()) {
+				if (function.declared.contains(reg))
+					saved.add(reg);
+			}
+		}
+		
+		for (Register reg : saved) {
+			prog.addInstr(OpCode.Push, reg);
+		}
+		
+		return saved;
+	}
 
 	//callFunction is split up to enable calling alloc implicitly.
-	private void callFunctionRest(Function func, Reg reg) {
+	private void callFunctionRest(Function func, Register reg, List<Register> saved) {
 		//caller's ARP
 		prog.addInstr(OpCode.Push, ARP);
 		
@@ -629,7 +902,7 @@ public class Generator extends GrammarBaseVisitor<Instruction> {
 		
 		//return address
 		Label returnLabel = new Label("function-return");
-		Reg temp = newReg();
+		Register temp = newReg();
 		prog.addInstr(OpCode.Const, returnLabel, temp);
 		prog.addInstr(OpCode.Push, temp);
 		freeReg(temp);
@@ -637,29 +910,12 @@ public class Generator extends GrammarBaseVisitor<Instruction> {
 		//return value
 		prog.addInstr(OpCode.Push, Reg.Zero);
 		
-		//register save area
-		//we save every register that is currently used, i.e. every reg that's not on the free list
-		ArrayList<Reg> savedRegs = new ArrayList<Reg>();
-		for (Reg rreg : REGISTERS) {
-			if (!freeRegs.contains(rreg)) {
-				prog.addInstr(OpCode.Push, rreg);
-				savedRegs.add(rreg);
-			}
-		}
-		
 		Label targetLabel = functionLabels.get(func);
 		prog.addInstr(OpCode.Jump, Target.abs(targetLabel));
 		
 		prog.addInstr(returnLabel, OpCode.Nop);
 		
-		//get registers back
-		Collections.reverse(savedRegs);
-		for(Reg sreg : savedRegs) {
-			prog.addInstr(OpCode.Pop, sreg);
-		}
-		
 		//local vars + params + ARP + ret value + ret addr
-		//register saves dont count
 		int stackSize = func.getScope().getOffset() + 3;
 		
 		//push stack back
@@ -673,28 +929,38 @@ public class Generator extends GrammarBaseVisitor<Instruction> {
 		
 		//set old ARP back
 		prog.addInstr(OpCode.Load, MemAddr.deref(ARP), ARP);
+		
+		//get registers back
+		for (int i = saved.size() - 1; i >= 0; i--) {
+			prog.addInstr(OpCode.Pop, saved.get(i));
+		}
 	}
 	
 	/**
 	 * Dynamically allocates memory and stores the address in reg
 	 */
-	private Instruction alloc(int size, Reg reg) {
+	private Instruction alloc(int size, Register reg) {
 		Function func = allocFunc;
+		int start = prog.getInstructions().size();
+		List<Register> saved = saveRegs(reg);
+		
 		int localSize = func.getScope().getOffset() - 1;
-		Instruction first = prog.addInstr(OpCode.Const, localSize, reg);
+		prog.addInstr(OpCode.Const, localSize, reg);
 		prog.addInstr(OpCode.Compute, Operator.Sub, Reg.SP, reg, Reg.SP);
 		
 		prog.addInstr(OpCode.Const, size, reg);
 		prog.addInstr(OpCode.Push, reg);
 		
-		callFunctionRest(func, reg);
+		callFunctionRest(func, reg, saved);
 		
-		return first;
+		return prog.getInstructions().get(start);
 	}
 	
-	private void callConstructor(Function func, Reg address, List<ExprContext> args) {
+	private void callConstructor(Function func, Register address, List<ExprContext> args) {
+		List<Register> saved = saveRegs(null);
+		
 		int localSize = func.getScope().getOffset() - args.size() - 1;
-		Reg stackReg = newReg();
+		Register stackReg = newReg();
 		prog.addInstr(OpCode.Const, localSize, stackReg);
 		prog.addInstr(OpCode.Compute, Operator.Sub, Reg.SP, stackReg, Reg.SP);
 		freeReg(stackReg);
@@ -704,15 +970,15 @@ public class Generator extends GrammarBaseVisitor<Instruction> {
 			ExprContext arg = args.get(i);
 			visit(arg);
 			
-			Reg tempReg = regs.get(arg);
+			Register tempReg = regs.get(arg);
 			prog.addInstr(OpCode.Push, tempReg);
 			freeReg(tempReg);
 		}
 		
 		prog.addInstr(OpCode.Push, address);
 		
-		Reg reg = newReg();
-		callFunctionRest(func, reg);
+		Register reg = newReg();
+		callFunctionRest(func, reg, saved);
 		freeReg(reg);
 	}
 	
@@ -721,7 +987,7 @@ public class Generator extends GrammarBaseVisitor<Instruction> {
 	@Override
 	public Instruction visitPrefixExpr(PrefixExprContext ctx) {
 		Instruction i = visit(ctx.expr());
-		Reg reg = regs.get(ctx.expr());
+		Register reg = regs.get(ctx.expr());
 		//store the result of this computation in the register of the previous expression
 		regs.put(ctx, reg);
 		
@@ -814,7 +1080,7 @@ public class Generator extends GrammarBaseVisitor<Instruction> {
 		
 		//put the result of this binary operation in the reg of expr2
 		//since it's not needed anymore
-		Reg reg = regs.get(expr2);
+		Register reg = regs.get(expr2);
 		prog.addInstr(OpCode.Compute, op, regs.get(expr1), regs.get(expr2), reg);
 		regs.put(expr, reg);
 		
@@ -833,18 +1099,7 @@ public class Generator extends GrammarBaseVisitor<Instruction> {
 	
 	@Override
 	public Instruction visitTargetExpr(TargetExprContext ctx) {
-		Instruction first = visit(ctx.target());
-		Reg reg = regs.get(ctx.target());
-		regs.put(ctx, reg);
-		
-		if(isGlobal(ctx.target())) {
-			prog.addInstr(OpCode.Read, MemAddr.deref(reg));
-			prog.addInstr(OpCode.Receive, reg);
-		} else {
-			prog.addInstr(OpCode.Load, MemAddr.deref(reg), reg);
-		}
-		
-		return first;
+		return loadTarget(ctx.target(), ctx);
 	}
 	
 	@Override
@@ -856,7 +1111,7 @@ public class Generator extends GrammarBaseVisitor<Instruction> {
 
 	@Override
 	public Instruction visitEnumExpr(EnumExprContext ctx) {
-		int num = Type.getEnum(ctx.ID(0).getText()).getValue(ctx.ID(1).getText());
+		int num = userTypes.getEnum(ctx.ID(0).getText()).getValue(ctx.ID(1).getText());
 		return prog.addInstr(OpCode.Const, num, newReg(ctx));
 	}
 	
@@ -881,8 +1136,8 @@ public class Generator extends GrammarBaseVisitor<Instruction> {
 	@Override
 	public Instruction visitReadExpr(ReadExprContext ctx) {
 		Instruction i = visit(ctx.expr());
-		Reg reg = regs.get(ctx.expr());
-		prog.addInstr(OpCode.Read, reg);
+		Register reg = regs.get(ctx.expr());
+		prog.addInstr(OpCode.Read, MemAddr.deref(reg));
 		prog.addInstr(OpCode.Receive, reg);
 		regs.put(ctx, reg);
 		
@@ -891,7 +1146,7 @@ public class Generator extends GrammarBaseVisitor<Instruction> {
 	
 	@Override
 	public Instruction visitArrayValueExpr(ArrayValueExprContext ctx) {
-		Reg reg = newReg(ctx);
+		Register reg = newReg(ctx);
 		Instruction instr = alloc(ctx.expr().size(), reg);
 		
 		//reg is first set to the base address of the array, then increased with every element,
@@ -904,13 +1159,13 @@ public class Generator extends GrammarBaseVisitor<Instruction> {
 			prog.addInstr(OpCode.Write, regs.get(expr), MemAddr.deref(reg));
 			freeReg(expr);
 			
-			Reg temp = newReg();
+			Register temp = newReg();
 			prog.addInstr(OpCode.Const, 1, temp);
 			prog.addInstr(OpCode.Compute, Operator.Add, temp, reg, reg);
 			freeReg(temp);
 		}
 		
-		Reg temp = newReg();
+		Register temp = newReg();
 		prog.addInstr(OpCode.Const, ctx.expr().size(), temp);
 		prog.addInstr(OpCode.Compute, Operator.Sub, reg, temp, reg);
 		freeReg(temp);
@@ -920,7 +1175,7 @@ public class Generator extends GrammarBaseVisitor<Instruction> {
 	
 	@Override
 	public Instruction visitArrayLengthExpr(ArrayLengthExprContext ctx) {
-		Instruction instr = callFunction(allocFunc, newReg(ctx), Arrays.asList(ctx.expr()));
+		Instruction instr = callFunction(allocFunc, ctx, Arrays.asList(ctx.expr()));
 		
 		return instr;
 	}
@@ -929,12 +1184,12 @@ public class Generator extends GrammarBaseVisitor<Instruction> {
 	public Instruction visitStringExpr(StringExprContext ctx) {
 		String string = Util.extractString(ctx.STRING());
 		
-		Reg reg = newReg(ctx);
+		Register reg = newReg(ctx);
 		//size + 1 since strings are null terminated.
 		Instruction instr = alloc(string.length() + 1, reg);
 		
-		Reg chrReg = newReg();
-		Reg indexReg = newReg();
+		Register chrReg = newReg();
+		Register indexReg = newReg();
 		for (int i = 0; i <= string.length(); i++) {
 			//null terminated string
 			int chr = i == string.length() ? 0 : (int) string.charAt(i);
@@ -962,7 +1217,7 @@ public class Generator extends GrammarBaseVisitor<Instruction> {
 	@Override
 	public Instruction visitNewObject(NewObjectContext ctx) {
 		//size of an object is the number of fields
-		int size = Type.getClass(ctx.ID().getText()).getScope().getOffset();
+		int size = userTypes.getClass(ctx.ID().getText()).getScope().getOffset();
 		Instruction instr = alloc(size, newReg(ctx));
 		
 		//see if an constructor is being called
@@ -985,7 +1240,7 @@ public class Generator extends GrammarBaseVisitor<Instruction> {
 	public Instruction visitFloatCastExpr(FloatCastExprContext ctx) {
 		Instruction instr = visit(ctx.expr());
 		
-		Reg reg = regs.get(ctx.expr());
+		Register reg = regs.get(ctx.expr());
 		regs.put(ctx, reg);
 		
 		prog.addInstr(OpCode.Compute, Operator.ItoF, reg, Reg.Zero, reg);
@@ -997,7 +1252,7 @@ public class Generator extends GrammarBaseVisitor<Instruction> {
 	public Instruction visitIntCastExpr(IntCastExprContext ctx) {
 		Instruction instr = visit(ctx.expr());
 		
-		Reg reg = regs.get(ctx.expr());
+		Register reg = regs.get(ctx.expr());
 		regs.put(ctx, reg);
 		
 		prog.addInstr(OpCode.Compute, Operator.FtoI, reg, Reg.Zero, reg);
@@ -1010,8 +1265,8 @@ public class Generator extends GrammarBaseVisitor<Instruction> {
 		return prog.addInstr(OpCode.Const, (int) Util.extractChar(ctx.CHARLITERAL()), newReg(ctx));
 	}
 	
-	private Reg newReg(ParserRuleContext ctx) {
-		Reg reg = newReg();
+	private Register newReg(ParserRuleContext ctx) {
+		Register reg = newReg();
 		regs.put(ctx, reg);
 		
 		return reg;
@@ -1020,12 +1275,9 @@ public class Generator extends GrammarBaseVisitor<Instruction> {
 	/**
 	 * Reserves a register for use. Be sure to free this register after use.
 	 */
-	private Reg newReg() {
-		if(freeRegs.size() == 0){
-			throw new IllegalStateException("Out of registers");
-		}
-		
-		Reg reg = freeRegs.remove(0);
+	private Register newReg() {
+		VirtualReg reg = new VirtualReg(regCount++);
+		usedRegs.add(reg);
 		
 		return reg;
 	}
@@ -1034,13 +1286,91 @@ public class Generator extends GrammarBaseVisitor<Instruction> {
 		freeReg(regs.get(ctx));
 	}
 	
-	private void freeReg(Reg reg) {
+	private void freeReg(Register reg) {
 		if(reg == null) throw new NullPointerException();
 		
-		if(freeRegs.contains(reg)){
+		if(!usedRegs.remove(reg)){
 			throw new IllegalArgumentException("Register already freed");
 		}
+	}
+	
+	/**
+	 * Finds the local variables of a function or the main program that are
+	 * kept in a register instead of on the stack: every variable on the stack
+	 * that is not used as a lock. Like on the stack, a variable is identified
+	 * by its offset. The object of a method stays on the stack, fields read it
+	 * from there.
+	 */
+	private TreeMap<Integer, VirtualReg> promote(List<? extends ParseTree> trees, boolean method) {
+		TreeMap<Integer, VirtualReg> variables = new TreeMap<Integer, VirtualReg>();
+		for(int offset : promotable(trees, method)) {
+			variables.put(offset, new VirtualReg(regCount++));
+		}
 		
-		freeRegs.add(reg);
+		return variables;
+	}
+	
+	/**
+	 * Returns the offsets of the variables {@link #promote} keeps in a register.
+	 */
+	private HashSet<Integer> promotable(List<? extends ParseTree> trees, boolean method) {
+		HashSet<Integer> offsets = new HashSet<Integer>(), locks = new HashSet<Integer>();
+		
+		ArrayList<ParseTree> todo = new ArrayList<ParseTree>(trees);
+		while(!todo.isEmpty()) {
+			ParseTree tree = todo.remove(todo.size() - 1);
+			
+			if(tree instanceof IdTargetContext) {
+				IdTargetContext target = (IdTargetContext) tree;
+				if(!symboltable.getScope(target).isClass() && !symboltable.isGlobal(target)) {
+					offsets.add(symboltable.getOffset(target));
+					if(target.parent instanceof AcquireStatContext || target.parent instanceof ReleaseStatContext)
+						locks.add(symboltable.getOffset(target));
+				}
+			} else if(tree instanceof DeclStatContext && !symboltable.isGlobal((DeclStatContext) tree)) {
+				offsets.add(symboltable.getOffset((DeclStatContext) tree));
+			} else if(tree instanceof DeclAssignStatContext && !symboltable.isGlobal((DeclAssignStatContext) tree)) {
+				offsets.add(symboltable.getOffset((DeclAssignStatContext) tree));
+			}
+			
+			for(int i = 0; i < tree.getChildCount(); i++) {
+				todo.add(tree.getChild(i));
+			}
+		}
+		
+		offsets.removeAll(locks);
+		if(method) offsets.remove(0);
+		
+		return offsets;
+	}
+	
+	/**
+	 * Returns the register of the variable referenced by the target, or null if it is not kept in a register.
+	 */
+	private VirtualReg getVariable(TargetContext ctx) {
+		if(!(ctx instanceof IdTargetContext) || symboltable.getScope((IdTargetContext) ctx).isClass() || symboltable.isGlobal(ctx))
+			return null;
+		
+		return variables.get(symboltable.getOffset((IdTargetContext) ctx));
+	}
+	
+	/**
+	 * A function that is being inlined, with the variables of the function it is inlined in.
+	 */
+	private static class Inline {
+		private final Function function;
+		private final TreeMap<Integer, VirtualReg> variables;
+		private final HashSet<VirtualReg> declared;
+		private final Label end = new Label("inline-end");
+		private Register result;
+		//the return at the end of the body, which does not need to jump
+		private ReturnStatContext last;
+		private boolean jumped;
+		
+		private Inline(Function function, TreeMap<Integer, VirtualReg> variables, HashSet<VirtualReg> declared) {
+			this.function = function;
+			this.variables = variables;
+			this.declared = declared;
+		}
 	}
 }
@@ -4,9 +4,18 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
 
 import org.antlr.v4.runtime.ANTLRInputStream;
 
@@ -20,8 +29,17 @@ import awesome.lang.checking.CompilationUnit;
 
 public class ImportResolver extends GrammarBaseVisitor<Void> {
 	
-	//list of files that were imported, to resolve circular dependencies
-	private ArrayList<String> imports = new ArrayList<String>();
+	//whether imported files are parsed concurrently before they are visited
+	private final boolean parallel;
+	
+	//files parsed ahead of time in parallel mode by canonical path, null if the file could not be read
+	private final ConcurrentHashMap<Path, ParseTask> parsed = new ConcurrentHashMap<Path, ParseTask>();
+	
+	//canonical paths of the files that were imported, to resolve circular dependencies
+	private LinkedHashSet<Path> imports = new LinkedHashSet<Path>();
+	
+	//time spent parsing, on every thread
+	private final CompileStats stats = new CompileStats();
 	
 	//Store certain contexes which are defined in different global scopes
 	private CompilationUnit contextDataSet = new CompilationUnit();
@@ -29,33 +47,136 @@ public class ImportResolver extends GrammarBaseVisitor<Void> {
 	//directory of the main program
 	private Path mainDir;
 	
+	//standard library parsed ahead of time, or null
+	private final ProgramContext stdlib;
+	
+	//source of parsed files, or null to read them directly
+	private final ModuleGraph modules;
+	
 	/**
 	 * Finds all imported programs. Path arguments is used to resolve relative
 	 * paths.
 	 */
 	public ImportResolver(Path filePath) {
+		this(filePath, false);
+	}
+	
+	/**
+	 * Finds all imported programs. Path arguments is used to resolve relative
+	 * paths. If parallel is true, all imported files are parsed concurrently
+	 * before they are added in the same order as they would be otherwise.
+	 */
+	public ImportResolver(Path filePath, boolean parallel) {
+		this.parallel = parallel;
+		this.stdlib = null;
+		this.modules = null;
+		mainDir = filePath.getParent();
+		
+		if (parallel) {
+			ParseTask stdlib = parseAll(defaultPath());
+			ParseTask main = parseAll(filePath);
+			stdlib.join();
+			main.join();
+		}
+		
+		importDefault();
+		attemptImport(filePath);
+	}
+	
+	/**
+	 * Finds all imported programs, using the given parse tree of the standard
+	 * library instead of reading it. Parse trees are not modified, so one tree
+	 * can be shared by resolvers on different threads.
+	 */
+	public ImportResolver(Path filePath, ProgramContext stdlib) {
+		this.parallel = false;
+		this.stdlib = stdlib;
+		this.modules = null;
 		mainDir = filePath.getParent();
 		
 		importDefault();
 		attemptImport(filePath);
 	}
 	
+	/**
+	 * Finds all imported programs, taking the parsed files from the given graph.
+	 */
+	public ImportResolver(Path filePath, ModuleGraph modules) {
+		this.parallel = false;
+		this.stdlib = null;
+		this.modules = modules;
+		mainDir = filePath.getParent();
+		
+		importDefault();
+		attemptImport(filePath);
+	}
+	
+	/**
+	 * Resolves only the given parse tree of the standard library.
+	 */
+	public ImportResolver(ProgramContext stdlib) {
+		this.parallel = false;
+		this.stdlib = stdlib;
+		this.modules = null;
+		mainDir = defaultPath().getParent();
+		
+		importDefault();
+	}
+	
 	/**
 	 * Starts finding imports in the main program, imports the standard library
 	 */
 	public ImportResolver(String program) {
+		this(program, false);
+	}
+	
+	/**
+	 * Starts finding imports in the main program, imports the standard library.
+	 * If parallel is true, imported files are parsed concurrently.
+	 */
+	public ImportResolver(String program, boolean parallel) {
+		this.parallel = parallel;
+		this.stdlib = null;
+		this.modules = null;
 		//search relative to working directory
 		mainDir = Paths.get("/");
 		
+		ProgramContext ctx;
+		if (parallel) {
+			ParseTask stdlib = parseAll(defaultPath());
+			ctx = parse(program);
+			ForkJoinTask.invokeAll(importTasks(ctx));
+			stdlib.join();
+		} else {
+			ctx = parse(program);
+		}
+		
 		importDefault();
-		visitProgram(Util.parseProgram(new ANTLRInputStream(program)));
+		visitProgram(ctx);
 	}
 	
 	/**
 	 * Import the standardlibrary
 	 */
 	private void importDefault() {
-		attemptImport(Paths.get("stdlib", "default.awl"));
+		if (stdlib != null) {
+			imports.add(Util.canonicalPath(defaultPath()));
+			stdlib.accept(this);
+		} else {
+			attemptImport(defaultPath());
+		}
+	}
+	
+	/**
+	 * Parses the standard library, returns null if it contains syntax errors.
+	 * Throws an IOException if it cannot be read.
+	 */
+	public static ProgramContext parseDefault() throws IOException {
+		return parse(defaultPath().toFile());
+	}
+	
+	private static Path defaultPath() {
+		return Paths.get("stdlib", "default.awl");
 	}
 	
 	/**
@@ -91,35 +212,161 @@ public class ImportResolver extends GrammarBaseVisitor<Void> {
 	 * Try to read the file and import it 
 	 */
 	private boolean attemptImport(Path path) {
-		File file = path.toFile();
+		Path canonical = Util.canonicalPath(path);
 		
-		if (imports.contains(file.getName())) {
+		if (!imports.add(canonical)) {
 			return true;
+		}
+		
+		ProgramContext program;
+		if (parallel) {
+			program = parsed.get(canonical).join();
+		} else if (modules != null) {
+			try {
+				program = modules.load(canonical).getProgram();
+			} catch (IOException e) {
+				e.printStackTrace();
+				return false;
+			}
 		} else {
-			imports.add(file.getName());
+			try {
+				program = parseTimed(path.toFile());
+			} catch (FileNotFoundException e) {
+				return false;
+			} catch (IOException e) {
+				e.printStackTrace();
+				return false;
+			}
 		}
 		
-		try {
-			ProgramContext program = Util.parseProgram(new ANTLRInputStream(new FileReader(file)));
-			program.accept(this);
-		} catch (FileNotFoundException e) {
-			return false;
-		} catch (IOException e) {
-			e.printStackTrace();
+		if (program == null) {
+			if (Files.exists(path)) {
+				//the parser has reported the syntax errors already
+				throw new IllegalArgumentException("Unable to parse " + path);
+			}
 			return false;
 		}
 		
+		program.accept(this);
 		return true;
 	}
 	
+	private ProgramContext parse(String program) {
+		CompileStats.Timer timer = stats.start(CompileStats.Phase.PARSE);
+		ProgramContext ctx = Util.parseProgram(new ANTLRInputStream(program));
+		timer.stop();
+		return ctx;
+	}
+	
+	private ProgramContext parseTimed(File file) throws IOException {
+		CompileStats.Timer timer = stats.start(CompileStats.Phase.PARSE);
+		try {
+			return parse(file);
+		} finally {
+			timer.stop();
+		}
+	}
+	
+	private static ProgramContext parse(File file) throws IOException {
+		try (FileReader reader = new FileReader(file)) {
+			return Util.parseProgram(new ANTLRInputStream(reader));
+		}
+	}
+	
+	/**
+	 * Starts parsing the file and everything it imports on the common fork-join pool,
+	 * unless the same file is already being parsed.
+	 */
+	private ParseTask parseAll(Path path) {
+		ParseTask task = new ParseTask(path);
+		ParseTask existing = parsed.putIfAbsent(Util.canonicalPath(path), task);
+		
+		if (existing != null) {
+			return existing;
+		}
+		
+		ForkJoinPool.commonPool().execute(task);
+		return task;
+	}
+	
+	/**
+	 * Starts parsing every file imported by the program that is not parsed yet,
+	 * returns the new tasks.
+	 */
+	private List<ParseTask> importTasks(ProgramContext program) {
+		List<ParseTask> tasks = new ArrayList<ParseTask>();
+		if (program == null) {
+			return tasks;
+		}
+		
+		for (ImprtContext imprt : program.imprt()) {
+			Path path = mainDir.resolve(Util.extractString(imprt.STRING()));
+			ParseTask task = new ParseTask(path);
+			
+			if (parsed.putIfAbsent(Util.canonicalPath(path), task) == null) {
+				tasks.add(task);
+			}
+		}
+		
+		return tasks;
+	}
+	
+	/**
+	 * Parses a single file, then its imports in parallel. Results in null if the file could not be read.
+	 */
+	private class ParseTask extends RecursiveTask<ProgramContext> {
+		private static final long serialVersionUID = 2817290357264082513L;
+		private final Path path;
+		
+		public ParseTask(Path path) {
+			this.path = path;
+		}
+		
+		@Override
+		protected ProgramContext compute() {
+			ProgramContext program;
+			try {
+				program = parseTimed(path.toFile());
+			} catch (FileNotFoundException e) {
+				return null;
+			} catch (IOException e) {
+				e.printStackTrace();
+				return null;
+			}
+			
+			//only tasks created here are joined, so circular imports cannot deadlock
+			ForkJoinTask.invokeAll(importTasks(program));
+			
+			return program;
+		}
+	}
+	
+	/**
+	 * @return The time spent parsing files, files from a ModuleGraph or a shared standard library are not included.
+	 */
+	public CompileStats getStats() {
+		return stats;
+	}
+	
 	public CompilationUnit getContextDataSet() {
 		return this.contextDataSet;
 	}
 	
 	/**
-	 * @return All the files that were included.
+	 * @return The names of all the files that were included.
 	 */
 	public ArrayList<String> getImports() {
-		return imports;
+		ArrayList<String> names = new ArrayList<String>();
+		for (Path path : imports) {
+			names.add(path.getFileName().toString());
+		}
+		return names;
+	}
+	
+	/**
+	 * @return The canonical paths of all the files that were included, in the order they were visited.
+	 */
+	public Set<Path> getImportedPaths() {
+		return Collections.unmodifiableSet(imports);
 	}
 }
@@ -0,0 +1,88 @@
+package awesome.lang;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+
+import awesome.lang.Compiler.CompilationException;
+
+/**
+ * Compiles a set of entry programs and keeps them up to date. On every build
+ * only the files that changed are parsed again, and only the entry programs
+ * that import a changed file are checked and generated again.
+ */
+public class IncrementalCompiler {
+	private final ModuleGraph modules = new ModuleGraph();
+	private final Compiler compiler = new Compiler();
+
+	//entry programs whose output is up to date
+	private final Set<Path> built = new HashSet<Path>();
+
+	//entry programs compiled by the last build
+	private List<Path> rebuilt = new ArrayList<Path>();
+
+	/**
+	 * Compiles every entry program that is new, failed to compile before or
+	 * imports a file that changed since the last build. The output is written to
+	 * a file with the same name and extension .hs in the output directory.
+	 * Returns the errors of every entry that failed to compile.
+	 */
+	public LinkedHashMap<Path, List<String>> build(Collection<Path> entries, Path outputDir) throws IOException {
+		Files.createDirectories(outputDir);
+
+		Set<Path> stale = modules.getAffectedEntries(modules.refresh());
+		rebuilt = new ArrayList<Path>();
+		LinkedHashMap<Path, List<String>> errors = new LinkedHashMap<Path, List<String>>();
+
+		for (Path entry : entries) {
+			Path canonical = Util.canonicalPath(entry);
+			if (built.contains(canonical) && !stale.contains(canonical)) {
+				continue;
+			}
+
+			rebuilt.add(entry);
+			List<String> entryErrors = compile(entry, Compiler.getOutputPath(entry, outputDir));
+
+			if (entryErrors.isEmpty()) {
+				built.add(canonical);
+			} else {
+				built.remove(canonical);
+				errors.put(entry, entryErrors);
+			}
+		}
+
+		return errors;
+	}
+
+	private List<String> compile(Path entry, Path output) {
+		try {
+			ImportResolver resolver = new ImportResolver(entry, modules);
+			modules.setDependencies(entry, new HashSet<Path>(resolver.getImportedPaths()));
+
+			compiler.build(resolver).pack().writeSprockell(output);
+			return new ArrayList<String>();
+		} catch (CompilationException e) {
+			return e.getErrors();
+		} catch (IOException | RuntimeException e) {
+			return Arrays.asList(e.toString());
+		}
+	}
+
+	/**
+	 * Returns the entry programs that were compiled by the last build.
+	 */
+	public List<Path> getRebuilt() {
+		return rebuilt;
+	}
+
+	public ModuleGraph getModules() {
+		return modules;
+	}
+}
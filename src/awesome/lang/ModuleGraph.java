@@ -0,0 +1,211 @@
+package awesome.lang;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.antlr.v4.runtime.ANTLRInputStream;
+
+import awesome.lang.GrammarParser.ImprtContext;
+import awesome.lang.GrammarParser.ProgramContext;
+
+/**
+ * The parsed source files of a project and the imports between them, keyed by
+ * canonical path. Files are only parsed again when their contents change.
+ *
+ * For every entry program the files it depends on are recorded, so the entries
+ * affected by a changed file are found without visiting the other entries.
+ * Code generation lays out a whole program at once, so the unit of
+ * recompilation is an entry program, not a file.
+ */
+public class ModuleGraph {
+	private final HashMap<Path, Module> modules = new HashMap<Path, Module>();
+
+	//entry program -> every file it imports, including itself
+	private final HashMap<Path, Set<Path>> dependencies = new HashMap<Path, Set<Path>>();
+
+	//file -> entry programs that import it
+	private final HashMap<Path, Set<Path>> dependents = new HashMap<Path, Set<Path>>();
+
+	/**
+	 * Returns the module of a file, which is read and parsed if it is not known yet.
+	 */
+	public synchronized Module load(Path path) throws IOException {
+		path = Util.canonicalPath(path);
+		Module module = modules.get(path);
+
+		if (module == null) {
+			module = read(path);
+			modules.put(path, module);
+		}
+
+		return module;
+	}
+
+	/**
+	 * Checks every known file for changes, and parses the changed files again.
+	 * Only files with a different size or modification time are read. Returns
+	 * the changed files.
+	 */
+	public synchronized Set<Path> refresh() throws IOException {
+		Set<Path> changed = new HashSet<Path>();
+
+		for (Module module : new ArrayList<Module>(modules.values())) {
+			if (module.isModified()) {
+				Module updated = read(module.getPath());
+
+				if (!updated.hasSameContents(module)) {
+					changed.add(module.getPath());
+				}
+				modules.put(module.getPath(), updated);
+			}
+		}
+
+		return changed;
+	}
+
+	/**
+	 * Records the files an entry program imports, including itself and the
+	 * standard library, in the order ImportResolver visits them.
+	 */
+	public synchronized void setDependencies(Path entry, Set<Path> files) {
+		entry = Util.canonicalPath(entry);
+		Set<Path> old = dependencies.put(entry, files);
+
+		if (old != null) {
+			for (Path file : old) {
+				dependents.get(file).remove(entry);
+			}
+		}
+
+		for (Path file : files) {
+			Set<Path> entries = dependents.get(file);
+			if (entries == null) {
+				entries = new HashSet<Path>();
+				dependents.put(file, entries);
+			}
+			entries.add(entry);
+		}
+	}
+
+	/**
+	 * Returns the files imported by an entry program, or null if they are not recorded.
+	 */
+	public synchronized Set<Path> getDependencies(Path entry) {
+		Set<Path> files = dependencies.get(Util.canonicalPath(entry));
+		return files == null ? null : Collections.unmodifiableSet(files);
+	}
+
+	/**
+	 * Returns the entry programs that import any of the given files.
+	 */
+	public synchronized Set<Path> getAffectedEntries(Set<Path> files) {
+		Set<Path> entries = new HashSet<Path>();
+
+		for (Path file : files) {
+			Set<Path> fileEntries = dependents.get(file);
+			if (fileEntries != null) {
+				entries.addAll(fileEntries);
+			}
+		}
+
+		return entries;
+	}
+
+	private static Module read(Path path) throws IOException {
+		BasicFileAttributes attributes;
+		byte[] content;
+
+		try {
+			attributes = Files.readAttributes(path, BasicFileAttributes.class);
+			content = Files.readAllBytes(path);
+		} catch (NoSuchFileException e) {
+			return new Module(path, null, null, -1);
+		}
+
+		ProgramContext program = Util.parseProgram(new ANTLRInputStream(new String(content, StandardCharsets.UTF_8)));
+		return new Module(path, program, content, attributes.lastModifiedTime().toMillis());
+	}
+
+	/**
+	 * A single source file.
+	 */
+	public static class Module {
+		private final Path path;
+		private final ProgramContext program;
+		private final byte[] content;
+		private final long modified;
+
+		private final List<String> imports = new ArrayList<String>();
+
+		private Module(Path path, ProgramContext program, byte[] content, long modified) {
+			this.path = path;
+			this.program = program;
+			this.content = content;
+			this.modified = modified;
+
+			if (program != null) {
+				new ImportCollector().visit(program);
+			}
+		}
+
+		public Path getPath() {
+			return path;
+		}
+
+		/**
+		 * Returns the parse tree, or null if the file does not exist or contains syntax errors.
+		 */
+		public ProgramContext getProgram() {
+			return program;
+		}
+
+		public boolean exists() {
+			return content != null;
+		}
+
+		/**
+		 * Returns the imported files as written in the source.
+		 */
+		public List<String> getImports() {
+			return Collections.unmodifiableList(imports);
+		}
+
+		private boolean isModified() throws IOException {
+			try {
+				BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+				return content == null || attributes.size() != content.length
+						|| attributes.lastModifiedTime().toMillis() != modified;
+			} catch (NoSuchFileException e) {
+				return content != null;
+			}
+		}
+
+		private boolean hasSameContents(Module other) {
+			return Arrays.equals(content, other.content);
+		}
+
+		/**
+		 * Finds the imports of the file.
+		 */
+		private class ImportCollector extends GrammarBaseVisitor<Void> {
+			@Override
+			public Void visitProgram(ProgramContext ctx) {
+				for (ImprtContext imprt : ctx.imprt()) {
+					imports.add(Util.extractString(imprt.STRING()));
+				}
+				return null;
+			}
+		}
+	}
+}
@@ -0,0 +1,92 @@
+package awesome.lang;
+
+import org.antlr.v4.runtime.BailErrorStrategy;
+import org.antlr.v4.runtime.BaseErrorListener;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.ConsoleErrorListener;
+import org.antlr.v4.runtime.DefaultErrorStrategy;
+import org.antlr.v4.runtime.RecognitionException;
+import org.antlr.v4.runtime.Recognizer;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
+
+import awesome.lang.GrammarParser.ProgramContext;
+
+/**
+ * Parses programs with a lexer and parser that are reused for every file.
+ * Instances are not thread safe, Util.parseProgram keeps one per thread.
+ *
+ * Programs are first parsed with SLL prediction, which is much faster but
+ * gives up on some valid inputs. Only if that fails the tokens are parsed
+ * again with full LL prediction, which also reports the syntax errors.
+ */
+public class ProgramParser {
+	private final GrammarLexer lexer = new GrammarLexer(null);
+	private CommonTokenStream tokens;
+	//the token stream is set for every program, since setting it reads the first token
+	private final GrammarParser parser = new GrammarParser(null);
+	private final ErrorListener listener = new ErrorListener();
+
+	public ProgramParser() {
+		lexer.addErrorListener(listener);
+	}
+
+	/**
+	 * Parses a program, returns null if it contains syntax errors.
+	 */
+	public ProgramContext parse(CharStream stream) {
+		reset(stream);
+
+		parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+		parser.setErrorHandler(new BailErrorStrategy());
+		parser.removeErrorListeners();
+
+		try {
+			ProgramContext program = parser.program();
+			return listener.error ? null : program;
+		} catch (ParseCancellationException e) {
+			//the tokens are kept, only the parser runs again
+			tokens.seek(0);
+			parser.reset();
+			return parseLL();
+		}
+	}
+
+	/**
+	 * Parses a program using only full LL prediction, returns null if it contains syntax errors.
+	 */
+	public ProgramContext parseLL(CharStream stream) {
+		reset(stream);
+		return parseLL();
+	}
+
+	private ProgramContext parseLL() {
+		parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+		parser.setErrorHandler(new DefaultErrorStrategy());
+		parser.removeErrorListeners();
+		parser.addErrorListener(ConsoleErrorListener.INSTANCE);
+		parser.addErrorListener(listener);
+
+		ProgramContext program = parser.program();
+		return listener.error ? null : program;
+	}
+
+	private void reset(CharStream stream) {
+		listener.error = false;
+		lexer.setInputStream(stream);
+		//a token stream cannot be reset after it has reached the end of its input
+		tokens = new CommonTokenStream(lexer);
+		parser.setTokenStream(tokens);
+	}
+
+	private static class ErrorListener extends BaseErrorListener {
+		private boolean error = false;
+
+		@Override
+		public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol, int line, int charPositionInLine,
+				String msg, RecognitionException e) {
+			error = true;
+		}
+	}
+}
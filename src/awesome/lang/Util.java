@@ -1,16 +1,21 @@
 package awesome.lang;
 
-import org.antlr.v4.runtime.BaseErrorListener;
+import java.io.IOException;
+import java.nio.file.Path;
+
 import org.antlr.v4.runtime.CharStream;
-import org.antlr.v4.runtime.CommonTokenStream;
-import org.antlr.v4.runtime.RecognitionException;
-import org.antlr.v4.runtime.Recognizer;
-import org.antlr.v4.runtime.TokenStream;
 import org.antlr.v4.runtime.tree.TerminalNode;
 
 import awesome.lang.GrammarParser.ProgramContext;
 
 public class Util {
+	private static final ThreadLocal<ProgramParser> PARSERS = new ThreadLocal<ProgramParser>() {
+		@Override
+		protected ProgramParser initialValue() {
+			return new ProgramParser();
+		}
+	};
+	
 	/**
 	 * change escaped string to actual values 
 	 */
@@ -76,24 +81,23 @@ public class Util {
 		}
 	}
 	
-	public static ProgramContext parseProgram(CharStream stream) {
-		GrammarLexer lexer = new GrammarLexer(stream);
-		ErrorListener listener = new ErrorListener();
-		lexer.addErrorListener(listener);
-		TokenStream tokens = new CommonTokenStream(lexer);
-		GrammarParser parser = new GrammarParser(tokens);
-		parser.addErrorListener(listener);
-		ProgramContext program = parser.program();
-		return listener.error ? null : program;
+	/**
+	 * Returns the canonical form of a path, so the same file always has the
+	 * same path. Paths of files that do not exist are only normalized.
+	 */
+	public static Path canonicalPath(Path path) {
+		try {
+			return path.toRealPath();
+		} catch (IOException e) {
+			return path.toAbsolutePath().normalize();
+		}
 	}
 	
-	private static class ErrorListener extends BaseErrorListener {
-		private boolean error = false;
-		
-		@Override
-		public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol, int line, int charPositionInLine,
-				String msg, RecognitionException e) {
-			error = true;
-		}
+	/**
+	 * Parses a program, returns null if it contains syntax errors. The lexer
+	 * and parser are reused for every program parsed on the same thread.
+	 */
+	public static ProgramContext parseProgram(CharStream stream) {
+		return PARSERS.get().parse(stream);
 	}
 }
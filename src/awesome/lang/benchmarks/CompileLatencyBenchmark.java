@@ -0,0 +1,99 @@
+package awesome.lang.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import awesome.lang.CompileClient;
+import awesome.lang.CompileServer;
+
+/**
+ * Compares the latency of compiling a program in a fresh JVM with Compiler.main,
+ * in a fresh JVM with the CompileClient, and from a warm in-process client.
+ * Run from the project root, with an optional example name as argument.
+ */
+public class CompileLatencyBenchmark {
+	private static final int RUNS = 10;
+
+	public static void main(String[] args) throws Exception {
+		String example = args.length > 0 ? args[0] : "gameoflife.awl";
+		Path source = Paths.get("src/awesome/lang/examples", example);
+		Path output = Files.createTempFile("awl-bench", ".hs");
+
+		try (CompileServer server = startServer()) {
+			String port = Integer.toString(server.getPort());
+
+			report("cold compiler", time(RUNS, "awesome.lang.Compiler", "-example", example));
+			report("cold client", time(RUNS, "awesome.lang.CompileClient", "-port", port, "-example", example));
+
+			long[] warm = new long[RUNS * 10];
+			for (int i = 0; i < warm.length; i++) {
+				long start = System.nanoTime();
+				if (!CompileClient.compile(server.getPort(), source, output).isEmpty()) {
+					throw new IllegalStateException("Compile failed");
+				}
+				warm[i] = System.nanoTime() - start;
+			}
+			report("warm client", warm);
+		} finally {
+			Files.delete(output);
+		}
+	}
+
+	private static CompileServer startServer() throws IOException {
+		final CompileServer server = new CompileServer(0, null);
+		server.warmUp();
+
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					server.serve();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		});
+		thread.setDaemon(true);
+		thread.start();
+
+		return server;
+	}
+
+	/**
+	 * Runs a main class in a new JVM with the current class path, returns the wall time of every run.
+	 */
+	private static long[] time(int runs, String... command) throws IOException, InterruptedException {
+		String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+		String[] process = new String[command.length + 3];
+		process[0] = java;
+		process[1] = "-cp";
+		process[2] = System.getProperty("java.class.path");
+		System.arraycopy(command, 0, process, 3, command.length);
+
+		long[] times = new long[runs];
+		for (int i = 0; i < runs; i++) {
+			long start = System.nanoTime();
+			int status = new ProcessBuilder(process).inheritIO().redirectOutput(new File(nullFile())).start().waitFor();
+			times[i] = System.nanoTime() - start;
+
+			if (status != 0) {
+				throw new IllegalStateException(command[0] + " exited with " + status);
+			}
+		}
+		return times;
+	}
+
+	private static String nullFile() {
+		return System.getProperty("os.name").startsWith("Windows") ? "NUL" : "/dev/null";
+	}
+
+	private static void report(String name, long[] times) {
+		long[] sorted = times.clone();
+		Arrays.sort(sorted);
+		System.out.printf("%-14s median %8.2f ms, min %8.2f ms%n", name, sorted[sorted.length / 2] / 1e6, sorted[0] / 1e6);
+	}
+}
@@ -0,0 +1,51 @@
+package awesome.lang.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import awesome.lang.Compiler;
+import awesome.lang.model.PackedProgram;
+import awesome.lang.simulator.Profiler;
+
+/**
+ * Measures how many instructions the optimizer removes from the example
+ * programs, and how many fewer instructions are executed when they run. The
+ * argument is the directory with the programs, by default the examples.
+ */
+public class OptimizerBenchmark {
+	public static void main(String[] args) throws Exception {
+		Path dir = Paths.get(args.length > 0 ? args[0] : "src/awesome/lang/examples");
+
+		Compiler plain = new Compiler();
+		plain.setOptimize(false);
+		Compiler optimizing = new Compiler();
+
+		System.out.printf("%-20s %12s %12s %14s %14s %8s%n", "program", "size", "optimized", "executed", "optimized", "saved");
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*.awl")) {
+			for (Path file : files) {
+				PackedProgram before = plain.compile(file).pack(), after = optimizing.compile(file).pack();
+				long executedBefore = executed(before), executedAfter = executed(after);
+
+				System.out.printf("%-20s %12d %12d %14d %14d %7.1f%%%n", file.getFileName(), before.size(), after.size(),
+						executedBefore, executedAfter, 100.0 * (executedBefore - executedAfter) / executedBefore);
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of instructions executed by all sprockells.
+	 */
+	private static long executed(PackedProgram program) {
+		Profiler profiler = new Profiler(program, new ByteArrayOutputStream());
+		profiler.run();
+
+		long executed = 0;
+		for (int i = 0; i < program.getNumSprockells(); i++) {
+			executed += profiler.getCycles(i);
+		}
+		return executed;
+	}
+}
@@ -0,0 +1,63 @@
+package awesome.lang.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+
+import awesome.lang.Compiler;
+import awesome.lang.model.PackedProgram;
+import awesome.lang.simulator.ParallelSimulator;
+import awesome.lang.simulator.Simulator;
+
+/**
+ * Compares the sequential and the parallel simulator on programs with 1, 2, 4
+ * and 8 threads, which each run the same loop and only share a lock. The
+ * argument is the number of loop iterations per thread.
+ */
+public class ParallelSimulatorBenchmark {
+	private static final int RUNS = 5;
+
+	public static void main(String[] args) throws Exception {
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+		Compiler compiler = new Compiler();
+		System.out.println(Runtime.getRuntime().availableProcessors() + " cores");
+
+		for (int threads = 1; threads <= 8; threads *= 2) {
+			PackedProgram program = compiler.compile(program(threads, iterations)).pack();
+
+			//warm up
+			runSequential(program);
+			runParallel(program);
+
+			long sequential = 0, parallel = 0;
+			for (int i = 0; i < RUNS; i++) {
+				long start = System.nanoTime();
+				runSequential(program);
+				sequential += System.nanoTime() - start;
+
+				start = System.nanoTime();
+				runParallel(program);
+				parallel += System.nanoTime() - start;
+			}
+
+			System.out.printf("%d threads: sequential %8.2f ms, parallel %8.2f ms%n", threads, sequential / 1e6 / RUNS,
+					parallel / 1e6 / RUNS);
+		}
+	}
+
+	private static String program(int threads, int iterations) {
+		StringBuilder prog = new StringBuilder("int done = 0; lock l;\n");
+		for (int t = 0; t < threads; t++) {
+			prog.append("thread t" + t + "(): { int x = 0; for (int i = 0; i < " + iterations + "; i = i + 1) { x = x + i * 3; }"
+					+ " acquire l; done = done + 1; release l; }\n");
+			prog.append("t" + t + "();\n");
+		}
+		return prog.append("while (done < " + threads + ") {} print(done);").toString();
+	}
+
+	private static void runSequential(PackedProgram program) {
+		new Simulator(program, new ByteArrayOutputStream()).run();
+	}
+
+	private static void runParallel(PackedProgram program) {
+		new ParallelSimulator(program, new ByteArrayOutputStream()).run();
+	}
+}
@@ -0,0 +1,40 @@
+package awesome.lang.benchmarks;
+
+import org.antlr.v4.runtime.ANTLRInputStream;
+
+import awesome.lang.ProgramParser;
+
+/**
+ * Compares parsing large generated programs with full LL prediction and with
+ * SLL prediction falling back to LL. The argument is the number of functions
+ * in the generated program, see ProgramGenerator.
+ */
+public class ParseBenchmark {
+	private static final int WARMUP = 5, RUNS = 10;
+
+	public static void main(String[] args) {
+		int functions = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		String program = new ProgramGenerator(1).setFunctions(functions).generate().get(ProgramGenerator.MAIN);
+		System.out.println("Program of " + program.length() / 1024 + " KiB");
+
+		ProgramParser parser = new ProgramParser();
+		for (int i = 0; i < WARMUP; i++) {
+			parser.parseLL(new ANTLRInputStream(program));
+			parser.parse(new ANTLRInputStream(program));
+		}
+
+		long ll = 0, twoStage = 0;
+		for (int i = 0; i < RUNS; i++) {
+			long start = System.nanoTime();
+			parser.parseLL(new ANTLRInputStream(program));
+			ll += System.nanoTime() - start;
+
+			start = System.nanoTime();
+			parser.parse(new ANTLRInputStream(program));
+			twoStage += System.nanoTime() - start;
+		}
+
+		System.out.printf("LL         %8.2f ms%n", ll / 1e6 / RUNS);
+		System.out.printf("SLL and LL %8.2f ms%n", twoStage / 1e6 / RUNS);
+	}
+}
@@ -0,0 +1,253 @@
+package awesome.lang.benchmarks;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+
+/**
+ * Generates large, valid AWL programs to measure how the compiler scales. The
+ * same seed and settings always give the same program.
+ *
+ * Expressions are generated left-deep with parentheses, so they never need
+ * more than a few registers. Functions only call earlier functions in the same
+ * group of GROUP_SIZE functions and loops run LOOP_COUNT times, so generated
+ * programs also terminate quickly when they are run.
+ */
+public class ProgramGenerator {
+	public static final String MAIN = "main.awl";
+	public static final int GROUP_SIZE = 16, LOOP_COUNT = 3;
+
+	private static final String[] OPERATORS = {"+", "-", "*"};
+
+	private final long seed;
+	private int functions = 10, classes = 2, enums = 2, depth = 2, expressionSize = 4, imports = 0;
+
+	private Random random;
+	private int names;
+
+	public ProgramGenerator(long seed) {
+		this.seed = seed;
+	}
+
+	public ProgramGenerator setFunctions(int functions) {
+		this.functions = functions;
+		return this;
+	}
+
+	public ProgramGenerator setClasses(int classes) {
+		this.classes = classes;
+		return this;
+	}
+
+	public ProgramGenerator setEnums(int enums) {
+		this.enums = enums;
+		return this;
+	}
+
+	/**
+	 * Sets how deep if statements and loops are nested in functions.
+	 */
+	public ProgramGenerator setDepth(int depth) {
+		this.depth = depth;
+		return this;
+	}
+
+	/**
+	 * Sets the number of operands in generated expressions.
+	 */
+	public ProgramGenerator setExpressionSize(int expressionSize) {
+		this.expressionSize = expressionSize;
+		return this;
+	}
+
+	/**
+	 * Sets the number of files imported by the main program, the definitions are spread over these files.
+	 */
+	public ProgramGenerator setImports(int imports) {
+		this.imports = imports;
+		return this;
+	}
+
+	/**
+	 * Generates the program, returns the contents of every file by file name.
+	 * The main program is called MAIN and comes last.
+	 */
+	public Map<String, String> generate() {
+		random = new Random(seed);
+		names = 0;
+
+		int modules = imports + 1;
+		List<StringBuilder> files = new ArrayList<StringBuilder>();
+		for (int i = 0; i < modules; i++) {
+			files.add(new StringBuilder());
+		}
+
+		//every module imports the one before it, the main program imports all of them
+		for (int i = 1; i < imports; i++) {
+			files.get(i).append("import \"").append(moduleName(i - 1)).append("\";\n");
+		}
+		for (int i = 0; i < imports; i++) {
+			files.get(imports).append("import \"").append(moduleName(i)).append("\";\n");
+		}
+
+		for (int i = 0; i < enums; i++) {
+			genEnum(files.get(i % modules), i);
+		}
+		for (int i = 0; i < classes; i++) {
+			genClass(files.get(i % modules), i);
+		}
+
+		//functions are split in consecutive parts, so earlier functions are in earlier modules
+		for (int i = 0; i < functions; i++) {
+			genFunction(files.get((int) ((long) i * modules / functions)), i);
+		}
+
+		genMain(files.get(imports));
+
+		Map<String, String> program = new LinkedHashMap<String, String>();
+		for (int i = 0; i < imports; i++) {
+			program.put(moduleName(i), files.get(i).toString());
+		}
+		program.put(MAIN, files.get(imports).toString());
+
+		return program;
+	}
+
+	/**
+	 * Generates the program and writes its files to the directory, returns the path of the main program.
+	 */
+	public Path write(Path dir) throws IOException {
+		Files.createDirectories(dir);
+
+		for (Entry<String, String> file : generate().entrySet()) {
+			Files.write(dir.resolve(file.getKey()), file.getValue().getBytes(StandardCharsets.UTF_8));
+		}
+
+		return dir.resolve(MAIN);
+	}
+
+	private static String moduleName(int module) {
+		return "module" + module + ".awl";
+	}
+
+	private void genEnum(StringBuilder out, int index) {
+		out.append("enum E").append(index).append(" { ");
+		for (int i = 0; i < 3; i++) {
+			out.append(i > 0 ? ", " : "").append("v").append(i);
+		}
+		out.append(" }\n");
+	}
+
+	private void genClass(StringBuilder out, int index) {
+		out.append("class C").append(index).append(" {\n");
+		out.append("\tint f0;\n\tint f1;\n");
+		out.append("\tinit(int a): {\n\t\tthis.f0 = a;\n\t\tthis.f1 = a + ").append(index).append(";\n\t}\n");
+		out.append("\tint get").append(index).append("(): {\n\t\treturn f0 * 2 + f1;\n\t}\n");
+		out.append("}\n");
+	}
+
+	private void genFunction(StringBuilder out, int index) {
+		List<String> vars = new ArrayList<String>();
+		vars.add("a");
+		vars.add("b");
+
+		out.append("int f").append(index).append("(int a, int b): {\n");
+		out.append("\tint x = ").append(genExpr(vars)).append(";\n");
+		vars.add("x");
+
+		if (enums > 0) {
+			int type = random.nextInt(enums);
+			out.append("\tE").append(type).append(" e = E").append(type).append(":v").append(random.nextInt(3)).append(";\n");
+			out.append("\tif (e == E").append(type).append(":v").append(random.nextInt(3)).append(") {\n");
+			out.append("\t\tx = x + 1;\n\t}\n");
+		}
+
+		genBlock(out, vars, depth, "\t");
+
+		//calls only go back within the group, so call chains stay short
+		if (index % GROUP_SIZE != 0) {
+			int callee = index - 1 - random.nextInt(index % GROUP_SIZE);
+			out.append("\tx = x + f").append(callee).append("(").append(genLeaf(vars)).append(", ")
+					.append(genLeaf(vars)).append(");\n");
+		}
+
+		out.append("\treturn x;\n}\n");
+	}
+
+	private void genMain(StringBuilder out) {
+		for (int i = 0; i < classes; i++) {
+			out.append("C").append(i).append(" o").append(i).append(" = new C").append(i).append("(")
+					.append(random.nextInt(100)).append(");\n");
+			out.append("print(get").append(i).append("() on o").append(i).append(");\n");
+		}
+
+		//the last function of a group calls the most others
+		int groups = (functions + GROUP_SIZE - 1) / GROUP_SIZE;
+		for (int i = 0; i < Math.min(groups, 10); i++) {
+			int function = Math.min((i + 1) * GROUP_SIZE, functions) - 1;
+			out.append("print(f").append(function).append("(").append(random.nextInt(10)).append(", ")
+					.append(random.nextInt(10)).append("));\n");
+		}
+	}
+
+	/**
+	 * Generates between one and three statements, nested up to the given depth.
+	 */
+	private void genBlock(StringBuilder out, List<String> vars, int depth, String indent) {
+		int statements = 1 + random.nextInt(3);
+
+		for (int i = 0; i < statements; i++) {
+			int kind = depth > 0 ? random.nextInt(4) : random.nextInt(2);
+
+			if (kind == 0) {
+				out.append(indent).append("x = ").append(genExpr(vars)).append(";\n");
+			} else if (kind == 1) {
+				String name = "v" + names++;
+				out.append(indent).append("int ").append(name).append(" = ").append(genExpr(vars)).append(";\n");
+				vars.add(name);
+			} else if (kind == 2) {
+				out.append(indent).append("if (").append(genExpr(vars)).append(" < ").append(genLeaf(vars)).append(") {\n");
+				genBlock(out, new ArrayList<String>(vars), depth - 1, indent + "\t");
+				out.append(indent).append("} else {\n");
+				genBlock(out, new ArrayList<String>(vars), depth - 1, indent + "\t");
+				out.append(indent).append("}\n");
+			} else {
+				String name = "i" + names++;
+				out.append(indent).append("for (int ").append(name).append(" = 0; ").append(name).append(" < ")
+						.append(LOOP_COUNT).append("; ").append(name).append(" = ").append(name).append(" + 1) {\n");
+				List<String> inner = new ArrayList<String>(vars);
+				inner.add(name);
+				genBlock(out, inner, depth - 1, indent + "\t");
+				out.append(indent).append("}\n");
+			}
+		}
+	}
+
+	/**
+	 * Generates a left-deep expression of expressionSize operands.
+	 */
+	private String genExpr(List<String> vars) {
+		StringBuilder expr = new StringBuilder(genLeaf(vars));
+
+		for (int i = 1; i < expressionSize; i++) {
+			expr.insert(0, '(');
+			expr.append(' ').append(OPERATORS[random.nextInt(OPERATORS.length)]).append(' ').append(genLeaf(vars)).append(')');
+		}
+
+		return expr.toString();
+	}
+
+	private String genLeaf(List<String> vars) {
+		if (random.nextInt(3) == 0) {
+			return Integer.toString(random.nextInt(100));
+		}
+		return vars.get(random.nextInt(vars.size()));
+	}
+}
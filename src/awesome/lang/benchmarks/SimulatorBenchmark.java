@@ -0,0 +1,113 @@
+package awesome.lang.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import awesome.lang.Compiler;
+import awesome.lang.model.PackedProgram;
+import awesome.lang.simulator.JitProgram;
+import awesome.lang.simulator.JitSimulator;
+import awesome.lang.simulator.Simulator;
+import awesome.lang.simulator.ThreadedProgram;
+import awesome.lang.simulator.ThreadedSimulator;
+
+/**
+ * Compares running the example programs with the Haskell simulator through
+ * "ghc -e main", the reference Simulator, the ThreadedSimulator and the
+ * JitSimulator. Compiling to bytecode is not included in the times. Run from
+ * the project root, the argument is the src directory of the Sprockell
+ * simulator; without it only the Java simulators are measured.
+ */
+public class SimulatorBenchmark {
+	private static final int WARMUP = 50, RUNS = 20, GHC_RUNS = 3;
+	private static final String[] EXAMPLES = {"gameoflife.awl", "banksystem.awl", "petersons.awl", "helloworld.awl"};
+
+	public static void main(String[] args) throws Exception {
+		Path sprockell = args.length > 0 ? Paths.get(args[0]) : null;
+		Compiler compiler = new Compiler();
+
+		for (String example : EXAMPLES) {
+			Path source = Paths.get("src/awesome/lang/examples", example);
+			PackedProgram program = compiler.compile(source).pack();
+			ThreadedProgram threaded = new ThreadedProgram(program);
+			JitProgram jit = new JitProgram(program);
+
+			for (int i = 0; i < WARMUP; i++) {
+				runReference(program);
+				runThreaded(threaded);
+				runJit(jit);
+			}
+
+			long reference = 0, threadedTime = 0, jitTime = 0;
+			for (int i = 0; i < RUNS; i++) {
+				long start = System.nanoTime();
+				runReference(program);
+				reference += System.nanoTime() - start;
+
+				start = System.nanoTime();
+				runThreaded(threaded);
+				threadedTime += System.nanoTime() - start;
+
+				start = System.nanoTime();
+				runJit(jit);
+				jitTime += System.nanoTime() - start;
+			}
+
+			System.out.printf("%-16s %5d of %5d instructions fused%n", example, threaded.getFusedCount(), program.size());
+			if (sprockell != null) {
+				System.out.printf("  ghc       %10.2f ms%n", runGhc(sprockell, program) / 1e6);
+			}
+			System.out.printf("  reference %10.2f ms%n", reference / 1e6 / RUNS);
+			System.out.printf("  threaded  %10.2f ms%n", threadedTime / 1e6 / RUNS);
+			System.out.printf("  jit       %10.2f ms%n", jitTime / 1e6 / RUNS);
+		}
+	}
+
+	private static void runReference(PackedProgram program) {
+		new Simulator(program, new ByteArrayOutputStream()).run();
+	}
+
+	private static void runThreaded(ThreadedProgram program) {
+		new ThreadedSimulator(program, new ByteArrayOutputStream()).run();
+	}
+
+	private static void runJit(JitProgram program) {
+		new JitSimulator(program, new ByteArrayOutputStream()).run();
+	}
+
+	/**
+	 * Returns the average time of running the program with ghc, including
+	 * interpreting the generated Haskell file.
+	 */
+	private static long runGhc(Path sprockell, PackedProgram program) throws IOException, InterruptedException {
+		Path dir = Files.createTempDirectory("awl-ghc");
+		Path file = dir.resolve("Program.hs");
+		program.writeSprockell(file);
+
+		try {
+			long time = 0;
+			for (int i = 0; i < GHC_RUNS; i++) {
+				ProcessBuilder builder = new ProcessBuilder("ghc", "-i" + sprockell.toAbsolutePath(), file.toString(), "-e", "main");
+				builder.directory(dir.toFile());
+				builder.redirectOutput(new File(dir.toFile(), "out.txt"));
+				builder.redirectErrorStream(true);
+
+				long start = System.nanoTime();
+				if (builder.start().waitFor() != 0) {
+					throw new IllegalStateException("ghc failed: " + new String(Files.readAllBytes(dir.resolve("out.txt"))));
+				}
+				time += System.nanoTime() - start;
+			}
+			return time / GHC_RUNS;
+		} finally {
+			for (String name : dir.toFile().list()) {
+				Files.delete(dir.resolve(name));
+			}
+			Files.delete(dir);
+		}
+	}
+}
@@ -13,6 +13,20 @@ public class CompilationUnit {
 	private ArrayList<FunctionContext> funclist = new ArrayList<FunctionContext>(); 
 	private ArrayList<StatContext> statlist = new ArrayList<StatContext>();
 	
+	public CompilationUnit() {
+	}
+	
+	/**
+	 * Copies the contents of another unit. The typechecker adds methods to the
+	 * unit it checks, so a unit that is checked more than once must be copied first.
+	 */
+	public CompilationUnit(CompilationUnit other) {
+		this.enumlist.addAll(other.enumlist);
+		this.classlist.addAll(other.classlist);
+		this.funclist.addAll(other.funclist);
+		this.statlist.addAll(other.statlist);
+	}
+	
 	/**
 	 * Add an enum to this unit, which can be retrieved later by calling .getEnumList() 
 	 */
@@ -35,6 +35,17 @@ public class FunctionTable {
 		return true;
 	}
 
+	/**
+	 * Returns the number of functions, counting every overload
+	 */
+	public int size() {
+		int size = 0;
+		for (ArrayList<Function> overloads : this.types.values())
+			size += overloads.size();
+		
+		return size;
+	}
+
 	/**
 	 * Retrieves all functiontypes, based on all funtion overloads of the provided name
 	 */
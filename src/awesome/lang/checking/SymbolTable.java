@@ -2,6 +2,7 @@ package awesome.lang.checking;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 
 import org.antlr.v4.runtime.ParserRuleContext;
 
@@ -21,14 +22,34 @@ public class SymbolTable{
 
 	private final ArrayList<Scope> declarations = new ArrayList<Scope>();
 	private final HashMap<ParserRuleContext, Scope> contextmap = new HashMap<ParserRuleContext, Scope>();
+	private final TypeTable userTypes;
 	
 	/**
-	 * Constructor, enter the global scope.
+	 * Constructor, enter the global scope. Enums and classes are looked up in the given table.
 	 */
-	public SymbolTable() {
+	public SymbolTable(TypeTable userTypes) {
+		this.userTypes = userTypes;
 		// outer scope
 		this.declarations.add(new Scope(null, null, true));
 	}
+	
+	/**
+	 * Returns the enums and classes of the program this table belongs to
+	 */
+	public TypeTable getTypeTable() {
+		return this.userTypes;
+	}
+
+	/**
+	 * Returns the number of names declared in all scopes that have bound contexts
+	 */
+	public int size() {
+		int size = 0;
+		for (Scope scope : new HashSet<Scope>(this.contextmap.values()))
+			size += scope.size();
+		
+		return size;
+	}
 
 	/** 
 	 * Swaps the current scope for a provided one, restores the internal declarations array by looking at the parents of the scope.
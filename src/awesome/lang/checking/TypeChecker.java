@@ -23,7 +23,8 @@ public class TypeChecker extends GrammarBaseVisitor<Void> {
 	private ParseTreeProperty<Type> types = new ParseTreeProperty<Type>();
 	private ParseTreeProperty<Boolean> blockNewScope = new ParseTreeProperty<Boolean>();
 	private ArrayList<String> errors 	  = new ArrayList<String>();
-	private SymbolTable variables		  = new SymbolTable();
+	private TypeTable userTypes			  = new TypeTable();
+	private SymbolTable variables		  = new SymbolTable(userTypes);
 	private FunctionTable functions		  = new FunctionTable();
 	private Type returnType				  = null;
 	private Boolean inSwitch			  = Boolean.FALSE;
@@ -61,6 +62,13 @@ public class TypeChecker extends GrammarBaseVisitor<Void> {
 		return variables;
 	}
 	
+	/**
+	 * Returns the enums and classes defined in the program
+	 */
+	public TypeTable getTypeTable() {
+		return userTypes;
+	}
+	
 	/**
 	 * Returns the functiontable 
 	 */
@@ -98,7 +106,7 @@ public class TypeChecker extends GrammarBaseVisitor<Void> {
 			Scope restore = null;
 			ClassType classType = null;
 			if (isMethod) {
-				classType = Type.getClass(((ClassDefContext) child.parent).ID().getText());
+				classType = this.userTypes.getClass(((ClassDefContext) child.parent).ID().getText());
 				restore = this.variables.swapScopes(classType.getScope());
 			}
 			
@@ -218,13 +226,13 @@ public class TypeChecker extends GrammarBaseVisitor<Void> {
 	@Override
 	public Void visitClassDef(ClassDefContext ctx) {
 		String name = ctx.ID().getText();
-		if (Type.classExists(name)) {
+		if (this.userTypes.classExists(name)) {
 			this.addError("Redefined class with name "+name+" in expression: {expr}", ctx);
-		} else if(Type.enumExists(name)) {
+		} else if(this.userTypes.enumExists(name)) {
 			this.addError("Cannot define a class with the same identifier as an enum, in expression: {expr}", ctx);
 		} else {
 			// create class
-			ClassType cls = Type.newClass(name);
+			ClassType cls = this.userTypes.newClass(name);
 			this.variables.openScope(ctx, true);
 			cls.setScope(this.variables.getCurrentScope());
 			
@@ -239,7 +247,7 @@ public class TypeChecker extends GrammarBaseVisitor<Void> {
 				this.cUnit.add(child);
 			}
 			
-			// close scope again (can still be accessed through Type.getClass(name).getScope()
+			// close scope again (can still be accessed through userTypes.getClass(name).getScope()
 			this.variables.closeScope();
 		}
 		return null;
@@ -262,12 +270,12 @@ public class TypeChecker extends GrammarBaseVisitor<Void> {
 			}
 		}
 		// create new ENUM-type
-		if (Type.enumExists(name)) {
+		if (this.userTypes.enumExists(name)) {
 			this.addError("Redefined enum\""+name+"\" in expression: {expr}", ctx);
-		} else if(Type.classExists(name)) {
+		} else if(this.userTypes.classExists(name)) {
 			this.addError("Cannot define a enum with the same identifier as a class, in expression: {expr}", ctx);
 		} else {
-			Type.newEnum(name, values);
+			this.userTypes.newEnum(name, values);
 		}
 		return null;
 	}
@@ -284,7 +292,7 @@ public class TypeChecker extends GrammarBaseVisitor<Void> {
 		// swap scope?
 		Scope restore = null;
 		if (isClassMethod) {
-			ClassType classType = Type.getClass(((ClassDefContext) ctx.parent).ID().getText());
+			ClassType classType = this.userTypes.getClass(((ClassDefContext) ctx.parent).ID().getText());
 			restore = this.variables.swapScopes(classType.getScope());
 		}
 		
@@ -310,7 +318,7 @@ public class TypeChecker extends GrammarBaseVisitor<Void> {
 		}
 		// class method, first argument becomes the object reference
 		if (isClassMethod)
-			argTypes[0] = Type.getClass(((ClassDefContext) ctx.parent).ID().getText());
+			argTypes[0] = this.userTypes.getClass(((ClassDefContext) ctx.parent).ID().getText());
 		
 					
 		boolean thread = (ctx.THREAD() != null);
@@ -438,14 +446,14 @@ public class TypeChecker extends GrammarBaseVisitor<Void> {
 	@Override
 	public Void visitEnumOrClassType(EnumOrClassTypeContext ctx) {
 		String name = ctx.ID().getText();
-		if (Type.enumExists(name) == false && Type.classExists(name) == false) {
+		if (this.userTypes.enumExists(name) == false && this.userTypes.classExists(name) == false) {
 			this.addError("Using an undefined enum or class type in expression: {expr}", ctx);
 			this.types.put(ctx, Type.BOOL); // default type is boolean, this is for not requiring the typechecker to check for failures in every expression.
 		} else {
-			if (Type.enumExists(name))
-				this.types.put(ctx, Type.getEnum(name));
+			if (this.userTypes.enumExists(name))
+				this.types.put(ctx, this.userTypes.getEnum(name));
 			else 
-				this.types.put(ctx, Type.getClass(name));
+				this.types.put(ctx, this.userTypes.getClass(name));
 		}
 		return null;
 	}
@@ -807,12 +815,12 @@ public class TypeChecker extends GrammarBaseVisitor<Void> {
 	@Override
 	public Void visitNewObject(NewObjectContext ctx) {
 		String name = ctx.ID().getText();
-		if (Type.classExists(name) == false) {
+		if (this.userTypes.classExists(name) == false) {
 			 this.addError("Using an undefined class in expression: {expr}", ctx);
 			 this.types.put(ctx, Type.BOOL); // default value
 		}
 		else {
-			ClassType cType = Type.getClass(name);
+			ClassType cType = this.userTypes.getClass(name);
 			this.types.put(ctx, cType);
 			
 			
@@ -862,12 +870,12 @@ public class TypeChecker extends GrammarBaseVisitor<Void> {
 	public Void visitEnumExpr(EnumExprContext ctx) {
 		String name  = ctx.ID(0).getText();
 		String value = ctx.ID(1).getText();
-		if (Type.enumExists(name) == false) {
+		if (this.userTypes.enumExists(name) == false) {
 			this.addError("Using an undefined enum in expression: {expr}", ctx);
 			this.types.put(ctx, Type.BOOL); // default type
 		}
 		else {
-			EnumType type = Type.getEnum(name);
+			EnumType type = this.userTypes.getEnum(name);
 			if (type.contains(value) == false) {
 				this.addError("Using an undefined value in enum \""+name+"\" in expression: {expr}", ctx);
 			}
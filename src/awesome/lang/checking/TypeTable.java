@@ -0,0 +1,63 @@
+package awesome.lang.checking;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import awesome.lang.model.Type;
+import awesome.lang.model.Type.ClassType;
+import awesome.lang.model.Type.EnumType;
+
+/**
+ * Enums and classes defined by the program that is being compiled. Every
+ * compilation has its own table, so programs can be compiled concurrently.
+ */
+public class TypeTable {
+	private final HashMap<String, EnumType> enums = new HashMap<String, EnumType>();
+	private final HashMap<String, ClassType> classes = new HashMap<String, ClassType>();
+	
+	public boolean enumExists(String name) {
+		return this.enums.containsKey(name);
+	}
+	
+	/**
+	 * If not exists, returns null. 
+	 */
+	public EnumType getEnum(String name) {
+		return this.enums.get(name);
+	}
+	
+	public boolean classExists(String name) {
+		return this.classes.containsKey(name);
+	}
+	
+	/**
+	 * If not exists, returns null. 
+	 */
+	public ClassType getClass(String name) {
+		return this.classes.get(name);
+	}
+	
+	/**
+	 * Returns the type of an enumerator, with given name and values. Returns null if the name is already taken
+	 */
+	public EnumType newEnum(String name, ArrayList<String> values) {
+		if (this.enums.containsKey(name))
+			return null;
+		
+		EnumType newEnum = Type.enumType(name, values);
+		this.enums.put(name, newEnum);
+		return newEnum;
+	}
+	
+	/**
+	 * Returns the type of an class, with given name. Returns null if the name is already taken
+	 */
+	public ClassType newClass(String name) {
+		if (this.classes.containsKey(name))
+			return null;
+		
+		ClassType newClass = Type.classType(name);
+		this.classes.put(name, newClass);
+		return newClass;
+	}
+}
@@ -1,5 +1,8 @@
 package awesome.lang.model;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class Instruction {
 	private Label label;// possibly null
 	private int position;
@@ -35,6 +38,10 @@ public class Instruction {
 		this.comment = comment;
 	}
 	
+	public String getComment() {
+		return comment;
+	}
+	
 	public void setLabel(Label label) {
 		this.label = label;
 		label.setInstr(this);
@@ -44,6 +51,139 @@ public class Instruction {
 		return label;
 	}
 	
+	public OpCode getOpCode() {
+		return opCode;
+	}
+	
+	public Object getOperand(int index) {
+		return operands[index];
+	}
+	
+	/**
+	 * Registers read by this instruction, including SP for Push and Pop and the
+	 * registers of deref addresses and indirect targets.
+	 */
+	public List<Reg> getReads() {
+		return physical(getUses());
+	}
+	
+	/**
+	 * Registers written by this instruction, including SP for Push and Pop.
+	 */
+	public List<Reg> getWrites() {
+		return physical(getDefs());
+	}
+	
+	/**
+	 * Like {@link #getReads()}, but includes virtual registers.
+	 */
+	public List<Register> getUses() {
+		List<Register> reads = new ArrayList<Register>(3);
+		
+		switch (opCode) {
+		case Compute:
+			reads.add((Register) operands[1]);
+			reads.add((Register) operands[2]);
+			break;
+		case Branch:
+			reads.add((Register) operands[0]);
+			addReads(reads, operands[1]);
+			break;
+		case Jump:
+		case Load:
+		case Read:
+		case TestAndSet:
+			addReads(reads, operands[0]);
+			break;
+		case Store:
+		case Write:
+			reads.add((Register) operands[0]);
+			addReads(reads, operands[1]);
+			break;
+		case Push:
+			reads.add((Register) operands[0]);
+			reads.add(Reg.SP);
+			break;
+		case Pop:
+			reads.add(Reg.SP);
+			break;
+		default:
+			break;
+		}
+		
+		return reads;
+	}
+	
+	private static void addReads(List<Register> reads, Object operand) {
+		if (operand instanceof Target && ((Target) operand).isIndirect())
+			reads.add(((Target) operand).getRegister());
+		if (operand instanceof MemAddr && ((MemAddr) operand).isDeref())
+			reads.add(((MemAddr) operand).getRegister());
+	}
+	
+	/**
+	 * Like {@link #getWrites()}, but includes virtual registers.
+	 */
+	public List<Register> getDefs() {
+		List<Register> writes = new ArrayList<Register>(2);
+		
+		switch (opCode) {
+		case Compute:
+			writes.add((Register) operands[3]);
+			break;
+		case Const:
+		case Load:
+			writes.add((Register) operands[1]);
+			break;
+		case Pop:
+			writes.add((Register) operands[0]);
+			writes.add(Reg.SP);
+			break;
+		case Receive:
+			writes.add((Register) operands[0]);
+			break;
+		case Push:
+			writes.add(Reg.SP);
+			break;
+		default:
+			break;
+		}
+		
+		return writes;
+	}
+	
+	private static List<Reg> physical(List<Register> registers) {
+		List<Reg> regs = new ArrayList<Reg>(registers.size());
+		for (Register reg : registers) {
+			if (reg instanceof Reg)
+				regs.add((Reg) reg);
+		}
+		return regs;
+	}
+	
+	/**
+	 * Label name and comment in haskell comment syntax, or null if there are none.
+	 */
+	public String getAnnotation() {
+		if (label == null && comment == null)
+			return null;
+		
+		StringBuilder builder = new StringBuilder();
+		
+		if (label != null) {
+			builder.append("--(label: ");
+			builder.append(label.getName());
+			builder.append(")");
+		}
+		
+		if (comment != null) {
+			builder.append("--");
+			builder.append(comment);
+		}
+		
+		return builder.toString();
+	}
+	
 	@Override
 	public String toString() {
 		StringBuilder builder = new StringBuilder();
@@ -58,15 +198,9 @@ public class Instruction {
 			builder.append(")");
 		}
 		
-		if (label != null) {
-			builder.append("--(label: ");
-			builder.append(label.getName());
-			builder.append(")");
-		}
-		
-		if (comment != null) {
-			builder.append("--");
-			builder.append(comment);
+		String annotation = getAnnotation();
+		if (annotation != null) {
+			builder.append(annotation);
 		}
 		
 		return builder.toString();
@@ -13,12 +13,40 @@ public class MemAddr {
 		return new MemAddr("Addr", address);
 	}
 	
-	public static MemAddr deref(Reg reg) {
+	public static MemAddr deref(Register reg) {
 		return new MemAddr("Deref", reg);
 	}
 	
+	/**
+	 * Whether the address is taken from a register instead of being a constant.
+	 */
+	public boolean isDeref() {
+		return arg instanceof Register;
+	}
+	
+	/**
+	 * The constant address, only valid if this is not a deref.
+	 */
+	public int getAddress() {
+		return (Integer) arg;
+	}
+	
+	/**
+	 * The register containing the address, only valid if this is a deref of a sprockell register.
+	 */
+	public Reg getReg() {
+		return (Reg) arg;
+	}
+	
+	/**
+	 * The register containing the address, only valid if this is a deref.
+	 */
+	public Register getRegister() {
+		return (Register) arg;
+	}
+	
 	@Override
 	public String toString() {
-		return String.format("%s %s", type, arg);
+		return type + " " + arg;
 	}
 }
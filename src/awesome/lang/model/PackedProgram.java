@@ -0,0 +1,264 @@
+package awesome.lang.model;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact, immutable form of a program. Every instruction is stored as two ints:
+ * a code word containing the opcode, operator, registers and addressing mode,
+ * and an immediate value. Labels are resolved to instruction indices.
+ *
+ * Operands are normalized: registers that are read are stored in x and y, a
+ * register that is written in z. The memory address or jump target of an
+ * instruction is stored in mode and imm (or y, for deref and indirect).
+ */
+public class PackedProgram {
+	/**
+	 * Address modes, imm is a constant address, y is the register containing the
+	 * address, or imm is an offset relative to the instruction.
+	 */
+	public static final int MODE_IMM = 0, MODE_REG = 1, MODE_REL = 2;
+
+	private static final OpCode[] OPCODES = OpCode.values();
+	private static final Operator[] OPERATORS = Operator.values();
+	private static final Reg[] REGS = Reg.values();
+
+	private static final int OPERATOR_SHIFT = 4, X_SHIFT = 9, Y_SHIFT = 13, Z_SHIFT = 17, MODE_SHIFT = 21;
+
+	private final int[] code;
+	private final int[] imm;
+	private final int numSprockells;
+
+	//labels and comments, only used for readable output
+	private final HashMap<Integer, String> annotations = new HashMap<Integer, String>();
+	private final HashMap<Integer, String> debugStrings = new HashMap<Integer, String>();
+
+	PackedProgram(List<Instruction> instructions, int numSprockells) {
+		this.numSprockells = numSprockells;
+		code = new int[instructions.size()];
+		imm = new int[instructions.size()];
+
+		for (int i = 0; i < instructions.size(); i++) {
+			instructions.get(i).setPosition(i);
+		}
+
+		for (int i = 0; i < instructions.size(); i++) {
+			pack(i, instructions.get(i));
+		}
+	}
+
+	private PackedProgram(int[] code, int[] imm, int numSprockells) {
+		this.code = code;
+		this.imm = imm;
+		this.numSprockells = numSprockells;
+	}
+
+	private void pack(int i, Instruction instr) {
+		OpCode opCode = instr.getOpCode();
+		int c = opCode.ordinal();
+
+		switch (opCode) {
+		case Compute:
+			c |= ((Operator) instr.getOperand(0)).ordinal() << OPERATOR_SHIFT;
+			c |= reg(instr.getOperand(1), X_SHIFT) | reg(instr.getOperand(2), Y_SHIFT) | reg(instr.getOperand(3), Z_SHIFT);
+			break;
+		case Const:
+			Object value = instr.getOperand(0);
+			imm[i] = value instanceof Label ? position((Label) value) : (Integer) value;
+			c |= reg(instr.getOperand(1), Z_SHIFT);
+			break;
+		case Branch:
+			c |= reg(instr.getOperand(0), X_SHIFT) | target(i, (Target) instr.getOperand(1));
+			break;
+		case Jump:
+			c |= target(i, (Target) instr.getOperand(0));
+			break;
+		case Load:
+			c |= address(i, (MemAddr) instr.getOperand(0)) | reg(instr.getOperand(1), Z_SHIFT);
+			break;
+		case Store:
+		case Write:
+			c |= reg(instr.getOperand(0), X_SHIFT) | address(i, (MemAddr) instr.getOperand(1));
+			break;
+		case Push:
+			c |= reg(instr.getOperand(0), X_SHIFT);
+			break;
+		case Pop:
+		case Receive:
+			c |= reg(instr.getOperand(0), Z_SHIFT);
+			break;
+		case Read:
+		case TestAndSet:
+			c |= address(i, (MemAddr) instr.getOperand(0));
+			break;
+		case Debug:
+			debugStrings.put(i, instr.getOperand(0).toString());
+			break;
+		case EndProg:
+		case Nop:
+			break;
+		}
+
+		code[i] = c;
+
+		String annotation = instr.getAnnotation();
+		if (annotation != null)
+			annotations.put(i, annotation);
+	}
+
+	private static int reg(Object reg, int shift) {
+		if (!(reg instanceof Reg))
+			throw new IllegalStateException("Register " + reg + " was never allocated");
+
+		return ((Reg) reg).ordinal() << shift;
+	}
+
+	private static int position(Label label) {
+		if (label.getInstr() == null)
+			throw new IllegalStateException("Label " + label.getName() + " was never placed");
+
+		return label.getInstr().getPosition();
+	}
+
+	private int target(int i, Target target) {
+		if (target.isIndirect()) {
+			return MODE_REG << MODE_SHIFT | reg(target.getRegister(), Y_SHIFT);
+		}
+
+		imm[i] = target.getAddress();
+		return (target.isRelative() ? MODE_REL : MODE_IMM) << MODE_SHIFT;
+	}
+
+	private int address(int i, MemAddr addr) {
+		if (addr.isDeref()) {
+			return MODE_REG << MODE_SHIFT | reg(addr.getRegister(), Y_SHIFT);
+		}
+
+		imm[i] = addr.getAddress();
+		return MODE_IMM << MODE_SHIFT;
+	}
+
+	public int size() {
+		return code.length;
+	}
+
+	public int getNumSprockells() {
+		return numSprockells;
+	}
+
+	public OpCode opCode(int i) {
+		return OPCODES[code[i] & 0xF];
+	}
+
+	public Operator operator(int i) {
+		return OPERATORS[(code[i] >>> OPERATOR_SHIFT) & 0x1F];
+	}
+
+	/**
+	 * Ordinal of the first register that is read.
+	 */
+	public int x(int i) {
+		return (code[i] >>> X_SHIFT) & 0xF;
+	}
+
+	/**
+	 * Ordinal of the second register that is read, or the register containing
+	 * the address.
+	 */
+	public int y(int i) {
+		return (code[i] >>> Y_SHIFT) & 0xF;
+	}
+
+	/**
+	 * Ordinal of the register that is written.
+	 */
+	public int z(int i) {
+		return (code[i] >>> Z_SHIFT) & 0xF;
+	}
+
+	public int mode(int i) {
+		return (code[i] >>> MODE_SHIFT) & 0x3;
+	}
+
+	public int imm(int i) {
+		return imm[i];
+	}
+
+	public static Reg reg(int ordinal) {
+		return REGS[ordinal];
+	}
+
+	/**
+	 * Label name and comment of an instruction, or null.
+	 */
+	public String getAnnotation(int i) {
+		return annotations.get(i);
+	}
+
+	public String getDebugString(int i) {
+		return debugStrings.get(i);
+	}
+
+	public void writeSprockell(Path path) throws IOException {
+		try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+			new SprockellEmitter(writer).writeProgram(this);
+		}
+	}
+
+	/**
+	 * Writes this program in binary form, it can be read back with read().
+	 */
+	public void write(DataOutputStream out) throws IOException {
+		out.writeInt(numSprockells);
+		out.writeInt(code.length);
+
+		for (int i = 0; i < code.length; i++) {
+			out.writeInt(code[i]);
+			out.writeInt(imm[i]);
+		}
+
+		writeStrings(out, annotations);
+		writeStrings(out, debugStrings);
+	}
+
+	public static PackedProgram read(DataInputStream in) throws IOException {
+		int numSprockells = in.readInt();
+		int size = in.readInt();
+		int[] code = new int[size];
+		int[] imm = new int[size];
+
+		for (int i = 0; i < size; i++) {
+			code[i] = in.readInt();
+			imm[i] = in.readInt();
+		}
+
+		PackedProgram program = new PackedProgram(code, imm, numSprockells);
+		readStrings(in, program.annotations);
+		readStrings(in, program.debugStrings);
+
+		return program;
+	}
+
+	private static void writeStrings(DataOutputStream out, HashMap<Integer, String> strings) throws IOException {
+		out.writeInt(strings.size());
+		for (Map.Entry<Integer, String> entry : strings.entrySet()) {
+			out.writeInt(entry.getKey());
+			out.writeUTF(entry.getValue());
+		}
+	}
+
+	private static void readStrings(DataInputStream in, HashMap<Integer, String> strings) throws IOException {
+		int size = in.readInt();
+		for (int i = 0; i < size; i++) {
+			strings.put(in.readInt(), in.readUTF());
+		}
+	}
+}
@@ -1,10 +1,11 @@
 package awesome.lang.model;
 
 import java.io.IOException;
-import java.nio.file.Files;
+import java.io.StringWriter;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.List;
 
 public class Program {
 	private ArrayList<Instruction> instructions = new ArrayList<Instruction>();
@@ -28,13 +29,13 @@ public class Program {
 	
 	public Instruction addInstr(Label label, OpCode opCode, Object...operands){
 		Instruction instr = new Instruction(label, opCode, operands);
-		instr.setPosition(instructions.size());
 		addInstr(instr);
 		
 		return instr;
 	}
 	
 	public void addInstr(Instruction instr){
+		instr.setPosition(instructions.size());
 		instructions.add(instr);
 	}
 	
@@ -42,33 +43,41 @@ public class Program {
 		this.numSprockells = numSprockells;
 	}
 	
+	public int getNumSprockells() {
+		return numSprockells;
+	}
+	
+	public List<Instruction> getInstructions() {
+		return instructions;
+	}
+	
 	public void writeSprockell(String pathName) throws IOException{
 		writeSprockell(Paths.get("gen", pathName));
 	}
 	
 	public void writeSprockell(Path path) throws IOException{
-		String prog = generateSprockell();
-		Files.write(path, prog.getBytes());
+		pack().writeSprockell(path);
+	}
+	
+	/**
+	 * Converts this program to its compact form, resolving all labels.
+	 * @throws IllegalStateException if a label was never assigned to an instruction,
+	 * or the program contains virtual registers.
+	 */
+	public PackedProgram pack() {
+		return new PackedProgram(instructions, numSprockells);
 	}
 	
 	public String generateSprockell(){
-		StringBuilder builder = new StringBuilder();
-
-		builder.append("import Sprockell.System\n");
-		builder.append("prog :: [Instruction]\n");
-		builder.append("prog = [\n");
+		StringWriter writer = new StringWriter();
 		
-		for (int i = 0; i < instructions.size(); i++) {
-			Instruction instr = instructions.get(i);
-			
-			builder.append(i == 0 ? "\t  " : "\t, ");
-			builder.append(instr);
-			builder.append('\n');
+		try {
+			new SprockellEmitter(writer).writeProgram(pack());
+		} catch (IOException e) {
+			//StringWriter does not throw
+			throw new IllegalStateException(e);
 		}
-
-		builder.append("\t]\n");
-		builder.append("main = run " + numSprockells + " prog\n");
 		
-		return builder.toString();
+		return writer.toString();
 	}
 }
@@ -1,5 +1,5 @@
 package awesome.lang.model;
 
-public enum Reg {
+public enum Reg implements Register {
 	Zero, PC, SP, SPID, RegA, RegB, RegC, RegD, RegE
 }
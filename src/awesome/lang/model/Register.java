@@ -0,0 +1,8 @@
+package awesome.lang.model;
+
+/**
+ * A register operand, either one of the sprockell registers or a virtual
+ * register that still has to be allocated.
+ */
+public interface Register {
+}
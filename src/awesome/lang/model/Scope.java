@@ -45,6 +45,14 @@ public class Scope {
 		return true;
 	}
 
+	/**
+	 * Returns the number of variables declared in this scope. Targets added
+	 * without an offset only record a type and are not counted.
+	 */
+	public int size() {
+		return this.offsets.size();
+	}
+
 	public boolean containsKey(String id) {
 
 		return this.declarations.containsKey(id);
@@ -0,0 +1,198 @@
+package awesome.lang.model;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes a packed program as haskell source for the Sprockell simulator.
+ * Instructions are written one at a time to the underlying writer, so the
+ * generated source is never held in memory as a whole.
+ */
+public class SprockellEmitter {
+	private static final char[][] OPCODES = names(OpCode.values());
+	private static final char[][] OPERATORS = names(Operator.values());
+	private static final char[][] REGS = names(Reg.values());
+
+	private final Writer out;
+
+	//scratch space for formatting numbers
+	private final char[] digits = new char[11];
+
+	public SprockellEmitter(Writer out) {
+		this.out = out;
+	}
+
+	/**
+	 * Writes the complete haskell program. The writer is not flushed or closed.
+	 */
+	public void writeProgram(PackedProgram program) throws IOException {
+		out.write("import Sprockell.System\n");
+		out.write("prog :: [Instruction]\n");
+		out.write("prog = [\n");
+
+		for (int i = 0; i < program.size(); i++) {
+			out.write(i == 0 ? "\t  " : "\t, ");
+			writeInstruction(program, i);
+			out.write('\n');
+		}
+
+		out.write("\t]\n");
+		out.write("main = run ");
+		writeInt(program.getNumSprockells());
+		out.write(" prog\n");
+	}
+
+	/**
+	 * Writes a single instruction in Sprockell syntax, followed by its label and comment.
+	 */
+	public void writeInstruction(PackedProgram program, int i) throws IOException {
+		OpCode opCode = program.opCode(i);
+		out.write(OPCODES[opCode.ordinal()]);
+
+		switch (opCode) {
+		case Compute:
+			open();
+			out.write(OPERATORS[program.operator(i).ordinal()]);
+			next();
+			out.write(REGS[program.x(i)]);
+			next();
+			out.write(REGS[program.y(i)]);
+			next();
+			out.write(REGS[program.z(i)]);
+			close();
+			break;
+		case Const:
+			open();
+			writeInt(program.imm(i));
+			next();
+			out.write(REGS[program.z(i)]);
+			close();
+			break;
+		case Branch:
+			open();
+			out.write(REGS[program.x(i)]);
+			next();
+			writeTarget(program, i);
+			close();
+			break;
+		case Jump:
+			open();
+			writeTarget(program, i);
+			close();
+			break;
+		case Load:
+			open();
+			writeAddress(program, i);
+			next();
+			out.write(REGS[program.z(i)]);
+			close();
+			break;
+		case Store:
+		case Write:
+			open();
+			out.write(REGS[program.x(i)]);
+			next();
+			writeAddress(program, i);
+			close();
+			break;
+		case Push:
+			open();
+			out.write(REGS[program.x(i)]);
+			close();
+			break;
+		case Pop:
+		case Receive:
+			open();
+			out.write(REGS[program.z(i)]);
+			close();
+			break;
+		case Read:
+		case TestAndSet:
+			open();
+			writeAddress(program, i);
+			close();
+			break;
+		case Debug:
+			open();
+			out.write(program.getDebugString(i));
+			close();
+			break;
+		case EndProg:
+		case Nop:
+			break;
+		}
+
+		String annotation = program.getAnnotation(i);
+		if (annotation != null)
+			out.write(annotation);
+	}
+
+	private void writeTarget(PackedProgram program, int i) throws IOException {
+		switch (program.mode(i)) {
+		case PackedProgram.MODE_REG:
+			out.write("Ind ");
+			out.write(REGS[program.y(i)]);
+			break;
+		case PackedProgram.MODE_REL:
+			out.write("Rel (");
+			writeInt(program.imm(i));
+			out.write(')');
+			break;
+		default:
+			out.write("Abs ");
+			writeInt(program.imm(i));
+		}
+	}
+
+	private void writeAddress(PackedProgram program, int i) throws IOException {
+		if (program.mode(i) == PackedProgram.MODE_REG) {
+			out.write("Deref ");
+			out.write(REGS[program.y(i)]);
+		} else {
+			out.write("Addr ");
+			writeInt(program.imm(i));
+		}
+	}
+
+	private void open() throws IOException {
+		out.write(" (");
+	}
+
+	private void next() throws IOException {
+		out.write(") (");
+	}
+
+	private void close() throws IOException {
+		out.write(')');
+	}
+
+	private void writeInt(int value) throws IOException {
+		if (value == Integer.MIN_VALUE) {
+			out.write(Integer.toString(value));
+			return;
+		}
+
+		boolean negative = value < 0;
+		if (negative)
+			value = -value;
+
+		int pos = digits.length;
+		do {
+			digits[--pos] = (char) ('0' + value % 10);
+			value /= 10;
+		} while (value != 0);
+
+		if (negative)
+			digits[--pos] = '-';
+
+		out.write(digits, pos, digits.length - pos);
+	}
+
+	private static char[][] names(Enum<?>[] values) {
+		char[][] names = new char[values.length][];
+		for (int i = 0; i < values.length; i++) {
+			names[i] = values[i].name().toCharArray();
+		}
+		return names;
+	}
+}
@@ -23,17 +23,65 @@ public class Target {
 	}
 	
 	public static Target rel(int address) {
-		return new Target("Rel", "(" + address + ")");
+		return new Target("Rel", address);
 	}
 	
-	public static Target ind(Reg reg) {
+	public static Target ind(Register reg) {
 		if(reg == null) throw new NullPointerException();
 		
 		return new Target("Ind", reg);
 	}
 	
+	public boolean isAbsolute() {
+		return type.equals("Abs");
+	}
+	
+	public boolean isRelative() {
+		return type.equals("Rel");
+	}
+	
+	public boolean isIndirect() {
+		return type.equals("Ind");
+	}
+	
+	/**
+	 * The absolute instruction address or relative offset of this target, not valid for indirect targets.
+	 */
+	public int getAddress() {
+		if (arg instanceof Label) {
+			return ((Label) arg).getInstr().getPosition();
+		} else {
+			return (Integer) arg;
+		}
+	}
+	
+	/**
+	 * The label of an absolute target, or null if the target is not a label.
+	 */
+	public Label getLabel() {
+		return arg instanceof Label ? (Label) arg : null;
+	}
+	
+	/**
+	 * The register containing the address, only valid for indirect targets using a sprockell register.
+	 */
+	public Reg getReg() {
+		return (Reg) arg;
+	}
+	
+	/**
+	 * The register containing the address, only valid for indirect targets.
+	 */
+	public Register getRegister() {
+		return (Register) arg;
+	}
+	
 	@Override
 	public String toString() {
-		return String.format("%s %s", type, arg);
+		if (isRelative()) {
+			return type + " (" + arg + ")";
+		} else {
+			return type + " " + arg;
+		}
 	}
 }
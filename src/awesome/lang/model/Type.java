@@ -11,8 +11,6 @@ public class Type {
 	public static final Type CHAR = new Type(1, "char");
 	public static final Type VOID = new Type(1, "void");
 	public static final Type LOCK = new Type(1, "lock");
-	private static HashMap<String, EnumType> enums = new HashMap<String, EnumType>();
-	private static HashMap<String, ClassType> classes = new HashMap<String, ClassType>();
 	
 	private int size;
 	private String name;
@@ -35,38 +33,6 @@ public class Type {
 		return name;
 	}
 
-	public static boolean enumExists(String name) {
-		return Type.enums.containsKey(name);
-	}
-	
-	public static void clearUserTypes(){
-		enums.clear();
-		classes.clear();
-	}
-	
-	/**
-	 * If not exists, returns null. 
-	 */
-	public static EnumType getEnum(String name) {
-		if (Type.enumExists(name) == false)
-			return null;
-		return Type.enums.get(name);
-	}
-	
-
-	public static boolean classExists(String name) {
-		return Type.classes.containsKey(name);
-	}
-	
-	/**
-	 * If not exists, returns null. 
-	 */
-	public static ClassType getClass(String name) {
-		if (Type.classExists(name) == false)
-			return null;
-		return Type.classes.get(name);
-	}
-	
 	/**
 	 * Returns the type of a fixed size array with given type and size.
 	 */
@@ -81,27 +47,17 @@ public class Type {
 	}
 	
 	/**
-	 * Returns the type of an enumerator, with given name and values. Returns null if the name is already taken
+	 * Returns the type of an enumerator, with given name and values.
 	 */
-	public static EnumType newEnum(String name, ArrayList<String> values) {
-		if (Type.enums.containsKey(name))
-			return null;
-		
-		EnumType newEnum = new EnumType(name, values);
-		Type.enums.put(name, newEnum);
-		return newEnum;
+	public static EnumType enumType(String name, ArrayList<String> values) {
+		return new EnumType(name, values);
 	}
 	
 	/**
-	 * Returns the type of an class, with given name. Returns null if the name is already taken
+	 * Returns the type of a class, with given name. Its scope is set later.
 	 */
-	public static ClassType newClass(String name) {
-		if (Type.classes.containsKey(name))
-			return null;
-		
-		ClassType newClass = new ClassType(name, null);
-		Type.classes.put(name, newClass);
-		return newClass;
+	public static ClassType classType(String name) {
+		return new ClassType(name, null);
 	}
 	
 	public static class ClassType extends Type {
@@ -0,0 +1,25 @@
+package awesome.lang.model;
+
+/**
+ * Register used by the Generator before registers are allocated, there is no
+ * limit on their number. A program containing them cannot be packed.
+ */
+public final class VirtualReg implements Register {
+	private final int number;
+	
+	public VirtualReg(int number) {
+		this.number = number;
+	}
+	
+	/**
+	 * Number of this register, unique within a program.
+	 */
+	public int getNumber() {
+		return number;
+	}
+	
+	@Override
+	public String toString() {
+		return "v" + number;
+	}
+}
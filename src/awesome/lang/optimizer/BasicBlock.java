@@ -0,0 +1,108 @@
+package awesome.lang.optimizer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import awesome.lang.model.Instruction;
+
+/**
+ * A sequence of instructions that is only entered at the first and only left
+ * after the last instruction.
+ *
+ * Blocks have two kinds of edges. The successors are where execution
+ * actually continues: a call continues at the entry of the called procedure
+ * and a return at every place the procedure returns to. The local
+ * successors stay within the procedure: a call continues at its return site
+ * and a return has none.
+ */
+public class BasicBlock {
+	private final int index, start, end;
+	private final List<Instruction> instructions;
+
+	final List<BasicBlock> successors = new ArrayList<BasicBlock>(2);
+	final List<BasicBlock> predecessors = new ArrayList<BasicBlock>(2);
+	final List<BasicBlock> localSuccessors = new ArrayList<BasicBlock>(2);
+	final List<BasicBlock> localPredecessors = new ArrayList<BasicBlock>(2);
+	BasicBlock callee;
+	boolean isReturn;
+	Procedure procedure;
+
+	BasicBlock(int index, List<Instruction> program, int start, int end) {
+		this.index = index;
+		this.start = start;
+		this.end = end;
+		this.instructions = Collections.unmodifiableList(program.subList(start, end));
+	}
+
+	/**
+	 * Position of this block in the graph, blocks are numbered in program order.
+	 */
+	public int getIndex() {
+		return index;
+	}
+
+	/**
+	 * Index of the first instruction in the program.
+	 */
+	public int getStart() {
+		return start;
+	}
+
+	/**
+	 * Index after the last instruction in the program.
+	 */
+	public int getEnd() {
+		return end;
+	}
+
+	public List<Instruction> getInstructions() {
+		return instructions;
+	}
+
+	public Instruction getLast() {
+		return instructions.get(instructions.size() - 1);
+	}
+
+	public List<BasicBlock> getSuccessors() {
+		return Collections.unmodifiableList(successors);
+	}
+
+	public List<BasicBlock> getPredecessors() {
+		return Collections.unmodifiableList(predecessors);
+	}
+
+	public List<BasicBlock> getLocalSuccessors() {
+		return Collections.unmodifiableList(localSuccessors);
+	}
+
+	public List<BasicBlock> getLocalPredecessors() {
+		return Collections.unmodifiableList(localPredecessors);
+	}
+
+	/**
+	 * Returns the entry of the procedure this block calls, or null if it does not end in a call.
+	 */
+	public BasicBlock getCallee() {
+		return callee;
+	}
+
+	/**
+	 * Whether this block ends in an indirect jump, which returns from a procedure.
+	 */
+	public boolean isReturn() {
+		return isReturn;
+	}
+
+	/**
+	 * Returns the procedure containing this block, or null if it is unreachable.
+	 */
+	public Procedure getProcedure() {
+		return procedure;
+	}
+
+	@Override
+	public String toString() {
+		return "B" + index + "[" + start + ", " + end + ")";
+	}
+}
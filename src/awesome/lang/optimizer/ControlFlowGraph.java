@@ -0,0 +1,355 @@
+package awesome.lang.optimizer;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+import awesome.lang.model.Instruction;
+import awesome.lang.model.Label;
+import awesome.lang.model.OpCode;
+import awesome.lang.model.Program;
+import awesome.lang.model.Target;
+
+/**
+ * The basic blocks of a program and the edges between them, grouped into
+ * procedures.
+ *
+ * A call is a jump to a label that is directly followed by an instruction
+ * whose label is loaded with a Const, the return address pushed by the
+ * Generator. The jump target is the entry of a procedure and the next
+ * instruction its return site. An indirect jump returns to the return sites of
+ * the procedures containing it, or to every label loaded with a Const if
+ * those are not known.
+ *
+ * The graph is not updated when the program changes.
+ */
+public class ControlFlowGraph {
+	private final List<Instruction> instructions;
+	private final IdentityHashMap<Instruction, Integer> indices = new IdentityHashMap<Instruction, Integer>();
+	private final List<List<Label>> labels;
+	private final boolean[] addressTaken;
+
+	private final List<BasicBlock> blocks = new ArrayList<BasicBlock>();
+	private final BasicBlock[] blockAt;
+	private final List<Procedure> procedures = new ArrayList<Procedure>();
+
+	public ControlFlowGraph(Program program) {
+		instructions = Collections.unmodifiableList(new ArrayList<Instruction>(program.getInstructions()));
+		for (int i = 0; i < instructions.size(); i++) {
+			indices.put(instructions.get(i), i);
+		}
+
+		labels = labels();
+		addressTaken = new boolean[instructions.size()];
+		for (Instruction instr : instructions) {
+			if (instr.getOpCode() == OpCode.Const && instr.getOperand(0) instanceof Label) {
+				Integer index = indices.get(((Label) instr.getOperand(0)).getInstr());
+				if (index != null)
+					addressTaken[index] = true;
+			}
+		}
+
+		blockAt = new BasicBlock[instructions.size()];
+		createBlocks();
+		findProcedures();
+		connect();
+	}
+
+	public List<Instruction> getInstructions() {
+		return instructions;
+	}
+
+	/**
+	 * Returns the blocks in program order.
+	 */
+	public List<BasicBlock> getBlocks() {
+		return Collections.unmodifiableList(blocks);
+	}
+
+	/**
+	 * Returns the block where execution starts, or null for an empty program.
+	 */
+	public BasicBlock getEntry() {
+		return blocks.isEmpty() ? null : blocks.get(0);
+	}
+
+	/**
+	 * Returns the block containing the instruction with the given index.
+	 */
+	public BasicBlock getBlock(int instruction) {
+		return blockAt[instruction];
+	}
+
+	/**
+	 * Returns the index of the instruction, or -1 if it is not part of the program.
+	 */
+	public int indexOf(Instruction instr) {
+		Integer index = indices.get(instr);
+		return index == null ? -1 : index;
+	}
+
+	/**
+	 * Returns the labels of the instruction with the given index. There can be
+	 * more than one, since the Generator sometimes labels an instruction that
+	 * already has one, so the labels used by operands are included.
+	 */
+	public List<Label> getLabels(int instruction) {
+		return Collections.unmodifiableList(labels.get(instruction));
+	}
+
+	/**
+	 * Returns the procedures, the first one starts at the beginning of the program.
+	 */
+	public List<Procedure> getProcedures() {
+		return Collections.unmodifiableList(procedures);
+	}
+
+	/**
+	 * Returns the procedure with an entry labeled with the given name, or null.
+	 */
+	public Procedure getProcedure(String name) {
+		for (Procedure procedure : procedures) {
+			for (Label label : labels.get(procedure.getEntry().getStart())) {
+				if (label.getName().equals(name))
+					return procedure;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the index of the instruction the target refers to from the
+	 * instruction at index from, or -1 for indirect targets and addresses
+	 * outside the program.
+	 */
+	public int resolve(Target target, int from) {
+		int to;
+		if (target.isIndirect()) {
+			return -1;
+		} else if (target.isRelative()) {
+			to = from + target.getAddress();
+		} else if (target.getLabel() != null) {
+			Integer index = indices.get(target.getLabel().getInstr());
+			to = index == null ? -1 : index;
+		} else {
+			to = target.getAddress();
+		}
+
+		return to >= 0 && to < instructions.size() ? to : -1;
+	}
+
+	/**
+	 * Returns the jump target of the instruction, or null.
+	 */
+	public static Target getTarget(Instruction instr) {
+		switch (instr.getOpCode()) {
+		case Branch:
+			return (Target) instr.getOperand(1);
+		case Jump:
+			return (Target) instr.getOperand(0);
+		default:
+			return null;
+		}
+	}
+
+	private List<List<Label>> labels() {
+		List<List<Label>> labels = new ArrayList<List<Label>>(instructions.size());
+		for (int i = 0; i < instructions.size(); i++) {
+			labels.add(new ArrayList<Label>(1));
+		}
+
+		for (Instruction instr : instructions) {
+			addLabel(labels, instr.getLabel());
+			for (int j = 0; j < instr.getOpCode().getNumOperands(); j++) {
+				Object operand = instr.getOperand(j);
+				addLabel(labels, operand instanceof Target ? ((Target) operand).getLabel() : operand);
+			}
+		}
+
+		return labels;
+	}
+
+	private void addLabel(List<List<Label>> labels, Object label) {
+		if (!(label instanceof Label))
+			return;
+
+		Integer index = indices.get(((Label) label).getInstr());
+		if (index != null && !labels.get(index).contains(label))
+			labels.get(index).add((Label) label);
+	}
+
+	private void createBlocks() {
+		int size = instructions.size();
+		boolean[] leaders = new boolean[size + 1];
+		leaders[0] = true;
+		leaders[size] = true;
+
+		for (int i = 0; i < size; i++) {
+			Instruction instr = instructions.get(i);
+			OpCode opCode = instr.getOpCode();
+
+			if (!labels.get(i).isEmpty())
+				leaders[i] = true;
+			if (opCode == OpCode.Branch || opCode == OpCode.Jump || opCode == OpCode.EndProg)
+				leaders[i + 1] = true;
+
+			Target target = getTarget(instr);
+			if (target != null && resolve(target, i) >= 0)
+				leaders[resolve(target, i)] = true;
+		}
+
+		int start = 0;
+		for (int i = 1; i <= size; i++) {
+			if (leaders[i]) {
+				BasicBlock block = new BasicBlock(blocks.size(), instructions, start, i);
+				blocks.add(block);
+				Arrays.fill(blockAt, start, i, block);
+				start = i;
+			}
+		}
+	}
+
+	/**
+	 * Returns the blocks execution can continue at without leaving the
+	 * procedure, a call continues at its return site.
+	 */
+	private List<BasicBlock> flow(BasicBlock block) {
+		List<BasicBlock> flow = new ArrayList<BasicBlock>(2);
+		Instruction last = block.getLast();
+		Target target = getTarget(last);
+
+		if (block.callee != null) {
+			flow.add(blockAt[block.getEnd()]);
+			return flow;
+		}
+
+		if (target != null && resolve(target, block.getEnd() - 1) >= 0)
+			flow.add(blockAt[resolve(target, block.getEnd() - 1)]);
+		if (last.getOpCode() != OpCode.Jump && last.getOpCode() != OpCode.EndProg && block.getEnd() < instructions.size()
+				&& !flow.contains(blockAt[block.getEnd()]))
+			flow.add(blockAt[block.getEnd()]);
+
+		return flow;
+	}
+
+	private void findProcedures() {
+		List<BasicBlock> entries = new ArrayList<BasicBlock>();
+		if (!blocks.isEmpty())
+			entries.add(blocks.get(0));
+
+		for (BasicBlock block : blocks) {
+			Instruction last = block.getLast();
+			Target target = getTarget(last);
+			if (last.getOpCode() != OpCode.Jump || target.getLabel() == null || block.getEnd() >= instructions.size()
+					|| !addressTaken[block.getEnd()] || resolve(target, block.getEnd() - 1) < 0)
+				continue;
+
+			block.callee = blockAt[resolve(target, block.getEnd() - 1)];
+			if (!entries.contains(block.callee))
+				entries.add(block.callee);
+		}
+
+		for (BasicBlock entry : entries) {
+			String name = null;
+			for (Label label : labels.get(entry.getStart())) {
+				if (name == null || label.getName().startsWith("func "))
+					name = label.getName();
+			}
+
+			Procedure procedure = new Procedure(name, entry);
+			procedures.add(procedure);
+			entry.procedure = procedure;
+		}
+
+		//every procedure contains the blocks reachable from its entry without passing another entry,
+		//blocks reachable from more than one procedure belong to the first
+		int[] visited = new int[blocks.size()];
+		Arrays.fill(visited, -1);
+		for (int p = 0; p < procedures.size(); p++) {
+			Procedure procedure = procedures.get(p);
+			ArrayDeque<BasicBlock> queue = new ArrayDeque<BasicBlock>();
+			queue.add(procedure.getEntry());
+			visited[procedure.getEntry().getIndex()] = p;
+
+			while (!queue.isEmpty()) {
+				BasicBlock block = queue.poll();
+				if (getTarget(block.getLast()) != null && getTarget(block.getLast()).isIndirect())
+					procedure.returns.add(block);
+
+				for (BasicBlock next : flow(block)) {
+					if (visited[next.getIndex()] != p && (next.procedure == null || next.procedure.getEntry() != next)) {
+						visited[next.getIndex()] = p;
+						if (next.procedure == null)
+							next.procedure = procedure;
+						queue.add(next);
+					}
+				}
+			}
+		}
+
+		for (BasicBlock block : blocks) {
+			if (block.procedure != null)
+				block.procedure.blocks.add(block);
+			if (block.callee != null) {
+				block.callee.procedure.callers.add(block);
+				block.callee.procedure.returnSites.add(blockAt[block.getEnd()]);
+			}
+		}
+	}
+
+	private void connect() {
+		List<BasicBlock> allReturnSites = new ArrayList<BasicBlock>();
+		for (int i = 0; i < instructions.size(); i++) {
+			if (addressTaken[i])
+				allReturnSites.add(blockAt[i]);
+		}
+
+		//a return continues at the return sites of every procedure reaching it
+		List<List<BasicBlock>> returnSites = new ArrayList<List<BasicBlock>>(blocks.size());
+		for (int i = 0; i < blocks.size(); i++) {
+			returnSites.add(null);
+		}
+		for (Procedure procedure : procedures) {
+			for (BasicBlock block : procedure.returns) {
+				List<BasicBlock> sites = returnSites.get(block.getIndex());
+				if (sites == null)
+					returnSites.set(block.getIndex(), sites = new ArrayList<BasicBlock>());
+				if (sites != allReturnSites && procedure.getCallers().isEmpty())
+					returnSites.set(block.getIndex(), allReturnSites);
+				else if (sites != allReturnSites)
+					sites.addAll(procedure.getReturnSites());
+			}
+		}
+
+		for (BasicBlock block : blocks) {
+			Target target = getTarget(block.getLast());
+			block.isReturn = target != null && target.isIndirect();
+
+			for (BasicBlock next : flow(block)) {
+				if (block.procedure != null && next.procedure == block.procedure) {
+					block.localSuccessors.add(next);
+					next.localPredecessors.add(block);
+				}
+			}
+
+			List<BasicBlock> successors;
+			if (block.callee != null) {
+				successors = Collections.singletonList(block.callee);
+			} else if (block.isReturn) {
+				successors = returnSites.get(block.getIndex()) == null ? allReturnSites : returnSites.get(block.getIndex());
+			} else {
+				successors = flow(block);
+			}
+
+			for (BasicBlock next : successors) {
+				if (!block.successors.contains(next)) {
+					block.successors.add(next);
+					next.predecessors.add(block);
+				}
+			}
+		}
+	}
+}
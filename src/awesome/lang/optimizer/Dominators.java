@@ -0,0 +1,145 @@
+package awesome.lang.optimizer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Dominator tree of every procedure of a control flow graph, using the local
+ * edges. A block dominates another block if every path from the entry of the
+ * procedure to that block passes through it. Computed with the iterative
+ * algorithm of Cooper, Harvey and Kennedy.
+ */
+public class Dominators {
+	private final int[] idom;
+	//position of each block in the reverse postorder of its procedure
+	private final int[] order;
+	private final boolean[] visited;
+	private final List<BasicBlock> blocks;
+
+	public Dominators(ControlFlowGraph cfg) {
+		blocks = cfg.getBlocks();
+		idom = new int[blocks.size()];
+		order = new int[blocks.size()];
+		visited = new boolean[blocks.size()];
+		Arrays.fill(idom, -1);
+
+		for (Procedure procedure : cfg.getProcedures()) {
+			compute(procedure);
+		}
+	}
+
+	/**
+	 * Returns the immediate dominator of the block, or null for the entry of a
+	 * procedure and unreachable blocks.
+	 */
+	public BasicBlock getImmediateDominator(BasicBlock block) {
+		int dominator = idom[block.getIndex()];
+		return dominator < 0 || dominator == block.getIndex() ? null : blocks.get(dominator);
+	}
+
+	/**
+	 * Whether a dominates b, every block dominates itself.
+	 */
+	public boolean dominates(BasicBlock a, BasicBlock b) {
+		if (idom[b.getIndex()] < 0 || a.getProcedure() != b.getProcedure())
+			return false;
+
+		int block = b.getIndex();
+		while (block != a.getIndex()) {
+			if (idom[block] == block)
+				return false;
+			block = idom[block];
+		}
+		return true;
+	}
+
+	/**
+	 * Whether the local edge from from to to closes a loop, which means to dominates from.
+	 */
+	public boolean isBackEdge(BasicBlock from, BasicBlock to) {
+		return from.getLocalSuccessors().contains(to) && dominates(to, from);
+	}
+
+	private void compute(Procedure procedure) {
+		List<BasicBlock> postorder = postorder(procedure.getEntry());
+		for (int i = 0; i < postorder.size(); i++) {
+			order[postorder.get(i).getIndex()] = postorder.size() - 1 - i;
+		}
+
+		int entry = procedure.getEntry().getIndex();
+		idom[entry] = entry;
+
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+
+			for (int i = postorder.size() - 1; i >= 0; i--) {
+				BasicBlock block = postorder.get(i);
+				if (block.getIndex() == entry)
+					continue;
+
+				int dominator = -1;
+				for (BasicBlock previous : block.getLocalPredecessors()) {
+					if (idom[previous.getIndex()] < 0)
+						continue;
+					dominator = dominator < 0 ? previous.getIndex() : intersect(dominator, previous.getIndex());
+				}
+
+				if (dominator != idom[block.getIndex()]) {
+					idom[block.getIndex()] = dominator;
+					changed = true;
+				}
+			}
+		}
+	}
+
+	private int intersect(int a, int b) {
+		while (a != b) {
+			while (order[a] > order[b]) {
+				a = idom[a];
+			}
+			while (order[b] > order[a]) {
+				b = idom[b];
+			}
+		}
+		return a;
+	}
+
+	/**
+	 * Returns the blocks reachable from the entry over local edges, in
+	 * postorder. Local edges do not leave a procedure, so every block is
+	 * visited once for all procedures.
+	 */
+	private List<BasicBlock> postorder(BasicBlock entry) {
+		List<BasicBlock> postorder = new ArrayList<BasicBlock>();
+		List<BasicBlock> stack = new ArrayList<BasicBlock>();
+		List<Integer> next = new ArrayList<Integer>();
+
+		visited[entry.getIndex()] = true;
+		stack.add(entry);
+		next.add(0);
+
+		while (!stack.isEmpty()) {
+			int top = stack.size() - 1;
+			BasicBlock block = stack.get(top);
+			int child = next.get(top);
+
+			if (child < block.getLocalSuccessors().size()) {
+				next.set(top, child + 1);
+				BasicBlock successor = block.getLocalSuccessors().get(child);
+				if (!visited[successor.getIndex()]) {
+					visited[successor.getIndex()] = true;
+					stack.add(successor);
+					next.add(0);
+				}
+			} else {
+				postorder.add(block);
+				stack.remove(top);
+				next.remove(top);
+			}
+		}
+
+		return postorder;
+	}
+}
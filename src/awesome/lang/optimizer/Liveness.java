@@ -0,0 +1,233 @@
+package awesome.lang.optimizer;
+
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+import awesome.lang.model.Instruction;
+import awesome.lang.model.Reg;
+import awesome.lang.model.Register;
+
+/**
+ * Registers that can be read before they are written again, for every block
+ * of a control flow graph. The registers are tracked by the number a
+ * {@link Numbering} gives them, by default the ordinals of the physical
+ * registers. Calls and returns are followed like jumps unless only the local
+ * edges are followed, then a register live after any call of a procedure is
+ * live after all of them. Zero is never live, nothing is live after EndProg.
+ * The methods returning sets of registers need the default numbering.
+ */
+public class Liveness {
+	/**
+	 * Numbers the registers to track.
+	 */
+	public interface Numbering {
+		/**
+		 * Returns the number of the register, or -1 if it is not tracked.
+		 */
+		int number(Register reg);
+	}
+
+	/**
+	 * Numbers the physical registers but Zero by their ordinal.
+	 */
+	public static final Numbering PHYSICAL = new Numbering() {
+		@Override
+		public int number(Register reg) {
+			return reg instanceof Reg && reg != Reg.Zero ? ((Reg) reg).ordinal() : -1;
+		}
+	};
+
+	private final ControlFlowGraph cfg;
+	private final Numbering numbering;
+	private final boolean[] ignore;
+	private final BitSet[] liveIn, liveOut;
+
+	public Liveness(ControlFlowGraph cfg) {
+		this(cfg, PHYSICAL, false, new boolean[cfg.getInstructions().size()]);
+	}
+
+	/**
+	 * Computes which of the numbered registers are live, following only the
+	 * local edges of the procedures if local is set and leaving out the
+	 * instructions whose index is set in ignore.
+	 */
+	public Liveness(ControlFlowGraph cfg, Numbering numbering, boolean local, boolean[] ignore) {
+		this.cfg = cfg;
+		this.numbering = numbering;
+		this.ignore = ignore;
+
+		List<BasicBlock> blocks = cfg.getBlocks();
+		BitSet[] uses = new BitSet[blocks.size()], defs = new BitSet[blocks.size()];
+		liveIn = new BitSet[blocks.size()];
+		liveOut = new BitSet[blocks.size()];
+
+		for (BasicBlock block : blocks) {
+			BitSet use = new BitSet(), def = new BitSet();
+			for (int i = block.getEnd() - 1; i >= block.getStart(); i--) {
+				if (ignore[i])
+					continue;
+				for (Register reg : cfg.getInstructions().get(i).getDefs()) {
+					int number = numbering.number(reg);
+					if (number >= 0) {
+						use.clear(number);
+						def.set(number);
+					}
+				}
+				for (Register reg : cfg.getInstructions().get(i).getUses()) {
+					int number = numbering.number(reg);
+					if (number >= 0) {
+						use.set(number);
+						def.clear(number);
+					}
+				}
+			}
+			uses[block.getIndex()] = use;
+			defs[block.getIndex()] = def;
+			liveIn[block.getIndex()] = new BitSet();
+			liveOut[block.getIndex()] = new BitSet();
+		}
+
+		//backwards, so start with the last block
+		ArrayDeque<BasicBlock> worklist = new ArrayDeque<BasicBlock>();
+		boolean[] queued = new boolean[blocks.size()];
+		for (int i = blocks.size() - 1; i >= 0; i--) {
+			worklist.add(blocks.get(i));
+			queued[i] = true;
+		}
+
+		while (!worklist.isEmpty()) {
+			BasicBlock block = worklist.poll();
+			int index = block.getIndex();
+			queued[index] = false;
+
+			BitSet out = new BitSet();
+			for (BasicBlock next : local ? block.getLocalSuccessors() : block.getSuccessors()) {
+				out.or(liveIn[next.getIndex()]);
+			}
+			liveOut[index] = out;
+
+			BitSet in = (BitSet) out.clone();
+			in.andNot(defs[index]);
+			in.or(uses[index]);
+			if (!in.equals(liveIn[index])) {
+				liveIn[index] = in;
+				for (BasicBlock previous : local ? block.getLocalPredecessors() : block.getPredecessors()) {
+					if (!queued[previous.getIndex()]) {
+						queued[previous.getIndex()] = true;
+						worklist.add(previous);
+					}
+				}
+			}
+		}
+	}
+
+	public ControlFlowGraph getGraph() {
+		return cfg;
+	}
+
+	public Set<Reg> getLiveIn(BasicBlock block) {
+		return toSet(liveIn[block.getIndex()]);
+	}
+
+	public Set<Reg> getLiveOut(BasicBlock block) {
+		return toSet(liveOut[block.getIndex()]);
+	}
+
+	public boolean isLiveOut(BasicBlock block, Reg reg) {
+		int number = numbering.number(reg);
+		return number >= 0 && liveOut[block.getIndex()].get(number);
+	}
+
+	/**
+	 * Returns the numbers of the registers live at the end of the block.
+	 */
+	public BitSet getLiveOutNumbers(BasicBlock block) {
+		return (BitSet) liveOut[block.getIndex()].clone();
+	}
+
+	/**
+	 * Returns the registers live after the instruction with the given index.
+	 */
+	public Set<Reg> getLiveAfter(int instruction) {
+		return toSet(liveAfter(instruction));
+	}
+
+	/**
+	 * Returns the registers live before the instruction with the given index.
+	 */
+	public Set<Reg> getLiveBefore(int instruction) {
+		BitSet live = liveAfter(instruction);
+		step(live, instruction);
+		return toSet(live);
+	}
+
+	int liveOut(BasicBlock block) {
+		long[] words = liveOut[block.getIndex()].toLongArray();
+		return words.length == 0 ? 0 : (int) words[0];
+	}
+
+	private BitSet liveAfter(int instruction) {
+		BasicBlock block = cfg.getBlock(instruction);
+		BitSet live = getLiveOutNumbers(block);
+		for (int i = block.getEnd() - 1; i > instruction; i--) {
+			step(live, i);
+		}
+		return live;
+	}
+
+	/**
+	 * Moves the live registers from after to before the instruction with the
+	 * given index.
+	 */
+	private void step(BitSet live, int instruction) {
+		if (ignore[instruction])
+			return;
+		Instruction instr = cfg.getInstructions().get(instruction);
+		for (Register reg : instr.getDefs()) {
+			int number = numbering.number(reg);
+			if (number >= 0)
+				live.clear(number);
+		}
+		for (Register reg : instr.getUses()) {
+			int number = numbering.number(reg);
+			if (number >= 0)
+				live.set(number);
+		}
+	}
+
+	/**
+	 * Returns the registers read by the instruction as a bit set of ordinals.
+	 */
+	static int reads(Instruction instr) {
+		int reads = 0;
+		for (Register reg : instr.getUses()) {
+			if (PHYSICAL.number(reg) >= 0)
+				reads |= 1 << PHYSICAL.number(reg);
+		}
+		return reads;
+	}
+
+	/**
+	 * Returns the registers written by the instruction as a bit set of ordinals.
+	 */
+	static int writes(Instruction instr) {
+		int writes = 0;
+		for (Register reg : instr.getDefs()) {
+			if (PHYSICAL.number(reg) >= 0)
+				writes |= 1 << PHYSICAL.number(reg);
+		}
+		return writes;
+	}
+
+	private static Set<Reg> toSet(BitSet regs) {
+		Set<Reg> set = EnumSet.noneOf(Reg.class);
+		for (Reg reg : Reg.values()) {
+			if (regs.get(reg.ordinal()))
+				set.add(reg);
+		}
+		return set;
+	}
+}
@@ -0,0 +1,523 @@
+package awesome.lang.optimizer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import awesome.lang.model.Instruction;
+import awesome.lang.model.Label;
+import awesome.lang.model.MemAddr;
+import awesome.lang.model.OpCode;
+import awesome.lang.model.Operator;
+import awesome.lang.model.Program;
+import awesome.lang.model.Reg;
+import awesome.lang.model.Target;
+import awesome.lang.simulator.Alu;
+
+/**
+ * Removes redundant instructions from a generated program, looking at a few
+ * instructions at a time within a basic block:
+ * <ul>
+ * <li>Nops are removed, their labels move to the next instruction.</li>
+ * <li>Registers holding a known constant are replaced by Zero or by a
+ * constant address, Computes of constants become a Const and a comparison
+ * followed by a negation becomes the opposite comparison.</li>
+ * <li>Consts and Computes writing a register that is not read before it is
+ * written again are removed, like moves to a register that is not used.</li>
+ * <li>A move from or to a register that is not used afterwards is merged with
+ * the instruction after or before it.</li>
+ * <li>Jumps to the next instruction are removed.</li>
+ * </ul>
+ *
+ * Which registers are live at the end of a block comes from {@link Liveness}
+ * over the {@link ControlFlowGraph} of the program. Instructions between a
+ * relative jump and its target are never removed, so the offset stays valid.
+ * Programs reading PC or jumping to absolute addresses are not changed at all.
+ */
+public class PeepholeOptimizer {
+	private static final int MAX_PASSES = 8;
+	private static final int REGS = Reg.values().length;
+
+	private int removed = 0;
+	private boolean changed;
+
+	/**
+	 * Returns an optimized copy of the program, or the program itself if it
+	 * cannot be optimized. The program is not changed.
+	 */
+	public Program optimize(Program program) {
+		if (!canOptimize(program.getInstructions()))
+			return program;
+
+		Program result = program;
+		for (int pass = 0; pass < MAX_PASSES; pass++) {
+			changed = false;
+			result = pass(result);
+			if (!changed)
+				break;
+		}
+
+		return result;
+	}
+
+	/**
+	 * Returns the number of instructions removed by this optimizer so far.
+	 */
+	public int getRemoved() {
+		return removed;
+	}
+
+	private static boolean canOptimize(List<Instruction> instructions) {
+		for (Instruction instr : instructions) {
+			if (instr.getReads().contains(Reg.PC))
+				return false;
+
+			for (int i = 0; i < instr.getOpCode().getNumOperands(); i++) {
+				Object operand = instr.getOperand(i);
+				if (operand instanceof Target && ((Target) operand).isAbsolute() && ((Target) operand).getLabel() == null)
+					return false;
+			}
+		}
+
+		return true;
+	}
+
+	private Program pass(Program program) {
+		ControlFlowGraph cfg = new ControlFlowGraph(program);
+		Liveness liveness = new Liveness(cfg);
+		List<Instruction> original = cfg.getInstructions();
+		Instruction[] code = original.toArray(new Instruction[original.size()]);
+
+		boolean[] leaders = new boolean[code.length];
+		boolean[] pinned = new boolean[code.length];
+		for (BasicBlock block : cfg.getBlocks()) {
+			leaders[block.getStart()] = true;
+		}
+		for (int i = 0; i < code.length; i++) {
+			Target target = ControlFlowGraph.getTarget(code[i]);
+			if (target != null && target.isRelative()) {
+				int to = i + target.getAddress();
+				for (int j = Math.max(0, Math.min(i, to)); j <= Math.min(code.length - 1, Math.max(i, to)); j++) {
+					pinned[j] = true;
+				}
+			}
+		}
+
+		propagateConstants(code, leaders, pinned);
+		foldMoves(code, cfg, liveness, pinned);
+		removeDeadCode(code, cfg, liveness, pinned);
+		removeJumps(code, pinned, cfg);
+
+		return rebuild(program, cfg, code);
+	}
+
+	/**
+	 * Rewrites instructions using the registers with a known value, block by block.
+	 */
+	private void propagateConstants(Instruction[] code, boolean[] leaders, boolean[] pinned) {
+		Integer[] known = new Integer[REGS];
+
+		for (int i = 0; i < code.length; i++) {
+			if (leaders[i])
+				Arrays.fill(known, null);
+			known[Reg.Zero.ordinal()] = 0;
+
+			Instruction instr = code[i];
+			Integer result = null;
+			boolean merged = false;
+
+			switch (instr.getOpCode()) {
+			case Const:
+				if (instr.getOperand(0) instanceof Integer)
+					result = (Integer) instr.getOperand(0);
+				break;
+			case Compute:
+				Operator op = (Operator) instr.getOperand(0);
+				Reg x = (Reg) instr.getOperand(1), y = (Reg) instr.getOperand(2), z = (Reg) instr.getOperand(3);
+
+				//a comparison followed by the inverse of its result
+				Operator negated = negate(op);
+				if (negated != null && z != Reg.Zero && i + 1 < code.length && !leaders[i + 1] && !pinned[i + 1]
+						&& isNegation(code[i + 1], z)) {
+					op = negated;
+					code[i + 1] = null;
+					merged = true;
+					instr = replace(code, i, OpCode.Compute, op, x, y, z);
+				}
+
+				Integer a = known[x.ordinal()], b = known[y.ordinal()];
+				if (a != null && b != null && canFold(op, b)) {
+					result = Alu.compute(op, a, b);
+					instr = replace(code, i, OpCode.Const, result, z);
+				} else if (zero(x, a) != x || zero(y, b) != y) {
+					instr = replace(code, i, OpCode.Compute, op, zero(x, a), zero(y, b), z);
+				}
+				break;
+			case Load:
+				MemAddr load = constant((MemAddr) instr.getOperand(0), known);
+				if (load != instr.getOperand(0))
+					instr = replace(code, i, OpCode.Load, load, instr.getOperand(1));
+				break;
+			case Store:
+			case Write:
+				Reg value = (Reg) instr.getOperand(0);
+				MemAddr store = constant((MemAddr) instr.getOperand(1), known);
+				if (store != instr.getOperand(1) || zero(value, known[value.ordinal()]) != value)
+					instr = replace(code, i, instr.getOpCode(), zero(value, known[value.ordinal()]), store);
+				break;
+			case Read:
+			case TestAndSet:
+				MemAddr address = constant((MemAddr) instr.getOperand(0), known);
+				if (address != instr.getOperand(0))
+					instr = replace(code, i, instr.getOpCode(), address);
+				break;
+			case Push:
+				Reg pushed = (Reg) instr.getOperand(0);
+				if (zero(pushed, known[pushed.ordinal()]) != pushed)
+					instr = replace(code, i, OpCode.Push, Reg.Zero);
+				break;
+			case Branch:
+				Integer condition = known[((Reg) instr.getOperand(0)).ordinal()];
+				if (condition != null && condition == 0 && !pinned[i]) {
+					//never taken
+					code[i] = null;
+					changed = true;
+					continue;
+				} else if (condition != null && !pinned[i]) {
+					instr = replace(code, i, OpCode.Jump, instr.getOperand(1));
+				}
+				break;
+			default:
+				break;
+			}
+
+			for (Reg reg : instr.getWrites()) {
+				known[reg.ordinal()] = null;
+			}
+			if (result != null && instr.getOpCode() == OpCode.Const)
+				known[((Reg) instr.getOperand(1)).ordinal()] = result;
+
+			//the negation was merged into this instruction
+			if (merged)
+				i++;
+		}
+	}
+
+	/**
+	 * Merges moves with the next instruction of their block, when that
+	 * instruction reads the moved value or writes the value moved, and the
+	 * register in between is dead after the pair.
+	 */
+	private void foldMoves(Instruction[] code, ControlFlowGraph cfg, Liveness liveness, boolean[] pinned) {
+		for (BasicBlock block : cfg.getBlocks()) {
+			//registers live after every instruction of the block
+			int[] liveAfter = new int[block.getEnd() - block.getStart()];
+			int live = liveness.liveOut(block);
+			for (int i = block.getEnd() - 1; i >= block.getStart(); i--) {
+				liveAfter[i - block.getStart()] = live;
+				if (code[i] != null)
+					live = (live & ~Liveness.writes(code[i])) | Liveness.reads(code[i]);
+			}
+
+			for (int i = block.getStart(); i < block.getEnd(); i++) {
+				int j = i + 1;
+				while (j < block.getEnd() && code[j] == null) {
+					j++;
+				}
+				if (code[i] == null || j >= block.getEnd() || pinned[i] || pinned[j])
+					continue;
+
+				int after = liveAfter[j - block.getStart()];
+				if (isMove(code[i])) {
+					//t = v; op(t) becomes op(v)
+					Reg v = (Reg) code[i].getOperand(2), t = (Reg) code[i].getOperand(3);
+					Object[] operands = readFrom(code[j], t, v);
+					if (v != Reg.PC && (after & (1 << t.ordinal())) == 0 && operands != null) {
+						replace(code, j, code[j].getOpCode(), operands);
+						code[i] = null;
+						i = j;
+					}
+				} else if (isMove(code[j]) && destination(code[i]) >= 0) {
+					//t = op; v = t becomes v = op
+					Reg t = (Reg) code[j].getOperand(2), v = (Reg) code[j].getOperand(3);
+					int index = destination(code[i]);
+					if (code[i].getOperand(index) == t && v != Reg.Zero && v != Reg.PC && (after & (1 << t.ordinal())) == 0) {
+						Object[] operands = operands(code[i]);
+						operands[index] = v;
+						replace(code, i, code[i].getOpCode(), operands);
+						code[j] = null;
+						i = j;
+					}
+				}
+			}
+		}
+	}
+
+	private static boolean isMove(Instruction instr) {
+		return instr.getOpCode() == OpCode.Compute && instr.getOperand(0) == Operator.Add && instr.getOperand(1) == Reg.Zero
+				&& instr.getOperand(2) != instr.getOperand(3) && instr.getOperand(3) != Reg.Zero;
+	}
+
+	/**
+	 * Returns the index of the operand with the only register written by the
+	 * instruction, or -1 if it has other effects on registers.
+	 */
+	private static int destination(Instruction instr) {
+		switch (instr.getOpCode()) {
+		case Compute:
+			return 3;
+		case Const:
+		case Load:
+			return 1;
+		case Receive:
+			return 0;
+		default:
+			return -1;
+		}
+	}
+
+	/**
+	 * Returns the operands of the instruction with from replaced by to where it
+	 * is read, or null if the instruction does not read from.
+	 */
+	private static Object[] readFrom(Instruction instr, Reg from, Reg to) {
+		if (!instr.getReads().contains(from) || instr.getOpCode() == OpCode.Pop)
+			return null;
+
+		Object[] operands = operands(instr);
+		int reads = instr.getOpCode() == OpCode.Compute ? 3 : operands.length;
+		for (int i = instr.getOpCode() == OpCode.Compute ? 1 : 0; i < reads; i++) {
+			Object operand = operands[i];
+			if (operand == from && (instr.getOpCode() != OpCode.Load || i == 0))
+				operands[i] = to;
+			else if (operand instanceof MemAddr && ((MemAddr) operand).isDeref() && ((MemAddr) operand).getReg() == from)
+				operands[i] = MemAddr.deref(to);
+			else if (operand instanceof Target && ((Target) operand).isIndirect() && ((Target) operand).getReg() == from)
+				operands[i] = Target.ind(to);
+		}
+		return operands;
+	}
+
+	private static Object[] operands(Instruction instr) {
+		Object[] operands = new Object[instr.getOpCode().getNumOperands()];
+		for (int i = 0; i < operands.length; i++) {
+			operands[i] = instr.getOperand(i);
+		}
+		return operands;
+	}
+
+	/**
+	 * Removes Nops and instructions without side effects that write a register
+	 * which is not read before it is written again, going backwards through
+	 * every block.
+	 */
+	private void removeDeadCode(Instruction[] code, ControlFlowGraph cfg, Liveness liveness, boolean[] pinned) {
+		boolean[] live = new boolean[REGS];
+
+		for (BasicBlock block : cfg.getBlocks()) {
+			for (Reg reg : Reg.values()) {
+				live[reg.ordinal()] = liveness.isLiveOut(block, reg);
+			}
+
+			for (int i = block.getEnd() - 1; i >= block.getStart(); i--) {
+				Instruction instr = code[i];
+				if (instr == null)
+					continue;
+
+				if (!pinned[i] && i < code.length - 1 && isDead(instr, live)) {
+					code[i] = null;
+					changed = true;
+					continue;
+				}
+
+				for (Reg reg : instr.getWrites()) {
+					live[reg.ordinal()] = false;
+				}
+				for (Reg reg : instr.getReads()) {
+					live[reg.ordinal()] = true;
+				}
+			}
+		}
+	}
+
+	private static boolean isDead(Instruction instr, boolean[] live) {
+		switch (instr.getOpCode()) {
+		case Nop:
+			return true;
+		case Const:
+			Reg reg = (Reg) instr.getOperand(1);
+			return reg == Reg.Zero || !live[reg.ordinal()];
+		case Compute:
+			Operator op = (Operator) instr.getOperand(0);
+			Reg x = (Reg) instr.getOperand(1), y = (Reg) instr.getOperand(2), z = (Reg) instr.getOperand(3);
+
+			//a move to itself
+			if (op == Operator.Add && ((x == Reg.Zero && y == z) || (y == Reg.Zero && x == z)))
+				return true;
+			//division by zero stops the program, so it is a side effect
+			if (op == Operator.Div || op == Operator.Mod)
+				return false;
+			return z == Reg.Zero || !live[z.ordinal()];
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Removes jumps to the next remaining instruction.
+	 */
+	private void removeJumps(Instruction[] code, boolean[] pinned, ControlFlowGraph cfg) {
+		for (int i = 0; i < code.length; i++) {
+			if (code[i] == null || code[i].getOpCode() != OpCode.Jump || pinned[i])
+				continue;
+
+			Label label = ((Target) code[i].getOperand(0)).getLabel();
+			int to = label == null ? -1 : cfg.indexOf(label.getInstr());
+			if (to <= i)
+				continue;
+
+			int next = i + 1;
+			while (next < to && code[next] == null) {
+				next++;
+			}
+			if (next == to) {
+				code[i] = null;
+				changed = true;
+			}
+		}
+	}
+
+	/**
+	 * Creates the optimized program. The labels of removed instructions are
+	 * merged with the label of the next remaining instruction.
+	 */
+	private Program rebuild(Program program, ControlFlowGraph cfg, Instruction[] code) {
+		List<Instruction> original = cfg.getInstructions();
+		HashMap<Label, Label> labels = new HashMap<Label, Label>();
+		Label[] placed = new Label[code.length];
+
+		List<Label> pending = new ArrayList<Label>();
+		for (int i = 0; i < code.length; i++) {
+			Label own = original.get(i).getLabel();
+			pending.addAll(cfg.getLabels(i));
+
+			if (code[i] != null && !pending.isEmpty()) {
+				placed[i] = new Label(own != null ? own.getName() : pending.get(0).getName());
+				for (Label old : pending) {
+					labels.put(old, placed[i]);
+				}
+				pending.clear();
+			}
+		}
+
+		Program result = new Program(program.getNumSprockells());
+		for (int i = 0; i < code.length; i++) {
+			Instruction instr = code[i];
+			if (instr == null) {
+				removed++;
+				continue;
+			}
+
+			Object[] operands = new Object[instr.getOpCode().getNumOperands()];
+			for (int j = 0; j < operands.length; j++) {
+				operands[j] = remap(instr.getOperand(j), labels);
+			}
+
+			Instruction copy = result.addInstr(placed[i], instr.getOpCode(), operands);
+			copy.setComment(original.get(i).getComment());
+		}
+
+		return result;
+	}
+
+	private static Object remap(Object operand, HashMap<Label, Label> labels) {
+		if (operand instanceof Label && labels.containsKey(operand))
+			return labels.get(operand);
+
+		if (operand instanceof Target) {
+			Label label = ((Target) operand).getLabel();
+			if (label != null && labels.containsKey(label))
+				return Target.abs(labels.get(label));
+		}
+
+		return operand;
+	}
+
+	private Instruction replace(Instruction[] code, int i, OpCode opCode, Object... operands) {
+		changed = true;
+		code[i] = new Instruction(null, opCode, operands);
+		return code[i];
+	}
+
+	private static MemAddr constant(MemAddr address, Integer[] known) {
+		if (address.isDeref()) {
+			Integer value = known[address.getReg().ordinal()];
+			if (value != null && value >= 0)
+				return MemAddr.direct(value);
+		}
+		return address;
+	}
+
+	private static Reg zero(Reg reg, Integer value) {
+		return value != null && value == 0 ? Reg.Zero : reg;
+	}
+
+	private static boolean isNegation(Instruction instr, Reg reg) {
+		return instr != null && instr.getOpCode() == OpCode.Compute && instr.getOperand(0) == Operator.Equal
+				&& instr.getOperand(1) == Reg.Zero && instr.getOperand(2) == reg && instr.getOperand(3) == reg;
+	}
+
+	/**
+	 * Returns the comparison with the opposite result, or null. Float
+	 * comparisons are not negated, since both are false for NaN.
+	 */
+	private static Operator negate(Operator op) {
+		switch (op) {
+		case Equal:
+			return Operator.NEq;
+		case NEq:
+			return Operator.Equal;
+		case Lt:
+			return Operator.GtE;
+		case GtE:
+			return Operator.Lt;
+		case Gt:
+			return Operator.LtE;
+		case LtE:
+			return Operator.Gt;
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Whether an integer operation on constants can be computed at compile time
+	 * with the same result as on the sprockell.
+	 */
+	private static boolean canFold(Operator op, int y) {
+		switch (op) {
+		case Add:
+		case Sub:
+		case Mul:
+		case Equal:
+		case NEq:
+		case Gt:
+		case Lt:
+		case GtE:
+		case LtE:
+		case And:
+		case Or:
+		case Xor:
+			return true;
+		case Div:
+		case Mod:
+			return y != 0;
+		case LShift:
+		case RShift:
+			return y >= 0 && y < 32;
+		default:
+			return false;
+		}
+	}
+}
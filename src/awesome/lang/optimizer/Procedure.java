@@ -0,0 +1,71 @@
+package awesome.lang.optimizer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A part of the program that is entered at a single block: the start of the
+ * program or a function. Thread functions are started by a branch from the
+ * start of the program, so they are part of the first procedure.
+ */
+public class Procedure {
+	private final String name;
+	private final BasicBlock entry;
+
+	final List<BasicBlock> blocks = new ArrayList<BasicBlock>();
+	final List<BasicBlock> callers = new ArrayList<BasicBlock>();
+	final List<BasicBlock> returnSites = new ArrayList<BasicBlock>();
+	final List<BasicBlock> returns = new ArrayList<BasicBlock>();
+
+	Procedure(String name, BasicBlock entry) {
+		this.name = name;
+		this.entry = entry;
+	}
+
+	/**
+	 * Name of the label of the entry, or null.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	public BasicBlock getEntry() {
+		return entry;
+	}
+
+	/**
+	 * Returns the blocks reachable from the entry without entering other
+	 * procedures, in program order.
+	 */
+	public List<BasicBlock> getBlocks() {
+		return Collections.unmodifiableList(blocks);
+	}
+
+	/**
+	 * Returns the blocks ending in a call of this procedure.
+	 */
+	public List<BasicBlock> getCallers() {
+		return Collections.unmodifiableList(callers);
+	}
+
+	/**
+	 * Returns the blocks ending in a return that are reachable from the entry,
+	 * including those shared with another procedure.
+	 */
+	public List<BasicBlock> getReturns() {
+		return Collections.unmodifiableList(returns);
+	}
+
+	/**
+	 * Returns the blocks this procedure returns to.
+	 */
+	public List<BasicBlock> getReturnSites() {
+		return Collections.unmodifiableList(returnSites);
+	}
+
+	@Override
+	public String toString() {
+		return name == null ? entry.toString() : name;
+	}
+}
@@ -0,0 +1,816 @@
+package awesome.lang.optimizer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+import awesome.lang.model.Instruction;
+import awesome.lang.model.Label;
+import awesome.lang.model.MemAddr;
+import awesome.lang.model.OpCode;
+import awesome.lang.model.Operator;
+import awesome.lang.model.Program;
+import awesome.lang.model.Reg;
+import awesome.lang.model.Register;
+import awesome.lang.model.Target;
+import awesome.lang.model.VirtualReg;
+
+/**
+ * Replaces the virtual registers of a generated program by RegA to RegD,
+ * with linear scan over the live intervals of every procedure of the
+ * {@link ControlFlowGraph}. A virtual register belongs to one procedure.
+ * Intervals have holes where their register is not live, such as while its
+ * value is pushed during a call, and other intervals can use the register there.
+ *
+ * When a procedure needs more registers, the intervals with the fewest uses
+ * for their length are spilled, uses in loops count ten times as much as uses
+ * outside them. A spilled register lives in a slot right below the return
+ * value in the activation record, every use loads it into a new virtual
+ * register and every write stores it from one, after which the procedure is
+ * allocated again. A procedure with slots moves SP below them at its entry and
+ * back before returning, so the caller finds SP where it left it. The main
+ * program does so after its first instruction, which sets the ARP.
+ *
+ * The Generator only pops registers it pushed to save them during a call. A
+ * spilled register that is pushed as often as it is popped keeps its value in
+ * its slot during the call, so those Pushes and Pops are left out. So are the
+ * Pushes and Pops of registers that are not live after the call, and those of
+ * registers that no procedure reachable from the call writes. Procedures are
+ * allocated before their callers to know the latter, and a value saved during
+ * a call prefers a register the callee keeps.
+ *
+ * Nothing may be live in a register across a call, the Generator pushes what
+ * it needs before calling.
+ */
+public class RegisterAllocator {
+	private static final Reg[] REGISTERS = {Reg.RegA, Reg.RegB, Reg.RegC, Reg.RegD};
+	private static final Reg ARP = Reg.RegE;
+	private static final EnumSet<Reg> ALL = EnumSet.of(Reg.RegA, Reg.RegB, Reg.RegC, Reg.RegD);
+
+	private int spilled = 0;
+
+	//virtual registers loading or storing a spilled register, these are never spilled themselves
+	private final IdentityHashMap<VirtualReg, Boolean> temporaries = new IdentityHashMap<VirtualReg, Boolean>();
+	//Consts with the size of the reserved slots, by procedure
+	private IdentityHashMap<Instruction, Integer> reservations = new IdentityHashMap<Instruction, Integer>();
+	private int[] slots;
+	private boolean[] reserved;
+	private int nextReg;
+
+	private ControlFlowGraph cfg;
+	private IdentityHashMap<VirtualReg, Integer> ids;
+	private List<VirtualReg> virtuals;
+	private int[] start, end, hint;
+	//positions at which every virtual register is live, an interval can have holes
+	private BitSet[] ranges;
+	private double[] weight;
+	private boolean[] crossesCall;
+	private Reg[] assigned;
+	private BitSet[] liveOut;
+	//registers written by every procedure allocated so far, including its callees
+	private HashMap<Procedure, EnumSet<Reg>> clobbered;
+
+	/**
+	 * Returns a copy of the program without virtual registers, or the program
+	 * itself if it has none. The program is not changed.
+	 */
+	public Program allocate(Program program) {
+		if (!analyse(program))
+			return program;
+
+		Program live = removeDeadSaves(program);
+		if (live != program) {
+			program = live;
+			analyse(program);
+		}
+
+		slots = new int[cfg.getProcedures().size()];
+		reserved = new boolean[slots.length];
+		for (VirtualReg reg : virtuals) {
+			nextReg = Math.max(nextReg, reg.getNumber() + 1);
+		}
+
+		while (true) {
+			HashMap<VirtualReg, Integer> spills = new HashMap<VirtualReg, Integer>();
+			List<Procedure> procedures = cfg.getProcedures();
+			int[] owner = new int[virtuals.size()];
+			Arrays.fill(owner, -1);
+			clobbered = new HashMap<Procedure, EnumSet<Reg>>();
+
+			for (Procedure procedure : callOrder()) {
+				int p = procedures.indexOf(procedure);
+				List<Integer> regs = new ArrayList<Integer>();
+				for (BasicBlock block : procedures.get(p).getBlocks()) {
+					for (Instruction instr : block.getInstructions()) {
+						for (Register reg : registers(instr)) {
+							if (!(reg instanceof VirtualReg))
+								continue;
+							int id = ids.get(reg);
+							if (owner[id] >= 0 && owner[id] != p)
+								throw new IllegalArgumentException("Register " + reg + " is used by more than one procedure");
+							if (owner[id] < 0)
+								regs.add(id);
+							owner[id] = p;
+						}
+					}
+				}
+
+				scan(regs, procedure);
+				for (int id : regs) {
+					if (assigned[id] == null)
+						spills.put(virtuals.get(id), slots[p]++);
+				}
+				clobbered.put(procedure, clobbers(procedure));
+			}
+
+			if (spills.isEmpty()) {
+				int[] saves = saves();
+				return removeSaves(assign(program), saves);
+			}
+
+			spilled += spills.size();
+			program = spill(program, spills);
+			analyse(program);
+		}
+	}
+
+	/**
+	 * Returns the number of virtual registers spilled to memory by this allocator so far.
+	 */
+	public int getSpilled() {
+		return spilled;
+	}
+
+	/**
+	 * Computes the control flow graph and live intervals of the program.
+	 * Returns whether it has virtual registers.
+	 */
+	private boolean analyse(Program program) {
+		ids = new IdentityHashMap<VirtualReg, Integer>();
+		virtuals = new ArrayList<VirtualReg>();
+		for (Instruction instr : program.getInstructions()) {
+			for (Register reg : registers(instr)) {
+				if (reg instanceof VirtualReg && !ids.containsKey(reg)) {
+					ids.put((VirtualReg) reg, virtuals.size());
+					virtuals.add((VirtualReg) reg);
+				}
+			}
+		}
+		if (virtuals.isEmpty())
+			return false;
+
+		cfg = new ControlFlowGraph(program);
+		int count = virtuals.size();
+		start = new int[count];
+		end = new int[count];
+		hint = new int[count];
+		weight = new double[count];
+		crossesCall = new boolean[count];
+		assigned = new Reg[count];
+		ranges = new BitSet[count];
+		for (int id = 0; id < count; id++) {
+			ranges[id] = new BitSet();
+		}
+		Arrays.fill(start, Integer.MAX_VALUE);
+		Arrays.fill(end, -1);
+		Arrays.fill(hint, -1);
+
+		int[] depth = loopDepths(new Dominators(cfg));
+		liveOut = liveness(new boolean[cfg.getInstructions().size()]);
+		for (BasicBlock block : cfg.getBlocks()) {
+			if (block.getProcedure() != null)
+				intervals(block, liveOut[block.getIndex()], Math.pow(10, Math.min(depth[block.getIndex()], 8)));
+		}
+
+		return true;
+	}
+
+	/**
+	 * Returns the procedures, every procedure after the procedures it calls
+	 * unless they call it back.
+	 */
+	private List<Procedure> callOrder() {
+		List<Procedure> order = new ArrayList<Procedure>();
+		HashSet<Procedure> visited = new HashSet<Procedure>();
+		for (Procedure procedure : cfg.getProcedures()) {
+			visit(procedure, visited, order);
+		}
+		return order;
+	}
+
+	private void visit(Procedure procedure, HashSet<Procedure> visited, List<Procedure> order) {
+		if (!visited.add(procedure))
+			return;
+
+		for (BasicBlock block : procedure.getBlocks()) {
+			if (block.getCallee() != null)
+				visit(block.getCallee().getProcedure(), visited, order);
+		}
+		order.add(procedure);
+	}
+
+	/**
+	 * Returns the registers the procedure and its callees write, every register
+	 * if a callee is not allocated yet.
+	 */
+	private EnumSet<Reg> clobbers(Procedure procedure) {
+		EnumSet<Reg> regs = EnumSet.noneOf(Reg.class);
+		for (BasicBlock block : procedure.getBlocks()) {
+			for (Instruction instr : block.getInstructions()) {
+				for (Register reg : instr.getDefs()) {
+					Reg written = reg instanceof VirtualReg ? assigned[ids.get(reg)] : (Reg) reg;
+					if (written != null)
+						regs.add(written);
+				}
+			}
+			if (block.getCallee() != null)
+				regs.addAll(clobbers(block));
+		}
+		regs.retainAll(ALL);
+		return regs;
+	}
+
+	private EnumSet<Reg> clobbers(BasicBlock call) {
+		EnumSet<Reg> regs = clobbered.get(call.getCallee().getProcedure());
+		return regs == null ? ALL : regs;
+	}
+
+	/**
+	 * Assigns registers to the intervals of the given virtual registers, or
+	 * leaves them without register if they have to be spilled.
+	 */
+	private void scan(List<Integer> regs, Procedure procedure) {
+		List<BasicBlock> calls = new ArrayList<BasicBlock>();
+		for (BasicBlock block : procedure.getBlocks()) {
+			if (block.getCallee() != null)
+				calls.add(block);
+		}
+
+		List<Integer> order = new ArrayList<Integer>(regs);
+		Collections.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Integer.compare(start[a], start[b]);
+			}
+		});
+
+		//positions at which every register holds a value
+		EnumMap<Reg, BitSet> occupied = new EnumMap<Reg, BitSet>(Reg.class);
+		for (Reg reg : REGISTERS) {
+			occupied.put(reg, new BitSet());
+		}
+
+		List<Integer> done = new ArrayList<Integer>();
+		for (int id : order) {
+			if (crossesCall[id])
+				continue;
+
+			//prefer a register the calls during the interval keep
+			EnumSet<Reg> avoid = EnumSet.noneOf(Reg.class);
+			for (BasicBlock call : calls) {
+				int position = 2 * (call.getEnd() - 1);
+				if (start[id] < position && position < end[id])
+					avoid.addAll(clobbers(call));
+			}
+			Reg reg = choose(id, occupied, avoid);
+			if (reg == null)
+				reg = choose(id, occupied, EnumSet.noneOf(Reg.class));
+
+			if (reg == null) {
+				//spill the intervals with the fewest uses for their length, this one or those overlapping it in one register
+				double lowest = Double.POSITIVE_INFINITY;
+				for (Reg candidate : REGISTERS) {
+					double highest = 0;
+					for (int other : done) {
+						if (assigned[other] == candidate && ranges[other].intersects(ranges[id]))
+							highest = Math.max(highest, priority(other));
+					}
+					if (highest < lowest) {
+						lowest = highest;
+						reg = candidate;
+					}
+				}
+				if (reg == null && temporaries.containsKey(virtuals.get(id)))
+					throw new IllegalStateException("Not enough registers for " + virtuals.get(id));
+				if (reg == null || priority(id) <= lowest)
+					continue;
+
+				occupied.get(reg).clear();
+				for (int other : done) {
+					if (assigned[other] == reg && ranges[other].intersects(ranges[id]))
+						assigned[other] = null;
+					else if (assigned[other] == reg)
+						occupied.get(reg).or(ranges[other]);
+				}
+			}
+
+			assigned[id] = reg;
+			occupied.get(reg).or(ranges[id]);
+			done.add(id);
+		}
+	}
+
+	/**
+	 * Returns a free register that is not avoided, preferably the register of
+	 * the value this one is copied from.
+	 */
+	private Reg choose(int id, EnumMap<Reg, BitSet> occupied, EnumSet<Reg> avoid) {
+		Reg preferred = hint[id] >= 0 ? assigned[hint[id]] : null;
+		if (preferred != null && !avoid.contains(preferred) && !occupied.get(preferred).intersects(ranges[id]))
+			return preferred;
+
+		for (Reg reg : REGISTERS) {
+			if (!avoid.contains(reg) && !occupied.get(reg).intersects(ranges[id]))
+				return reg;
+		}
+		return null;
+	}
+
+	private double priority(int id) {
+		if (temporaries.containsKey(virtuals.get(id)))
+			return Double.POSITIVE_INFINITY;
+		return weight[id] / ranges[id].cardinality();
+	}
+
+	/**
+	 * Extends the intervals with the positions in the block where the virtual
+	 * registers are live. The instruction with index i reads at 2i and writes
+	 * at 2i + 1.
+	 */
+	private void intervals(BasicBlock block, BitSet liveOut, double weight) {
+		BitSet live = (BitSet) liveOut.clone();
+		if (block.getCallee() != null) {
+			for (int id = live.nextSetBit(0); id >= 0; id = live.nextSetBit(id + 1)) {
+				crossesCall[id] = true;
+			}
+		}
+
+		List<Instruction> instructions = cfg.getInstructions();
+		for (int i = block.getEnd() - 1; i >= block.getStart(); i--) {
+			Instruction instr = instructions.get(i);
+			for (int id = live.nextSetBit(0); id >= 0; id = live.nextSetBit(id + 1)) {
+				extend(id, 2 * i + 1);
+			}
+
+			for (Register reg : instr.getDefs()) {
+				if (reg instanceof VirtualReg) {
+					int id = ids.get(reg);
+					extend(id, 2 * i + 1);
+					live.clear(id);
+					this.weight[id] += weight;
+
+					if (isMove(instr) && instr.getOperand(2) instanceof VirtualReg)
+						hint[id] = ids.get(instr.getOperand(2));
+				}
+			}
+			for (Register reg : instr.getUses()) {
+				if (reg instanceof VirtualReg) {
+					live.set(ids.get(reg));
+					this.weight[ids.get(reg)] += weight;
+				}
+			}
+
+			for (int id = live.nextSetBit(0); id >= 0; id = live.nextSetBit(id + 1)) {
+				extend(id, 2 * i);
+			}
+		}
+	}
+
+	private void extend(int id, int position) {
+		start[id] = Math.min(start[id], position);
+		end[id] = Math.max(end[id], position);
+		ranges[id].set(position);
+	}
+
+	/**
+	 * Returns the virtual registers live at the end of every block, following
+	 * the local edges of the procedures and leaving out the ignored instructions.
+	 */
+	private BitSet[] liveness(boolean[] ignore) {
+		Liveness liveness = new Liveness(cfg, new Liveness.Numbering() {
+			@Override
+			public int number(Register reg) {
+				return reg instanceof VirtualReg ? ids.get(reg) : -1;
+			}
+		}, true, ignore);
+
+		BitSet[] liveOut = new BitSet[cfg.getBlocks().size()];
+		for (BasicBlock block : cfg.getBlocks()) {
+			liveOut[block.getIndex()] = liveness.getLiveOutNumbers(block);
+		}
+		return liveOut;
+	}
+
+	/**
+	 * Returns for every block the number of loops of its procedure containing it.
+	 */
+	private int[] loopDepths(Dominators dominators) {
+		int[] depth = new int[cfg.getBlocks().size()];
+
+		for (BasicBlock header : cfg.getBlocks()) {
+			//the natural loop of a header contains the blocks reaching a back edge without passing the header
+			boolean[] loop = new boolean[depth.length];
+			List<BasicBlock> todo = new ArrayList<BasicBlock>();
+			for (BasicBlock previous : header.getLocalPredecessors()) {
+				if (dominators.isBackEdge(previous, header))
+					todo.add(previous);
+			}
+			if (todo.isEmpty())
+				continue;
+
+			loop[header.getIndex()] = true;
+			while (!todo.isEmpty()) {
+				BasicBlock block = todo.remove(todo.size() - 1);
+				if (loop[block.getIndex()])
+					continue;
+				loop[block.getIndex()] = true;
+				todo.addAll(block.getLocalPredecessors());
+			}
+
+			for (int i = 0; i < depth.length; i++) {
+				if (loop[i])
+					depth[i]++;
+			}
+		}
+
+		return depth;
+	}
+
+	/**
+	 * Returns for every Pop the index of the Push it restores, or -1. The
+	 * Generator nests the saves of calls in the arguments of other calls, so a
+	 * Pop belongs to the last Push of its register that has no Pop yet.
+	 */
+	private int[] saves() {
+		List<Instruction> instructions = cfg.getInstructions();
+		int[] saves = new int[instructions.size()];
+		Arrays.fill(saves, -1);
+
+		HashMap<Object, List<Integer>> pushed = new HashMap<Object, List<Integer>>();
+		for (int i = 0; i < instructions.size(); i++) {
+			Instruction instr = instructions.get(i);
+			if (instr.getOpCode() == OpCode.Push) {
+				if (!pushed.containsKey(instr.getOperand(0)))
+					pushed.put(instr.getOperand(0), new ArrayList<Integer>());
+				pushed.get(instr.getOperand(0)).add(i);
+			} else if (instr.getOpCode() == OpCode.Pop) {
+				List<Integer> open = pushed.get(instr.getOperand(0));
+				if (open != null && !open.isEmpty())
+					saves[i] = open.remove(open.size() - 1);
+			}
+		}
+
+		return saves;
+	}
+
+	/**
+	 * Returns a copy of the program without the Pushes and Pops that save a
+	 * virtual register which is not live after the call, or the program itself
+	 * if there are none. A Push only keeps its register live for its Pop, so
+	 * all saves start out removed and are put back while their Pop turns out
+	 * to be live.
+	 */
+	private Program removeDeadSaves(Program program) {
+		List<Instruction> instructions = cfg.getInstructions();
+		int[] saves = saves();
+		boolean[] remove = new boolean[instructions.size()];
+		for (int i = 0; i < saves.length; i++) {
+			if (saves[i] >= 0 && instructions.get(i).getOperand(0) instanceof VirtualReg)
+				remove[i] = remove[saves[i]] = true;
+		}
+
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			BitSet[] liveOut = liveness(remove);
+
+			for (BasicBlock block : cfg.getBlocks()) {
+				BitSet live = liveOut[block.getIndex()];
+				for (int i = block.getEnd() - 1; i >= block.getStart(); i--) {
+					Instruction instr = instructions.get(i);
+					if (remove[i] && saves[i] >= 0 && live.get(ids.get(instr.getOperand(0)))) {
+						remove[i] = remove[saves[i]] = false;
+						changed = true;
+					}
+					if (remove[i])
+						continue;
+
+					for (Register reg : instr.getDefs()) {
+						if (reg instanceof VirtualReg)
+							live.clear(ids.get(reg));
+					}
+					for (Register reg : instr.getUses()) {
+						if (reg instanceof VirtualReg)
+							live.set(ids.get(reg));
+					}
+				}
+			}
+		}
+
+		for (boolean removed : remove) {
+			if (removed)
+				return remove(program, remove);
+		}
+		return program;
+	}
+
+	/**
+	 * Returns a copy of the allocated program without the Pushes and Pops
+	 * that save a register which neither the caller nor the procedures
+	 * reachable from the calls in between write, or the program itself if
+	 * there are none. The saves are those of the program before allocation.
+	 */
+	private Program removeSaves(Program program, int[] saves) {
+		cfg = new ControlFlowGraph(program);
+		clobbered = new HashMap<Procedure, EnumSet<Reg>>();
+		for (Procedure procedure : callOrder()) {
+			clobbered.put(procedure, clobbers(procedure));
+		}
+
+		List<Instruction> instructions = cfg.getInstructions();
+		boolean[] remove = new boolean[instructions.size()];
+		boolean removed = false;
+		for (int pop = 0; pop < saves.length; pop++) {
+			if (saves[pop] < 0)
+				continue;
+
+			Object reg = instructions.get(pop).getOperand(0);
+			boolean written = false;
+			for (int i = saves[pop] + 1; i < pop && !written; i++) {
+				BasicBlock block = cfg.getBlock(i);
+				written = instructions.get(i).getDefs().contains(reg)
+						|| block.getCallee() != null && block.getEnd() == i + 1 && clobbers(block).contains(reg);
+			}
+
+			if (!written) {
+				remove[pop] = remove[saves[pop]] = true;
+				removed = true;
+			}
+		}
+
+		return removed ? remove(program, remove) : program;
+	}
+
+	/**
+	 * Returns a copy of the program without the given instructions, a removed
+	 * instruction with a label is replaced by a Nop.
+	 */
+	private Program remove(Program program, boolean[] remove) {
+		List<Instruction> original = cfg.getInstructions();
+		List<List<Instruction>> code = new ArrayList<List<Instruction>>(original.size());
+		for (int i = 0; i < original.size(); i++) {
+			if (!remove[i])
+				code.add(Collections.singletonList(copy(original.get(i), new HashMap<VirtualReg, Register>())));
+			else if (!cfg.getLabels(i).isEmpty())
+				code.add(Collections.singletonList(new Instruction(null, OpCode.Nop)));
+			else
+				code.add(Collections.<Instruction>emptyList());
+		}
+
+		return rebuild(program, code, new int[original.size()]);
+	}
+
+	/**
+	 * Returns a copy of the program in which the given registers are loaded
+	 * from and stored to their slot around every instruction using them.
+	 */
+	private Program spill(Program program, HashMap<VirtualReg, Integer> spills) {
+		List<Instruction> original = cfg.getInstructions();
+		List<List<Instruction>> code = new ArrayList<List<Instruction>>(original.size());
+		int[] position = new int[original.size()];
+
+		HashMap<Object, Integer> saves = new HashMap<Object, Integer>();
+		for (Instruction instr : original) {
+			if (instr.getOpCode() == OpCode.Push || instr.getOpCode() == OpCode.Pop) {
+				int count = saves.containsKey(instr.getOperand(0)) ? saves.get(instr.getOperand(0)) : 0;
+				saves.put(instr.getOperand(0), count + (instr.getOpCode() == OpCode.Push ? 1 : -1));
+			}
+		}
+
+		for (int i = 0; i < original.size(); i++) {
+			List<Instruction> instrs = new ArrayList<Instruction>(1);
+			code.add(instrs);
+			Instruction instr = original.get(i);
+			BasicBlock block = cfg.getBlock(i);
+			int p = block.getProcedure() == null ? -1 : cfg.getProcedures().indexOf(block.getProcedure());
+
+			if ((instr.getOpCode() == OpCode.Push || instr.getOpCode() == OpCode.Pop) && spills.containsKey(instr.getOperand(0))
+					&& saves.get(instr.getOperand(0)) == 0) {
+				if (!cfg.getLabels(i).isEmpty())
+					instrs.add(new Instruction(null, OpCode.Nop));
+				continue;
+			}
+
+			//reserve the slots, an entry can be a loop header so SP is set instead of lowered
+			if (p > 0 && !reserved[p] && slots[p] > 0 && block.getProcedure().getEntry().getStart() == i)
+				reserve(instrs, p);
+			if (p > 0 && !reserved[p] && slots[p] > 0 && block.isReturn() && i == block.getEnd() - 1)
+				setSP(instrs, 2);
+
+			HashMap<VirtualReg, Register> replace = new HashMap<VirtualReg, Register>();
+			for (Register reg : instr.getUses()) {
+				if (spills.containsKey(reg) && !replace.containsKey(reg)) {
+					VirtualReg temp = temporary();
+					replace.put((VirtualReg) reg, temp);
+					address(instrs, spills.get(reg), temp);
+					instrs.add(new Instruction(null, OpCode.Load, MemAddr.deref(temp), temp));
+				}
+			}
+
+			VirtualReg store = null;
+			for (Register reg : instr.getDefs()) {
+				if (spills.containsKey(reg)) {
+					store = (VirtualReg) reg;
+					if (!replace.containsKey(reg))
+						replace.put(store, temporary());
+				}
+			}
+
+			position[i] = instrs.size();
+			instrs.add(copy(instr, replace));
+
+			if (store != null) {
+				VirtualReg address = temporary();
+				address(instrs, spills.get(store), address);
+				instrs.add(new Instruction(null, OpCode.Store, replace.get(store), MemAddr.deref(address)));
+			}
+
+			if (i == 0 && !reserved[0] && slots[0] > 0)
+				reserve(instrs, 0);
+		}
+
+		for (int p = 0; p < slots.length; p++) {
+			reserved[p] |= slots[p] > 0;
+		}
+
+		return rebuild(program, code, position);
+	}
+
+	/**
+	 * Returns a copy of the program with the registers chosen by the last scan.
+	 */
+	private Program assign(Program program) {
+		List<Instruction> original = cfg.getInstructions();
+		HashMap<VirtualReg, Register> replace = new HashMap<VirtualReg, Register>();
+		for (int id = 0; id < virtuals.size(); id++) {
+			//registers that only occur in unreachable code get any register
+			replace.put(virtuals.get(id), assigned[id] == null ? Reg.RegA : assigned[id]);
+		}
+
+		List<List<Instruction>> code = new ArrayList<List<Instruction>>(original.size());
+		for (Instruction instr : original) {
+			code.add(Collections.singletonList(copy(instr, replace)));
+		}
+
+		return rebuild(program, code, new int[original.size()]);
+	}
+
+	private VirtualReg temporary() {
+		VirtualReg reg = new VirtualReg(nextReg++);
+		temporaries.put(reg, true);
+		return reg;
+	}
+
+	/**
+	 * Moves SP below the slots of the procedure, the size is filled in when the
+	 * program is rebuilt since later rounds can add slots.
+	 */
+	private void reserve(List<Instruction> instrs, int procedure) {
+		VirtualReg temp = temporary();
+		Instruction size = new Instruction(null, OpCode.Const, 0, temp);
+		reservations.put(size, procedure);
+		instrs.add(size);
+		instrs.add(new Instruction(null, OpCode.Compute, Operator.Sub, ARP, temp, Reg.SP));
+	}
+
+	/**
+	 * Sets SP to the given distance below the ARP.
+	 */
+	private void setSP(List<Instruction> instrs, int distance) {
+		VirtualReg temp = temporary();
+		instrs.add(new Instruction(null, OpCode.Const, distance, temp));
+		instrs.add(new Instruction(null, OpCode.Compute, Operator.Sub, ARP, temp, Reg.SP));
+	}
+
+	/**
+	 * Computes the address of a slot, the first slot is right below the return value.
+	 */
+	private static void address(List<Instruction> instrs, int slot, Register temp) {
+		instrs.add(new Instruction(null, OpCode.Const, -(3 + slot), temp));
+		instrs.add(new Instruction(null, OpCode.Compute, Operator.Add, ARP, temp, temp));
+	}
+
+	private Instruction copy(Instruction instr, HashMap<VirtualReg, Register> replace) {
+		Object[] operands = new Object[instr.getOpCode().getNumOperands()];
+		for (int j = 0; j < operands.length; j++) {
+			operands[j] = replace(instr.getOperand(j), replace);
+		}
+
+		Instruction copy = new Instruction(null, instr.getOpCode(), operands);
+		if (reservations.containsKey(instr))
+			reservations.put(copy, reservations.get(instr));
+		return copy;
+	}
+
+	private static Object replace(Object operand, HashMap<VirtualReg, Register> replace) {
+		if (operand instanceof VirtualReg && replace.containsKey(operand))
+			return replace.get(operand);
+
+		if (operand instanceof MemAddr && ((MemAddr) operand).isDeref() && replace.containsKey(((MemAddr) operand).getRegister()))
+			return MemAddr.deref(replace.get(((MemAddr) operand).getRegister()));
+
+		if (operand instanceof Target && ((Target) operand).isIndirect() && replace.containsKey(((Target) operand).getRegister()))
+			return Target.ind(replace.get(((Target) operand).getRegister()));
+
+		return operand;
+	}
+
+	/**
+	 * Copies the instructions to a new program. The labels of an instruction
+	 * move to the first instruction emitted for it and relative targets are
+	 * corrected for the added instructions.
+	 */
+	private Program rebuild(Program program, List<List<Instruction>> code, int[] position) {
+		List<Instruction> original = cfg.getInstructions();
+		int[] first = new int[original.size() + 1];
+		HashMap<Label, Label> labels = new HashMap<Label, Label>();
+		Label[] placed = new Label[original.size()];
+
+		for (int i = 0; i < original.size(); i++) {
+			first[i + 1] = first[i] + code.get(i).size();
+
+			List<Label> own = cfg.getLabels(i);
+			if (!own.isEmpty()) {
+				Label label = original.get(i).getLabel();
+				placed[i] = new Label(label != null ? label.getName() : own.get(0).getName());
+				for (Label old : own) {
+					labels.put(old, placed[i]);
+				}
+			}
+		}
+
+		Program result = new Program(program.getNumSprockells());
+		IdentityHashMap<Instruction, Integer> sizes = new IdentityHashMap<Instruction, Integer>();
+		for (int i = 0; i < original.size(); i++) {
+			List<Instruction> instrs = code.get(i);
+			for (int j = 0; j < instrs.size(); j++) {
+				Instruction instr = instrs.get(j);
+				Object[] operands = new Object[instr.getOpCode().getNumOperands()];
+				for (int k = 0; k < operands.length; k++) {
+					operands[k] = remap(instr.getOperand(k), labels);
+
+					Target target = operands[k] instanceof Target ? (Target) operands[k] : null;
+					if (j == position[i] && target != null && target.isRelative()) {
+						int to = i + target.getAddress();
+						if (to >= 0 && to <= original.size())
+							operands[k] = Target.rel(first[to] - (first[i] + j));
+					}
+				}
+
+				Integer procedure = reservations.get(instr);
+				if (procedure != null)
+					operands[0] = slots[procedure] + 2;
+
+				Instruction copy = result.addInstr(j == 0 ? placed[i] : null, instr.getOpCode(), operands);
+				if (j == position[i])
+					copy.setComment(original.get(i).getComment());
+				if (procedure != null)
+					sizes.put(copy, procedure);
+			}
+		}
+		reservations = sizes;
+
+		return result;
+	}
+
+	private static Object remap(Object operand, HashMap<Label, Label> labels) {
+		if (operand instanceof Label && labels.containsKey(operand))
+			return labels.get(operand);
+
+		if (operand instanceof Target) {
+			Label label = ((Target) operand).getLabel();
+			if (label != null && labels.containsKey(label))
+				return Target.abs(labels.get(label));
+		}
+
+		return operand;
+	}
+
+	private static boolean isMove(Instruction instr) {
+		return instr.getOpCode() == OpCode.Compute && instr.getOperand(0) == Operator.Add && instr.getOperand(1) == Reg.Zero;
+	}
+
+	private static List<Register> registers(Instruction instr) {
+		List<Register> registers = instr.getUses();
+		registers.addAll(instr.getDefs());
+		return registers;
+	}
+}
@@ -0,0 +1,86 @@
+package awesome.lang.simulator;
+
+import awesome.lang.model.Operator;
+
+/**
+ * Implements the operators of the Compute instruction. Floats are stored in
+ * registers by their bit pattern.
+ */
+public class Alu {
+	private static final int TRUE = 1, FALSE = 0;
+
+	public static int compute(Operator op, int x, int y) {
+		switch (op) {
+		case Add:
+			return x + y;
+		case Sub:
+			return x - y;
+		case Mul:
+			return x * y;
+		case Div:
+			return Math.floorDiv(x, y);
+		case Mod:
+			return Math.floorMod(x, y);
+		case Equal:
+			return bool(x == y);
+		case NEq:
+			return bool(x != y);
+		case Gt:
+			return bool(x > y);
+		case Lt:
+			return bool(x < y);
+		case GtE:
+			return bool(x >= y);
+		case LtE:
+			return bool(x <= y);
+		case And:
+			return x & y;
+		case Or:
+			return x | y;
+		case Xor:
+			return x ^ y;
+		case LShift:
+			return x << y;
+		case RShift:
+			return x >> y;
+		case AddF:
+			return bits(flt(x) + flt(y));
+		case SubF:
+			return bits(flt(x) - flt(y));
+		case MulF:
+			return bits(flt(x) * flt(y));
+		case DivF:
+			return bits(flt(x) / flt(y));
+		case ModF:
+			//same sign as the divisor, like haskell's mod'
+			float mod = flt(x) % flt(y);
+			return bits(mod != 0 && (mod < 0) != (flt(y) < 0) ? mod + flt(y) : mod);
+		case GtF:
+			return bool(flt(x) > flt(y));
+		case LtF:
+			return bool(flt(x) < flt(y));
+		case GtEF:
+			return bool(flt(x) >= flt(y));
+		case LtEF:
+			return bool(flt(x) <= flt(y));
+		case FtoI:
+			return (int) flt(x);
+		case ItoF:
+			return bits((float) x);
+		default:
+			throw new UnsupportedOperationException("Unknown operator " + op);
+		}
+	}
+
+	private static int bool(boolean b) {
+		return b ? TRUE : FALSE;
+	}
+
+	private static float flt(int bits) {
+		return Float.intBitsToFloat(bits);
+	}
+
+	private static int bits(float f) {
+		return Float.floatToIntBits(f);
+	}
+}
@@ -0,0 +1,207 @@
+package awesome.lang.simulator;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import awesome.lang.model.PackedProgram;
+import awesome.lang.model.Reg;
+
+/**
+ * Writes and reads checkpoints of a running program: the registers, pc and
+ * local memory of every sprockell, the shared memory and the devices.
+ *
+ * Only local memory pages that are not zero and allocated shared memory pages
+ * are written. Shared memory pages are stored at the end of the file, aligned
+ * to their size, so restoring maps the file and uses the pages in place
+ * (copy-on-write) instead of reading them.
+ */
+final class Checkpoint {
+	/**
+	 * State of a single sprockell.
+	 */
+	interface Part {
+		void save(DataOutputStream out) throws IOException;
+
+		void restore(ByteBuffer in);
+	}
+
+	private static final int MAGIC = 0x41574C43, VERSION = 1;
+
+	/**
+	 * Size in bytes of a memory page, pages in the file are aligned to this.
+	 */
+	static final int PAGE_BYTES = SharedMemory.PAGE_SIZE * 4;
+
+	private static final int REGS = Reg.values().length;
+
+	private Checkpoint() {
+	}
+
+	/**
+	 * Writes a checkpoint, devices are flushed first. The counter is stored
+	 * for the simulator, like the number of executed cycles.
+	 *
+	 * The checkpoint is written to a temporary file which then replaces path,
+	 * so memory restored from an earlier checkpoint at path stays valid and a
+	 * failed write does not leave a broken checkpoint.
+	 */
+	static void write(Path path, PackedProgram program, long counter, Part[] sprockells, SharedMemory memory) throws IOException {
+		memory.flush();
+
+		Path absolute = path.toAbsolutePath();
+		Path temp = Files.createTempFile(absolute.getParent(), absolute.getFileName().toString(), ".tmp");
+		try {
+			writeFile(temp, program, counter, sprockells, memory);
+			Files.move(temp, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	private static void writeFile(Path path, PackedProgram program, long counter, Part[] sprockells, SharedMemory memory)
+			throws IOException {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeBoolean(ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN);
+			out.writeInt(program.size());
+			out.writeInt(fingerprint(program));
+			out.writeInt(sprockells.length);
+			out.writeLong(counter);
+
+			for (Part sprockell : sprockells) {
+				sprockell.save(out);
+			}
+			memory.save(out);
+		}
+	}
+
+	/**
+	 * Restores a checkpoint of the same program, returns the stored counter.
+	 * @throws IOException if the file is not a checkpoint of this program.
+	 */
+	static long read(Path path, PackedProgram program, Part[] sprockells, SharedMemory memory) throws IOException {
+		ByteBuffer in;
+		//a private mapping, so changes to restored pages are not written to the file
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			in = channel.map(MapMode.PRIVATE, 0, channel.size());
+		}
+
+		if (in.getInt() != MAGIC || in.getInt() != VERSION)
+			throw new IOException(path + " is not a checkpoint");
+		if ((in.get() != 0) != (ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN))
+			throw new IOException(path + " was written on a machine with a different byte order");
+		if (in.getInt() != program.size() || in.getInt() != fingerprint(program) || in.getInt() != sprockells.length)
+			throw new IOException(path + " is a checkpoint of a different program");
+
+		long counter = in.getLong();
+		for (Part sprockell : sprockells) {
+			sprockell.restore(in);
+		}
+		memory.restore(in);
+
+		return counter;
+	}
+
+	/**
+	 * Writes the registers and the local memory pages that are not zero.
+	 */
+	static void writeSprockell(DataOutputStream out, int pc, boolean halted, boolean hasReply, int reply, int[] regs,
+			int[] localMem) throws IOException {
+		out.writeInt(pc);
+		out.writeBoolean(halted);
+		out.writeBoolean(hasReply);
+		out.writeInt(reply);
+		for (int i = 0; i < REGS; i++) {
+			out.writeInt(regs[i]);
+		}
+
+		int pages = 0;
+		for (int page = 0; page < localMem.length / SharedMemory.PAGE_SIZE; page++) {
+			if (!isZero(localMem, page))
+				pages++;
+		}
+
+		out.writeInt(pages);
+		for (int page = 0; page < localMem.length / SharedMemory.PAGE_SIZE; page++) {
+			if (!isZero(localMem, page)) {
+				out.writeInt(page);
+				for (int i = page * SharedMemory.PAGE_SIZE; i < (page + 1) * SharedMemory.PAGE_SIZE; i++) {
+					out.writeInt(localMem[i]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads the registers written by writeSprockell into regs, the pc, halted
+	 * and reply have to be read before.
+	 */
+	static void readRegisters(ByteBuffer in, int[] regs) {
+		for (int i = 0; i < REGS; i++) {
+			regs[i] = in.getInt();
+		}
+	}
+
+	/**
+	 * Reads the local memory written by writeSprockell into localMem, after
+	 * the registers have been read.
+	 */
+	static void readLocalMemory(ByteBuffer in, int[] localMem) {
+		Arrays.fill(localMem, 0);
+
+		int pages = in.getInt();
+		for (int i = 0; i < pages; i++) {
+			int page = in.getInt();
+			IntBuffer ints = in.asIntBuffer();
+			ints.get(localMem, page * SharedMemory.PAGE_SIZE, SharedMemory.PAGE_SIZE);
+			in.position(in.position() + PAGE_BYTES);
+		}
+	}
+
+	private static boolean isZero(int[] memory, int page) {
+		for (int i = page * SharedMemory.PAGE_SIZE; i < (page + 1) * SharedMemory.PAGE_SIZE; i++) {
+			if (memory[i] != 0)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Pads the file with zeros up to the next page boundary.
+	 */
+	static void align(DataOutputStream out) throws IOException {
+		while (out.size() % PAGE_BYTES != 0) {
+			out.write(0);
+		}
+	}
+
+	/**
+	 * Moves the position of a restored file to the next page boundary.
+	 */
+	static void align(ByteBuffer in) {
+		in.position((in.position() + PAGE_BYTES - 1) / PAGE_BYTES * PAGE_BYTES);
+	}
+
+	private static int fingerprint(PackedProgram program) {
+		int hash = program.getNumSprockells();
+		for (int i = 0; i < program.size(); i++) {
+			hash = hash * 31 + program.opCode(i).ordinal();
+			hash = hash * 31 + program.operator(i).ordinal();
+			hash = hash * 31 + (program.x(i) | program.y(i) << 4 | program.z(i) << 8 | program.mode(i) << 12);
+			hash = hash * 31 + program.imm(i);
+		}
+		return hash;
+	}
+}
@@ -0,0 +1,366 @@
+package awesome.lang.simulator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Minimal writer for JVM class files, only supporting what JitCompiler needs.
+ *
+ * Class files are written as version 49, which is verified by type inference,
+ * so no stack map frames have to be computed.
+ */
+class ClassFile {
+	static final int ACC_PUBLIC = 0x0001, ACC_STATIC = 0x0008, ACC_FINAL = 0x0010, ACC_SUPER = 0x0020;
+
+	private static final int VERSION = 49;
+	private static final int UTF8 = 1, INTEGER = 3, CLASS = 7, FIELD = 9, METHOD = 10, NAME_AND_TYPE = 12;
+
+	private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+	private final DataOutputStream pool = new DataOutputStream(poolBytes);
+	private final HashMap<String, Integer> entries = new HashMap<String, Integer>();
+	private int poolSize = 1;
+
+	private final String name, superName;
+	private final String[] interfaces;
+	private final List<Code> methods = new ArrayList<Code>();
+
+	/**
+	 * Creates a class, names are internal names like "java/lang/Object".
+	 */
+	ClassFile(String name, String superName, String... interfaces) {
+		this.name = name;
+		this.superName = superName;
+		this.interfaces = interfaces;
+	}
+
+	String getName() {
+		return name;
+	}
+
+	int utf8(String value) {
+		Integer index = entries.get("U" + value);
+		if (index != null)
+			return index;
+
+		try {
+			pool.writeByte(UTF8);
+			pool.writeUTF(value);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return add("U" + value);
+	}
+
+	int integer(int value) {
+		Integer index = entries.get("I" + value);
+		if (index != null)
+			return index;
+
+		try {
+			pool.writeByte(INTEGER);
+			pool.writeInt(value);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return add("I" + value);
+	}
+
+	int classRef(String className) {
+		return ref(CLASS, utf8(className), -1);
+	}
+
+	int field(String owner, String name, String descriptor) {
+		return ref(FIELD, classRef(owner), nameAndType(name, descriptor));
+	}
+
+	int method(String owner, String name, String descriptor) {
+		return ref(METHOD, classRef(owner), nameAndType(name, descriptor));
+	}
+
+	private int nameAndType(String name, String descriptor) {
+		return ref(NAME_AND_TYPE, utf8(name), utf8(descriptor));
+	}
+
+	/**
+	 * Adds an entry referring to one or two other entries, b is -1 for one.
+	 */
+	private int ref(int tag, int a, int b) {
+		String key = tag + ":" + a + ":" + b;
+		Integer index = entries.get(key);
+		if (index != null)
+			return index;
+
+		try {
+			pool.writeByte(tag);
+			pool.writeShort(a);
+			if (b >= 0)
+				pool.writeShort(b);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return add(key);
+	}
+
+	private int add(String key) {
+		int index = poolSize;
+		if (index == 0xFFFF)
+			throw new IllegalStateException("Constant pool of " + name + " is full");
+
+		poolSize++;
+		entries.put(key, index);
+		return index;
+	}
+
+	/**
+	 * Adds a method, its code is written to the returned Code.
+	 */
+	Code addMethod(int access, String name, String descriptor, int maxLocals) {
+		Code code = new Code(this, access, name, descriptor, maxLocals);
+		methods.add(code);
+		return code;
+	}
+
+	byte[] toByteArray() {
+		try {
+			int thisClass = classRef(name), superClass = classRef(superName);
+			int[] interfaceRefs = new int[interfaces.length];
+			for (int i = 0; i < interfaces.length; i++) {
+				interfaceRefs[i] = classRef(interfaces[i]);
+			}
+			int codeName = utf8("Code");
+			for (Code method : methods) {
+				method.nameIndex = utf8(method.name);
+				method.descriptorIndex = utf8(method.descriptor);
+			}
+
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+
+			out.writeInt(0xCAFEBABE);
+			out.writeShort(0);
+			out.writeShort(VERSION);
+			out.writeShort(poolSize);
+			pool.flush();
+			poolBytes.writeTo(out);
+
+			out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+			out.writeShort(thisClass);
+			out.writeShort(superClass);
+			out.writeShort(interfaceRefs.length);
+			for (int ref : interfaceRefs) {
+				out.writeShort(ref);
+			}
+
+			//no fields
+			out.writeShort(0);
+
+			out.writeShort(methods.size());
+			for (Code method : methods) {
+				method.write(out, codeName);
+			}
+
+			//no attributes
+			out.writeShort(0);
+
+			return bytes.toByteArray();
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * The bytecode of a single method.
+	 */
+	static class Code {
+		static final int ICONST_0 = 0x03, BIPUSH = 0x10, SIPUSH = 0x11, LDC_W = 0x13, ILOAD = 0x15, ALOAD = 0x19,
+				IALOAD = 0x2e, ISTORE = 0x36, IASTORE = 0x4f, POP = 0x57, IADD = 0x60, ISUB = 0x64, IMUL = 0x68,
+				ISHL = 0x78, ISHR = 0x7a, IAND = 0x7e, IOR = 0x80, IXOR = 0x82, IINC = 0x84, IFEQ = 0x99,
+				IF_ICMPEQ = 0x9f, IF_ICMPNE = 0xa0, IF_ICMPLT = 0xa1, IF_ICMPGE = 0xa2, IF_ICMPGT = 0xa3,
+				IF_ICMPLE = 0xa4, GOTO = 0xa7, TABLESWITCH = 0xaa, IRETURN = 0xac, RETURN = 0xb1, GETSTATIC = 0xb2,
+				INVOKEVIRTUAL = 0xb6, INVOKESPECIAL = 0xb7, INVOKESTATIC = 0xb8, ATHROW = 0xbf;
+
+		/**
+		 * Deepest stack of the code JitCompiler generates.
+		 */
+		private static final int MAX_STACK = 8;
+
+		private final ClassFile owner;
+		private final int access, maxLocals;
+		private final String name, descriptor;
+		private byte[] code = new byte[256];
+		private int size = 0;
+		private int nameIndex, descriptorIndex;
+
+		private Code(ClassFile owner, int access, String name, String descriptor, int maxLocals) {
+			this.owner = owner;
+			this.access = access;
+			this.name = name;
+			this.descriptor = descriptor;
+			this.maxLocals = maxLocals;
+		}
+
+		int position() {
+			return size;
+		}
+
+		void op(int opcode) {
+			u1(opcode);
+		}
+
+		void op(int opcode, int operand) {
+			u1(opcode);
+			u2(operand);
+		}
+
+		private void u1(int value) {
+			if (size == code.length)
+				code = Arrays.copyOf(code, size * 2);
+			code[size++] = (byte) value;
+		}
+
+		private void u2(int value) {
+			u1(value >>> 8);
+			u1(value);
+		}
+
+		private void u4(int value) {
+			u2(value >>> 16);
+			u2(value);
+		}
+
+		void pushInt(int value) {
+			if (value >= -1 && value <= 5) {
+				op(ICONST_0 + value);
+			} else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+				op(BIPUSH);
+				u1(value);
+			} else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+				op(SIPUSH, value);
+			} else {
+				op(LDC_W, owner.integer(value));
+			}
+		}
+
+		/**
+		 * Writes an instruction with a local variable index, like ILOAD.
+		 */
+		void local(int opcode, int local) {
+			op(opcode);
+			u1(local);
+		}
+
+		void iinc(int local, int amount) {
+			op(IINC);
+			u1(local);
+			u1(amount);
+		}
+
+		/**
+		 * Writes a branch to an offset relative to the branch instruction.
+		 */
+		void branch(int opcode, int offset) {
+			op(opcode, offset);
+		}
+
+		/**
+		 * Writes a forward branch, returns its position for setBranchTarget.
+		 */
+		int branch(int opcode) {
+			int start = position();
+			op(opcode, 0);
+			return start;
+		}
+
+		/**
+		 * Makes the branch at start jump to the current position.
+		 */
+		void setBranchTarget(int start) {
+			int offset = position() - start;
+			code[start + 1] = (byte) (offset >>> 8);
+			code[start + 2] = (byte) offset;
+		}
+
+		void getStatic(String owner, String name, String descriptor) {
+			op(GETSTATIC, this.owner.field(owner, name, descriptor));
+		}
+
+		void invokeStatic(String owner, String name, String descriptor) {
+			op(INVOKESTATIC, this.owner.method(owner, name, descriptor));
+		}
+
+		void invokeVirtual(String owner, String name, String descriptor) {
+			op(INVOKEVIRTUAL, this.owner.method(owner, name, descriptor));
+		}
+
+		void invokeSpecial(String owner, String name, String descriptor) {
+			op(INVOKESPECIAL, this.owner.method(owner, name, descriptor));
+		}
+
+		/**
+		 * Writes a tableswitch for the keys low to low + cases - 1. The targets
+		 * are filled in later with setSwitchTargets.
+		 * @return the position of the switch instruction
+		 */
+		int tableSwitch(int low, int cases) {
+			int start = position();
+			op(TABLESWITCH);
+			while (position() % 4 != 0) {
+				u1(0);
+			}
+
+			u4(0);
+			u4(low);
+			u4(low + cases - 1);
+			for (int i = 0; i < cases; i++) {
+				u4(0);
+			}
+
+			return start;
+		}
+
+		/**
+		 * Fills in the targets of the tableswitch at start, as positions in the code.
+		 */
+		void setSwitchTargets(int start, int defaultTarget, int[] targets) {
+			int offsets = (start + 4) & ~3;
+
+			putInt(offsets, defaultTarget - start);
+			for (int i = 0; i < targets.length; i++) {
+				putInt(offsets + 12 + i * 4, targets[i] - start);
+			}
+		}
+
+		private void putInt(int offset, int value) {
+			code[offset] = (byte) (value >>> 24);
+			code[offset + 1] = (byte) (value >>> 16);
+			code[offset + 2] = (byte) (value >>> 8);
+			code[offset + 3] = (byte) value;
+		}
+
+		private void write(DataOutputStream out, int codeName) throws IOException {
+			if (size > 0xFFFF)
+				throw new IllegalStateException("Method " + name + " is too large");
+
+			out.writeShort(access);
+			out.writeShort(nameIndex);
+			out.writeShort(descriptorIndex);
+
+			out.writeShort(1);
+			out.writeShort(codeName);
+			out.writeInt(12 + size);
+			out.writeShort(MAX_STACK);
+			out.writeShort(maxLocals);
+			out.writeInt(size);
+			out.write(code, 0, size);
+
+			//no exception table and attributes
+			out.writeShort(0);
+			out.writeShort(0);
+		}
+	}
+}
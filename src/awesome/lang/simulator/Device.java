@@ -0,0 +1,36 @@
+package awesome.lang.simulator;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A device mapped to a range of shared memory addresses, see SharedMemory.map.
+ * Devices may be used by several sprockells on different threads at once.
+ */
+public interface Device {
+	/**
+	 * Reads the address at offset from the start of the mapped range.
+	 */
+	int read(int offset);
+
+	/**
+	 * Writes the address at offset from the start of the mapped range.
+	 */
+	void write(int offset, int value);
+
+	/**
+	 * Writes buffered output, called when a program ends.
+	 */
+	void flush() throws IOException;
+
+	/**
+	 * Writes the state of the device to a checkpoint, after it is flushed.
+	 */
+	void save(DataOutputStream out) throws IOException;
+
+	/**
+	 * Restores the state written by save.
+	 */
+	void restore(ByteBuffer in);
+}
@@ -0,0 +1,564 @@
+package awesome.lang.simulator;
+
+import awesome.lang.model.OpCode;
+import awesome.lang.model.Operator;
+import awesome.lang.model.PackedProgram;
+import awesome.lang.model.Reg;
+import awesome.lang.simulator.ClassFile.Code;
+
+/**
+ * Translates a program to a JVM class implementing JitProgram.Code.
+ *
+ * Every basic block becomes a static method, which loads the registers it uses
+ * into local variables, executes the block and stores the changed registers
+ * back. It returns the index of the next instruction, or the complement of
+ * the index of an EndProg.
+ *
+ * The blocks are spread over classes of CHUNK_SEGMENTS segments of
+ * SEGMENT_SIZE instructions. Execute finds the method of a block with a
+ * tableswitch on the chunk, the segment and the pc, which is also how indirect
+ * jumps are dispatched.
+ *
+ * Indirect jumps can only go to the start of a block. Besides branch targets
+ * every constant that is a valid instruction index starts a block, since the
+ * generator loads return addresses with Const.
+ */
+class JitCompiler {
+	/**
+	 * Blocks are split after this many instructions. The JVM does not compile
+	 * methods larger than 8000 bytes, so generated methods must stay smaller.
+	 */
+	private static final int MAX_BLOCK_SIZE = 400;
+
+	/**
+	 * Instructions per dispatch method, which keeps its tableswitch small.
+	 */
+	private static final int SEGMENT_BITS = 8, SEGMENT_SIZE = 1 << SEGMENT_BITS;
+
+	/**
+	 * Segments per generated class, which keeps its constant pool small.
+	 */
+	private static final int CHUNK_BITS = 4, CHUNK_SEGMENTS = 1 << CHUNK_BITS;
+
+	private static final String SPROCKELL = "awesome/lang/simulator/JitSprockell";
+	private static final String CODE = "awesome/lang/simulator/JitProgram$Code";
+	private static final String BLOCK = "(L" + SPROCKELL + ";[I[I)I";
+	private static final String DISPATCH = "(L" + SPROCKELL + ";[I[II)I";
+
+	//locals of a block method, registers are stored from FIRST_REG on by ordinal
+	private static final int SPROCKELL_ARG = 0, REGS_ARG = 1, MEM_ARG = 2, FIRST_REG = 3;
+	private static final int ZERO = Reg.Zero.ordinal(), PC = Reg.PC.ordinal(), SP = Reg.SP.ordinal();
+
+	private static int classes = 0;
+
+	private final PackedProgram program;
+	private final boolean[] leaders;
+	private final int[] blockSizes;
+	private int blocks = 0;
+
+	JitCompiler(PackedProgram program) {
+		this.program = program;
+		leaders = new boolean[program.size()];
+		blockSizes = new int[program.size()];
+		findLeaders();
+	}
+
+	/**
+	 * Returns the number of instructions of the block starting at every
+	 * instruction, or 0 for instructions that do not start a block.
+	 */
+	int[] getBlockSizes() {
+		return blockSizes;
+	}
+
+	int getBlockCount() {
+		return blocks;
+	}
+
+	private void findLeaders() {
+		int size = program.size();
+		leaders[0] = true;
+
+		for (int i = 0; i < size; i++) {
+			switch (program.opCode(i)) {
+			case Branch:
+			case Jump:
+				if (program.mode(i) != PackedProgram.MODE_REG)
+					mark(target(i));
+				mark(i + 1);
+				break;
+			case EndProg:
+				mark(i + 1);
+				break;
+			case Const:
+				mark(program.imm(i));
+				break;
+			default:
+				break;
+			}
+		}
+
+		int length = 0;
+		for (int i = 0; i < size; i++) {
+			if (leaders[i] || ++length == MAX_BLOCK_SIZE) {
+				leaders[i] = true;
+				length = 0;
+			}
+		}
+	}
+
+	private void mark(int i) {
+		if (i >= 0 && i < leaders.length)
+			leaders[i] = true;
+	}
+
+	/**
+	 * Generates and loads the classes.
+	 */
+	JitProgram.Code compile() {
+		String name;
+		synchronized (JitCompiler.class) {
+			name = "awesome/lang/simulator/JitCode" + classes++;
+		}
+
+		Loader loader = new Loader(JitCompiler.class.getClassLoader());
+		int segments = (leaders.length + SEGMENT_SIZE - 1) / SEGMENT_SIZE;
+		int chunks = (segments + CHUNK_SEGMENTS - 1) / CHUNK_SEGMENTS;
+
+		//the constant pool of a class is limited, so the blocks are spread over several classes
+		for (int chunk = 0; chunk < chunks; chunk++) {
+			ClassFile file = new ClassFile(chunkName(name, chunk), "java/lang/Object");
+			int first = chunk * CHUNK_SEGMENTS, last = Math.min(segments, first + CHUNK_SEGMENTS);
+
+			for (int segment = first; segment < last; segment++) {
+				for (int i = segment * SEGMENT_SIZE; i < Math.min(leaders.length, (segment + 1) * SEGMENT_SIZE); i++) {
+					if (leaders[i])
+						genBlock(file, i);
+				}
+				genSegment(file, segment);
+			}
+			genChunk(file, first, last);
+
+			loader.define(file);
+		}
+
+		ClassFile file = new ClassFile(name, "java/lang/Object", CODE);
+
+		Code init = file.addMethod(ClassFile.ACC_PUBLIC, "<init>", "()V", 1);
+		init.local(Code.ALOAD, 0);
+		init.invokeSpecial("java/lang/Object", "<init>", "()V");
+		init.op(Code.RETURN);
+
+		genExecute(file, name, chunks);
+
+		try {
+			return (JitProgram.Code) loader.define(file).getConstructor().newInstance();
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("Unable to load compiled program", e);
+		}
+	}
+
+	private static String chunkName(String name, int chunk) {
+		return name + "_" + chunk;
+	}
+
+	/**
+	 * Generates execute(sprockell, regs, localMem, pc), which selects the
+	 * chunk of the pc.
+	 */
+	private void genExecute(ClassFile file, String name, int chunks) {
+		Code code = file.addMethod(ClassFile.ACC_PUBLIC, "execute", DISPATCH, 5);
+
+		code.local(Code.ILOAD, 4);
+		code.pushInt(SEGMENT_BITS + CHUNK_BITS);
+		code.op(Code.ISHR);
+		int select = code.tableSwitch(0, chunks);
+
+		int[] targets = new int[chunks];
+		for (int chunk = 0; chunk < chunks; chunk++) {
+			targets[chunk] = code.position();
+			code.local(Code.ALOAD, 1);
+			code.local(Code.ALOAD, 2);
+			code.local(Code.ALOAD, 3);
+			code.local(Code.ILOAD, 4);
+			code.invokeStatic(chunkName(name, chunk), "c", DISPATCH);
+			code.op(Code.IRETURN);
+		}
+
+		int invalid = code.position();
+		genInvalidTarget(code, 4);
+		code.setSwitchTargets(select, invalid, targets);
+	}
+
+	/**
+	 * Generates a method that selects the segment of the pc, for the segments
+	 * first to last of a chunk.
+	 */
+	private void genChunk(ClassFile file, int first, int last) {
+		Code code = file.addMethod(ClassFile.ACC_PUBLIC | ClassFile.ACC_STATIC, "c", DISPATCH, 4);
+
+		code.local(Code.ILOAD, 3);
+		code.pushInt(SEGMENT_BITS);
+		code.op(Code.ISHR);
+		int select = code.tableSwitch(first, last - first);
+
+		int[] targets = new int[last - first];
+		for (int segment = first; segment < last; segment++) {
+			targets[segment - first] = code.position();
+			code.local(Code.ALOAD, 0);
+			code.local(Code.ALOAD, 1);
+			code.local(Code.ALOAD, 2);
+			code.local(Code.ILOAD, 3);
+			code.invokeStatic(file.getName(), "s" + segment, DISPATCH);
+			code.op(Code.IRETURN);
+		}
+
+		int invalid = code.position();
+		genInvalidTarget(code, 3);
+		code.setSwitchTargets(select, invalid, targets);
+	}
+
+	/**
+	 * Generates a method that calls the block starting at the pc, for the pcs
+	 * in one segment.
+	 */
+	private void genSegment(ClassFile file, int segment) {
+		Code code = file.addMethod(ClassFile.ACC_PUBLIC | ClassFile.ACC_STATIC, "s" + segment, DISPATCH, 4);
+		int low = segment * SEGMENT_SIZE, cases = Math.min(SEGMENT_SIZE, leaders.length - low);
+
+		code.local(Code.ILOAD, 3);
+		int select = code.tableSwitch(low, cases);
+
+		int[] targets = new int[cases];
+		for (int i = 0; i < cases; i++) {
+			if (leaders[low + i]) {
+				targets[i] = code.position();
+				code.local(Code.ALOAD, SPROCKELL_ARG);
+				code.local(Code.ALOAD, REGS_ARG);
+				code.local(Code.ALOAD, MEM_ARG);
+				code.invokeStatic(file.getName(), "b" + (low + i), BLOCK);
+				code.op(Code.IRETURN);
+			}
+		}
+
+		int invalid = code.position();
+		genInvalidTarget(code, 3);
+		for (int i = 0; i < cases; i++) {
+			if (!leaders[low + i])
+				targets[i] = invalid;
+		}
+		code.setSwitchTargets(select, invalid, targets);
+	}
+
+	private void genInvalidTarget(Code code, int pcLocal) {
+		code.local(Code.ILOAD, pcLocal);
+		code.invokeStatic(SPROCKELL, "invalidTarget", "(I)Ljava/lang/IllegalStateException;");
+		code.op(Code.ATHROW);
+	}
+
+	private void genBlock(ClassFile file, int start) {
+		int end = start + 1;
+		while (end < leaders.length && !leaders[end]) {
+			end++;
+		}
+
+		blockSizes[start] = end - start;
+		blocks++;
+
+		boolean[] used = new boolean[Reg.values().length];
+		boolean[] written = new boolean[Reg.values().length];
+		for (int i = start; i < end; i++) {
+			registers(i, used, written);
+		}
+
+		Code code = file.addMethod(ClassFile.ACC_PUBLIC | ClassFile.ACC_STATIC, "b" + start, BLOCK,
+				FIRST_REG + Reg.values().length);
+
+		for (int reg = 0; reg < used.length; reg++) {
+			if (used[reg] && reg != ZERO && reg != PC) {
+				code.local(Code.ALOAD, REGS_ARG);
+				code.pushInt(reg);
+				code.op(Code.IALOAD);
+				code.local(Code.ISTORE, FIRST_REG + reg);
+			}
+		}
+
+		for (int i = start; i < end; i++) {
+			genInstruction(code, i, written);
+		}
+
+		//the block falls through into the next one
+		OpCode last = program.opCode(end - 1);
+		if (last != OpCode.Branch && last != OpCode.Jump && last != OpCode.EndProg) {
+			genWriteBack(code, written);
+			code.pushInt(end);
+			code.op(Code.IRETURN);
+		}
+	}
+
+	/**
+	 * Marks the registers instruction i reads or writes.
+	 */
+	private void registers(int i, boolean[] used, boolean[] written) {
+		int y = program.mode(i) == PackedProgram.MODE_REG ? program.y(i) : ZERO;
+
+		switch (program.opCode(i)) {
+		case Compute:
+			used[program.x(i)] = used[program.y(i)] = true;
+			used[program.z(i)] = written[program.z(i)] = true;
+			break;
+		case Const:
+		case Receive:
+			used[program.z(i)] = written[program.z(i)] = true;
+			break;
+		case Load:
+			used[y] = true;
+			used[program.z(i)] = written[program.z(i)] = true;
+			break;
+		case Branch:
+		case Store:
+		case Write:
+			used[program.x(i)] = used[y] = true;
+			break;
+		case Jump:
+		case Read:
+		case TestAndSet:
+			used[y] = true;
+			break;
+		case Push:
+			used[program.x(i)] = true;
+			used[SP] = written[SP] = true;
+			break;
+		case Pop:
+			used[program.z(i)] = written[program.z(i)] = true;
+			used[SP] = written[SP] = true;
+			break;
+		default:
+			break;
+		}
+
+		//these are never stored
+		written[ZERO] = written[PC] = false;
+	}
+
+	private void genInstruction(Code code, int i, boolean[] written) {
+		switch (program.opCode(i)) {
+		case Compute:
+			genCompute(code, i);
+			break;
+		case Const:
+			code.pushInt(program.imm(i));
+			genStore(code, program.z(i));
+			break;
+		case Branch:
+			genWriteBack(code, written);
+			genLoad(code, i, program.x(i));
+			int notTaken = code.branch(Code.IFEQ);
+			genTarget(code, i);
+			code.op(Code.IRETURN);
+			code.setBranchTarget(notTaken);
+			code.pushInt(i + 1);
+			code.op(Code.IRETURN);
+			break;
+		case Jump:
+			genWriteBack(code, written);
+			genTarget(code, i);
+			code.op(Code.IRETURN);
+			break;
+		case Load:
+			code.local(Code.ALOAD, MEM_ARG);
+			genAddress(code, i);
+			code.op(Code.IALOAD);
+			genStore(code, program.z(i));
+			break;
+		case Store:
+			code.local(Code.ALOAD, MEM_ARG);
+			genAddress(code, i);
+			genLoad(code, i, program.x(i));
+			code.op(Code.IASTORE);
+			break;
+		case Push:
+			code.iinc(FIRST_REG + SP, -1);
+			code.local(Code.ALOAD, MEM_ARG);
+			code.local(Code.ILOAD, FIRST_REG + SP);
+			genLoad(code, i, program.x(i));
+			code.op(Code.IASTORE);
+			break;
+		case Pop:
+			code.local(Code.ALOAD, MEM_ARG);
+			code.local(Code.ILOAD, FIRST_REG + SP);
+			code.op(Code.IALOAD);
+			code.iinc(FIRST_REG + SP, 1);
+			genStore(code, program.z(i));
+			break;
+		case Read:
+			code.local(Code.ALOAD, SPROCKELL_ARG);
+			genAddress(code, i);
+			code.invokeVirtual(SPROCKELL, "read", "(I)V");
+			break;
+		case Receive:
+			code.local(Code.ALOAD, SPROCKELL_ARG);
+			code.pushInt(i);
+			code.invokeVirtual(SPROCKELL, "receive", "(I)I");
+			genStore(code, program.z(i));
+			break;
+		case Write:
+			code.local(Code.ALOAD, SPROCKELL_ARG);
+			genAddress(code, i);
+			genLoad(code, i, program.x(i));
+			code.invokeVirtual(SPROCKELL, "write", "(II)V");
+			break;
+		case TestAndSet:
+			code.local(Code.ALOAD, SPROCKELL_ARG);
+			genAddress(code, i);
+			code.invokeVirtual(SPROCKELL, "testAndSet", "(I)V");
+			break;
+		case EndProg:
+			genWriteBack(code, written);
+			code.pushInt(~i);
+			code.op(Code.IRETURN);
+			break;
+		case Nop:
+		case Debug:
+			break;
+		}
+	}
+
+	private void genCompute(Code code, int i) {
+		Operator operator = program.operator(i);
+		int opcode = arithmetic(operator);
+		int compare = comparison(operator);
+
+		if (opcode == 0 && compare == 0 && operator != Operator.Div && operator != Operator.Mod) {
+			code.getStatic("awesome/lang/model/Operator", operator.name(), "Lawesome/lang/model/Operator;");
+		}
+
+		genLoad(code, i, program.x(i));
+		genLoad(code, i, program.y(i));
+
+		if (opcode != 0) {
+			code.op(opcode);
+		} else if (compare != 0) {
+			//push 1 if the comparison holds, 0 otherwise
+			code.branch(compare, 7);
+			code.op(Code.ICONST_0);
+			code.branch(Code.GOTO, 4);
+			code.op(Code.ICONST_0 + 1);
+		} else if (operator == Operator.Div) {
+			code.invokeStatic("java/lang/Math", "floorDiv", "(II)I");
+		} else if (operator == Operator.Mod) {
+			code.invokeStatic("java/lang/Math", "floorMod", "(II)I");
+		} else {
+			code.invokeStatic("awesome/lang/simulator/Alu", "compute", "(Lawesome/lang/model/Operator;II)I");
+		}
+
+		genStore(code, program.z(i));
+	}
+
+	private static int arithmetic(Operator operator) {
+		switch (operator) {
+		case Add:
+			return Code.IADD;
+		case Sub:
+			return Code.ISUB;
+		case Mul:
+			return Code.IMUL;
+		case And:
+			return Code.IAND;
+		case Or:
+			return Code.IOR;
+		case Xor:
+			return Code.IXOR;
+		case LShift:
+			return Code.ISHL;
+		case RShift:
+			return Code.ISHR;
+		default:
+			return 0;
+		}
+	}
+
+	private static int comparison(Operator operator) {
+		switch (operator) {
+		case Equal:
+			return Code.IF_ICMPEQ;
+		case NEq:
+			return Code.IF_ICMPNE;
+		case Gt:
+			return Code.IF_ICMPGT;
+		case Lt:
+			return Code.IF_ICMPLT;
+		case GtE:
+			return Code.IF_ICMPGE;
+		case LtE:
+			return Code.IF_ICMPLE;
+		default:
+			return 0;
+		}
+	}
+
+	private void genLoad(Code code, int i, int reg) {
+		if (reg == ZERO) {
+			code.op(Code.ICONST_0);
+		} else if (reg == PC) {
+			code.pushInt(i);
+		} else {
+			code.local(Code.ILOAD, FIRST_REG + reg);
+		}
+	}
+
+	private void genStore(Code code, int reg) {
+		//like Sprockell, writes to the zero register and the pc are dropped
+		if (reg == ZERO || reg == PC) {
+			code.op(Code.POP);
+		} else {
+			code.local(Code.ISTORE, FIRST_REG + reg);
+		}
+	}
+
+	private void genAddress(Code code, int i) {
+		if (program.mode(i) == PackedProgram.MODE_REG) {
+			genLoad(code, i, program.y(i));
+		} else {
+			code.pushInt(program.imm(i));
+		}
+	}
+
+	private void genTarget(Code code, int i) {
+		if (program.mode(i) == PackedProgram.MODE_REG) {
+			genLoad(code, i, program.y(i));
+		} else {
+			code.pushInt(target(i));
+		}
+	}
+
+	private void genWriteBack(Code code, boolean[] written) {
+		for (int reg = 0; reg < written.length; reg++) {
+			if (written[reg]) {
+				code.local(Code.ALOAD, REGS_ARG);
+				code.pushInt(reg);
+				code.local(Code.ILOAD, FIRST_REG + reg);
+				code.op(Code.IASTORE);
+			}
+		}
+	}
+
+	private int target(int i) {
+		return program.mode(i) == PackedProgram.MODE_REL ? i + program.imm(i) : program.imm(i);
+	}
+
+	/**
+	 * Loads the classes of a single compiled program, so they can be unloaded
+	 * when the program is no longer used.
+	 */
+	private static class Loader extends ClassLoader {
+		Loader(ClassLoader parent) {
+			super(parent);
+		}
+
+		Class<?> define(ClassFile file) {
+			byte[] bytes = file.toByteArray();
+			return defineClass(file.getName().replace('/', '.'), bytes, 0, bytes.length);
+		}
+	}
+}
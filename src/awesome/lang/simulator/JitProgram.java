@@ -0,0 +1,57 @@
+package awesome.lang.simulator;
+
+import awesome.lang.model.PackedProgram;
+
+/**
+ * A program compiled to JVM bytecode, executed by JitSprockell. The compiled
+ * code is shared by all sprockells and can be shared by several simulators.
+ */
+public class JitProgram {
+	/**
+	 * Implemented by the generated class.
+	 */
+	public interface Code {
+		/**
+		 * Executes the basic block starting at pc, returns the pc of the next
+		 * block, or the complement of the pc of an EndProg instruction.
+		 */
+		int execute(JitSprockell sprockell, int[] regs, int[] localMem, int pc);
+	}
+
+	private final PackedProgram program;
+	private final Code code;
+	private final int[] blockSizes;
+	private final int blocks;
+
+	public JitProgram(PackedProgram program) {
+		this.program = program;
+
+		JitCompiler compiler = new JitCompiler(program);
+		code = compiler.compile();
+		blockSizes = compiler.getBlockSizes();
+		blocks = compiler.getBlockCount();
+	}
+
+	public PackedProgram getProgram() {
+		return program;
+	}
+
+	public int getNumSprockells() {
+		return program.getNumSprockells();
+	}
+
+	public int getBlockCount() {
+		return blocks;
+	}
+
+	Code getCode() {
+		return code;
+	}
+
+	/**
+	 * Returns the number of instructions in the block starting at pc.
+	 */
+	int getBlockSize(int pc) {
+		return blockSizes[pc];
+	}
+}
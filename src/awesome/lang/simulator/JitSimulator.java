@@ -0,0 +1,104 @@
+package awesome.lang.simulator;
+
+import java.io.OutputStream;
+
+import awesome.lang.model.PackedProgram;
+import awesome.lang.model.Program;
+
+/**
+ * Executes a program in-process like Simulator, after compiling it to JVM
+ * bytecode. The sprockells take turns executing at least SLICE instructions,
+ * so programs with several threads still run on a single host thread.
+ */
+public class JitSimulator {
+	/**
+	 * Number of instructions a sprockell executes before the next one gets its turn.
+	 */
+	private static final int SLICE = 1024;
+
+	private final JitSprockell[] sprockells;
+	private final SharedMemory memory;
+	private long maxCycles = Long.MAX_VALUE;
+	private long instructions = 0;
+
+	/**
+	 * Creates a simulator, characters written to stdio are written to out.
+	 */
+	public JitSimulator(Program program, OutputStream out) {
+		this(program.pack(), out);
+	}
+
+	/**
+	 * Creates a simulator, characters written to stdio are written to out.
+	 */
+	public JitSimulator(PackedProgram program, OutputStream out) {
+		this(new JitProgram(program), out);
+	}
+
+	/**
+	 * Creates a simulator, characters written to stdio are written to out. A
+	 * compiled program can be shared by several simulators.
+	 */
+	public JitSimulator(JitProgram program, OutputStream out) {
+		memory = new SharedMemory(out);
+		sprockells = new JitSprockell[program.getNumSprockells()];
+
+		for (int i = 0; i < sprockells.length; i++) {
+			sprockells[i] = new JitSprockell(program, i);
+		}
+	}
+
+	/**
+	 * Runs until every sprockell has halted, then flushes the devices.
+	 * @throws IllegalStateException if a sprockell executes more than the maximum number of cycles.
+	 */
+	public void run() {
+		long[] cycles = new long[sprockells.length];
+		boolean running = true;
+
+		try {
+			while (running) {
+				running = false;
+
+				for (int i = 0; i < sprockells.length; i++) {
+					JitSprockell sprockell = sprockells[i];
+					if (sprockell.isHalted())
+						continue;
+
+					long steps = sprockell.run(memory, SLICE);
+					cycles[i] += steps;
+					instructions += steps;
+
+					if (cycles[i] > maxCycles && !sprockell.isHalted())
+						throw new IllegalStateException("Program did not halt within " + maxCycles + " cycles");
+
+					running = true;
+				}
+			}
+		} finally {
+			memory.flush();
+		}
+	}
+
+	/**
+	 * Sets the maximum number of instructions executed by a single sprockell.
+	 */
+	public void setMaxCycles(long maxCycles) {
+		this.maxCycles = maxCycles;
+	}
+
+	/**
+	 * Returns the total number of instructions executed by all sprockells.
+	 */
+	public long getInstructions() {
+		return instructions;
+	}
+
+	public JitSprockell getSprockell(int id) {
+		return sprockells[id];
+	}
+
+	public SharedMemory getMemory() {
+		return memory;
+	}
+}
@@ -0,0 +1,104 @@
+package awesome.lang.simulator;
+
+import awesome.lang.model.Reg;
+
+/**
+ * A sprockell executing a JitProgram. The registers are kept in an array
+ * between blocks, inside a block the compiled code keeps them in locals.
+ *
+ * The public read, receive, write and testAndSet methods are called by the
+ * compiled code.
+ */
+public class JitSprockell {
+	private final JitProgram program;
+	private final JitProgram.Code code;
+	private final int[] regs = new int[Reg.values().length];
+	private final int[] localMem = new int[Sprockell.LOCAL_MEM_SIZE];
+	private SharedMemory memory;
+	private int pc = 0;
+	private boolean halted = false;
+
+	//reply of the last Read or TestAndSet, waiting to be received
+	private boolean hasReply = false;
+	private int reply;
+
+	public JitSprockell(JitProgram program, int id) {
+		this.program = program;
+		this.code = program.getCode();
+
+		regs[Reg.SPID.ordinal()] = id;
+		regs[Reg.SP.ordinal()] = Sprockell.LOCAL_MEM_SIZE / 2;
+	}
+
+	/**
+	 * Executes blocks until the sprockell halts or at least maxSteps
+	 * instructions have been executed, returns the number of executed
+	 * instructions. A block is never split, so up to a block more than
+	 * maxSteps instructions may be executed.
+	 */
+	public long run(SharedMemory memory, long maxSteps) {
+		this.memory = memory;
+
+		int pc = this.pc;
+		long steps = 0;
+
+		while (!halted && steps < maxSteps) {
+			int next = code.execute(this, regs, localMem, pc);
+			steps += program.getBlockSize(pc);
+
+			if (next < 0) {
+				halted = true;
+				pc = ~next;
+			} else {
+				pc = next;
+			}
+		}
+
+		this.pc = pc;
+		return steps;
+	}
+
+	public void read(int address) {
+		reply = memory.read(address);
+		hasReply = true;
+	}
+
+	public int receive(int pc) {
+		if (!hasReply)
+			throw new IllegalStateException("Receive without a preceding Read at instruction " + pc);
+		hasReply = false;
+		return reply;
+	}
+
+	public void write(int address, int value) {
+		memory.write(address, value);
+	}
+
+	public void testAndSet(int address) {
+		reply = memory.testAndSet(address);
+		hasReply = true;
+	}
+
+	/**
+	 * Returns the exception thrown by the compiled code for a jump to an
+	 * instruction that does not start a block.
+	 */
+	public static IllegalStateException invalidTarget(int pc) {
+		return new IllegalStateException("Jump to instruction " + pc + ", which does not start a block");
+	}
+
+	public boolean isHalted() {
+		return halted;
+	}
+
+	public int getPC() {
+		return pc;
+	}
+
+	public int getReg(Reg reg) {
+		if (reg == Reg.PC)
+			return pc;
+
+		return regs[reg.ordinal()];
+	}
+}
@@ -0,0 +1,77 @@
+package awesome.lang.simulator;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Read-only input device backed by a memory-mapped file. Reading offset
+ * STREAM returns the next byte of the file, or -1 at the end, like reading
+ * stdin. Offset LENGTH contains the length of the file and the bytes of the
+ * file can also be read directly from offset DATA on. Map it with getSize()
+ * addresses.
+ */
+public class MappedFileDevice implements Device {
+	public static final int STREAM = 0, LENGTH = 1, DATA = 2;
+
+	private final MappedByteBuffer data;
+	private final AtomicInteger position = new AtomicInteger();
+
+	public MappedFileDevice(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE - DATA)
+				throw new IOException("File " + path + " is too large to map");
+
+			data = channel.map(MapMode.READ_ONLY, 0, channel.size());
+		}
+	}
+
+	/**
+	 * Returns the number of addresses used by this device.
+	 */
+	public int getSize() {
+		return DATA + data.capacity();
+	}
+
+	@Override
+	public int read(int offset) {
+		if (offset == STREAM) {
+			int next = position.getAndIncrement();
+			if (next >= data.capacity()) {
+				position.set(data.capacity());
+				return -1;
+			}
+			return data.get(next) & 0xFF;
+		} else if (offset == LENGTH) {
+			return data.capacity();
+		}
+
+		return data.get(offset - DATA) & 0xFF;
+	}
+
+	@Override
+	public void write(int offset, int value) {
+		throw new IllegalStateException("Write to read-only device at offset " + offset);
+	}
+
+	@Override
+	public void flush() {
+		//nothing is buffered
+	}
+
+	@Override
+	public void save(DataOutputStream out) throws IOException {
+		out.writeInt(position.get());
+	}
+
+	@Override
+	public void restore(ByteBuffer in) {
+		position.set(in.getInt());
+	}
+}
@@ -0,0 +1,119 @@
+package awesome.lang.simulator;
+
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicReference;
+
+import awesome.lang.model.PackedProgram;
+import awesome.lang.model.Program;
+
+/**
+ * Executes a program in-process with every sprockell on its own thread, so
+ * programs with several threads use several cores. Unlike Simulator the
+ * sprockells do not run in lockstep, they only synchronize through the shared
+ * memory, which is why only the order of shared memory requests is defined.
+ */
+public class ParallelSimulator {
+	/**
+	 * Number of instructions a sprockell executes between checks whether the
+	 * simulation has been stopped.
+	 */
+	private static final int CHUNK_SIZE = 4096;
+
+	private final Sprockell[] sprockells;
+	private final SharedMemory memory;
+	private long maxCycles = Long.MAX_VALUE;
+
+	private volatile boolean stopped;
+	private final AtomicReference<RuntimeException> failure = new AtomicReference<RuntimeException>();
+
+	/**
+	 * Creates a simulator, characters written to stdio are written to out.
+	 */
+	public ParallelSimulator(Program program, OutputStream out) {
+		this(program.pack(), out);
+	}
+
+	/**
+	 * Creates a simulator, characters written to stdio are written to out.
+	 */
+	public ParallelSimulator(PackedProgram program, OutputStream out) {
+		memory = new SharedMemory(out);
+		sprockells = new Sprockell[program.getNumSprockells()];
+
+		for (int i = 0; i < sprockells.length; i++) {
+			sprockells[i] = new Sprockell(program, i);
+		}
+	}
+
+	/**
+	 * Runs until every sprockell has halted, then flushes the devices. If a
+	 * sprockell fails the others are stopped and the exception is thrown.
+	 * @throws IllegalStateException if a sprockell executes more than the maximum number of cycles.
+	 */
+	public void run() {
+		Thread[] threads = new Thread[sprockells.length];
+
+		for (int i = 0; i < threads.length; i++) {
+			final Sprockell sprockell = sprockells[i];
+			threads[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					execute(sprockell);
+				}
+			}, "sprockell-" + i);
+			threads[i].start();
+		}
+
+		boolean interrupted = false;
+		for (Thread thread : threads) {
+			while (true) {
+				try {
+					thread.join();
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+					stopped = true;
+				}
+			}
+		}
+
+		if (interrupted)
+			Thread.currentThread().interrupt();
+
+		memory.flush();
+
+		if (failure.get() != null)
+			throw failure.get();
+	}
+
+	private void execute(Sprockell sprockell) {
+		try {
+			long cycles = 0;
+
+			while (!stopped && !sprockell.isHalted()) {
+				cycles += sprockell.run(memory, CHUNK_SIZE);
+
+				if (cycles > maxCycles && !sprockell.isHalted())
+					throw new IllegalStateException("Program did not halt within " + maxCycles + " cycles");
+			}
+		} catch (RuntimeException e) {
+			failure.compareAndSet(null, e);
+			stopped = true;
+		}
+	}
+
+	/**
+	 * Sets the maximum number of instructions executed by a single sprockell.
+	 */
+	public void setMaxCycles(long maxCycles) {
+		this.maxCycles = maxCycles;
+	}
+
+	public Sprockell getSprockell(int id) {
+		return sprockells[id];
+	}
+
+	public SharedMemory getMemory() {
+		return memory;
+	}
+}
@@ -0,0 +1,307 @@
+package awesome.lang.simulator;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import awesome.lang.Compiler;
+import awesome.lang.Compiler.CompilationException;
+import awesome.lang.model.OpCode;
+import awesome.lang.model.PackedProgram;
+import awesome.lang.model.Program;
+import awesome.lang.model.SprockellEmitter;
+
+/**
+ * Executes a program like Simulator while recording where the time goes: how
+ * often every instruction is executed, the cycles of every sprockell, the
+ * shared memory accesses per address and how often acquire loops had to retry
+ * because the lock was taken.
+ *
+ * An acquire loop is the TestAndSet, Receive, Branch, Jump sequence the
+ * Generator emits for an acquire statement. A retry is a TestAndSet of such a
+ * loop on a lock that was already set.
+ */
+public class Profiler {
+	private static final int READS = 0, WRITES = 1, TEST_AND_SETS = 2, RETRIES = 3;
+
+	private final PackedProgram program;
+	private final Sprockell[] sprockells;
+	private final SharedMemory memory;
+	private final boolean[] acquireLoops;
+	private long maxCycles = Long.MAX_VALUE;
+	private long cycles = 0;
+
+	private final long[] counts;
+	private final long[] sprockellCycles;
+	private final HashMap<Integer, long[]> addresses = new HashMap<Integer, long[]>();
+
+	/**
+	 * Creates a profiler, characters written to stdio are written to out.
+	 */
+	public Profiler(Program program, OutputStream out) {
+		this(program.pack(), out);
+	}
+
+	/**
+	 * Creates a profiler, characters written to stdio are written to out.
+	 */
+	public Profiler(PackedProgram program, OutputStream out) {
+		this.program = program;
+		memory = new SharedMemory(out);
+		sprockells = new Sprockell[program.getNumSprockells()];
+		for (int i = 0; i < sprockells.length; i++) {
+			sprockells[i] = new Sprockell(program, i);
+		}
+
+		counts = new long[program.size()];
+		sprockellCycles = new long[sprockells.length];
+		acquireLoops = new boolean[program.size()];
+		for (int i = 0; i < program.size(); i++) {
+			acquireLoops[i] = isAcquireLoop(i);
+		}
+	}
+
+	/**
+	 * Runs until every sprockell has halted, then flushes the devices.
+	 * @throws IllegalStateException if the maximum number of cycles is exceeded.
+	 */
+	public void run() {
+		try {
+			while (step()) {
+				if (cycles > maxCycles)
+					throw new IllegalStateException("Program did not halt within " + maxCycles + " cycles");
+			}
+		} finally {
+			memory.flush();
+		}
+	}
+
+	/**
+	 * Executes a single cycle.
+	 * @return false if every sprockell has halted
+	 */
+	public boolean step() {
+		boolean running = false;
+
+		for (int i = 0; i < sprockells.length; i++) {
+			Sprockell sprockell = sprockells[i];
+			if (sprockell.isHalted())
+				continue;
+
+			int pc = sprockell.getPC();
+			counts[pc]++;
+			sprockellCycles[i]++;
+
+			switch (program.opCode(pc)) {
+			case Read:
+				count(address(sprockell, pc), READS);
+				break;
+			case Write:
+				count(address(sprockell, pc), WRITES);
+				break;
+			case TestAndSet:
+				int address = address(sprockell, pc);
+				count(address, TEST_AND_SETS);
+				//memory is only changed by the sprockells, so this is the value the TestAndSet sees,
+				//devices are not read since reading them can have side effects
+				if (acquireLoops[pc] && address < SharedMemory.SIZE && memory.read(address) != 0)
+					count(address, RETRIES);
+				break;
+			default:
+				break;
+			}
+
+			sprockell.step(memory);
+			running = true;
+		}
+
+		if (running)
+			cycles++;
+
+		return running;
+	}
+
+	private int address(Sprockell sprockell, int pc) {
+		if (program.mode(pc) == PackedProgram.MODE_REG)
+			return sprockell.getReg(PackedProgram.reg(program.y(pc)));
+		return program.imm(pc);
+	}
+
+	private void count(int address, int kind) {
+		long[] counters = addresses.get(address);
+		if (counters == null) {
+			counters = new long[4];
+			addresses.put(address, counters);
+		}
+		counters[kind]++;
+	}
+
+	private boolean isAcquireLoop(int i) {
+		if (i + 3 >= program.size())
+			return false;
+
+		return program.opCode(i) == OpCode.TestAndSet && program.opCode(i + 1) == OpCode.Receive
+				&& program.opCode(i + 2) == OpCode.Branch && program.x(i + 2) == program.z(i + 1)
+				&& program.mode(i + 2) == PackedProgram.MODE_REL && program.imm(i + 2) == 2
+				&& program.opCode(i + 3) == OpCode.Jump;
+	}
+
+	public void setMaxCycles(long maxCycles) {
+		this.maxCycles = maxCycles;
+	}
+
+	/**
+	 * Returns the number of cycles until every sprockell halted.
+	 */
+	public long getCycles() {
+		return cycles;
+	}
+
+	/**
+	 * Returns the number of cycles a sprockell executed an instruction.
+	 */
+	public long getCycles(int sprockell) {
+		return sprockellCycles[sprockell];
+	}
+
+	/**
+	 * Returns how often the instruction at index was executed, by all sprockells.
+	 */
+	public long getCount(int index) {
+		return counts[index];
+	}
+
+	/**
+	 * Returns the indices of the count most executed instructions, most executed first.
+	 */
+	public List<Integer> getHotInstructions(int count) {
+		List<Integer> indices = new ArrayList<Integer>();
+		for (int i = 0; i < counts.length; i++) {
+			if (counts[i] > 0)
+				indices.add(i);
+		}
+
+		Collections.sort(indices, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Long.compare(counts[b], counts[a]);
+			}
+		});
+
+		return indices.subList(0, Math.min(count, indices.size()));
+	}
+
+	/**
+	 * Returns every shared memory or device address that was accessed.
+	 */
+	public SortedSet<Integer> getAddresses() {
+		return new TreeSet<Integer>(addresses.keySet());
+	}
+
+	public long getReads(int address) {
+		return get(address, READS);
+	}
+
+	public long getWrites(int address) {
+		return get(address, WRITES);
+	}
+
+	public long getTestAndSets(int address) {
+		return get(address, TEST_AND_SETS);
+	}
+
+	/**
+	 * Returns how often an acquire loop tried to take the lock at address while it was taken.
+	 */
+	public long getAcquireRetries(int address) {
+		return get(address, RETRIES);
+	}
+
+	private long get(int address, int kind) {
+		long[] counters = addresses.get(address);
+		return counters == null ? 0 : counters[kind];
+	}
+
+	public SharedMemory getMemory() {
+		return memory;
+	}
+
+	/**
+	 * Writes a report of the cycles per sprockell, the limit most executed
+	 * instructions, the limit most accessed addresses and every contended lock.
+	 */
+	public void print(PrintStream out, int limit) {
+		out.printf("%-10s %12s%n", "sprockell", "cycles");
+		for (int i = 0; i < sprockells.length; i++) {
+			out.printf("%-10d %12d%n", i, sprockellCycles[i]);
+		}
+		out.printf("%-10s %12d%n", "total", cycles);
+
+		long executed = 0;
+		for (long count : counts) {
+			executed += count;
+		}
+
+		out.println();
+		out.printf("%-8s %12s %7s  %s%n", "index", "count", "%", "instruction");
+		PrintWriter writer = new PrintWriter(out);
+		SprockellEmitter emitter = new SprockellEmitter(writer);
+		for (int index : getHotInstructions(limit)) {
+			writer.printf("%-8d %12d %6.2f%%  ", index, counts[index], 100.0 * counts[index] / executed);
+			try {
+				emitter.writeInstruction(program, index);
+			} catch (IOException e) {
+				//PrintWriter does not throw
+			}
+			writer.println();
+		}
+		writer.flush();
+
+		List<Integer> accessed = new ArrayList<Integer>(getAddresses());
+		Collections.sort(accessed, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Long.compare(total(b), total(a));
+			}
+		});
+
+		out.println();
+		out.printf("%-10s %12s %12s %12s %12s%n", "address", "reads", "writes", "testandsets", "retries");
+		for (int address : accessed.subList(0, Math.min(limit, accessed.size()))) {
+			long[] counters = addresses.get(address);
+			out.printf("%-10d %12d %12d %12d %12d%n", address, counters[READS], counters[WRITES], counters[TEST_AND_SETS],
+					counters[RETRIES]);
+		}
+
+		out.println();
+		out.printf("%-10s %12s%n", "lock", "retries");
+		for (int address : getAddresses()) {
+			if (getAcquireRetries(address) > 0)
+				out.printf("%-10d %12d%n", address, getAcquireRetries(address));
+		}
+	}
+
+	private long total(int address) {
+		long[] counters = addresses.get(address);
+		return counters[READS] + counters[WRITES] + counters[TEST_AND_SETS];
+	}
+
+	/**
+	 * Profiles a program, its output is written to stdout and the report to stderr.
+	 * Arguments: file [limit]
+	 */
+	public static void main(String[] args) throws CompilationException {
+		Profiler profiler = new Profiler(new Compiler().compile(Paths.get(args[0])), System.out);
+		profiler.run();
+		profiler.print(System.err, args.length > 1 ? Integer.parseInt(args[1]) : 20);
+	}
+}
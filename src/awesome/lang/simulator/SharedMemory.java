@@ -0,0 +1,301 @@
+package awesome.lang.simulator;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Memory shared by all sprockells. Generated programs use addresses from 0 up
+ * (the heap) and just below 0xFFFFFF (globals), so a flat array would take
+ * 64 MB. Instead memory is allocated in pages on first use, outside the Java
+ * heap in direct buffers, so many programs can run in one JVM at once. Pages
+ * that were never written read as 0.
+ *
+ * The memory can be used by several sprockells on different threads at once.
+ * Every read, write and test-and-set is atomic and they are sequentially
+ * consistent, like requests handled one by one by the shared memory of the
+ * real Sprockell system. No locks are used.
+ *
+ * Addresses from STDIO on are not memory but devices, which are bound to
+ * address ranges with map. By default a StdoutDevice is mapped to STDIO.
+ */
+public class SharedMemory {
+	/**
+	 * Writing to this address outputs a character.
+	 */
+	public static final int STDIO = 0x1000000;
+
+	/**
+	 * Number of addresses of memory, every address below STDIO. Devices can be
+	 * mapped from this address on.
+	 */
+	public static final int SIZE = STDIO;
+
+	/**
+	 * Number of addresses in a page.
+	 */
+	public static final int PAGE_SIZE = 1 << 10;
+
+	//volatile and atomic access to the ints of a page
+	private static final VarHandle INTS = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+
+	//pages are found through a directory, so the page table itself is sparse too
+	private static final int DIRECTORY_SIZE = 128;
+
+	private final AtomicReferenceArray<AtomicReferenceArray<ByteBuffer>> directories = new AtomicReferenceArray<AtomicReferenceArray<ByteBuffer>>(
+			SIZE / PAGE_SIZE / DIRECTORY_SIZE);
+	private final AtomicInteger pageCount = new AtomicInteger();
+
+	//replaced as a whole when a device is mapped
+	private volatile Mapping[] mappings = new Mapping[0];
+
+	/**
+	 * Creates a memory with an output device at STDIO, which writes to out.
+	 */
+	public SharedMemory(OutputStream out) {
+		map(STDIO, 1, new StdoutDevice(Channels.newChannel(out)));
+	}
+
+	/**
+	 * Binds size addresses from start on to a device. Devices can only be
+	 * mapped from SIZE on and may not overlap, except that a mapping of
+	 * exactly the same range replaces the device.
+	 */
+	public synchronized void map(int start, int size, Device device) {
+		if (start < SIZE || size <= 0 || start + size < start)
+			throw new IllegalArgumentException("Devices can only be mapped from address " + SIZE + " on");
+
+		Mapping mapping = new Mapping(start, size, device);
+		Mapping[] current = mappings;
+
+		for (int i = 0; i < current.length; i++) {
+			Mapping other = current[i];
+
+			if (other.start == start && other.size == size) {
+				Mapping[] copy = current.clone();
+				copy[i] = mapping;
+				mappings = copy;
+				return;
+			}
+			if (start < other.start + other.size && other.start < start + size)
+				throw new IllegalArgumentException("Device at " + start + " overlaps the device at " + other.start);
+		}
+
+		Mapping[] copy = Arrays.copyOf(current, current.length + 1);
+		copy[current.length] = mapping;
+		mappings = copy;
+	}
+
+	/**
+	 * Returns the device mapped to the address, or null.
+	 */
+	public Device getDevice(int address) {
+		Mapping mapping = find(address);
+		return mapping == null ? null : mapping.device;
+	}
+
+	/**
+	 * Flushes every device, called when a program ends.
+	 */
+	public void flush() {
+		for (Mapping mapping : mappings) {
+			try {
+				mapping.device.flush();
+			} catch (IOException e) {
+				throw new IllegalStateException("Unable to flush device at " + mapping.start, e);
+			}
+		}
+	}
+
+	public int read(int address) {
+		if (address >= SIZE) {
+			Mapping mapping = device(address);
+			return mapping.device.read(address - mapping.start);
+		}
+
+		int index = page(address);
+		AtomicReferenceArray<ByteBuffer> directory = directories.get(index / DIRECTORY_SIZE);
+		ByteBuffer page = directory == null ? null : directory.get(index % DIRECTORY_SIZE);
+
+		return page == null ? 0 : (int) INTS.getVolatile(page, offset(address));
+	}
+
+	public void write(int address, int value) {
+		if (address >= SIZE) {
+			Mapping mapping = device(address);
+			mapping.device.write(address - mapping.start, value);
+			return;
+		}
+
+		INTS.setVolatile(getPage(address), offset(address), value);
+	}
+
+	/**
+	 * Sets the address to 1 if it was 0.
+	 * @return 1 if the address was set, 0 otherwise.
+	 */
+	public int testAndSet(int address) {
+		return INTS.compareAndSet(getPage(address), offset(address), 0, 1) ? 1 : 0;
+	}
+
+	/**
+	 * Returns the page of an address, which is created if needed.
+	 */
+	private ByteBuffer getPage(int address) {
+		int index = page(address);
+		AtomicReferenceArray<ByteBuffer> directory = directories.get(index / DIRECTORY_SIZE);
+
+		//if another thread creates the directory or page first, that one is used
+		if (directory == null) {
+			directories.compareAndSet(index / DIRECTORY_SIZE, null, new AtomicReferenceArray<ByteBuffer>(DIRECTORY_SIZE));
+			directory = directories.get(index / DIRECTORY_SIZE);
+		}
+
+		ByteBuffer page = directory.get(index % DIRECTORY_SIZE);
+		if (page == null) {
+			//direct buffers start zeroed
+			ByteBuffer created = ByteBuffer.allocateDirect(PAGE_SIZE * 4).order(ByteOrder.nativeOrder());
+			if (directory.compareAndSet(index % DIRECTORY_SIZE, null, created)) {
+				pageCount.incrementAndGet();
+			}
+			page = directory.get(index % DIRECTORY_SIZE);
+		}
+
+		return page;
+	}
+
+	/**
+	 * Writes the allocated pages and the state of the devices to a checkpoint.
+	 * The pages come last, aligned to their size, so restore can use the pages
+	 * of a mapped file directly.
+	 */
+	synchronized void save(DataOutputStream out) throws IOException {
+		Mapping[] mappings = this.mappings;
+		out.writeInt(mappings.length);
+		for (Mapping mapping : mappings) {
+			out.writeInt(mapping.start);
+			mapping.device.save(out);
+		}
+
+		int[] pages = new int[getPageCount()];
+		int count = 0;
+		for (int index = 0; index < SIZE / PAGE_SIZE && count < pages.length; index++) {
+			AtomicReferenceArray<ByteBuffer> directory = directories.get(index / DIRECTORY_SIZE);
+			if (directory != null && directory.get(index % DIRECTORY_SIZE) != null)
+				pages[count++] = index;
+		}
+
+		out.writeInt(count);
+		for (int i = 0; i < count; i++) {
+			out.writeInt(pages[i]);
+		}
+
+		Checkpoint.align(out);
+		byte[] bytes = new byte[PAGE_SIZE * 4];
+		for (int i = 0; i < count; i++) {
+			ByteBuffer page = directories.get(pages[i] / DIRECTORY_SIZE).get(pages[i] % DIRECTORY_SIZE);
+			page.duplicate().get(bytes);
+			out.write(bytes);
+		}
+	}
+
+	/**
+	 * Restores memory saved by save, from a checkpoint mapped in memory. The
+	 * pages are used in place, so the buffer must be a private mapping. The
+	 * devices must already be mapped to the same addresses.
+	 */
+	synchronized void restore(ByteBuffer in) {
+		int devices = in.getInt();
+		if (devices != mappings.length)
+			throw new IllegalStateException("Checkpoint has " + devices + " devices, but " + mappings.length + " are mapped");
+		for (int i = 0; i < devices; i++) {
+			int start = in.getInt();
+			Mapping mapping = find(start);
+			if (mapping == null || mapping.start != start)
+				throw new IllegalStateException("No device mapped to address " + start + " to restore");
+			mapping.device.restore(in);
+		}
+
+		for (int i = 0; i < directories.length(); i++) {
+			directories.set(i, null);
+		}
+
+		int count = in.getInt();
+		int[] pages = new int[count];
+		for (int i = 0; i < count; i++) {
+			pages[i] = in.getInt();
+		}
+
+		Checkpoint.align(in);
+		for (int i = 0; i < count; i++) {
+			int index = pages[i];
+			if (directories.get(index / DIRECTORY_SIZE) == null)
+				directories.set(index / DIRECTORY_SIZE, new AtomicReferenceArray<ByteBuffer>(DIRECTORY_SIZE));
+
+			int position = in.position() + i * PAGE_SIZE * 4;
+			ByteBuffer page = in.duplicate();
+			page.position(position).limit(position + PAGE_SIZE * 4);
+			directories.get(index / DIRECTORY_SIZE).set(index % DIRECTORY_SIZE, page.slice().order(ByteOrder.nativeOrder()));
+		}
+		pageCount.set(count);
+	}
+
+	/**
+	 * Returns the number of allocated pages.
+	 */
+	public int getPageCount() {
+		return pageCount.get();
+	}
+
+	/**
+	 * Returns the number of bytes allocated outside the Java heap.
+	 */
+	public long getAllocatedBytes() {
+		return (long) getPageCount() * PAGE_SIZE * 4;
+	}
+
+	private static int offset(int address) {
+		return (address & (PAGE_SIZE - 1)) * 4;
+	}
+
+	private Mapping find(int address) {
+		for (Mapping mapping : mappings) {
+			if (address >= mapping.start && address - mapping.start < mapping.size)
+				return mapping;
+		}
+		return null;
+	}
+
+	private Mapping device(int address) {
+		Mapping mapping = find(address);
+		if (mapping == null)
+			throw new IllegalArgumentException("No device mapped to address " + address);
+		return mapping;
+	}
+
+	private static int page(int address) {
+		if (address < 0 || address >= SIZE) {
+			throw new IllegalArgumentException("Shared memory address out of range: " + address);
+		}
+		return address / PAGE_SIZE;
+	}
+
+	private static class Mapping {
+		private final int start, size;
+		private final Device device;
+
+		private Mapping(int start, int size, Device device) {
+			this.start = start;
+			this.size = size;
+			this.device = device;
+		}
+	}
+}
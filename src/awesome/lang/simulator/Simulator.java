@@ -0,0 +1,109 @@
+package awesome.lang.simulator;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+
+import awesome.lang.model.PackedProgram;
+import awesome.lang.model.Program;
+
+/**
+ * Executes a program in-process, without the Haskell simulator. Every cycle each
+ * sprockell executes one instruction, in order of their id. Shared memory
+ * requests are handled immediately.
+ */
+public class Simulator {
+	private final PackedProgram program;
+	private final Sprockell[] sprockells;
+	private final SharedMemory memory;
+	private long maxCycles = Long.MAX_VALUE;
+	private long cycles = 0;
+
+	/**
+	 * Creates a simulator, characters written to stdio are written to out.
+	 */
+	public Simulator(Program program, OutputStream out) {
+		this(program.pack(), out);
+	}
+
+	/**
+	 * Creates a simulator, characters written to stdio are written to out.
+	 */
+	public Simulator(PackedProgram program, OutputStream out) {
+		this.program = program;
+		memory = new SharedMemory(out);
+		sprockells = new Sprockell[program.getNumSprockells()];
+
+		for (int i = 0; i < sprockells.length; i++) {
+			sprockells[i] = new Sprockell(program, i);
+		}
+	}
+
+	/**
+	 * Runs until every sprockell has halted, then flushes the devices.
+	 * @throws IllegalStateException if the maximum number of cycles is exceeded.
+	 */
+	public void run() {
+		try {
+			while (step()) {
+				if (cycles > maxCycles)
+					throw new IllegalStateException("Program did not halt within " + maxCycles + " cycles");
+			}
+		} finally {
+			memory.flush();
+		}
+	}
+
+	/**
+	 * Executes a single cycle.
+	 * @return false if every sprockell has halted
+	 */
+	public boolean step() {
+		boolean running = false;
+
+		for (Sprockell sprockell : sprockells) {
+			if (!sprockell.isHalted()) {
+				sprockell.step(memory);
+				running = true;
+			}
+		}
+
+		if (running)
+			cycles++;
+
+		return running;
+	}
+
+	/**
+	 * Writes the state of the program to a checkpoint file, from which the run
+	 * can be resumed with restore. Devices are flushed first.
+	 */
+	public void checkpoint(Path path) throws IOException {
+		Checkpoint.write(path, program, cycles, sprockells, memory);
+	}
+
+	/**
+	 * Continues from a checkpoint of the same program, written by this or
+	 * another simulator.
+	 * @throws IOException if the file is not a checkpoint of this program.
+	 */
+	public void restore(Path path) throws IOException {
+		cycles = Checkpoint.read(path, program, sprockells, memory);
+	}
+
+	public void setMaxCycles(long maxCycles) {
+		this.maxCycles = maxCycles;
+	}
+
+	public long getCycles() {
+		return cycles;
+	}
+
+	public Sprockell getSprockell(int id) {
+		return sprockells[id];
+	}
+
+	public SharedMemory getMemory() {
+		return memory;
+	}
+}
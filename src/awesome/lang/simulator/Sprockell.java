@@ -0,0 +1,176 @@
+package awesome.lang.simulator;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import awesome.lang.model.PackedProgram;
+import awesome.lang.model.Reg;
+
+/**
+ * A single processor, with its own registers and local memory.
+ */
+public class Sprockell implements Checkpoint.Part {
+	/**
+	 * Size of the local memory. Variables of blocks in the global scope are
+	 * addressed above the initial stack pointer, so the stack starts halfway.
+	 */
+	public static final int LOCAL_MEM_SIZE = 1 << 16;
+
+	private static final int ZERO = Reg.Zero.ordinal(), PC = Reg.PC.ordinal(), SP = Reg.SP.ordinal();
+
+	private final PackedProgram program;
+	private final int[] regs = new int[Reg.values().length];
+	private final int[] localMem = new int[LOCAL_MEM_SIZE];
+	private int pc = 0;
+	private boolean halted = false;
+
+	//reply of the last Read or TestAndSet, waiting to be received
+	private boolean hasReply = false;
+	private int reply;
+
+	public Sprockell(PackedProgram program, int id) {
+		this.program = program;
+
+		regs[Reg.SPID.ordinal()] = id;
+		regs[SP] = LOCAL_MEM_SIZE / 2;
+	}
+
+	/**
+	 * Executes instructions until the sprockell halts or maxSteps instructions
+	 * have been executed, returns the number of executed instructions.
+	 */
+	public long run(SharedMemory memory, long maxSteps) {
+		long steps = 0;
+		while (!halted && steps < maxSteps) {
+			step(memory);
+			steps++;
+		}
+		return steps;
+	}
+
+	/**
+	 * Executes a single instruction.
+	 */
+	public void step(SharedMemory memory) {
+		if (halted)
+			return;
+
+		int next = pc + 1;
+
+		switch (program.opCode(pc)) {
+		case Compute:
+			set(program.z(pc), Alu.compute(program.operator(pc), get(program.x(pc)), get(program.y(pc))));
+			break;
+		case Const:
+			set(program.z(pc), program.imm(pc));
+			break;
+		case Branch:
+			if (get(program.x(pc)) != 0)
+				next = target();
+			break;
+		case Jump:
+			next = target();
+			break;
+		case Load:
+			set(program.z(pc), localMem[address()]);
+			break;
+		case Store:
+			localMem[address()] = get(program.x(pc));
+			break;
+		case Push:
+			regs[SP]--;
+			localMem[regs[SP]] = get(program.x(pc));
+			break;
+		case Pop:
+			int top = localMem[regs[SP]];
+			regs[SP]++;
+			set(program.z(pc), top);
+			break;
+		case Read:
+			setReply(memory.read(address()));
+			break;
+		case Receive:
+			if (!hasReply)
+				throw new IllegalStateException("Receive without a preceding Read at instruction " + pc);
+			hasReply = false;
+			set(program.z(pc), reply);
+			break;
+		case Write:
+			memory.write(address(), get(program.x(pc)));
+			break;
+		case TestAndSet:
+			setReply(memory.testAndSet(address()));
+			break;
+		case EndProg:
+			halted = true;
+			next = pc;
+			break;
+		case Nop:
+		case Debug:
+			break;
+		}
+
+		pc = next;
+	}
+
+	private void setReply(int value) {
+		reply = value;
+		hasReply = true;
+	}
+
+	private int target() {
+		switch (program.mode(pc)) {
+		case PackedProgram.MODE_REG:
+			return get(program.y(pc));
+		case PackedProgram.MODE_REL:
+			return pc + program.imm(pc);
+		default:
+			return program.imm(pc);
+		}
+	}
+
+	private int address() {
+		return program.mode(pc) == PackedProgram.MODE_REG ? get(program.y(pc)) : program.imm(pc);
+	}
+
+	private int get(int reg) {
+		if (reg == PC)
+			return pc;
+
+		return regs[reg];
+	}
+
+	private void set(int reg, int value) {
+		//the zero register is read-only
+		if (reg != ZERO)
+			regs[reg] = value;
+	}
+
+	@Override
+	public void save(DataOutputStream out) throws IOException {
+		Checkpoint.writeSprockell(out, pc, halted, hasReply, reply, regs, localMem);
+	}
+
+	@Override
+	public void restore(ByteBuffer in) {
+		pc = in.getInt();
+		halted = in.get() != 0;
+		hasReply = in.get() != 0;
+		reply = in.getInt();
+		Checkpoint.readRegisters(in, regs);
+		Checkpoint.readLocalMemory(in, localMem);
+	}
+
+	public boolean isHalted() {
+		return halted;
+	}
+
+	public int getPC() {
+		return pc;
+	}
+
+	public int getReg(Reg reg) {
+		return get(reg.ordinal());
+	}
+}
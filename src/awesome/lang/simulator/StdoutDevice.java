@@ -0,0 +1,68 @@
+package awesome.lang.simulator;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Output device for the stdio address. Every written value is output as one
+ * byte, like the Haskell simulator does for characters. Bytes are collected
+ * in a buffer and written to the channel when it is full or flushed, so
+ * printing a character does not cost a system call. Reads return 0.
+ */
+public class StdoutDevice implements Device {
+	public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+	private final WritableByteChannel channel;
+	private final ByteBuffer buffer;
+
+	public StdoutDevice(WritableByteChannel channel) {
+		this(channel, DEFAULT_BUFFER_SIZE);
+	}
+
+	public StdoutDevice(WritableByteChannel channel, int bufferSize) {
+		this.channel = channel;
+		buffer = ByteBuffer.allocateDirect(bufferSize);
+	}
+
+	@Override
+	public int read(int offset) {
+		//no input
+		return 0;
+	}
+
+	@Override
+	public synchronized void write(int offset, int value) {
+		try {
+			if (!buffer.hasRemaining())
+				drain();
+
+			buffer.put((byte) value);
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to write to stdio", e);
+		}
+	}
+
+	@Override
+	public synchronized void flush() throws IOException {
+		drain();
+	}
+
+	private void drain() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	@Override
+	public void save(DataOutputStream out) {
+		//output is flushed before a checkpoint, so there is no state
+	}
+
+	@Override
+	public void restore(ByteBuffer in) {
+	}
+}
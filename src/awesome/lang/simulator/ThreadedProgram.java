@@ -0,0 +1,690 @@
+package awesome.lang.simulator;
+
+import awesome.lang.model.OpCode;
+import awesome.lang.model.Operator;
+import awesome.lang.model.PackedProgram;
+import awesome.lang.model.Reg;
+
+/**
+ * A program decoded for ThreadedSprockell. Every instruction is decoded once
+ * into an Op object holding its operands, so executing an instruction is a
+ * single virtual call instead of decoding and switching on the opcode.
+ *
+ * Sequences the Generator emits often are fused into superinstructions, which
+ * execute several instructions at once. The op at an index always starts at
+ * that instruction, so jumps into the middle of a fused sequence still find
+ * the remaining instructions there.
+ */
+public class ThreadedProgram {
+	static final int ZERO = Reg.Zero.ordinal(), PC = Reg.PC.ordinal(), SP = Reg.SP.ordinal();
+
+	/**
+	 * Register index that writes to the zero register are redirected to.
+	 */
+	static final int SINK = Reg.values().length;
+
+	private final PackedProgram program;
+	private final Op[] ops;
+	private int fused = 0;
+
+	public ThreadedProgram(PackedProgram program) {
+		this.program = program;
+		ops = new Op[program.size()];
+
+		for (int i = 0; i < ops.length; i++) {
+			Op op = fuse(i);
+			if (op != null) {
+				fused++;
+			} else {
+				op = decode(i);
+			}
+
+			ops[i] = reads(i, PC) ? new WithPC(op) : op;
+		}
+	}
+
+	public PackedProgram getProgram() {
+		return program;
+	}
+
+	public int getNumSprockells() {
+		return program.getNumSprockells();
+	}
+
+	/**
+	 * Returns the number of instructions that start a superinstruction.
+	 */
+	public int getFusedCount() {
+		return fused;
+	}
+
+	Op get(int pc) {
+		return ops[pc];
+	}
+
+	/**
+	 * Returns a superinstruction starting at i, or null if no sequence matches.
+	 */
+	private Op fuse(int i) {
+		int size = program.size();
+
+		//Const c r; Compute Add a r r, optionally followed by a Load or Store through r
+		if (i + 1 < size && is(i, OpCode.Const) && isWritable(program.z(i)) && isAdd(i + 1, program.z(i))) {
+			int r = program.z(i), a = program.x(i + 1), c = program.imm(i);
+
+			if (i + 2 < size && isDeref(i + 2, OpCode.Load, r))
+				return new LoadOffset(a, c, r, dest(program.z(i + 2)));
+			if (i + 2 < size && isDeref(i + 2, OpCode.Store, r) && program.x(i + 2) != PC)
+				return new StoreOffset(a, c, r, program.x(i + 2));
+
+			return new AddConst(a, c, r);
+		}
+
+		//Const c r; Read (deref r); Receive z
+		if (i + 2 < size && is(i, OpCode.Const) && isWritable(program.z(i)) && isDeref(i + 1, OpCode.Read, program.z(i))
+				&& is(i + 2, OpCode.Receive)) {
+			return new ReadConst(program.imm(i), program.z(i), dest(program.z(i + 2)));
+		}
+
+		//Read; Receive z
+		if (i + 1 < size && is(i, OpCode.Read) && is(i + 1, OpCode.Receive) && !reads(i, PC)) {
+			return program.mode(i) == PackedProgram.MODE_REG ? new ReadReceive(program.y(i), dest(program.z(i + 1)))
+					: new ReadConst(program.imm(i), SINK, dest(program.z(i + 1)));
+		}
+
+		//Compute Equal Zero r r; Branch r target, the inverted condition of if and while
+		if (i + 1 < size && is(i, OpCode.Compute) && program.operator(i) == Operator.Equal && program.x(i) == ZERO
+				&& isWritable(program.z(i)) && program.y(i) == program.z(i) && is(i + 1, OpCode.Branch)
+				&& program.x(i + 1) == program.z(i) && program.mode(i + 1) != PackedProgram.MODE_REG) {
+			return new BranchZero(program.z(i), target(i + 1));
+		}
+
+		return null;
+	}
+
+	private Op decode(int i) {
+		switch (program.opCode(i)) {
+		case Compute:
+			switch (program.operator(i)) {
+			case Add:
+				return new Add(program.x(i), program.y(i), dest(program.z(i)));
+			case Sub:
+				return new Sub(program.x(i), program.y(i), dest(program.z(i)));
+			default:
+				return new Compute(program.operator(i), program.x(i), program.y(i), dest(program.z(i)));
+			}
+		case Const:
+			return new Const(program.imm(i), dest(program.z(i)));
+		case Branch:
+			if (program.mode(i) == PackedProgram.MODE_REG)
+				return new BranchInd(program.x(i), program.y(i));
+			return new Branch(program.x(i), target(i));
+		case Jump:
+			if (program.mode(i) == PackedProgram.MODE_REG)
+				return new JumpInd(program.y(i));
+			return new Jump(target(i));
+		case Load:
+			if (program.mode(i) == PackedProgram.MODE_REG)
+				return new LoadInd(program.y(i), dest(program.z(i)));
+			return new LoadImm(program.imm(i), dest(program.z(i)));
+		case Store:
+			if (program.mode(i) == PackedProgram.MODE_REG)
+				return new StoreInd(program.x(i), program.y(i));
+			return new StoreImm(program.x(i), program.imm(i));
+		case Push:
+			return new Push(program.x(i));
+		case Pop:
+			return new Pop(dest(program.z(i)));
+		case Read:
+			return new Read(program.mode(i) == PackedProgram.MODE_REG ? program.y(i) : -1, program.imm(i));
+		case Receive:
+			return new Receive(dest(program.z(i)));
+		case Write:
+			return new Write(program.x(i), program.mode(i) == PackedProgram.MODE_REG ? program.y(i) : -1, program.imm(i));
+		case TestAndSet:
+			return new TestAndSet(program.mode(i) == PackedProgram.MODE_REG ? program.y(i) : -1, program.imm(i));
+		case EndProg:
+			return new EndProg();
+		default:
+			return new Nop();
+		}
+	}
+
+	private boolean is(int i, OpCode opCode) {
+		return program.opCode(i) == opCode;
+	}
+
+	private boolean isAdd(int i, int r) {
+		return is(i, OpCode.Compute) && program.operator(i) == Operator.Add && program.x(i) != PC && program.x(i) != r
+				&& program.y(i) == r && program.z(i) == r;
+	}
+
+	private boolean isDeref(int i, OpCode opCode, int r) {
+		return is(i, opCode) && program.mode(i) == PackedProgram.MODE_REG && program.y(i) == r;
+	}
+
+	private static boolean isWritable(int reg) {
+		return reg != ZERO && reg != PC;
+	}
+
+	/**
+	 * Returns whether instruction i reads the given register.
+	 */
+	private boolean reads(int i, int reg) {
+		switch (program.opCode(i)) {
+		case Compute:
+			return program.x(i) == reg || program.y(i) == reg;
+		case Branch:
+		case Store:
+		case Write:
+			return program.x(i) == reg || (program.mode(i) == PackedProgram.MODE_REG && program.y(i) == reg);
+		case Push:
+			return program.x(i) == reg;
+		case Jump:
+		case Load:
+		case Read:
+		case TestAndSet:
+			return program.mode(i) == PackedProgram.MODE_REG && program.y(i) == reg;
+		default:
+			return false;
+		}
+	}
+
+	private static int dest(int reg) {
+		return reg == ZERO ? SINK : reg;
+	}
+
+	private int target(int i) {
+		return program.mode(i) == PackedProgram.MODE_REL ? i + program.imm(i) : program.imm(i);
+	}
+
+	/**
+	 * A decoded instruction or superinstruction.
+	 */
+	abstract static class Op {
+		/**
+		 * Number of instructions this op executes.
+		 */
+		final int size;
+
+		Op(int size) {
+			this.size = size;
+		}
+
+		/**
+		 * Executes the op at pc, returns the next pc.
+		 */
+		abstract int execute(ThreadedSprockell s, int pc);
+	}
+
+	/**
+	 * Makes the pc readable as a register, for the rare instructions that read it.
+	 */
+	private static final class WithPC extends Op {
+		private final Op op;
+
+		WithPC(Op op) {
+			super(op.size);
+			this.op = op;
+		}
+
+		@Override
+		int execute(ThreadedSprockell s, int pc) {
+			s.regs[PC] = pc;
+			return op.execute(s, pc);
+		}
+	}
+
+	private static final class Add extends Op {
+		private final int x, y, z;
+
+		Add(int x, int y, int z) {
+			super(1);
+			this.x = x;
+			this.y = y;
+			this.z = z;
+		}
+
+		@Override
+		int execute(ThreadedSprockell s, int pc) {
+			s.regs[z] = s.regs[x] + s.regs[y];
+			return pc + 1;
+		}
+	}
+
+	private static final class Sub extends Op {
+		private final int x, y, z;
+
+		Sub(int x, int y, int z) {
+			super(1);
+			this.x = x;
+			this.y = y;
+			this.z = z;
+		}
+
+		@Override
+		int execute(ThreadedSprockell s, int pc) {
+			s.regs[z] = s.regs[x] - s.regs[y];
+			return pc + 1;
+		}
+	}
+
+	private static final class Compute extends Op {
+		private final Operator operator;
+		private final int x, y, z;
+
+		Compute(Operator operator, int x, int y, int z) {
+			super(1);
+			this.operator = operator;
+			this.x = x;
+			this.y = y;
+			this.z = z;
+		}
+
+		@Override
+		int execute(ThreadedSprockell s, int pc) {
+			s.regs[z] = Alu.compute(operator, s.regs[x], s.regs[y]);
+			return pc + 1;
+		}
+	}
+
+	private static final class Const extends Op {
+		private final int value, z;
+
+		Const(int value, int z) {
+			super(1);
+			this.value = value;
+			this.z = z;
+		}
+
+		@Override
+		int execute(ThreadedSprockell s, int pc) {
+			s.regs[z] = value;
+			return pc + 1;
+		}
+	}
+
+	private static final class Branch extends Op {
+		private final int x, target;
+
+		Branch(int x, int target) {
+			super(1);
+			this.x = x;
+			this.target = target;
+		}
+
+		@Override
+		int execute(ThreadedSprockell s, int pc) {
+			return s.regs[x] != 0 ? target : pc + 1;
+		}
+	}
+
+	private static final class BranchInd extends Op {
+		private final int x, y;
+
+		BranchInd(int x, int y) {
+			super(1);
+			this.x = x;
+			this.y = y;
+		}
+
+		@Override
+		int execute(ThreadedSprockell s, int pc) {
+			return s.regs[x] != 0 ? s.regs[y] : pc + 1;
+		}
+	}
+
+	private static final class Jump extends Op {
+		private final int target;
+
+		Jump(int target) {
+			super(1);
+			this.target = target;
+		}
+
+		@Override
+		int execute(ThreadedSprockell s, int pc) {
+			return target;
+		}
+	}
+
+	private static final class JumpInd extends Op {
+		private final int y;
+
+		JumpInd(int y) {
+			super(1);
+			this.y = y;
+		}
+
+		@Override
+		int execute(ThreadedSprockell s, int pc) {
+			return s.regs[y];
+		}
+	}
+
+	private static final class LoadImm extends Op {
+		private final int address, z;
+
+		LoadImm(int address, int z) {
+			super(1);
+			this.address = address;
+			this.z = z;
+		}
+
+		@Override
+		int execute(ThreadedSprockell s, int pc) {
+			s.regs[z] = s.localMem[address];
+			return pc + 1;
+		}
+	}
+
+	private static final class LoadInd extends Op {
+		private final int y, z;
+
+		LoadInd(int y, int z) {
+			super(1);
+			this.y = y;
+			this.z = z;
+		}
+
+		@Override
+		int execute(ThreadedSprockell s, int pc) {
+			s.regs[z] = s.localMem[s.regs[y]];
+			return pc + 1;
+		}
+	}
+
+	private static final class StoreImm extends Op {
+		private final int x, address;
+
+		StoreImm(int x, int address) {
+			super(1);
+			this.x = x;
+			this.address = address;
+		}
+
+		@Override
+		int execute(ThreadedSprockell s, int pc) {
+			s.localMem[address] = s.regs[x];
+			return pc + 1;
+		}
+	}
+
+	private static final class StoreInd extends Op {
+		private final int x, y;
+
+		StoreInd(int x, int y) {
+			super(1);
+			this.x = x;
+			this.y = y;
+		}
+
+		@Override
+		int execute(ThreadedSprockell s, int pc) {
+			s.localMem[s.regs[y]] = s.regs[x];
+			return pc + 1;
+		}
+	}
+
+	private static final class Push extends Op {
+		private final int x;
+
+		Push(int x) {
+			super(1);
+			this.x = x;
+		}
+
+		@Override
+		int execute(ThreadedSprockell s, int pc) {
+			int[] regs = s.regs;
+			regs[SP]--;
+			s.localMem[regs[SP]] = regs[x];
+			return pc + 1;
+		}
+	}
+
+	private static final class Pop extends Op {
+		private final int z;
+
+		Pop(int z) {
+			super(1);
+			this.z = z;
+		}
+
+		@Override
+		int execute(ThreadedSprockell s, int pc) {
+			int[] regs = s.regs;
+			int top = s.localMem[regs[SP]];
+			regs[SP]++;
+			regs[z] = top;
+			return pc + 1;
+		}
+	}
+
+	/**
+	 * Read from a register address, or from address if y is -1.
+	 */
+	private static final class Read extends Op {
+		private final int y, address;
+
+		Read(int y, int address) {
+			super(1);
+			this.y = y;
+			this.address = address;
+		}
+
+		@Override
+		int execute(ThreadedSprockell s, int pc) {
+			s.setReply(s.memory.read(y < 0 ? address : s.regs[y]));
+			return pc + 1;
+		}
+	}
+
+	private static final class Receive extends Op {
+		private final int z;
+
+		Receive(int z) {
+			super(1);
+			this.z = z;
+		}
+
+		@Override
+		int execute(ThreadedSprockell s, int pc) {
+			s.regs[z] = s.receive(pc);
+			return pc + 1;
+		}
+	}
+
+	/**
+	 * Write to a register address, or to address if y is -1.
+	 */
+	private static final class Write extends Op {
+		private final int x, y, address;
+
+		Write(int x, int y, int address) {
+			super(1);
+			this.x = x;
+			this.y = y;
+			this.address = address;
+		}
+
+		@Override
+		int execute(ThreadedSprockell s, int pc) {
+			s.memory.write(y < 0 ? address : s.regs[y], s.regs[x]);
+			return pc + 1;
+		}
+	}
+
+	private static final class TestAndSet extends Op {
+		private final int y, address;
+
+		TestAndSet(int y, int address) {
+			super(1);
+			this.y = y;
+			this.address = address;
+		}
+
+		@Override
+		int execute(ThreadedSprockell s, int pc) {
+			s.setReply(s.memory.testAndSet(y < 0 ? address : s.regs[y]));
+			return pc + 1;
+		}
+	}
+
+	private static final class EndProg extends Op {
+		EndProg() {
+			super(1);
+		}
+
+		@Override
+		int execute(ThreadedSprockell s, int pc) {
+			s.halted = true;
+			return pc;
+		}
+	}
+
+	private static final class Nop extends Op {
+		Nop() {
+			super(1);
+		}
+
+		@Override
+		int execute(ThreadedSprockell s, int pc) {
+			return pc + 1;
+		}
+	}
+
+	/**
+	 * Const c r; Compute Add a r r
+	 */
+	private static final class AddConst extends Op {
+		private final int a, c, r;
+
+		AddConst(int a, int c, int r) {
+			super(2);
+			this.a = a;
+			this.c = c;
+			this.r = r;
+		}
+
+		@Override
+		int execute(ThreadedSprockell s, int pc) {
+			s.regs[r] = s.regs[a] + c;
+			return pc + 2;
+		}
+	}
+
+	/**
+	 * Const c r; Compute Add a r r; Load (deref r) z, reads a local variable.
+	 */
+	private static final class LoadOffset extends Op {
+		private final int a, c, r, z;
+
+		LoadOffset(int a, int c, int r, int z) {
+			super(3);
+			this.a = a;
+			this.c = c;
+			this.r = r;
+			this.z = z;
+		}
+
+		@Override
+		int execute(ThreadedSprockell s, int pc) {
+			int[] regs = s.regs;
+			int address = regs[a] + c;
+			regs[r] = address;
+			regs[z] = s.localMem[address];
+			return pc + 3;
+		}
+	}
+
+	/**
+	 * Const c r; Compute Add a r r; Store x (deref r), writes a local variable.
+	 */
+	private static final class StoreOffset extends Op {
+		private final int a, c, r, x;
+
+		StoreOffset(int a, int c, int r, int x) {
+			super(3);
+			this.a = a;
+			this.c = c;
+			this.r = r;
+			this.x = x;
+		}
+
+		@Override
+		int execute(ThreadedSprockell s, int pc) {
+			int[] regs = s.regs;
+			int address = regs[a] + c;
+			regs[r] = address;
+			s.localMem[address] = regs[x];
+			return pc + 3;
+		}
+	}
+
+	/**
+	 * Const c r; Read (deref r); Receive z, reads a global variable. Also used
+	 * for Read c; Receive z, with r the sink.
+	 */
+	private static final class ReadConst extends Op {
+		private final int c, r, z;
+
+		ReadConst(int c, int r, int z) {
+			super(r == SINK ? 2 : 3);
+			this.c = c;
+			this.r = r;
+			this.z = z;
+		}
+
+		@Override
+		int execute(ThreadedSprockell s, int pc) {
+			int[] regs = s.regs;
+			regs[r] = c;
+			regs[z] = s.memory.read(c);
+			return pc + size;
+		}
+	}
+
+	/**
+	 * Read (deref y); Receive z
+	 */
+	private static final class ReadReceive extends Op {
+		private final int y, z;
+
+		ReadReceive(int y, int z) {
+			super(2);
+			this.y = y;
+			this.z = z;
+		}
+
+		@Override
+		int execute(ThreadedSprockell s, int pc) {
+			s.regs[z] = s.memory.read(s.regs[y]);
+			return pc + 2;
+		}
+	}
+
+	/**
+	 * Compute Equal Zero r r; Branch r target
+	 */
+	private static final class BranchZero extends Op {
+		private final int r, target;
+
+		BranchZero(int r, int target) {
+			super(2);
+			this.r = r;
+			this.target = target;
+		}
+
+		@Override
+		int execute(ThreadedSprockell s, int pc) {
+			int[] regs = s.regs;
+			if (regs[r] == 0) {
+				regs[r] = 1;
+				return target;
+			}
+			regs[r] = 0;
+			return pc + 2;
+		}
+	}
+}
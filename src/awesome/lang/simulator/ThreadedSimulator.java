@@ -0,0 +1,136 @@
+package awesome.lang.simulator;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import awesome.lang.model.PackedProgram;
+import awesome.lang.model.Program;
+
+/**
+ * Executes a program in-process like Simulator, using the threaded form of the
+ * program. The sprockells take turns executing SLICE instructions, so programs
+ * with several threads still run on a single host thread.
+ */
+public class ThreadedSimulator {
+	/**
+	 * Number of instructions a sprockell executes before the next one gets its turn.
+	 */
+	private static final int SLICE = 256;
+
+	private final ThreadedProgram program;
+	private final ThreadedSprockell[] sprockells;
+	private final SharedMemory memory;
+	private final long[] cycles;
+	private long maxCycles = Long.MAX_VALUE;
+	private long instructions = 0;
+
+	/**
+	 * Creates a simulator, characters written to stdio are written to out.
+	 */
+	public ThreadedSimulator(Program program, OutputStream out) {
+		this(program.pack(), out);
+	}
+
+	/**
+	 * Creates a simulator, characters written to stdio are written to out.
+	 */
+	public ThreadedSimulator(PackedProgram program, OutputStream out) {
+		this(new ThreadedProgram(program), out);
+	}
+
+	/**
+	 * Creates a simulator, characters written to stdio are written to out. A
+	 * decoded program can be shared by several simulators.
+	 */
+	public ThreadedSimulator(ThreadedProgram program, OutputStream out) {
+		this.program = program;
+		memory = new SharedMemory(out);
+		sprockells = new ThreadedSprockell[program.getNumSprockells()];
+		cycles = new long[sprockells.length];
+
+		for (int i = 0; i < sprockells.length; i++) {
+			sprockells[i] = new ThreadedSprockell(program, i);
+		}
+	}
+
+	/**
+	 * Runs until every sprockell has halted, then flushes the devices.
+	 * @throws IllegalStateException if a sprockell executes more than the maximum number of cycles.
+	 */
+	public void run() {
+		try {
+			while (step()) {
+			}
+		} finally {
+			memory.flush();
+		}
+	}
+
+	/**
+	 * Gives every sprockell that has not halted one turn.
+	 * @return false if every sprockell has halted
+	 * @throws IllegalStateException if a sprockell executes more than the maximum number of cycles.
+	 */
+	public boolean step() {
+		boolean running = false;
+
+		for (int i = 0; i < sprockells.length; i++) {
+			ThreadedSprockell sprockell = sprockells[i];
+			if (sprockell.isHalted())
+				continue;
+
+			long steps = sprockell.run(memory, SLICE);
+			cycles[i] += steps;
+			instructions += steps;
+
+			if (cycles[i] > maxCycles && !sprockell.isHalted())
+				throw new IllegalStateException("Program did not halt within " + maxCycles + " cycles");
+
+			running = true;
+		}
+
+		return running;
+	}
+
+	/**
+	 * Writes the state of the program to a checkpoint file, from which the run
+	 * can be resumed with restore. Devices are flushed first.
+	 */
+	public void checkpoint(Path path) throws IOException {
+		Checkpoint.write(path, program.getProgram(), instructions, sprockells, memory);
+	}
+
+	/**
+	 * Continues from a checkpoint of the same program, written by this or
+	 * another simulator. The cycles of every sprockell start again from 0.
+	 * @throws IOException if the file is not a checkpoint of this program.
+	 */
+	public void restore(Path path) throws IOException {
+		instructions = Checkpoint.read(path, program.getProgram(), sprockells, memory);
+		Arrays.fill(cycles, 0);
+	}
+
+	/**
+	 * Sets the maximum number of instructions executed by a single sprockell.
+	 */
+	public void setMaxCycles(long maxCycles) {
+		this.maxCycles = maxCycles;
+	}
+
+	/**
+	 * Returns the total number of instructions executed by all sprockells.
+	 */
+	public long getInstructions() {
+		return instructions;
+	}
+
+	public ThreadedSprockell getSprockell(int id) {
+		return sprockells[id];
+	}
+
+	public SharedMemory getMemory() {
+		return memory;
+	}
+}
@@ -0,0 +1,98 @@
+package awesome.lang.simulator;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import awesome.lang.model.Reg;
+import awesome.lang.simulator.ThreadedProgram.Op;
+
+/**
+ * A sprockell executing a ThreadedProgram. Behaves like Sprockell, but a
+ * superinstruction executes several instructions in one step.
+ */
+public class ThreadedSprockell implements Checkpoint.Part {
+	final int[] regs = new int[ThreadedProgram.SINK + 1];
+	final int[] localMem = new int[Sprockell.LOCAL_MEM_SIZE];
+	SharedMemory memory;
+	boolean halted = false;
+
+	private final ThreadedProgram program;
+	private int pc = 0;
+
+	//reply of the last Read or TestAndSet, waiting to be received
+	private boolean hasReply = false;
+	private int reply;
+
+	public ThreadedSprockell(ThreadedProgram program, int id) {
+		this.program = program;
+
+		regs[Reg.SPID.ordinal()] = id;
+		regs[ThreadedProgram.SP] = Sprockell.LOCAL_MEM_SIZE / 2;
+	}
+
+	/**
+	 * Executes instructions until the sprockell halts or at least maxSteps
+	 * instructions have been executed, returns the number of executed
+	 * instructions. A superinstruction is never split, so a few more
+	 * instructions than maxSteps may be executed.
+	 */
+	public long run(SharedMemory memory, long maxSteps) {
+		this.memory = memory;
+
+		ThreadedProgram program = this.program;
+		int pc = this.pc;
+		long steps = 0;
+
+		while (!halted && steps < maxSteps) {
+			Op op = program.get(pc);
+			pc = op.execute(this, pc);
+			steps += op.size;
+		}
+
+		this.pc = pc;
+		return steps;
+	}
+
+	void setReply(int value) {
+		reply = value;
+		hasReply = true;
+	}
+
+	int receive(int pc) {
+		if (!hasReply)
+			throw new IllegalStateException("Receive without a preceding Read at instruction " + pc);
+		hasReply = false;
+		return reply;
+	}
+
+	@Override
+	public void save(DataOutputStream out) throws IOException {
+		Checkpoint.writeSprockell(out, pc, halted, hasReply, reply, regs, localMem);
+	}
+
+	@Override
+	public void restore(ByteBuffer in) {
+		pc = in.getInt();
+		halted = in.get() != 0;
+		hasReply = in.get() != 0;
+		reply = in.getInt();
+		Checkpoint.readRegisters(in, regs);
+		Checkpoint.readLocalMemory(in, localMem);
+	}
+
+	public boolean isHalted() {
+		return halted;
+	}
+
+	public int getPC() {
+		return pc;
+	}
+
+	public int getReg(Reg reg) {
+		if (reg == Reg.PC)
+			return pc;
+
+		return regs[reg.ordinal()];
+	}
+}
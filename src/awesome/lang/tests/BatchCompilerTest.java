@@ -0,0 +1,70 @@
+package awesome.lang.tests;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import awesome.lang.BatchCompiler;
+import awesome.lang.CompileStats.Phase;
+import awesome.lang.Compiler;
+
+public class BatchCompilerTest {
+	private Path output;
+
+	@Before
+	public void setup() throws IOException {
+		output = Files.createTempDirectory("awl-batch");
+	}
+
+	@After
+	public void cleanup() throws IOException {
+		for (String name : output.toFile().list()) {
+			Files.delete(output.resolve(name));
+		}
+		Files.delete(output);
+	}
+
+	@Test
+	public void testExamples() throws Exception {
+		List<Path> sources = BatchCompiler.findSources("src/awesome/lang/examples");
+		Assert.assertEquals(sources, BatchCompiler.findSources("src/awesome/lang/examples/*.awl"));
+		Assert.assertTrue(sources.contains(Paths.get("src/awesome/lang/examples/gameoflife.awl")));
+
+		BatchCompiler batch = new BatchCompiler(4, null);
+		Map<Path, List<String>> errors = batch.compileAll(sources, output);
+		Assert.assertTrue(errors.toString(), errors.isEmpty());
+		for (Phase phase : Phase.values()) {
+			Assert.assertTrue(batch.getStats().getTime(phase) > 0);
+		}
+
+		//the shared standard library gives the same code as a normal compile
+		for (Path source : sources) {
+			String name = source.getFileName().toString().replace(".awl", ".hs");
+			String actual = new String(Files.readAllBytes(output.resolve(name)), StandardCharsets.UTF_8);
+			Assert.assertEquals(new Compiler().compile(source).generateSprockell(), actual);
+		}
+	}
+
+	@Test
+	public void testErrors() throws Exception {
+		Path right = Files.write(output.resolve("right.awl"), "int x = 1;".getBytes(StandardCharsets.UTF_8));
+		Path wrong = Files.write(output.resolve("wrong.awl"), "int x = true;".getBytes(StandardCharsets.UTF_8));
+
+		Map<Path, List<String>> errors = new BatchCompiler(2, null).compileAll(Arrays.asList(right, wrong), output);
+
+		Assert.assertEquals(1, errors.size());
+		Assert.assertTrue(errors.containsKey(wrong));
+		Assert.assertTrue(Files.exists(output.resolve("right.hs")));
+		Assert.assertFalse(Files.exists(output.resolve("wrong.hs")));
+	}
+}
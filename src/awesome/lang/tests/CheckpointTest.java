@@ -0,0 +1,150 @@
+package awesome.lang.tests;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import awesome.lang.Compiler;
+import awesome.lang.Compiler.CompilationException;
+import awesome.lang.model.PackedProgram;
+import awesome.lang.model.Reg;
+import awesome.lang.simulator.MappedFileDevice;
+import awesome.lang.simulator.SharedMemory;
+import awesome.lang.simulator.Simulator;
+import awesome.lang.simulator.ThreadedSimulator;
+
+public class CheckpointTest {
+	private static Compiler compiler;
+
+	@BeforeClass
+	public static void setup() {
+		compiler = new Compiler();
+	}
+
+	@Test
+	public void testResume() throws IOException, CompilationException {
+		PackedProgram program = compiler.compile(Paths.get("src/awesome/lang/examples/gameoflife.awl")).pack();
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		Simulator reference = new Simulator(program, expected);
+		reference.run();
+
+		Path file = Files.createTempFile("awl-checkpoint", ".bin");
+		try {
+			ByteArrayOutputStream before = new ByteArrayOutputStream();
+			Simulator simulator = new Simulator(program, before);
+			for (int i = 0; i < reference.getCycles() / 2; i++) {
+				simulator.step();
+			}
+			simulator.checkpoint(file);
+
+			//the checkpoint can be restored more than once
+			for (int i = 0; i < 2; i++) {
+				ByteArrayOutputStream after = new ByteArrayOutputStream();
+				Simulator restored = new Simulator(program, after);
+				restored.restore(file);
+				Assert.assertEquals(reference.getCycles() / 2, restored.getCycles());
+				restored.run();
+
+				Assert.assertEquals(expected.toString(), before.toString() + after.toString());
+				Assert.assertEquals(reference.getCycles(), restored.getCycles());
+				for (Reg reg : Reg.values()) {
+					Assert.assertEquals(reference.getSprockell(0).getReg(reg), restored.getSprockell(0).getReg(reg));
+				}
+			}
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	public void testThreadedResume() throws IOException, CompilationException {
+		PackedProgram program = compiler.compile(Paths.get("src/awesome/lang/examples/petersons.awl")).pack();
+		Path file = Files.createTempFile("awl-checkpoint", ".bin");
+
+		try {
+			ByteArrayOutputStream before = new ByteArrayOutputStream();
+			Simulator simulator = new Simulator(program, before);
+			for (int i = 0; i < 500; i++) {
+				simulator.step();
+			}
+			simulator.checkpoint(file);
+
+			//a checkpoint of the reference simulator can be resumed by the threaded one, and the other way around
+			ByteArrayOutputStream middle = new ByteArrayOutputStream();
+			ThreadedSimulator threaded = new ThreadedSimulator(program, middle);
+			threaded.restore(file);
+			threaded.step();
+			threaded.checkpoint(file);
+
+			ByteArrayOutputStream after = new ByteArrayOutputStream();
+			Simulator restored = new Simulator(program, after);
+			restored.restore(file);
+			restored.run();
+
+			Assert.assertEquals("01010101010101010101", before.toString() + middle.toString() + after.toString());
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	public void testOtherProgram() throws IOException, CompilationException {
+		Path file = Files.createTempFile("awl-checkpoint", ".bin");
+
+		try {
+			Simulator simulator = new Simulator(compiler.compile("print(1);"), new ByteArrayOutputStream());
+			simulator.checkpoint(file);
+
+			try {
+				new Simulator(compiler.compile("print(2);"), new ByteArrayOutputStream()).restore(file);
+				Assert.fail();
+			} catch (IOException e) {
+				//different program
+			}
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	public void testDevice() throws IOException, CompilationException {
+		int input = SharedMemory.STDIO + 1;
+		Path text = Files.createTempFile("awl-input", ".txt");
+		Path file = Files.createTempFile("awl-checkpoint", ".bin");
+		Files.write(text, "abcdefghij".getBytes(StandardCharsets.UTF_8));
+
+		try {
+			PackedProgram program = compiler.compile("int c = read " + input + "; while (c >= 0) { write c stdio; c = read "
+					+ input + "; }").pack();
+
+			ByteArrayOutputStream before = new ByteArrayOutputStream();
+			Simulator simulator = new Simulator(program, before);
+			MappedFileDevice device = new MappedFileDevice(text);
+			simulator.getMemory().map(input, device.getSize(), device);
+			for (int i = 0; i < 100; i++) {
+				simulator.step();
+			}
+			simulator.checkpoint(file);
+
+			//the position in the stream is restored
+			ByteArrayOutputStream after = new ByteArrayOutputStream();
+			Simulator restored = new Simulator(program, after);
+			restored.getMemory().map(input, device.getSize(), new MappedFileDevice(text));
+			restored.restore(file);
+			restored.run();
+
+			Assert.assertTrue(before.size() > 0);
+			Assert.assertEquals("abcdefghij", before.toString() + after.toString());
+		} finally {
+			Files.delete(text);
+			Files.delete(file);
+		}
+	}
+}
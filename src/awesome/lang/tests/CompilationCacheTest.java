@@ -0,0 +1,136 @@
+package awesome.lang.tests;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import awesome.lang.CompilationCache;
+import awesome.lang.CompileStats;
+import awesome.lang.Compiler;
+import awesome.lang.Compiler.CompilationException;
+import awesome.lang.model.PackedProgram;
+
+public class CompilationCacheTest {
+	private Path directory;
+	private Path sources;
+
+	@Before
+	public void setup() throws IOException {
+		directory = Files.createTempDirectory("awl-cache");
+		sources = Files.createTempDirectory("awl-sources");
+	}
+
+	@After
+	public void cleanup() throws IOException {
+		delete(directory);
+		delete(sources);
+	}
+
+	@Test
+	public void testHit() throws IOException, CompilationException {
+		CompilationCache cache = new CompilationCache(directory, 1024 * 1024);
+		Compiler compiler = new Compiler(false, cache);
+		Path main = write("main.awl", "import \"lib.awl\"; print(answer());");
+		write("lib.awl", "int answer() -> 42;");
+
+		PackedProgram first = compiler.compilePacked(main);
+		PackedProgram second = compiler.compilePacked(main);
+
+		Assert.assertEquals(1, cache.getMisses());
+		Assert.assertEquals(1, cache.getHits());
+		Assert.assertEquals(generate(first), generate(second));
+	}
+
+	@Test
+	public void testImportChanged() throws IOException, CompilationException {
+		CompilationCache cache = new CompilationCache(directory, 1024 * 1024);
+		Compiler compiler = new Compiler(false, cache);
+		Path main = write("main.awl", "import \"lib.awl\"; print(answer());");
+		write("lib.awl", "int answer() -> 42;");
+
+		String key = cache.key(main, true);
+		compiler.compilePacked(main);
+
+		//only the imported file changes
+		write("lib.awl", "int answer() -> 43;");
+		Assert.assertNotEquals(key, cache.key(main, true));
+		compiler.compilePacked(main);
+		Assert.assertEquals(2, cache.getMisses());
+
+		write("lib.awl", "int answer() -> 42;");
+		Assert.assertEquals(key, cache.key(main, true));
+		compiler.compilePacked(main);
+		Assert.assertEquals(1, cache.getHits());
+	}
+
+	@Test
+	public void testOptimize() throws IOException, CompilationException {
+		CompilationCache cache = new CompilationCache(directory, 1024 * 1024);
+		Compiler optimizing = new Compiler(false, cache), plain = new Compiler(false, cache);
+		plain.setOptimize(false);
+		Path main = write("main.awl", "int f(int n) -> n + 1; print(f(1));");
+
+		//both compilers share the cache, but not their programs
+		optimizing.compilePacked(main);
+		Assert.assertEquals(generate(new Compiler(false, null).compilePacked(main)), generate(optimizing.compilePacked(main)));
+		Assert.assertEquals(generate(plain.compilePacked(main)), generate(plain.compilePacked(main)));
+		Assert.assertNotEquals(generate(optimizing.compilePacked(main)), generate(plain.compilePacked(main)));
+		Assert.assertEquals(2, cache.getMisses());
+		Assert.assertNotEquals(cache.key(main, true), cache.key(main, false));
+	}
+
+	@Test
+	public void testEviction() throws IOException, CompilationException {
+		long limit = 32 * 1024;
+		CompilationCache cache = new CompilationCache(directory, limit);
+		Compiler compiler = new Compiler(false, cache);
+
+		for (int i = 0; i < 40; i++) {
+			compiler.compilePacked("print(" + i + ");");
+		}
+
+		Assert.assertTrue(size(directory) <= limit);
+
+		//the most recent program is still cached
+		CompileStats stats = new CompileStats();
+		compiler.compilePacked("print(39);", stats);
+		Assert.assertEquals(1, cache.getHits());
+		Assert.assertEquals(1, stats.getCounter("cache hits"));
+	}
+
+	private Path write(String name, String content) throws IOException {
+		return Files.write(sources.resolve(name), content.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private String generate(PackedProgram program) throws IOException {
+		Path path = sources.resolve("out.hs");
+		program.writeSprockell(path);
+		return new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+	}
+
+	private long size(Path dir) throws IOException {
+		long size = 0;
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+			for (Path path : stream) {
+				size += Files.size(path);
+			}
+		}
+		return size;
+	}
+
+	private void delete(Path dir) throws IOException {
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+			for (Path path : stream) {
+				Files.delete(path);
+			}
+		}
+		Files.delete(dir);
+	}
+}
@@ -0,0 +1,160 @@
+package awesome.lang.tests;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import awesome.lang.CompileClient;
+import awesome.lang.CompileServer;
+import awesome.lang.Compiler;
+
+public class CompileServerTest {
+	private CompileServer server;
+	private Thread thread;
+	private Path output;
+
+	@Before
+	public void setup() throws IOException {
+		server = new CompileServer(0, null);
+		server.warmUp();
+		thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					server.serve();
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		});
+		thread.start();
+
+		output = Files.createTempDirectory("awl-server");
+	}
+
+	@After
+	public void cleanup() throws IOException, InterruptedException {
+		server.close();
+		thread.join();
+
+		for (String name : output.toFile().list()) {
+			Files.delete(output.resolve(name));
+		}
+		Files.delete(output);
+	}
+
+	@Test
+	public void testCompile() throws Exception {
+		Path source = Paths.get("src/awesome/lang/examples/helloworld.awl");
+		Path out = output.resolve("helloworld.hs");
+
+		Assert.assertTrue(CompileClient.compile(server.getPort(), source, out).isEmpty());
+		Assert.assertEquals(new Compiler().compile(source).generateSprockell(), read(out));
+	}
+
+	@Test
+	public void testErrors() throws Exception {
+		Path source = output.resolve("wrong.awl");
+		Files.write(source, "int x = true;".getBytes(StandardCharsets.UTF_8));
+
+		Assert.assertFalse(CompileClient.compile(server.getPort(), source, output.resolve("wrong.hs")).isEmpty());
+		Assert.assertFalse(Files.exists(output.resolve("wrong.hs")));
+
+		//the server keeps working after a failed compile
+		Files.write(source, "int x = 1;".getBytes(StandardCharsets.UTF_8));
+		Assert.assertTrue(CompileClient.compile(server.getPort(), source, output.resolve("right.hs")).isEmpty());
+	}
+
+	@Test
+	public void testRejected() throws Exception {
+		String source = Paths.get("src/awesome/lang/examples/helloworld.awl").toAbsolutePath().toString();
+		String token = read(CompileServer.getTokenPath(server.getPort()));
+		Path out = output.resolve("out.hs");
+
+		Assert.assertEquals("error", send("compile\nwrong\n" + source + "\n" + out + "\n"));
+		Assert.assertEquals("error", send("compile\n" + token + "\n" + source + "\n" + output.resolve("out.txt") + "\n"));
+		Assert.assertEquals("error", send("compile\n" + token + "\n"));
+		Assert.assertEquals("error", send("compile\n"));
+		Assert.assertFalse(Files.exists(out));
+
+		Assert.assertEquals("ok", send("compile\n" + token + "\n" + source + "\n" + out + "\n"));
+		Assert.assertTrue(Files.exists(out));
+	}
+
+	@Test
+	public void testTimeout() throws Exception {
+		server.setTimeout(100);
+
+		//a client that sends nothing is disconnected
+		try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+			socket.setSoTimeout(5000);
+			Assert.assertEquals(-1, socket.getInputStream().read());
+		}
+	}
+
+	@Test
+	public void testConcurrentRequests() throws Exception {
+		final String[] examples = {"gameoflife", "banksystem", "petersons", "helloworld"};
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		List<Future<Void>> results = new ArrayList<Future<Void>>();
+
+		for (int i = 0; i < 32; i++) {
+			final String example = examples[i % examples.length];
+			final Path out = output.resolve(example + i + ".hs");
+
+			results.add(executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					Path source = Paths.get("src/awesome/lang/examples", example + ".awl");
+					Assert.assertTrue(CompileClient.compile(server.getPort(), source, out).isEmpty());
+					return null;
+				}
+			}));
+		}
+
+		try {
+			for (Future<Void> result : results) {
+				result.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Sends a raw request and returns the first line of the answer.
+	 */
+	private String send(String request) throws IOException {
+		try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+			Writer out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+			out.write(request);
+			out.flush();
+			socket.shutdownOutput();
+
+			return new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8)).readLine();
+		}
+	}
+
+	private String read(Path path) throws IOException {
+		return new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,96 @@
+package awesome.lang.tests;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import awesome.lang.CompileStats;
+import awesome.lang.CompileStats.Phase;
+import awesome.lang.Compiler;
+import awesome.lang.Compiler.CompilationException;
+import awesome.lang.model.Program;
+
+public class CompileStatsTest {
+	private static final Path GAME_OF_LIFE = Paths.get("src/awesome/lang/examples/gameoflife.awl");
+
+	@Test
+	public void testStats() throws CompilationException {
+		CompileStats stats = new CompileStats();
+		Program program = new Compiler().compile(GAME_OF_LIFE, stats);
+
+		Assert.assertEquals(program.getInstructions().size(), stats.getCounter("instructions"));
+		Assert.assertEquals(2, stats.getCounter("files"));
+		Assert.assertTrue(stats.getCounter("nodes") > 0);
+		Assert.assertTrue(stats.getCounter("symbols") > 0);
+		Assert.assertTrue(stats.getCounter("functions") > 0);
+
+		for (Phase phase : new Phase[] {Phase.PARSE, Phase.IMPORTS, Phase.CHECK, Phase.GENERATE, Phase.ALLOCATE}) {
+			Assert.assertTrue(phase.toString(), stats.getTime(phase) > 0);
+		}
+		Assert.assertTrue(stats.getTime(Phase.PARSE) <= stats.getTime(Phase.IMPORTS));
+	}
+
+	@Test
+	public void testSymbols() throws CompilationException {
+		CompileStats library = new CompileStats(), one = new CompileStats(), two = new CompileStats();
+		Compiler compiler = new Compiler();
+		compiler.compile("{}", library);
+		compiler.compile("[int] x = int[4]; x[0] = 1;", one);
+		compiler.compile("[int] x = int[4]; x[0] = 1; x[1] = 1; x[2] = 1; x[3] = 1;", two);
+
+		//array and field targets are no declarations
+		Assert.assertEquals(library.getCounter("symbols") + 1, one.getCounter("symbols"));
+		Assert.assertEquals(one.getCounter("symbols"), two.getCounter("symbols"));
+	}
+
+	@Test
+	public void testErrors() {
+		CompileStats stats = new CompileStats();
+		try {
+			new Compiler().compile("int x = true; int y = false;", stats);
+			Assert.fail();
+		} catch (CompilationException e) {
+			Assert.assertEquals(2, stats.getCounter("errors"));
+			Assert.assertEquals(0, stats.getTime(Phase.GENERATE));
+		}
+	}
+
+	@Test
+	public void testFlightRecorder() throws IOException, CompilationException {
+		Path file = Files.createTempFile("awl-stats", ".jfr");
+
+		try (Recording recording = new Recording()) {
+			recording.enable("awesome.lang.CompilePhase");
+			recording.enable("awesome.lang.Compile");
+			recording.start();
+			new Compiler().compile(GAME_OF_LIFE);
+			recording.stop();
+			recording.dump(file);
+		}
+
+		Set<String> phases = new HashSet<String>();
+		long instructions = 0;
+		for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+			if (event.getEventType().getName().equals("awesome.lang.CompilePhase")) {
+				phases.add(event.getString("phase"));
+			} else if (event.getEventType().getName().equals("awesome.lang.Compile")) {
+				instructions = event.getLong("instructions");
+			}
+		}
+		Files.delete(file);
+
+		Assert.assertTrue(phases.toString(), phases.containsAll(Arrays.asList("parse", "imports", "check", "generate")));
+		Assert.assertEquals(new Compiler().compile(GAME_OF_LIFE).getInstructions().size(), instructions);
+	}
+}
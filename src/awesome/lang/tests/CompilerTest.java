@@ -1,9 +1,8 @@
 package awesome.lang.tests;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.util.NoSuchElementException;
-import java.util.Scanner;
+import java.nio.file.Paths;
 
 import org.junit.Assert;
 import org.junit.BeforeClass;
@@ -11,14 +10,12 @@ import org.junit.Test;
 
 import awesome.lang.Compiler;
 import awesome.lang.Compiler.CompilationException;
+import awesome.lang.model.Program;
+import awesome.lang.simulator.Simulator;
 
 /**
  * Tests every feature of the language.
- * Compiled test programs are written to gen/test.hs and automatically executed.
- * Requirements:
- * 	- the gen folder exists in the project root
- *  - sprockell exists in project root
- *  - ghc is installed and in the path
+ * Compiled test programs are executed by the in-process simulator.
  */
 public class CompilerTest {
 	private static Compiler compiler;
@@ -241,9 +238,74 @@ public class CompilerTest {
 		testProgram("int i = 0; do { print(i); i = i + 1; } while(i < 10);", "0123456789");
 	}
 	
-	private void testProgram(String prog, String expected) throws IOException, InterruptedException, CompilationException {
+	@Test
+	public void testReadWrite() throws IOException, InterruptedException, CompilationException {
+		testProgram("write 42 100; print(read 100);", "42");
+		testProgram("int a = 100; write 7 (a + 1); print((read (a + 1)) * 2);", "14");
+	}
+	
+	@Test
+	public void testExamples() throws IOException, CompilationException {
+		testExample("helloworld.awl", "Hello World!\n");
+		testExample("petersons.awl", "01010101010101010101");
+		
+		Program banksystem = compiler.compile(Paths.get("src/awesome/lang/examples/banksystem.awl"));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Simulator simulator = new Simulator(banksystem, out);
+		simulator.run();
+		Assert.assertEquals(4, banksystem.getNumSprockells());
+		Assert.assertEquals("", out.toString());
+		//globals end one word below the top of memory, balance is declared just before balanceLock
+		Assert.assertEquals(700 + 100 - 100 + 30 - 100 - 30 - 70, simulator.getMemory().read(0xFFFFFF - 2));
+		
+		testExample("gameoflife.awl", life(8, 8, 8));
+	}
+	
+	/**
+	 * Output of gameoflife.awl: a glider on a field of the given size, printed
+	 * before and after every step.
+	 */
+	private static String life(int width, int height, int steps) {
+		int[] field = new int[width * height];
+		field[2 + 1 * width] = field[3 + 2 * width] = 1;
+		field[1 + 3 * width] = field[2 + 3 * width] = field[3 + 3 * width] = 1;
+		
+		StringBuilder builder = new StringBuilder();
+		for (int step = 0; step <= steps; step++) {
+			builder.append("field:\n");
+			for (int j = 0; j < field.length; j++) {
+				builder.append(field[j] == 1 ? "X " : "  ");
+				if (j % width == width - 1)
+					builder.append("\n");
+			}
+			
+			int[] next = new int[field.length];
+			for (int x = 0; x < width; x++) {
+				for (int y = 0; y < height; y++) {
+					int total = 0;
+					for (int i = Math.max(x - 1, 0); i <= Math.min(x + 1, width - 1); i++) {
+						for (int j = Math.max(y - 1, 0); j <= Math.min(y + 1, height - 1); j++) {
+							if (i != x || j != y)
+								total += field[i + j * width];
+						}
+					}
+					next[x + y * width] = total == 3 || (total == 2 && field[x + y * width] == 1) ? 1 : 0;
+				}
+			}
+			field = next;
+		}
+		return builder.toString();
+	}
+	
+	private void testExample(String file, String expected) throws CompilationException {
+		Program program = compiler.compile(Paths.get("src/awesome/lang/examples/", file));
+		Assert.assertEquals("program output", expected, run(program));
+	}
+	
+	private void testProgram(String prog, String expected) throws CompilationException {
+		Program program;
 		try{
-			compiler.compile(prog).writeSprockell("test.hs");
+			program = compiler.compile(prog);
 		} catch(CompilationException e) {
 			//print type errors for better debug
 			for(String error : e.getErrors()){
@@ -252,35 +314,16 @@ public class CompilerTest {
 			
 			throw e;
 		}
-
-		Process process = Runtime.getRuntime().exec("ghc -isprockell/src gen/test.hs -e main");
-
-		String output = getOutput(process.getInputStream());
-		String err = getOutput(process.getErrorStream());
-		
-		int exitCode = process.waitFor();
-		if(exitCode != 0){
-			System.out.println(err);
-			Assert.fail("Haskell compilation failed");
-		}
 		
-		Assert.assertEquals("program output", expected, output);
+		Assert.assertEquals("program output", expected, run(program));
 	}
 	
-	private String getOutput(InputStream stream) throws IOException {
-		String output;
-		
-		try {
-			Scanner scanner = new Scanner(stream);
-			scanner.useDelimiter("\\A");
-			output = scanner.next();
-			
-			scanner.close();
-		} catch(NoSuchElementException e){
-			//scanner will throw this exception when there is no output
-			output = "";
-		}
+	private String run(Program program) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Simulator simulator = new Simulator(program, out);
+		simulator.setMaxCycles(10000000);
+		simulator.run();
 		
-		return output;
+		return out.toString();
 	}
 }
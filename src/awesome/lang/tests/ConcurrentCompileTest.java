@@ -0,0 +1,90 @@
+package awesome.lang.tests;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import awesome.lang.Compiler;
+
+/**
+ * Compiles the example programs on many threads at once, and checks that the
+ * output is the same as when compiled on a single thread.
+ */
+public class ConcurrentCompileTest {
+	private static final String[] EXAMPLES = {"gameoflife.awl", "banksystem.awl", "petersons.awl", "helloworld.awl"};
+	private static final int THREADS = 16, ROUNDS = 8;
+
+	@Test
+	public void testConcurrentCompile() throws Exception {
+		final HashMap<Path, String> expected = new HashMap<Path, String>();
+		for (String example : EXAMPLES) {
+			Path path = Paths.get("src/awesome/lang/examples", example);
+			expected.put(path, new Compiler().compile(path).generateSprockell());
+		}
+
+		//one compiler instance is shared by all threads
+		final Compiler compiler = new Compiler();
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		List<Future<Void>> results = new ArrayList<Future<Void>>();
+
+		for (int i = 0; i < THREADS * ROUNDS; i++) {
+			final Path path = Paths.get("src/awesome/lang/examples", EXAMPLES[i % EXAMPLES.length]);
+
+			results.add(executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					Assert.assertEquals(expected.get(path), compiler.compile(path).generateSprockell());
+					return null;
+				}
+			}));
+		}
+
+		try {
+			for (Future<Void> result : results) {
+				//rethrows assertion errors of the worker threads
+				result.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testUserTypesAreIsolated() throws Exception {
+		//the same class and enum names are defined by different programs at the same time
+		final Compiler compiler = new Compiler();
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		List<Future<Void>> results = new ArrayList<Future<Void>>();
+
+		for (int i = 0; i < THREADS * ROUNDS; i++) {
+			final String program = i % 2 == 0
+					? "enum T { a, b } class C { int x; } C c = new C(); c.x = 1;"
+					: "class T { int y; } enum C { b, a } T t = new T(); t.y = 2;";
+
+			results.add(executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					compiler.compile(program);
+					return null;
+				}
+			}));
+		}
+
+		try {
+			for (Future<Void> result : results) {
+				result.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
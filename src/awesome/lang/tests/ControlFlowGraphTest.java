@@ -0,0 +1,194 @@
+package awesome.lang.tests;
+
+import java.nio.file.Paths;
+import java.util.EnumSet;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import awesome.lang.Compiler;
+import awesome.lang.Compiler.CompilationException;
+import awesome.lang.model.Instruction;
+import awesome.lang.model.OpCode;
+import awesome.lang.model.Program;
+import awesome.lang.model.Reg;
+import awesome.lang.model.Target;
+import awesome.lang.optimizer.BasicBlock;
+import awesome.lang.optimizer.ControlFlowGraph;
+import awesome.lang.optimizer.Dominators;
+import awesome.lang.optimizer.Liveness;
+import awesome.lang.optimizer.Procedure;
+
+public class ControlFlowGraphTest {
+	private static Compiler compiler;
+
+	@BeforeClass
+	public static void setup() {
+		compiler = new Compiler();
+		compiler.setOptimize(false);
+	}
+
+	@Test
+	public void testBlocks() throws CompilationException {
+		for (String name : new String[] {"gameoflife", "helloworld", "banksystem", "petersons"}) {
+			ControlFlowGraph cfg = new ControlFlowGraph(compiler.compile(Paths.get("src/awesome/lang/examples/" + name + ".awl")));
+			List<Instruction> instructions = cfg.getInstructions();
+
+			int next = 0;
+			for (BasicBlock block : cfg.getBlocks()) {
+				//the blocks cover the program in order
+				Assert.assertEquals(next, block.getStart());
+				Assert.assertTrue(block.getEnd() > block.getStart());
+				next = block.getEnd();
+
+				for (int i = block.getStart(); i < block.getEnd(); i++) {
+					Assert.assertSame(block, cfg.getBlock(i));
+					if (i > block.getStart()) {
+						Assert.assertTrue(cfg.getLabels(i).isEmpty());
+						Assert.assertNull(ControlFlowGraph.getTarget(instructions.get(i - 1)));
+					}
+				}
+
+				//both edges of a branch
+				Instruction last = block.getLast();
+				if (last.getOpCode() == OpCode.Branch) {
+					int target = cfg.resolve((Target) last.getOperand(1), block.getEnd() - 1);
+					Assert.assertTrue(block.getSuccessors().contains(cfg.getBlock(target)));
+					Assert.assertTrue(block.getSuccessors().contains(cfg.getBlock(block.getEnd())));
+				}
+				if (last.getOpCode() == OpCode.EndProg)
+					Assert.assertTrue(block.getSuccessors().isEmpty());
+
+				for (BasicBlock successor : block.getSuccessors()) {
+					Assert.assertTrue(successor.getPredecessors().contains(block));
+				}
+			}
+			Assert.assertEquals(instructions.size(), next);
+		}
+	}
+
+	@Test
+	public void testCalls() throws CompilationException {
+		ControlFlowGraph cfg = new ControlFlowGraph(compiler.compile(
+				"int f(int n) -> n * 2; int g(): { return f(1) + 1; } print(f(3)); print(g());"));
+
+		Procedure f = cfg.getProcedure("func f"), g = cfg.getProcedure("func g");
+		Assert.assertSame(cfg.getEntry().getProcedure(), cfg.getProcedures().get(0));
+		for (Procedure procedure : cfg.getProcedures().subList(1, cfg.getProcedures().size())) {
+			Assert.assertFalse(procedure.getCallers().isEmpty());
+		}
+		Assert.assertEquals(2, f.getCallers().size());
+		Assert.assertEquals(1, g.getCallers().size());
+		Assert.assertSame(g, f.getCallers().get(0).getProcedure());
+		Assert.assertSame(cfg.getEntry().getProcedure(), f.getCallers().get(1).getProcedure());
+
+		for (BasicBlock call : f.getCallers()) {
+			BasicBlock site = cfg.getBlock(call.getEnd());
+			Assert.assertSame(f.getEntry(), call.getCallee());
+			Assert.assertEquals(1, call.getSuccessors().size());
+			Assert.assertSame(f.getEntry(), call.getSuccessors().get(0));
+			Assert.assertEquals(1, call.getLocalSuccessors().size());
+			Assert.assertSame(site, call.getLocalSuccessors().get(0));
+			Assert.assertTrue(f.getReturnSites().contains(site));
+		}
+
+		//a return continues after every call of its own procedure
+		Assert.assertEquals(1, f.getReturns().size());
+		BasicBlock ret = f.getReturns().get(0);
+		Assert.assertTrue(ret.isReturn());
+		Assert.assertSame(f, ret.getProcedure());
+		Assert.assertEquals(f.getReturnSites(), ret.getSuccessors());
+		Assert.assertTrue(ret.getLocalSuccessors().isEmpty());
+		for (BasicBlock block : f.getBlocks()) {
+			Assert.assertSame(f, block.getProcedure());
+			Assert.assertNull(block.getCallee());
+		}
+	}
+
+	@Test
+	public void testRelative() throws CompilationException {
+		ControlFlowGraph cfg = new ControlFlowGraph(compiler.compile("lock l; acquire l; release l;"));
+		List<Instruction> instructions = cfg.getInstructions();
+
+		for (int i = 0; i < instructions.size(); i++) {
+			if (instructions.get(i).getOpCode() == OpCode.TestAndSet) {
+				BasicBlock branch = cfg.getBlock(i + 2);
+				Assert.assertEquals(i + 3, branch.getEnd());
+				Assert.assertTrue(branch.getSuccessors().contains(cfg.getBlock(i + 4)));
+				Assert.assertEquals(i + 4, cfg.getBlock(i + 4).getStart());
+				return;
+			}
+		}
+		Assert.fail();
+	}
+
+	@Test
+	public void testDominators() throws CompilationException {
+		ControlFlowGraph cfg = new ControlFlowGraph(compiler.compile(
+				"int f(int n): { int s = 0; while (n > 0) { if (n mod 2 == 0) { s = s + n; } n = n - 1; } return s; } print(f(10));"));
+		Dominators dominators = new Dominators(cfg);
+
+		for (Procedure procedure : cfg.getProcedures()) {
+			Assert.assertNull(dominators.getImmediateDominator(procedure.getEntry()));
+			for (BasicBlock block : procedure.getBlocks()) {
+				Assert.assertTrue(dominators.dominates(procedure.getEntry(), block));
+				Assert.assertTrue(dominators.dominates(block, block));
+
+				//the immediate dominator dominates every predecessor
+				BasicBlock idom = dominators.getImmediateDominator(block);
+				if (block == procedure.getEntry())
+					continue;
+				for (BasicBlock previous : block.getLocalPredecessors()) {
+					Assert.assertTrue(dominators.dominates(idom, previous));
+				}
+			}
+		}
+
+		//the while loop has one back edge, to the block checking its condition
+		Procedure f = cfg.getProcedure("func f");
+		int backEdges = 0;
+		for (BasicBlock block : f.getBlocks()) {
+			for (BasicBlock successor : block.getLocalSuccessors()) {
+				if (dominators.isBackEdge(block, successor)) {
+					backEdges++;
+					Assert.assertFalse(dominators.dominates(block, successor));
+				}
+			}
+		}
+		Assert.assertEquals(1, backEdges);
+		Assert.assertFalse(dominators.dominates(f.getEntry(), cfg.getEntry()));
+	}
+
+	@Test
+	public void testLiveness() throws CompilationException {
+		Program program = compiler.compile("int f(int n) -> n + 1; int x = f(1); print(x); print(f(x));");
+		ControlFlowGraph cfg = new ControlFlowGraph(program);
+		Liveness liveness = new Liveness(cfg);
+		Procedure f = cfg.getProcedure("func f");
+
+		//registers are written before they are read
+		Assert.assertTrue(EnumSet.of(Reg.SP, Reg.SPID).containsAll(liveness.getLiveIn(cfg.getEntry())));
+
+		//the frame pointer is live across calls and the return address is read by the return
+		Assert.assertTrue(liveness.getLiveIn(f.getEntry()).contains(Reg.RegE));
+		BasicBlock ret = f.getReturns().get(0);
+		Target target = ControlFlowGraph.getTarget(ret.getLast());
+		Assert.assertTrue(liveness.getLiveBefore(ret.getEnd() - 1).contains(target.getReg()));
+
+		for (BasicBlock block : cfg.getBlocks()) {
+			if (block.getLast().getOpCode() == OpCode.EndProg)
+				Assert.assertTrue(liveness.getLiveOut(block).isEmpty());
+			Assert.assertFalse(liveness.getLiveIn(block).contains(Reg.Zero));
+
+			//live out is the union of the successors
+			EnumSet<Reg> out = EnumSet.noneOf(Reg.class);
+			for (BasicBlock successor : block.getSuccessors()) {
+				out.addAll(liveness.getLiveIn(successor));
+			}
+			Assert.assertEquals(out, liveness.getLiveOut(block));
+			Assert.assertEquals(liveness.getLiveIn(block), liveness.getLiveBefore(block.getStart()));
+		}
+	}
+}
@@ -0,0 +1,122 @@
+package awesome.lang.tests;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import awesome.lang.Compiler;
+import awesome.lang.Compiler.CompilationException;
+import awesome.lang.model.Program;
+import awesome.lang.simulator.Device;
+import awesome.lang.simulator.MappedFileDevice;
+import awesome.lang.simulator.SharedMemory;
+import awesome.lang.simulator.Simulator;
+import awesome.lang.simulator.StdoutDevice;
+
+public class DeviceTest {
+	private static final int INPUT = SharedMemory.STDIO + 1;
+
+	private static Compiler compiler;
+
+	@BeforeClass
+	public static void setup() {
+		compiler = new Compiler();
+	}
+
+	@Test
+	public void testBatchedOutput() throws CompilationException {
+		CountingChannel channel = new CountingChannel();
+		Simulator simulator = new Simulator(compiler.compile("for (int i = 0; i < 100; i = i + 1) { write 'x' stdio; }"),
+				new ByteArrayOutputStream());
+		simulator.getMemory().map(SharedMemory.STDIO, 1, new StdoutDevice(channel, 64));
+		simulator.run();
+
+		Assert.assertEquals(100, channel.out.size());
+		//two full buffers and the rest when the program ends
+		Assert.assertEquals(2, channel.writes);
+	}
+
+	@Test
+	public void testFileInput() throws IOException, CompilationException {
+		Path file = Files.createTempFile("awl-input", ".txt");
+		Files.write(file, "abc".getBytes(StandardCharsets.UTF_8));
+
+		try {
+			//prints the length, then the file twice: directly and as a stream
+			Program program = compiler.compile("int n = read " + (INPUT + MappedFileDevice.LENGTH) + "; print(n);"
+					+ "for (int i = 0; i < n; i = i + 1) { write (read (" + (INPUT + MappedFileDevice.DATA) + " + i)) stdio; }"
+					+ "int c = read " + INPUT + "; while (c >= 0) { write c stdio; c = read " + INPUT + "; }");
+
+			MappedFileDevice device = new MappedFileDevice(file);
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			Simulator simulator = new Simulator(program, out);
+			simulator.getMemory().map(INPUT, device.getSize(), device);
+			simulator.run();
+
+			Assert.assertEquals("3abcabc", out.toString());
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	public void testMapping() {
+		SharedMemory memory = new SharedMemory(new ByteArrayOutputStream());
+		Device device = new StdoutDevice(new CountingChannel());
+
+		memory.map(INPUT, 10, device);
+		Assert.assertSame(device, memory.getDevice(INPUT + 9));
+		Assert.assertNull(memory.getDevice(INPUT + 10));
+
+		try {
+			memory.map(INPUT + 5, 10, device);
+			Assert.fail();
+		} catch (IllegalArgumentException e) {
+			//overlaps
+		}
+		try {
+			memory.map(0, 10, device);
+			Assert.fail();
+		} catch (IllegalArgumentException e) {
+			//not in the device range
+		}
+		try {
+			memory.read(INPUT + 10);
+			Assert.fail();
+		} catch (IllegalArgumentException e) {
+			//nothing mapped
+		}
+	}
+
+	private static class CountingChannel implements WritableByteChannel {
+		private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		private int writes = 0;
+
+		@Override
+		public int write(ByteBuffer src) {
+			writes++;
+			int count = src.remaining();
+			while (src.hasRemaining()) {
+				out.write(src.get());
+			}
+			return count;
+		}
+
+		@Override
+		public boolean isOpen() {
+			return true;
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+}
@@ -1,12 +1,18 @@
 package awesome.lang.tests;
 
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+
+import org.antlr.v4.runtime.tree.ParseTree;
 
 import org.junit.Assert;
 import org.junit.Test;
 
 import awesome.lang.ImportResolver;
+import awesome.lang.checking.CompilationUnit;
 
 public class ImportTest {
 	@Test
@@ -16,9 +22,36 @@ public class ImportTest {
 		testImport("import4.awl", "default.awl", "import4.awl", "import3.awl");
 	}
 
+	@Test
+	public void testParallel() {
+		//files are added in the same order as when parsed sequentially
+		for (String file : new String[] {"import1.awl", "import4.awl"}) {
+			Path path = Paths.get("src/awesome/lang/tests/files/" + file);
+			CompilationUnit sequential = new ImportResolver(path).getContextDataSet();
+			ImportResolver resolver = new ImportResolver(path, true);
+			CompilationUnit parallel = resolver.getContextDataSet();
+			
+			Assert.assertEquals(new ImportResolver(path).getImports(), resolver.getImports());
+			Assert.assertEquals(getTexts(sequential.getStatlist()), getTexts(parallel.getStatlist()));
+			Assert.assertEquals(getTexts(sequential.getFunclist()), getTexts(parallel.getFunclist()));
+		}
+		
+		//string programs resolve imports relative to the root directory
+		String program = "import \"" + Paths.get("src/awesome/lang/tests/files/import4.awl").toAbsolutePath() + "\"; int a = 1;";
+		Assert.assertEquals(new ImportResolver(program).getImports(), new ImportResolver(program, true).getImports());
+	}
+	
 	private void testImport(String file, String...expected) {
 		ImportResolver resolver = new ImportResolver(Paths.get("src/awesome/lang/tests/files/" + file));
 		
 		Assert.assertEquals(Arrays.asList(expected), resolver.getImports());
 	}
+	
+	private List<String> getTexts(List<? extends ParseTree> trees) {
+		List<String> texts = new ArrayList<String>();
+		for (ParseTree tree : trees) {
+			texts.add(tree.getText());
+		}
+		return texts;
+	}
 }
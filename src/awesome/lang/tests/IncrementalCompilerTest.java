@@ -0,0 +1,110 @@
+package awesome.lang.tests;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import awesome.lang.Compiler;
+import awesome.lang.IncrementalCompiler;
+import awesome.lang.ModuleGraph.Module;
+
+public class IncrementalCompilerTest {
+	private Path sources, output;
+	private long time = 1000000;
+
+	@Before
+	public void setup() throws IOException {
+		sources = Files.createTempDirectory("awl-sources");
+		output = Files.createTempDirectory("awl-output");
+	}
+
+	@After
+	public void cleanup() throws IOException {
+		for (Path dir : new Path[] {sources, output}) {
+			for (String name : dir.toFile().list()) {
+				Files.delete(dir.resolve(name));
+			}
+			Files.delete(dir);
+		}
+	}
+
+	@Test
+	public void testRebuild() throws Exception {
+		Path a = write("a.awl", "import \"lib.awl\"; print(answer());");
+		Path b = write("b.awl", "print(2);");
+		write("lib.awl", "int answer() -> 42;");
+		List<Path> entries = Arrays.asList(a, b);
+
+		IncrementalCompiler compiler = new IncrementalCompiler();
+		Assert.assertTrue(compiler.build(entries, output).isEmpty());
+		Assert.assertEquals(entries, compiler.getRebuilt());
+
+		//nothing changed
+		compiler.build(entries, output);
+		Assert.assertEquals(Collections.emptyList(), compiler.getRebuilt());
+
+		//only the entry importing the library is rebuilt
+		write("lib.awl", "int answer() -> 43;");
+		compiler.build(entries, output);
+		Assert.assertEquals(Arrays.asList(a), compiler.getRebuilt());
+		Assert.assertEquals(new Compiler().compile(a).generateSprockell(), read("a.hs"));
+
+		//touching a file without changing it does not rebuild anything
+		write("lib.awl", "int answer() -> 43;");
+		compiler.build(entries, output);
+		Assert.assertEquals(Collections.emptyList(), compiler.getRebuilt());
+	}
+
+	@Test
+	public void testErrorsAndNewImports() throws Exception {
+		Path a = write("a.awl", "import \"lib.awl\"; print(answer());");
+		List<Path> entries = Arrays.asList(a);
+
+		//the import does not exist yet
+		IncrementalCompiler compiler = new IncrementalCompiler();
+		Assert.assertEquals(1, compiler.build(entries, output).size());
+
+		write("lib.awl", "int answer() -> 42;");
+		Assert.assertTrue(compiler.build(entries, output).isEmpty());
+		Assert.assertEquals(Arrays.asList(a), compiler.getRebuilt());
+
+		//an error in the library is reported for the entry
+		write("lib.awl", "int answer() -> true;");
+		Assert.assertEquals(1, compiler.build(entries, output).size());
+	}
+
+	@Test
+	public void testImports() throws Exception {
+		Path lib = write("lib.awl", "enum E { x } class C { int f; int get() -> f; } int answer() -> 42;");
+		Path a = write("a.awl", "import \"lib.awl\"; C c = new C(); E e = E:x; print(answer());");
+
+		IncrementalCompiler compiler = new IncrementalCompiler();
+		compiler.build(Arrays.asList(a), output);
+
+		Module module = compiler.getModules().load(lib);
+		Assert.assertTrue(module.getImports().isEmpty());
+		Assert.assertEquals(Arrays.asList("lib.awl"), compiler.getModules().load(a).getImports());
+		Assert.assertTrue(compiler.getModules().getDependencies(a).contains(module.getPath()));
+	}
+
+	private Path write(String name, String content) throws IOException {
+		Path path = Files.write(sources.resolve(name), content.getBytes(StandardCharsets.UTF_8));
+		//modification times may be too coarse to see every write
+		Files.setLastModifiedTime(path, FileTime.fromMillis(time += 1000));
+		return path;
+	}
+
+	private String read(String name) throws IOException {
+		return new String(Files.readAllBytes(output.resolve(name)), StandardCharsets.UTF_8);
+	}
+}
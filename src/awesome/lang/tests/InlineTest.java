@@ -0,0 +1,99 @@
+package awesome.lang.tests;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Paths;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import awesome.lang.CompileStats;
+import awesome.lang.Compiler;
+import awesome.lang.Compiler.CompilationException;
+import awesome.lang.model.Program;
+import awesome.lang.simulator.Simulator;
+
+public class InlineTest {
+	private static Compiler plain, inlining;
+
+	@BeforeClass
+	public static void setup() {
+		plain = new Compiler();
+		plain.setOptimize(false);
+		inlining = new Compiler();
+	}
+
+	@Test
+	public void testExamples() throws CompilationException {
+		CompileStats stats = new CompileStats();
+		Program program = inlining.compile(Paths.get("src/awesome/lang/examples/gameoflife.awl"), stats);
+		Program original = plain.compile(Paths.get("src/awesome/lang/examples/gameoflife.awl"));
+		Assert.assertTrue(stats.getCounter("inlined calls") > 0);
+
+		Simulator simulator = new Simulator(program, new ByteArrayOutputStream());
+		simulator.run();
+		Simulator reference = new Simulator(original, new ByteArrayOutputStream());
+		reference.run();
+		Assert.assertTrue(simulator.getCycles() < reference.getCycles());
+	}
+
+	@Test
+	public void testArguments() throws CompilationException {
+		Assert.assertEquals("7", testSame("int f(int a, int b) -> (a * 2) + b; print(f(2, 3));", true));
+		//arguments are evaluated last to first, like for a call
+		Assert.assertEquals("983", testSame("int f(int a, int b) -> a + b; int g(int c, int n): { print(c); return n; }"
+				+ " print(f(g(8, 1), g(9, 2)));", true));
+		//the variables of the caller keep their values
+		Assert.assertEquals("1011", testSame("int f(int a): { int x = a + 1; return x; } int x = 10; int y = f(x); print(x); print(y);", true));
+	}
+
+	@Test
+	public void testReturns() throws CompilationException {
+		String program = "int sign(int n): { if (n < 0) return -1; if (n == 0) return 0; return 1; }"
+				+ " for (int i = -2; i <= 2; i = i + 1) { print(sign(i)); }";
+		Assert.assertEquals("-1-1011", testSame(program, true));
+		Assert.assertEquals("9", testSame("int x = 0; p(int c): { x = x + c; } p(4); p(5); print(x);", true));
+
+		//next still refers to the switch around the call
+		Assert.assertEquals("12", testSame("int f(int n) -> n + 1; switch (f(0)) { case 1 { print(f(0)); next; }"
+				+ " default { print(f(1)); } }", true));
+	}
+
+	@Test
+	public void testRecursion() throws CompilationException {
+		//a recursive function is inlined once, the calls in its body stay calls
+		Assert.assertEquals("55", testSame("int fib(int n) -> fib2(n); int fib2(int n): { if (n < 2) return n;"
+				+ " return fib(n - 1) + fib(n - 2); } print(fib(10));", true));
+
+		//nested inlining
+		Assert.assertEquals("12", testSame("int a(int n) -> n + 1; int b(int n) -> a(n) * 2; int c(int n) -> b(n) + b(n);"
+				+ " int d(int n) -> c(n); print(d(2));", true));
+	}
+
+	@Test
+	public void testNotInlined() throws CompilationException {
+		//large functions outside loops and threads are called
+		testSame("int f(int n): { int s = 0; s = s + n * 2; s = s + n * 3; s = s - n; s = s * 2; s = s + 1; return s; } print(f(2));",
+				false);
+		testSame("int x = 0; thread t(): { x = 1; } t();", false);
+	}
+
+	/**
+	 * Checks that the program gives the same output with and without inlining
+	 * and returns that output.
+	 */
+	private static String testSame(String source, boolean inlined) throws CompilationException {
+		CompileStats stats = new CompileStats();
+		String output = run(inlining.compile(source, stats));
+		Assert.assertEquals(run(plain.compile(source)), output);
+		Assert.assertEquals(inlined, stats.getCounter("inlined calls") > 0);
+		return output;
+	}
+
+	private static String run(Program program) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Simulator simulator = new Simulator(program, out);
+		simulator.run();
+		return out.toString();
+	}
+}
@@ -0,0 +1,121 @@
+package awesome.lang.tests;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import awesome.lang.Compiler;
+import awesome.lang.Compiler.CompilationException;
+import awesome.lang.benchmarks.ProgramGenerator;
+import awesome.lang.model.PackedProgram;
+import awesome.lang.model.Reg;
+import awesome.lang.simulator.Simulator;
+import awesome.lang.simulator.JitProgram;
+import awesome.lang.simulator.JitSimulator;
+
+/**
+ * Compares the JIT simulator with the reference simulator.
+ */
+public class JitSimulatorTest {
+	private static Compiler compiler;
+
+	@BeforeClass
+	public static void setup() {
+		compiler = new Compiler();
+	}
+
+	@Test
+	public void testExamples() throws CompilationException {
+		testSame(compile(Paths.get("src/awesome/lang/examples/gameoflife.awl")));
+		testSame(compile(Paths.get("src/awesome/lang/examples/helloworld.awl")));
+		Assert.assertEquals("01010101010101010101", run(compile(Paths.get("src/awesome/lang/examples/petersons.awl"))));
+
+		//banksystem prints nothing, its threads leave the final balance in shared memory
+		PackedProgram banksystem = compile(Paths.get("src/awesome/lang/examples/banksystem.awl"));
+		Simulator simulator = new Simulator(banksystem, new ByteArrayOutputStream());
+		simulator.run();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		JitSimulator jit = new JitSimulator(banksystem, out);
+		jit.setMaxCycles(10000000);
+		jit.run();
+		Assert.assertEquals("", out.toString());
+		Assert.assertEquals(530, jit.getMemory().read(0xFFFFFF - 2));
+		Assert.assertEquals(simulator.getMemory().read(0xFFFFFF - 2), jit.getMemory().read(0xFFFFFF - 2));
+	}
+
+	@Test
+	public void testPrograms() throws CompilationException {
+		testSame(compiler.compile("int s = 0; for (int i = 1; i <= 10; i = i + 1) { s = s + i; } print(s);").pack());
+		testSame(compiler.compile("int f(int n): { if (n < 2) { return n; } return f(n - 1) + f(n - 2); } print(f(15));").pack());
+		testSame(compiler.compile("[int] a = [3, 1, 2]; int i = 0; while (i < 3) { print(a[i] * 7 mod 5); i = i + 1; }").pack());
+		testSame(compiler.compile("float f = 1.5; f = f * 2.0; print(f > 2.5);").pack());
+	}
+
+	@Test
+	public void testGenerated() throws IOException, CompilationException {
+		Path dir = Files.createTempDirectory("awl-jit");
+
+		try {
+			for (int seed = 0; seed < 5; seed++) {
+				testSame(compile(new ProgramGenerator(seed).setFunctions(40).write(dir)));
+			}
+		} finally {
+			for (String name : dir.toFile().list()) {
+				Files.delete(dir.resolve(name));
+			}
+			Files.delete(dir);
+		}
+	}
+
+	@Test
+	public void testShared() throws CompilationException {
+		//the compiled code keeps no state, so it can run twice
+		JitProgram program = new JitProgram(compile(Paths.get("src/awesome/lang/examples/helloworld.awl")));
+		Assert.assertTrue(program.getBlockCount() > 1);
+
+		ByteArrayOutputStream first = new ByteArrayOutputStream(), second = new ByteArrayOutputStream();
+		new JitSimulator(program, first).run();
+		new JitSimulator(program, second).run();
+		Assert.assertEquals(first.toString(), second.toString());
+	}
+
+	/**
+	 * Checks that both simulators give the same output and end in the same state.
+	 */
+	private void testSame(PackedProgram program) {
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		Simulator simulator = new Simulator(program, expected);
+		simulator.setMaxCycles(10000000);
+		simulator.run();
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		JitSimulator jit = new JitSimulator(program, out);
+		jit.setMaxCycles(10000000);
+		jit.run();
+
+		Assert.assertEquals(expected.toString(), out.toString());
+		Assert.assertEquals(simulator.getSprockell(0).getPC(), jit.getSprockell(0).getPC());
+		for (Reg reg : Reg.values()) {
+			Assert.assertEquals(reg.toString(), simulator.getSprockell(0).getReg(reg), jit.getSprockell(0).getReg(reg));
+		}
+	}
+
+	private String run(PackedProgram program) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		JitSimulator simulator = new JitSimulator(program, out);
+		simulator.setMaxCycles(10000000);
+		simulator.run();
+
+		return out.toString();
+	}
+
+	private PackedProgram compile(Path path) throws CompilationException {
+		return compiler.compile(path).pack();
+	}
+}
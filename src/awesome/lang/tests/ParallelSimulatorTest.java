@@ -0,0 +1,76 @@
+package awesome.lang.tests;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Paths;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import awesome.lang.Compiler;
+import awesome.lang.Compiler.CompilationException;
+import awesome.lang.model.Program;
+import awesome.lang.simulator.ParallelSimulator;
+
+public class ParallelSimulatorTest {
+	private static Compiler compiler;
+
+	@BeforeClass
+	public static void setup() {
+		compiler = new Compiler();
+	}
+
+	@Test
+	public void testSingleThread() throws CompilationException {
+		Assert.assertEquals("55", run(compiler.compile("int s = 0; for (int i = 1; i <= 10; i = i + 1) { s = s + i; } print(s);")));
+	}
+
+	@Test
+	public void testExamples() throws CompilationException {
+		Program petersons = compiler.compile(Paths.get("src/awesome/lang/examples/petersons.awl"));
+		Assert.assertEquals("01010101010101010101", run(petersons));
+
+		Program banksystem = compiler.compile(Paths.get("src/awesome/lang/examples/banksystem.awl"));
+		run(banksystem);
+	}
+
+	@Test
+	public void testLock() throws CompilationException {
+		//every thread increments the counter under the lock, no increment may be lost
+		StringBuilder prog = new StringBuilder("int counter = 0; int done = 0; lock l;\n");
+		for (int t = 0; t < 4; t++) {
+			prog.append("thread t" + t + "(): { for (int i = 0; i < 200; i = i + 1) { acquire l; counter = counter + 1; release l; }"
+					+ " acquire l; done = done + 1; release l; }\n");
+		}
+		for (int t = 0; t < 4; t++) {
+			prog.append("t" + t + "();\n");
+		}
+		prog.append("while (done < 4) {} print(counter);");
+
+		for (int i = 0; i < 5; i++) {
+			Assert.assertEquals("800", run(compiler.compile(prog.toString())));
+		}
+	}
+
+	@Test
+	public void testMaxCycles() throws CompilationException {
+		ParallelSimulator simulator = new ParallelSimulator(compiler.compile("thread t(): { while (true) {} } t();"), new ByteArrayOutputStream());
+		simulator.setMaxCycles(100000);
+
+		try {
+			simulator.run();
+			Assert.fail();
+		} catch (IllegalStateException e) {
+			//the thread does not halt
+		}
+	}
+
+	private String run(Program program) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ParallelSimulator simulator = new ParallelSimulator(program, out);
+		simulator.setMaxCycles(100000000);
+		simulator.run();
+
+		return out.toString();
+	}
+}
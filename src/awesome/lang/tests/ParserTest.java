@@ -0,0 +1,47 @@
+package awesome.lang.tests;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.antlr.v4.runtime.ANTLRFileStream;
+import org.antlr.v4.runtime.ANTLRInputStream;
+import org.junit.Assert;
+import org.junit.Test;
+
+import awesome.lang.GrammarParser.ProgramContext;
+import awesome.lang.ProgramParser;
+
+public class ParserTest {
+	@Test
+	public void testSameTree() throws IOException {
+		//one parser is reused for all files
+		ProgramParser parser = new ProgramParser();
+		String[] dirs = {"src/awesome/lang/examples", "src/awesome/lang/tests/files", "stdlib"};
+
+		for (String dir : dirs) {
+			try (DirectoryStream<Path> files = Files.newDirectoryStream(Paths.get(dir), "*.awl")) {
+				for (Path file : files) {
+					ProgramContext ll = parser.parseLL(new ANTLRFileStream(file.toString()));
+					ProgramContext fast = parser.parse(new ANTLRFileStream(file.toString()));
+
+					Assert.assertNotNull(file.toString(), fast);
+					Assert.assertEquals(ll.toStringTree(), fast.toStringTree());
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testSyntaxError() {
+		ProgramParser parser = new ProgramParser();
+
+		Assert.assertNull(parser.parse(new ANTLRInputStream("int x = ;")));
+		Assert.assertNull(parser.parse(new ANTLRInputStream("int x = 1 $;")));
+
+		//errors do not carry over to the next program
+		Assert.assertNotNull(parser.parse(new ANTLRInputStream("int x = 1;")));
+	}
+}
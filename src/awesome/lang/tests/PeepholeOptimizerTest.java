@@ -0,0 +1,160 @@
+package awesome.lang.tests;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import awesome.lang.Compiler;
+import awesome.lang.Compiler.CompilationException;
+import awesome.lang.benchmarks.ProgramGenerator;
+import awesome.lang.model.Instruction;
+import awesome.lang.model.OpCode;
+import awesome.lang.model.Operator;
+import awesome.lang.model.Program;
+import awesome.lang.model.Reg;
+import awesome.lang.model.Target;
+import awesome.lang.optimizer.PeepholeOptimizer;
+import awesome.lang.simulator.Simulator;
+
+public class PeepholeOptimizerTest {
+	private static Compiler compiler;
+
+	@BeforeClass
+	public static void setup() {
+		compiler = new Compiler();
+		compiler.setOptimize(false);
+	}
+
+	@Test
+	public void testExamples() throws CompilationException {
+		for (String name : new String[] {"gameoflife", "helloworld", "banksystem", "petersons"}) {
+			testSame(compiler.compile(Paths.get("src/awesome/lang/examples/" + name + ".awl")), true);
+		}
+	}
+
+	@Test
+	public void testPrograms() throws CompilationException {
+		testSame(compiler.compile("int s = 0; for (int i = 1; i <= 10; i = i + 1) { s = s + i; } print(s);"), true);
+		testSame(compiler.compile("int f(int n): { if (n < 2) { return n; } return f(n - 1) + f(n - 2); } print(f(15));"), true);
+		testSame(compiler.compile("[int] a = [3, 1, 2]; int i = 0; while (i < 3) { print(a[i] * 7 mod 5); i = i + 1; }"), true);
+		testSame(compiler.compile("float f = 1.5; f = f * 2.0; print(f > 2.5); print(not (f < 1.0));"), true);
+		testSame(compiler.compile("int x = 0; switch (x) { case 1 { print(1); } case 0 { print(0); next; } default { print(2); } }"),
+				true);
+		testSame(compiler.compile("int x = 3; do { x = x - 1; } while (x > 0); print(x); while (true) { x = x + 1; if (x > 5) {"
+				+ " print(x); } if (x == 7) { print(x); } if (x >= 9) { print(x); } if (x > 10 or x < 0) { x = -1; } } "), false);
+	}
+
+	@Test
+	public void testGenerated() throws IOException, CompilationException {
+		Path dir = Files.createTempDirectory("awl-peephole");
+
+		try {
+			for (int seed = 0; seed < 5; seed++) {
+				testSame(compiler.compile(new ProgramGenerator(seed).setFunctions(40).write(dir)), true);
+			}
+		} finally {
+			for (String name : dir.toFile().list()) {
+				Files.delete(dir.resolve(name));
+			}
+			Files.delete(dir);
+		}
+	}
+
+	@Test
+	public void testRewrites() throws CompilationException {
+		Program program = new PeepholeOptimizer().optimize(compiler.compile(
+				"int x = 0; int y = 6 * 7; while (x < y) { x = x + 1; } print(x);"));
+		List<Instruction> instructions = program.getInstructions();
+
+		boolean folded = false;
+		for (int i = 0; i < instructions.size(); i++) {
+			Instruction instr = instructions.get(i);
+
+			//label-only Nops are gone
+			Assert.assertTrue(instr.getOpCode() != OpCode.Nop);
+
+			//constants are folded
+			if (instr.getOpCode() == OpCode.Const && Integer.valueOf(42).equals(instr.getOperand(0)))
+				folded = true;
+
+			//the inverse of an integer comparison is a single comparison
+			if (instr.getOpCode() == OpCode.Compute && instr.getOperand(0) == Operator.Equal
+					&& instr.getOperand(1) == Reg.Zero && i > 0) {
+				Instruction previous = instructions.get(i - 1);
+				Assert.assertFalse(previous.getOpCode() == OpCode.Compute && previous.getOperand(3) == instr.getOperand(2)
+						&& Arrays.asList(Operator.Lt, Operator.GtE, Operator.Gt, Operator.LtE).contains(previous.getOperand(0)));
+			}
+		}
+		Assert.assertTrue(folded);
+		Assert.assertEquals("42", run(program, Long.MAX_VALUE));
+	}
+
+	@Test
+	public void testAcquire() throws CompilationException {
+		//the relative branch of the acquire loop must still skip the jump back
+		Program program = new PeepholeOptimizer().optimize(compiler.compile(
+				"lock l; int x = 0; acquire l; x = x + 1; release l; print(x);"));
+		List<Instruction> instructions = program.getInstructions();
+
+		int loops = 0;
+		for (int i = 0; i < instructions.size(); i++) {
+			if (instructions.get(i).getOpCode() == OpCode.TestAndSet) {
+				Target target = (Target) instructions.get(i + 2).getOperand(1);
+				Assert.assertTrue(target.isRelative());
+				Assert.assertEquals(2, target.getAddress());
+				Assert.assertEquals(OpCode.Jump, instructions.get(i + 3).getOpCode());
+				loops++;
+			}
+		}
+		Assert.assertTrue(loops > 0);
+		Assert.assertEquals("1", run(program, Long.MAX_VALUE));
+	}
+
+	/**
+	 * Checks that the optimized program prints the same and, if it halts, runs
+	 * fewer cycles.
+	 */
+	private static void testSame(Program program, boolean halts) {
+		PeepholeOptimizer optimizer = new PeepholeOptimizer();
+		Program optimized = optimizer.optimize(program);
+		Assert.assertTrue(optimizer.getRemoved() > 0);
+		Assert.assertEquals(program.getInstructions().size() - optimizer.getRemoved(), optimized.getInstructions().size());
+
+		if (halts) {
+			Simulator before = new Simulator(program, new ByteArrayOutputStream());
+			before.run();
+			Simulator after = new Simulator(optimized, new ByteArrayOutputStream());
+			after.run();
+			Assert.assertTrue(after.getCycles() < before.getCycles());
+		}
+
+		if (halts) {
+			Assert.assertEquals(run(program, Long.MAX_VALUE), run(optimized, Long.MAX_VALUE));
+		} else {
+			//the optimized program gets further in the same number of cycles
+			String expected = run(program, 5000), actual = run(optimized, 5000);
+			Assert.assertTrue(actual.length() > expected.length());
+			Assert.assertTrue(actual.startsWith(expected));
+		}
+	}
+
+	/**
+	 * Runs the program for at most cycles cycles, returns its output.
+	 */
+	private static String run(Program program, long cycles) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Simulator simulator = new Simulator(program, out);
+		while (simulator.getCycles() < cycles && simulator.step()) {
+		}
+		simulator.getMemory().flush();
+		return out.toString();
+	}
+}
@@ -0,0 +1,98 @@
+package awesome.lang.tests;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.file.Paths;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import awesome.lang.Compiler;
+import awesome.lang.Compiler.CompilationException;
+import awesome.lang.model.OpCode;
+import awesome.lang.model.PackedProgram;
+import awesome.lang.simulator.Profiler;
+import awesome.lang.simulator.SharedMemory;
+import awesome.lang.simulator.Simulator;
+
+public class ProfilerTest {
+	private static Compiler compiler;
+
+	@BeforeClass
+	public static void setup() {
+		compiler = new Compiler();
+	}
+
+	@Test
+	public void testCounts() throws CompilationException {
+		PackedProgram program = compiler.compile(Paths.get("src/awesome/lang/examples/gameoflife.awl")).pack();
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		Simulator simulator = new Simulator(program, expected);
+		simulator.run();
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Profiler profiler = new Profiler(program, out);
+		profiler.run();
+
+		//profiling does not change the run
+		Assert.assertEquals(expected.toString(), out.toString());
+		Assert.assertEquals(simulator.getCycles(), profiler.getCycles());
+		Assert.assertEquals(simulator.getCycles(), profiler.getCycles(0));
+
+		long executed = 0, writes = 0;
+		for (int i = 0; i < program.size(); i++) {
+			executed += profiler.getCount(i);
+			if (program.opCode(i) == OpCode.Write)
+				writes += profiler.getCount(i);
+		}
+		Assert.assertEquals(profiler.getCycles(0), executed);
+		Assert.assertEquals(out.size(), profiler.getWrites(SharedMemory.STDIO));
+
+		long total = 0;
+		for (int address : profiler.getAddresses()) {
+			total += profiler.getWrites(address);
+		}
+		Assert.assertEquals(writes, total);
+
+		int hottest = profiler.getHotInstructions(1).get(0);
+		for (int i = 0; i < program.size(); i++) {
+			Assert.assertTrue(profiler.getCount(i) <= profiler.getCount(hottest));
+		}
+	}
+
+	@Test
+	public void testLock() throws CompilationException {
+		StringBuilder prog = new StringBuilder("int counter = 0; int done = 0; lock l;\n");
+		for (int t = 0; t < 3; t++) {
+			prog.append("thread t" + t + "(): { for (int i = 0; i < 20; i = i + 1) { acquire l; counter = counter + 1; release l; }"
+					+ " acquire l; done = done + 1; release l; }\n");
+		}
+		for (int t = 0; t < 3; t++) {
+			prog.append("t" + t + "();\n");
+		}
+		prog.append("while (done < 3) {} print(counter);");
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Profiler profiler = new Profiler(compiler.compile(prog.toString()), out);
+		profiler.run();
+		Assert.assertEquals("60", out.toString());
+
+		//l is the most used lock, every TestAndSet that is not a retry acquires it
+		int lock = -1;
+		for (int address : profiler.getAddresses()) {
+			if (profiler.getTestAndSets(address) > profiler.getTestAndSets(lock))
+				lock = address;
+		}
+		Assert.assertTrue(profiler.getAcquireRetries(lock) > 0);
+		Assert.assertEquals(63, profiler.getTestAndSets(lock) - profiler.getAcquireRetries(lock));
+		for (int i = 0; i <= 3; i++) {
+			Assert.assertTrue(profiler.getCycles(i) > 0);
+		}
+
+		ByteArrayOutputStream report = new ByteArrayOutputStream();
+		profiler.print(new PrintStream(report), 5);
+		String[] lines = report.toString().split("\n");
+		Assert.assertTrue(lines[lines.length - 1].startsWith(Integer.toString(lock)));
+	}
+}
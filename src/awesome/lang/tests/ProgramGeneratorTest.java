@@ -0,0 +1,54 @@
+package awesome.lang.tests;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import awesome.lang.Compiler;
+import awesome.lang.Compiler.CompilationException;
+import awesome.lang.benchmarks.ProgramGenerator;
+import awesome.lang.model.Program;
+import awesome.lang.simulator.Simulator;
+
+public class ProgramGeneratorTest {
+	@Test
+	public void testSeed() {
+		Assert.assertEquals(new ProgramGenerator(1).generate(), new ProgramGenerator(1).generate());
+		Assert.assertNotEquals(new ProgramGenerator(1).generate(), new ProgramGenerator(2).generate());
+	}
+
+	@Test
+	public void testValid() throws IOException, CompilationException {
+		for (long seed = 0; seed < 5; seed++) {
+			run(new ProgramGenerator(seed));
+			run(new ProgramGenerator(seed).setFunctions(40).setClasses(0).setEnums(0).setDepth(3).setExpressionSize(8));
+			run(new ProgramGenerator(seed).setFunctions(20).setClasses(5).setEnums(5).setImports(3));
+		}
+	}
+
+	/**
+	 * Compiles and runs a generated program, which should not print anything but numbers.
+	 */
+	private void run(ProgramGenerator generator) throws IOException, CompilationException {
+		Path dir = Files.createTempDirectory("awl-generated");
+
+		try {
+			Program program = new Compiler().compile(generator.write(dir));
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			Simulator simulator = new Simulator(program, out);
+			simulator.setMaxCycles(10000000);
+			simulator.run();
+
+			Assert.assertTrue(out.toString(), out.toString().matches("-?[0-9][-0-9]*"));
+		} finally {
+			for (String name : dir.toFile().list()) {
+				Files.delete(dir.resolve(name));
+			}
+			Files.delete(dir);
+		}
+	}
+}
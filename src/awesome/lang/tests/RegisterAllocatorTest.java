@@ -0,0 +1,138 @@
+package awesome.lang.tests;
+
+import java.io.ByteArrayOutputStream;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import awesome.lang.CompileStats;
+import awesome.lang.Compiler;
+import awesome.lang.Compiler.CompilationException;
+import awesome.lang.model.Instruction;
+import awesome.lang.model.OpCode;
+import awesome.lang.model.Program;
+import awesome.lang.optimizer.BasicBlock;
+import awesome.lang.optimizer.ControlFlowGraph;
+import awesome.lang.optimizer.Dominators;
+import awesome.lang.optimizer.Procedure;
+import awesome.lang.optimizer.RegisterAllocator;
+import awesome.lang.simulator.Simulator;
+
+public class RegisterAllocatorTest {
+	private static Compiler compiler;
+	//registers spilled by the standard library
+	private static long library;
+
+	@BeforeClass
+	public static void setup() throws CompilationException {
+		compiler = new Compiler();
+		compiler.setOptimize(false);
+		CompileStats stats = new CompileStats();
+		compiler.compile("print(1);", stats);
+		library = stats.getCounter("spilled registers");
+	}
+
+	@Test
+	public void testExpressions() throws CompilationException {
+		//more values than registers at once
+		Assert.assertEquals("28", run(compile("print(1 + (2 + (3 + (4 + (5 + (6 + 7))))));", true)));
+		Assert.assertEquals("20", run(compile("int f(int n) -> n * 2; print(f(1) + (f(2) + (f(3) + f(4))));", false)));
+		Assert.assertEquals("6", run(compile("int x = 1; { int a = x; int b = a + x; print(a + b + (a * (b + (a - (b - 2))))); }", true)));
+	}
+
+	@Test
+	public void testSpills() throws CompilationException {
+		Program program = compile("int f(int n): { int a = n; int b = n + 1; int c = n + 2; int d = n + 3; int e = n + 4; int s = 0;"
+				+ " for (int i = 0; i < 10; i = i + 1) { s = s + a + b + c + d + e; } return s; } print(f(1));", true);
+		Assert.assertEquals("150", run(program));
+
+		//spilled variables of the main program and calls with spilled registers
+		program = compile("int f(int n) -> n + 1; { int a = 1; int b = f(a); int c = f(b); int d = f(c); int e = f(d);"
+				+ " int s = 0; while (s < 100) { s = s + a + b + c + d + e; } print(s + f(a) + f(e)); }", true);
+		Assert.assertEquals("113", run(program));
+	}
+
+	@Test
+	public void testLoop() throws CompilationException {
+		Program program = compile("int f(int n): { int s = 0; while (n > 0) { s = s + n; n = n - 1; } return s; } print(f(10));", false);
+		Assert.assertEquals("55", run(program));
+
+		//the loop does not touch memory, s and n stay in registers
+		ControlFlowGraph cfg = new ControlFlowGraph(program);
+		Dominators dominators = new Dominators(cfg);
+		Procedure f = cfg.getProcedure("func f");
+		int loops = 0;
+		for (BasicBlock header : f.getBlocks()) {
+			for (BasicBlock block : header.getLocalPredecessors()) {
+				if (!dominators.isBackEdge(block, header))
+					continue;
+				loops++;
+
+				for (BasicBlock member : f.getBlocks()) {
+					if (!dominators.dominates(header, member) || member.getStart() > block.getStart())
+						continue;
+					for (Instruction instr : member.getInstructions()) {
+						Assert.assertNotEquals(OpCode.Load, instr.getOpCode());
+						Assert.assertNotEquals(OpCode.Store, instr.getOpCode());
+					}
+				}
+			}
+		}
+		Assert.assertEquals(1, loops);
+	}
+
+	@Test
+	public void testSaves() throws CompilationException {
+		//b is not needed after the call
+		Program program = compile("int f(int n) -> n + 1; int g(int a): { int b = a + 1; int c = f(b); return c; } print(g(1));", false);
+		Assert.assertEquals("3", run(program));
+		Assert.assertEquals(0, count(program, "func g", OpCode.Pop));
+
+		//f does not write the register of b
+		program = compile("int f(int n) -> n + 1; int g(int a): { int b = a * 2; int c = f(a); return b + c; } print(g(3));", false);
+		Assert.assertEquals("10", run(program));
+		Assert.assertEquals(0, count(program, "func g", OpCode.Pop));
+
+		//a recursive function writes every register
+		program = compile("int fib(int n): { if (n < 2) return n; return fib(n - 1) + fib(n - 2); } print(fib(10));", false);
+		Assert.assertEquals("55", run(program));
+		Assert.assertTrue(count(program, "func fib", OpCode.Pop) > 0);
+	}
+
+	@Test
+	public void testAllocated() throws CompilationException {
+		//an allocated program has nothing left to allocate
+		Program program = compiler.compile("int x = 2; print(x * 3);");
+		Assert.assertSame(program, new RegisterAllocator().allocate(program));
+		Assert.assertEquals("6", run(program));
+	}
+
+	/**
+	 * Compiles the program, checking whether it spills more registers than the standard library.
+	 */
+	private static Program compile(String source, boolean spills) throws CompilationException {
+		CompileStats stats = new CompileStats();
+		Program program = compiler.compile(source, stats);
+		Assert.assertEquals(spills, stats.getCounter("spilled registers") > library);
+		return program;
+	}
+
+	private static int count(Program program, String procedure, OpCode opCode) {
+		int count = 0;
+		for (BasicBlock block : new ControlFlowGraph(program).getProcedure(procedure).getBlocks()) {
+			for (Instruction instr : block.getInstructions()) {
+				if (instr.getOpCode() == opCode)
+					count++;
+			}
+		}
+		return count;
+	}
+
+	private static String run(Program program) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Simulator simulator = new Simulator(program, out);
+		simulator.run();
+		return out.toString();
+	}
+}
@@ -0,0 +1,79 @@
+package awesome.lang.tests;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import awesome.lang.Compiler;
+import awesome.lang.Compiler.CompilationException;
+import awesome.lang.model.PackedProgram;
+import awesome.lang.simulator.SharedMemory;
+import awesome.lang.simulator.ThreadedProgram;
+import awesome.lang.simulator.ThreadedSimulator;
+
+public class SharedMemoryTest {
+	@Test
+	public void testPages() {
+		SharedMemory memory = new SharedMemory(new ByteArrayOutputStream());
+		Assert.assertEquals(0, memory.read(0));
+		Assert.assertEquals(0, memory.read(0xFFFFFF));
+		Assert.assertEquals(0, memory.getPageCount());
+
+		//the heap and the globals
+		memory.write(0, 7);
+		memory.write(1, -1);
+		memory.write(0xFFFFFF, 42);
+		Assert.assertEquals(7, memory.read(0));
+		Assert.assertEquals(-1, memory.read(1));
+		Assert.assertEquals(42, memory.read(0xFFFFFF));
+		Assert.assertEquals(0, memory.read(SharedMemory.PAGE_SIZE));
+		Assert.assertEquals(2, memory.getPageCount());
+		Assert.assertEquals(2 * SharedMemory.PAGE_SIZE * 4, memory.getAllocatedBytes());
+	}
+
+	@Test
+	public void testTestAndSet() {
+		SharedMemory memory = new SharedMemory(new ByteArrayOutputStream());
+		Assert.assertEquals(1, memory.testAndSet(100));
+		Assert.assertEquals(0, memory.testAndSet(100));
+		memory.write(100, 0);
+		Assert.assertEquals(1, memory.testAndSet(100));
+	}
+
+	@Test
+	public void testRange() {
+		SharedMemory memory = new SharedMemory(new ByteArrayOutputStream());
+		try {
+			memory.write(-1, 1);
+			Assert.fail();
+		} catch (IllegalArgumentException e) {
+			//negative address
+		}
+		try {
+			memory.read(SharedMemory.STDIO + 1);
+			Assert.fail();
+		} catch (IllegalArgumentException e) {
+			//above stdio
+		}
+	}
+
+	@Test
+	public void testManyPrograms() throws CompilationException {
+		PackedProgram program = new Compiler().compile(Paths.get("src/awesome/lang/examples/banksystem.awl")).pack();
+		ThreadedProgram threaded = new ThreadedProgram(program);
+
+		//keep every simulator alive, a flat memory would need 64 MB each
+		List<ThreadedSimulator> simulators = new ArrayList<ThreadedSimulator>();
+		for (int i = 0; i < 200; i++) {
+			ThreadedSimulator simulator = new ThreadedSimulator(threaded, new ByteArrayOutputStream());
+			simulator.run();
+			simulators.add(simulator);
+
+			Assert.assertTrue(simulator.getMemory().getPageCount() <= 4);
+		}
+	}
+}
@@ -1,15 +1,20 @@
 package awesome.lang.tests;
 
 import java.io.IOException;
+import java.io.StringWriter;
 
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
 import awesome.lang.model.Label;
+import awesome.lang.model.MemAddr;
 import awesome.lang.model.OpCode;
+import awesome.lang.model.Operator;
+import awesome.lang.model.PackedProgram;
 import awesome.lang.model.Program;
 import awesome.lang.model.Reg;
+import awesome.lang.model.SprockellEmitter;
 import awesome.lang.model.Target;
 
 /**
@@ -63,6 +68,30 @@ public class SimpleProgramTest {
 		}
 	}
 	
+	@Test
+	public void testPack() throws IOException {
+		Label label = new Label("test");
+		program.addInstr(OpCode.Const, -2, Reg.RegB);
+		program.addInstr(OpCode.Compute, Operator.Add, Reg.RegB, Reg.SP, Reg.RegC);
+		program.addInstr(label, OpCode.Load, MemAddr.deref(Reg.RegC), Reg.RegA);
+		program.addInstr(OpCode.Branch, Reg.RegA, Target.abs(label));
+		program.addInstr(OpCode.Write, Reg.RegA, MemAddr.direct(16777216));
+		
+		PackedProgram packed = program.pack();
+		Assert.assertEquals(5, packed.size());
+		Assert.assertEquals(-2, packed.imm(0));
+		Assert.assertEquals(Operator.Add, packed.operator(1));
+		Assert.assertEquals(Reg.RegC, PackedProgram.reg(packed.z(1)));
+		Assert.assertEquals(Reg.RegC, PackedProgram.reg(packed.y(2)));
+		Assert.assertEquals(2, packed.imm(3));
+		Assert.assertEquals(16777216, packed.imm(4));
+		
+		//packing does not change the generated code
+		StringWriter writer = new StringWriter();
+		new SprockellEmitter(writer).writeInstruction(packed, 3);
+		Assert.assertEquals("Branch (RegA) (Abs 2)", writer.toString());
+	}
+	
 	@Test
 	public void testFileCreation() throws IOException {
 		program.addInstr(OpCode.Nop);
@@ -0,0 +1,104 @@
+package awesome.lang.tests;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import awesome.lang.Compiler;
+import awesome.lang.Compiler.CompilationException;
+import awesome.lang.benchmarks.ProgramGenerator;
+import awesome.lang.model.PackedProgram;
+import awesome.lang.model.Reg;
+import awesome.lang.simulator.Simulator;
+import awesome.lang.simulator.ThreadedProgram;
+import awesome.lang.simulator.ThreadedSimulator;
+
+/**
+ * Compares the threaded simulator with the reference simulator.
+ */
+public class ThreadedSimulatorTest {
+	private static Compiler compiler;
+
+	@BeforeClass
+	public static void setup() {
+		compiler = new Compiler();
+	}
+
+	@Test
+	public void testExamples() throws CompilationException {
+		testSame(compile(Paths.get("src/awesome/lang/examples/gameoflife.awl")));
+		testSame(compile(Paths.get("src/awesome/lang/examples/helloworld.awl")));
+		Assert.assertEquals("01010101010101010101", run(compile(Paths.get("src/awesome/lang/examples/petersons.awl"))));
+		run(compile(Paths.get("src/awesome/lang/examples/banksystem.awl")));
+	}
+
+	@Test
+	public void testPrograms() throws CompilationException {
+		testSame(compiler.compile("int s = 0; for (int i = 1; i <= 10; i = i + 1) { s = s + i; } print(s);").pack());
+		testSame(compiler.compile("int f(int n): { if (n < 2) { return n; } return f(n - 1) + f(n - 2); } print(f(15));").pack());
+		testSame(compiler.compile("[int] a = [3, 1, 2]; int i = 0; while (i < 3) { print(a[i] * 7 mod 5); i = i + 1; }").pack());
+		testSame(compiler.compile("float f = 1.5; f = f * 2.0; print(f > 2.5);").pack());
+	}
+
+	@Test
+	public void testGenerated() throws IOException, CompilationException {
+		Path dir = Files.createTempDirectory("awl-threaded");
+
+		try {
+			for (int seed = 0; seed < 5; seed++) {
+				testSame(compile(new ProgramGenerator(seed).setFunctions(40).write(dir)));
+			}
+		} finally {
+			for (String name : dir.toFile().list()) {
+				Files.delete(dir.resolve(name));
+			}
+			Files.delete(dir);
+		}
+	}
+
+	@Test
+	public void testFused() throws CompilationException {
+		ThreadedProgram program = new ThreadedProgram(compile(Paths.get("src/awesome/lang/examples/gameoflife.awl")));
+		Assert.assertTrue(program.getFusedCount() > 0);
+	}
+
+	/**
+	 * Checks that both simulators give the same output and end in the same state.
+	 */
+	private void testSame(PackedProgram program) {
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		Simulator simulator = new Simulator(program, expected);
+		simulator.setMaxCycles(10000000);
+		simulator.run();
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ThreadedSimulator threaded = new ThreadedSimulator(program, out);
+		threaded.setMaxCycles(10000000);
+		threaded.run();
+
+		Assert.assertEquals(expected.toString(), out.toString());
+		Assert.assertEquals(simulator.getSprockell(0).getPC(), threaded.getSprockell(0).getPC());
+		for (Reg reg : Reg.values()) {
+			Assert.assertEquals(reg.toString(), simulator.getSprockell(0).getReg(reg), threaded.getSprockell(0).getReg(reg));
+		}
+	}
+
+	private String run(PackedProgram program) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ThreadedSimulator simulator = new ThreadedSimulator(program, out);
+		simulator.setMaxCycles(10000000);
+		simulator.run();
+
+		return out.toString();
+	}
+
+	private PackedProgram compile(Path path) throws CompilationException {
+		return compiler.compile(path).pack();
+	}
+}
@@ -11,7 +11,6 @@ import awesome.lang.Compiler.CompilationException;
 import awesome.lang.ImportResolver;
 import awesome.lang.checking.CompilationUnit;
 import awesome.lang.checking.TypeChecker;
-import awesome.lang.model.Type;
 
 // if any test has more errors than you would expect, remind that any expression with an undeterminable type will be addressed as boolean.
 public class TypeCheckerTest {
@@ -165,9 +164,6 @@ public class TypeCheckerTest {
 	
 	private void doTest(int expectedNumErrors, String input) {
 		
- 		// clear old types
- 		Type.clearUserTypes();
- 		
  		// create listener/visitor
  		TypeChecker listener = new TypeChecker();
  		